@@ -4,6 +4,8 @@ module se.uu.ub.cora.bookkeeper {
 
 	exports se.uu.ub.cora.bookkeeper.linkcollector;
 	exports se.uu.ub.cora.bookkeeper.metadata;
+	exports se.uu.ub.cora.bookkeeper.metadata.snapshot;
+	exports se.uu.ub.cora.bookkeeper.storage;
 	exports se.uu.ub.cora.bookkeeper.termcollector;
 	exports se.uu.ub.cora.bookkeeper.validator;
 }
\ No newline at end of file
@@ -22,13 +22,11 @@ package se.uu.ub.cora.bookkeeper.linkcollector;
 import java.util.ArrayList;
 import java.util.List;
 
-import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.ChildReferenceDispatchTable;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
-import se.uu.ub.cora.bookkeeper.validator.MetadataMatchData;
-import se.uu.ub.cora.bookkeeper.validator.ValidationAnswer;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataAtomicProvider;
 import se.uu.ub.cora.data.DataElement;
@@ -37,62 +35,72 @@ import se.uu.ub.cora.data.DataGroupProvider;
 import se.uu.ub.cora.data.DataRecordLink;
 import se.uu.ub.cora.data.DataRecordLinkProvider;
 
+/**
+ * DataGroupRecordLinkCollector collects links from a DataGroup using the metadata in a
+ * MetadataHolder.
+ * <p>
+ * Instances are immutable, all state for a collection is passed as method parameters, so an
+ * instance can safely be shared between threads as long as the MetadataHolder is not changed.
+ */
 public class DataGroupRecordLinkCollector {
 
 	private static final String LINKED_RECORD_TYPE = "linkedRecordType";
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	private static final String LINKED_REPEAT_ID = "linkedRepeatId";
-	private MetadataHolder metadataHolder;
-	private String fromRecordType;
-	private String fromRecordId;
-	private List<DataGroup> linkList;
-	private DataGroup dataGroup;
-	private DataGroup elementPath;
-
-	public DataGroupRecordLinkCollector(MetadataHolder metadataHolder, String fromRecordType,
-			String fromRecordId) {
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final String fromRecordType;
+	private final String fromRecordId;
+
+	public DataGroupRecordLinkCollector(ReadOnlyMetadataHolder metadataHolder,
+			String fromRecordType, String fromRecordId) {
 		this.metadataHolder = metadataHolder;
 		this.fromRecordType = fromRecordType;
 		this.fromRecordId = fromRecordId;
 	}
 
 	public List<DataGroup> collectLinks(String metadataGroupId, DataGroup dataGroup) {
-		this.dataGroup = dataGroup;
-		linkList = new ArrayList<>();
-
-		List<MetadataChildReference> metadataChildReferences = getMetadataGroupChildReferences(
-				metadataGroupId);
-		collectLinksFromDataGroupUsingMetadataChildren(metadataChildReferences);
-		return copyLinkList();
-	}
-
-	private List<MetadataChildReference> getMetadataGroupChildReferences(String metadataGroupId) {
 		MetadataGroup metadataGroup = (MetadataGroup) metadataHolder
 				.getMetadataElement(metadataGroupId);
-		return metadataGroup.getChildReferences();
-	}
-
-	private void collectLinksFromDataGroupUsingMetadataChildren(
-			List<MetadataChildReference> metadataChildReferences) {
-		for (MetadataChildReference metadataChildReference : metadataChildReferences) {
-			collectLinksFromDataGroupUsingMetadataChild(metadataChildReference);
+		List<DataGroup> linkList = new ArrayList<>();
+		collectLinksFromDataGroupUsingDispatchTable(linkList,
+				metadataHolder.getChildDispatchTable(metadataGroup), dataGroup, null);
+		return linkList;
+	}
+
+	private void collectLinksFromDataGroupUsingDispatchTable(List<DataGroup> linkList,
+			ChildReferenceDispatchTable dispatchTable, DataGroup dataGroup,
+			DataGroup elementPath) {
+		List<List<DataElement>> dispatchedChildren = dispatchTable
+				.dispatchChildren(dataGroup.getChildren());
+		for (int i = 0; i < dispatchedChildren.size(); i++) {
+			collectLinksFromDataGroupUsingMetadataChild(linkList, dispatchTable, i,
+					dispatchedChildren.get(i), elementPath);
 		}
 	}
 
-	private void collectLinksFromDataGroupUsingMetadataChild(
-			MetadataChildReference metadataChildReference) {
-		String referenceId = metadataChildReference.getLinkedRecordId();
-
-		MetadataElement childMetadataElement = metadataHolder.getMetadataElement(referenceId);
-		if (metadataElementConcernsLinks(childMetadataElement)) {
-			collectLinksFromDataGroupChildren(childMetadataElement);
+	private void collectLinksFromDataGroupUsingMetadataChild(List<DataGroup> linkList,
+			ChildReferenceDispatchTable dispatchTable, int childReferenceIndex,
+			List<DataElement> matchingChildren, DataGroup elementPath) {
+		MetadataElement childMetadataElement = dispatchTable
+				.getReferencedElement(childReferenceIndex);
+		if (isRecordLink(childMetadataElement)) {
+			for (DataElement childDataElement : matchingChildren) {
+				linkList.add(createRecordToRecordLink((RecordLink) childMetadataElement,
+						(DataGroup) childDataElement,
+						createChildPath(childDataElement, elementPath)));
+			}
+		} else if (isMetadataGroup(childMetadataElement)) {
+			ChildReferenceDispatchTable childDispatchTable = metadataHolder
+					.getChildDispatchTableByIndex(
+							dispatchTable.getIndexOfReferencedElement(childReferenceIndex));
+			for (DataElement childDataElement : matchingChildren) {
+				collectLinksFromDataGroupUsingDispatchTable(linkList, childDispatchTable,
+						(DataGroup) childDataElement,
+						createChildPath(childDataElement, elementPath));
+			}
 		}
 	}
 
-	private boolean metadataElementConcernsLinks(MetadataElement childMetadataElement) {
-		return isRecordLink(childMetadataElement) || isMetadataGroup(childMetadataElement);
-	}
-
 	private boolean isRecordLink(MetadataElement childMetadataElement) {
 		return childMetadataElement instanceof RecordLink;
 	}
@@ -101,51 +109,18 @@ public class DataGroupRecordLinkCollector {
 		return childMetadataElement instanceof MetadataGroup;
 	}
 
-	private void collectLinksFromDataGroupChildren(MetadataElement childMetadataElement) {
-		for (DataElement childDataElement : dataGroup.getChildren()) {
-			collectLinksFromDataGroupChild(childMetadataElement, childDataElement);
-		}
-	}
-
-	private void collectLinksFromDataGroupChild(MetadataElement childMetadataElement,
-			DataElement childDataElement) {
-		if (childMetadataSpecifiesChildData(childMetadataElement, childDataElement)) {
-			createLinkOrParseChildGroup(childMetadataElement, childDataElement);
-		}
-	}
-
-	private boolean childMetadataSpecifiesChildData(MetadataElement childMetadataElement,
-			DataElement dataElement) {
-		MetadataMatchData metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
-		ValidationAnswer validationAnswer = metadataMatchData
-				.metadataSpecifiesData(childMetadataElement, dataElement);
-		return validationAnswer.dataIsValid();
-	}
-
-	private void createLinkOrParseChildGroup(MetadataElement childMetadataElement,
-			DataElement childDataElement) {
-		DataGroup childPath = createChildPath(childDataElement);
-
-		if (isRecordLink(childMetadataElement)) {
-			createRecordToRecordLink((RecordLink) childMetadataElement,
-					(DataGroup) childDataElement, childPath);
-		} else {
-			collectLinksFromSubGroup(childMetadataElement, (DataGroup) childDataElement, childPath);
-		}
-	}
-
-	private DataGroup createChildPath(DataElement childDataElement) {
+	private DataGroup createChildPath(DataElement childDataElement, DataGroup elementPath) {
 		DataGroup pathCopy = PathCopier.copyPath(elementPath);
 		return PathExtender.extendPathWithElementInformation(pathCopy, childDataElement);
 	}
 
-	private void createRecordToRecordLink(RecordLink recordLink, DataGroup dataElement,
+	private DataGroup createRecordToRecordLink(RecordLink recordLink, DataGroup dataElement,
 			DataGroup fromPath) {
 		DataGroup recordToRecordLink = DataGroupProvider
 				.getDataGroupUsingNameInData("recordToRecordLink");
 		recordToRecordLink.addChild(createFromPart(dataElement, fromPath));
 		recordToRecordLink.addChild(createToPart(dataElement, recordLink));
-		linkList.add(recordToRecordLink);
+		return recordToRecordLink;
 	}
 
 	private DataGroup createFromPart(DataElement dataElement, DataGroup fromPath) {
@@ -216,7 +191,7 @@ public class DataGroupRecordLinkCollector {
 
 	private void addLinkedPathToToPart(RecordLink recordLink, DataGroup to) {
 		if (recordLink.getLinkedPath() != null) {
-			to.addChild(recordLink.getLinkedPath());
+			to.addChild(PathCopier.copyPath(recordLink.getLinkedPath()));
 		}
 	}
 
@@ -228,25 +203,4 @@ public class DataGroupRecordLinkCollector {
 			to.addChild(linkedRepeatId);
 		}
 	}
-
-	private void collectLinksFromSubGroup(MetadataElement childMetadataElement, DataGroup subGroup,
-			DataGroup pathCopy) {
-		DataGroupRecordLinkCollector collector = new DataGroupRecordLinkCollector(metadataHolder,
-				fromRecordType, fromRecordId);
-
-		List<DataGroup> collectedLinks = collector.collectSubLinks(childMetadataElement.getId(),
-				subGroup, pathCopy);
-		linkList.addAll(collectedLinks);
-	}
-
-	private List<DataGroup> collectSubLinks(String metadataId, DataGroup subGroup, DataGroup path) {
-		elementPath = path;
-		return collectLinks(metadataId, subGroup);
-	}
-
-	private List<DataGroup> copyLinkList() {
-		List<DataGroup> listOut = new ArrayList<>();
-		listOut.addAll(linkList);
-		return listOut;
-	}
 }
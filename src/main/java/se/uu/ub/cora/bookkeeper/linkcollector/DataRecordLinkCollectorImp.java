@@ -21,29 +21,84 @@ package se.uu.ub.cora.bookkeeper.linkcollector;
 
 import java.util.List;
 
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderFromStoragePopulator;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.RecordTypeMetadataCache;
 import se.uu.ub.cora.data.DataGroup;
 import se.uu.ub.cora.data.DataGroupProvider;
 import se.uu.ub.cora.storage.MetadataStorage;
 
+/**
+ * DataRecordLinkCollectorImp collects links from DataGroups using metadata read from a
+ * MetadataStorage.
+ * <p>
+ * The metadata is read from storage and converted once, the first time links are collected, and
+ * then reused for all following calls. Instances are safe to share between threads. If the
+ * metadata in storage changes, {@link #refreshMetadata()} must be called for the changes to be
+ * used.
+ * <p>
+ * A collector created using {@link #usingMetadataHolderProvider(MetadataHolderProvider)} uses
+ * the metadata currently published by the provider, so that several collectors and validators
+ * can share the metadata and all use new metadata as soon as it is published. A collector created
+ * using {@link #usingRecordTypeMetadataCache(RecordTypeMetadataCache)} uses the subset of the
+ * metadata used by the metadata group links are collected for.
+ */
 public class DataRecordLinkCollectorImp implements DataRecordLinkCollector {
 
 	private MetadataStorage metadataStorage;
-	private MetadataHolder metadataHolder;
+	private MetadataHolderProvider metadataHolderProvider;
+	private RecordTypeMetadataCache recordTypeMetadataCache;
 
 	public DataRecordLinkCollectorImp(MetadataStorage metadataStorage) {
 		this.metadataStorage = metadataStorage;
+		metadataHolderProvider = MetadataHolderProvider.usingMetadataStorage(metadataStorage);
+	}
+
+	private DataRecordLinkCollectorImp(MetadataHolderProvider metadataHolderProvider) {
+		this.metadataHolderProvider = metadataHolderProvider;
+	}
+
+	private DataRecordLinkCollectorImp(RecordTypeMetadataCache recordTypeMetadataCache) {
+		this.recordTypeMetadataCache = recordTypeMetadataCache;
+	}
+
+	public static DataRecordLinkCollectorImp usingMetadataHolderProvider(
+			MetadataHolderProvider metadataHolderProvider) {
+		return new DataRecordLinkCollectorImp(metadataHolderProvider);
+	}
+
+	public static DataRecordLinkCollectorImp usingRecordTypeMetadataCache(
+			RecordTypeMetadataCache recordTypeMetadataCache) {
+		return new DataRecordLinkCollectorImp(recordTypeMetadataCache);
 	}
 
 	@Override
 	public DataGroup collectLinks(String metadataId, DataGroup dataGroup, String fromRecordType,
 			String fromRecordId) {
-		getMetadataFromStorage();
-		DataGroupRecordLinkCollector collector = new DataGroupRecordLinkCollector(metadataHolder,
-				fromRecordType, fromRecordId);
-		return collectLinksAndAddToDataGroup(metadataId, dataGroup,
-				collector);
+		DataGroupRecordLinkCollector collector = new DataGroupRecordLinkCollector(
+				getMetadataHolderForMetadataGroup(metadataId), fromRecordType, fromRecordId);
+		return collectLinksAndAddToDataGroup(metadataId, dataGroup, collector);
+	}
+
+	private ReadOnlyMetadataHolder getMetadataHolderForMetadataGroup(String metadataId) {
+		if (recordTypeMetadataCache != null) {
+			return recordTypeMetadataCache.getMetadataHolderForMetadataGroup(metadataId);
+		}
+		return metadataHolderProvider.getMetadataHolder();
+	}
+
+	/**
+	 * refreshMetadata creates and publishes a new MetadataHolder in the MetadataHolderProvider
+	 * used by this collector, or evicts all subsets from the RecordTypeMetadataCache used, links
+	 * collected after this method returns use the refreshed metadata. Collections that are in
+	 * progress when this method is called are finished using the metadata they started with.
+	 */
+	public void refreshMetadata() {
+		if (recordTypeMetadataCache != null) {
+			recordTypeMetadataCache.evictAll();
+		} else {
+			metadataHolderProvider.reload();
+		}
 	}
 
 	private DataGroup collectLinksAndAddToDataGroup(String metadataId, DataGroup dataGroup,
@@ -61,13 +116,18 @@ public class DataRecordLinkCollectorImp implements DataRecordLinkCollector {
 		}
 	}
 
-	private void getMetadataFromStorage() {
-		metadataHolder = new MetadataHolderFromStoragePopulator()
-				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
-	}
-
 	public MetadataStorage getMetadataStorage() {
 		// needed for test
 		return metadataStorage;
 	}
+
+	public MetadataHolderProvider getMetadataHolderProvider() {
+		// needed for test
+		return metadataHolderProvider;
+	}
+
+	public RecordTypeMetadataCache getRecordTypeMetadataCache() {
+		// needed for test
+		return recordTypeMetadataCache;
+	}
 }
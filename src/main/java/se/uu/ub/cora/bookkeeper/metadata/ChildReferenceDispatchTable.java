@@ -0,0 +1,426 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import se.uu.ub.cora.data.DataElement;
+
+/**
+ * ChildReferenceDispatchTable finds the child references in a MetadataGroup that specify a data
+ * child, using the nameInData and attributes of the data child as key in a hash lookup.
+ * <p>
+ * A child reference specifies a data child if the referenced element has the same nameInData as
+ * the data child, and the data child has exactly the attributes of the referenced element, with
+ * values allowed by the attributes. The allowed values are the final value of an attribute, or
+ * the items in the collection referred by the attribute. Child references whose referenced
+ * element or attributes can not be found never specify any data, the ids that could not be
+ * found are available from {@link #getUnresolvedChildReferenceIds()}.
+ * <p>
+ * The table also keeps the elements referenced by the child references, their attributes and
+ * their indexes in the holder, so that code walking the metadata from a group to its children
+ * does not need to look up the children by id, see {@link #getReferencedElement(int)}.
+ * <p>
+ * The table is built from the metadata when it is created and is not changed afterwards, so
+ * instances can safely be shared between threads. Tables are built when references in a
+ * MetadataHolder are resolved, see {@link MetadataHolder#getChildDispatchTable(MetadataGroup)}.
+ */
+public final class ChildReferenceDispatchTable {
+
+	private static final char PART_SEPARATOR = '\u0000';
+	private static final char VALUE_SEPARATOR = '\u0001';
+	private final List<MetadataChildReference> childReferences;
+	private final List<String> unresolvedChildReferenceIds = new ArrayList<>();
+	private final List<ReferencedElement> referencedElements = new ArrayList<>();
+	private final Map<String, List<Integer>> indexesBySingleValueKey = new HashMap<>();
+	private final Map<String, List<AttributeValuesEntry>> entriesByNameKey = new HashMap<>();
+
+	public static ChildReferenceDispatchTable usingMetadataHolderAndMetadataGroup(
+			ReadOnlyMetadataHolder metadataHolder, MetadataGroup metadataGroup) {
+		return new ChildReferenceDispatchTable(metadataHolder, metadataGroup);
+	}
+
+	private ChildReferenceDispatchTable(ReadOnlyMetadataHolder metadataHolder,
+			MetadataGroup metadataGroup) {
+		childReferences = List.copyOf(metadataGroup.getChildReferences());
+		for (int index = 0; index < childReferences.size(); index++) {
+			addChildReference(metadataHolder, index, childReferences.get(index));
+		}
+	}
+
+	private void addChildReference(ReadOnlyMetadataHolder metadataHolder, int index,
+			MetadataChildReference childReference) {
+		int childIndex = metadataHolder
+				.getIndexOfMetadataElement(childReference.getLinkedRecordId());
+		MetadataElement childElement = childIndex < 0 ? null
+				: metadataHolder.getMetadataElementByIndex(childIndex);
+		if (childElement == null) {
+			referencedElements.add(new ReferencedElement(-1, null, null));
+			unresolvedChildReferenceIds.add(childReference.getLinkedRecordId());
+			return;
+		}
+		List<CollectionVariable> attributes = resolveAttributes(metadataHolder, childElement);
+		referencedElements.add(new ReferencedElement(childIndex, childElement, attributes));
+		SortedMap<String, Set<String>> allowedAttributeValues = attributes == null ? null
+				: getAllowedAttributeValues(metadataHolder, attributes);
+		if (allowedAttributeValues != null) {
+			addEntry(index, childElement.getNameInData(), allowedAttributeValues);
+		}
+	}
+
+	private List<CollectionVariable> resolveAttributes(ReadOnlyMetadataHolder metadataHolder,
+			MetadataElement childElement) {
+		List<CollectionVariable> attributes = new ArrayList<>();
+		for (String attributeReference : childElement.getAttributeReferences()) {
+			MetadataElement attribute = metadataHolder.getMetadataElement(attributeReference);
+			if (!(attribute instanceof CollectionVariable)) {
+				unresolvedChildReferenceIds.add(attributeReference);
+				return null;
+			}
+			attributes.add((CollectionVariable) attribute);
+		}
+		return Collections.unmodifiableList(attributes);
+	}
+
+	private SortedMap<String, Set<String>> getAllowedAttributeValues(
+			ReadOnlyMetadataHolder metadataHolder, List<CollectionVariable> attributes) {
+		SortedMap<String, Set<String>> allowedAttributeValues = new TreeMap<>();
+		for (CollectionVariable attribute : attributes) {
+			Set<String> allowedValues = getAllowedValues(metadataHolder, attribute);
+			if (allowedValues == null) {
+				return null;
+			}
+			allowedAttributeValues.merge(attribute.getNameInData(), allowedValues,
+					ChildReferenceDispatchTable::keepValuesAllowedByBoth);
+		}
+		return allowedAttributeValues;
+	}
+
+	private Set<String> getAllowedValues(ReadOnlyMetadataHolder metadataHolder,
+			CollectionVariable attribute) {
+		if (attribute.getFinalValue() != null) {
+			return new HashSet<>(Collections.singleton(attribute.getFinalValue()));
+		}
+		MetadataElement refCollection = metadataHolder
+				.getMetadataElement(attribute.getRefCollectionId());
+		if (!(refCollection instanceof ItemCollection)) {
+			unresolvedChildReferenceIds.add(attribute.getRefCollectionId());
+			return null;
+		}
+		return getItemNamesInData(metadataHolder, (ItemCollection) refCollection);
+	}
+
+	private Set<String> getItemNamesInData(ReadOnlyMetadataHolder metadataHolder,
+			ItemCollection itemCollection) {
+		Set<String> itemNamesInData = new HashSet<>();
+		for (String itemReference : itemCollection.getCollectionItemReferences()) {
+			MetadataElement collectionItem = metadataHolder.getMetadataElement(itemReference);
+			if (!(collectionItem instanceof CollectionItem)) {
+				unresolvedChildReferenceIds.add(itemReference);
+				return null;
+			}
+			itemNamesInData.add(collectionItem.getNameInData());
+		}
+		return itemNamesInData;
+	}
+
+	private static Set<String> keepValuesAllowedByBoth(Set<String> values, Set<String> other) {
+		values.retainAll(other);
+		return values;
+	}
+
+	private void addEntry(int index, String nameInData,
+			SortedMap<String, Set<String>> allowedAttributeValues) {
+		if (allAttributesHaveSingleAllowedValue(allowedAttributeValues)) {
+			String key = createKey(nameInData, getSingleValues(allowedAttributeValues));
+			indexesBySingleValueKey.computeIfAbsent(key, k -> new ArrayList<>()).add(index);
+		} else {
+			String key = createKey(nameInData, allowedAttributeValues.keySet());
+			entriesByNameKey.computeIfAbsent(key, k -> new ArrayList<>())
+					.add(new AttributeValuesEntry(index, allowedAttributeValues));
+		}
+	}
+
+	private boolean allAttributesHaveSingleAllowedValue(
+			SortedMap<String, Set<String>> allowedAttributeValues) {
+		for (Set<String> allowedValues : allowedAttributeValues.values()) {
+			if (allowedValues.size() != 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private SortedMap<String, String> getSingleValues(
+			SortedMap<String, Set<String>> allowedAttributeValues) {
+		SortedMap<String, String> singleValues = new TreeMap<>();
+		for (Entry<String, Set<String>> entry : allowedAttributeValues.entrySet()) {
+			singleValues.put(entry.getKey(), entry.getValue().iterator().next());
+		}
+		return singleValues;
+	}
+
+	private static String createKey(String nameInData, SortedMap<String, String> attributes) {
+		if (attributes.isEmpty()) {
+			return nameInData;
+		}
+		StringBuilder key = new StringBuilder(nameInData);
+		for (Entry<String, String> attribute : attributes.entrySet()) {
+			key.append(PART_SEPARATOR).append(attribute.getKey()).append(VALUE_SEPARATOR)
+					.append(attribute.getValue());
+		}
+		return key.toString();
+	}
+
+	private static String createKey(String nameInData, Collection<String> attributeNames) {
+		StringBuilder key = new StringBuilder(nameInData);
+		for (String attributeName : attributeNames) {
+			key.append(PART_SEPARATOR).append(attributeName);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * getChildReferences returns the child references of the group, in the order they had when
+	 * the table was built. Indexes returned by this table are indexes in this list.
+	 * 
+	 * @return An unmodifiable List with the child references
+	 */
+	public List<MetadataChildReference> getChildReferences() {
+		return childReferences;
+	}
+
+	/**
+	 * getReferencedElement returns the element referenced by the child reference at the index in
+	 * {@link #getChildReferences()}, as it was found when the table was built
+	 * 
+	 * @param index
+	 *            The index of the child reference
+	 * @return The referenced MetadataElement or null if it was not found
+	 */
+	public MetadataElement getReferencedElement(int index) {
+		return referencedElements.get(index).metadataElement;
+	}
+
+	/**
+	 * getIndexOfReferencedElement returns the index in the holder of the element referenced by
+	 * the child reference at the index in {@link #getChildReferences()}, see
+	 * {@link ReadOnlyMetadataHolder#getChildDispatchTableByIndex(int)}
+	 * 
+	 * @param index
+	 *            The index of the child reference
+	 * @return The index of the referenced element in the holder or -1 if it was not found
+	 */
+	public int getIndexOfReferencedElement(int index) {
+		return referencedElements.get(index).holderIndex;
+	}
+
+	/**
+	 * getAttributesForReferencedElement returns the CollectionVariables used as attributes for
+	 * the element referenced by the child reference at the index in {@link #getChildReferences()}
+	 * 
+	 * @param index
+	 *            The index of the child reference
+	 * @return An unmodifiable List with the attributes
+	 * @throws DataMissingException
+	 *             if an attribute reference did not refer to a CollectionVariable in the holder
+	 */
+	public List<CollectionVariable> getAttributesForReferencedElement(int index) {
+		ReferencedElement referencedElement = referencedElements.get(index);
+		if (referencedElement.attributes == null) {
+			throw new DataMissingException("Attribute for element with id: "
+					+ childReferences.get(index).getLinkedRecordId()
+					+ " is not a CollectionVariable in metadataHolder");
+		}
+		return referencedElement.attributes;
+	}
+
+	/**
+	 * getUnresolvedChildReferenceIds returns the ids of the elements that could not be found when
+	 * the table was built, either the element referenced by a child reference or an attribute,
+	 * collection or collection item used by the referenced element
+	 * 
+	 * @return An unmodifiable List with the ids, in child reference order
+	 */
+	public List<String> getUnresolvedChildReferenceIds() {
+		return Collections.unmodifiableList(unresolvedChildReferenceIds);
+	}
+
+	/**
+	 * getIndexesOfChildReferencesSpecifyingData returns the indexes of the child references that
+	 * specify the dataElement
+	 * 
+	 * @param dataElement
+	 *            A DataElement to find the child references for
+	 * @return An unmodifiable List with the indexes in ascending order, empty if no child
+	 *         reference specifies the dataElement
+	 */
+	public List<Integer> getIndexesOfChildReferencesSpecifyingData(DataElement dataElement) {
+		String nameInData = dataElement.getNameInData();
+		Map<String, String> attributes = dataElement.getAttributes();
+		if (attributes.isEmpty()) {
+			return getIndexesBySingleValueKey(nameInData);
+		}
+		SortedMap<String, String> sortedAttributes = new TreeMap<>(attributes);
+		List<Integer> indexes = getIndexesBySingleValueKey(
+				createKey(nameInData, sortedAttributes));
+		if (entriesByNameKey.isEmpty()) {
+			return indexes;
+		}
+		List<AttributeValuesEntry> entries = entriesByNameKey
+				.get(createKey(nameInData, sortedAttributes.keySet()));
+		if (entries == null) {
+			return indexes;
+		}
+		return mergeIndexes(indexes, findIndexesAllowingValues(entries, attributes));
+	}
+
+	private List<Integer> getIndexesBySingleValueKey(String key) {
+		List<Integer> indexes = indexesBySingleValueKey.get(key);
+		if (indexes == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(indexes);
+	}
+
+	private List<Integer> findIndexesAllowingValues(List<AttributeValuesEntry> entries,
+			Map<String, String> attributes) {
+		List<Integer> indexes = new ArrayList<>();
+		for (AttributeValuesEntry entry : entries) {
+			if (entry.allowsValues(attributes)) {
+				indexes.add(entry.index);
+			}
+		}
+		return indexes;
+	}
+
+	private List<Integer> mergeIndexes(List<Integer> indexes, List<Integer> otherIndexes) {
+		if (indexes.isEmpty()) {
+			return Collections.unmodifiableList(otherIndexes);
+		}
+		List<Integer> mergedIndexes = new ArrayList<>(indexes);
+		mergedIndexes.addAll(otherIndexes);
+		Collections.sort(mergedIndexes);
+		return Collections.unmodifiableList(mergedIndexes);
+	}
+
+	/**
+	 * dispatchChildren sorts the dataChildren by the child references specifying them, each data
+	 * child is looked up once
+	 * <p>
+	 * Data children can not be dispatched correctly if some ids could not be found when the table
+	 * was built, a {@link MetadataConsistencyException} is thrown if there are data children and
+	 * any unresolved ids.
+	 * 
+	 * @param dataChildren
+	 *            A List with the data children to dispatch
+	 * @return A List with one List of data children for each child reference, in the same order
+	 *         as {@link #getChildReferences()}, with the data children in the order they have in
+	 *         dataChildren
+	 */
+	public List<List<DataElement>> dispatchChildren(List<DataElement> dataChildren) {
+		List<List<Integer>> dispatchedIndexes = dispatchChildIndexes(dataChildren);
+		List<List<DataElement>> dispatchedChildren = new ArrayList<>(childReferences.size());
+		for (List<Integer> childIndexes : dispatchedIndexes) {
+			List<DataElement> children = new ArrayList<>(childIndexes.size());
+			for (Integer childIndex : childIndexes) {
+				children.add(dataChildren.get(childIndex));
+			}
+			dispatchedChildren.add(children);
+		}
+		return dispatchedChildren;
+	}
+
+	/**
+	 * dispatchChildIndexes sorts the indexes of the dataChildren by the child references
+	 * specifying them, each data child is looked up once
+	 * <p>
+	 * A {@link MetadataConsistencyException} is thrown if there are data children and any
+	 * unresolved ids, in the same way as for {@link #dispatchChildren(List)}.
+	 * 
+	 * @param dataChildren
+	 *            A List with the data children to dispatch
+	 * @return A List with one List of data child indexes for each child reference, in the same
+	 *         order as {@link #getChildReferences()}, with the indexes in ascending order
+	 */
+	public List<List<Integer>> dispatchChildIndexes(List<DataElement> dataChildren) {
+		ensureChildReferencesAreResolvedIfThereAreDataChildren(dataChildren);
+		List<List<Integer>> dispatchedIndexes = new ArrayList<>(childReferences.size());
+		for (int i = 0; i < childReferences.size(); i++) {
+			dispatchedIndexes.add(new ArrayList<>());
+		}
+		for (int childIndex = 0; childIndex < dataChildren.size(); childIndex++) {
+			for (Integer index : getIndexesOfChildReferencesSpecifyingData(
+					dataChildren.get(childIndex))) {
+				dispatchedIndexes.get(index).add(childIndex);
+			}
+		}
+		return dispatchedIndexes;
+	}
+
+	private void ensureChildReferencesAreResolvedIfThereAreDataChildren(
+			List<DataElement> dataChildren) {
+		if (!dataChildren.isEmpty() && !unresolvedChildReferenceIds.isEmpty()) {
+			throw MetadataConsistencyException.withMessage(
+					unresolvedChildReferenceIds.get(0) + " not found in metadataHolder");
+		}
+	}
+
+	private static final class ReferencedElement {
+		private final int holderIndex;
+		private final MetadataElement metadataElement;
+		private final List<CollectionVariable> attributes;
+
+		private ReferencedElement(int holderIndex, MetadataElement metadataElement,
+				List<CollectionVariable> attributes) {
+			this.holderIndex = holderIndex;
+			this.metadataElement = metadataElement;
+			this.attributes = attributes;
+		}
+	}
+
+	private static final class AttributeValuesEntry {
+		private final int index;
+		private final Map<String, Set<String>> allowedAttributeValues;
+
+		private AttributeValuesEntry(int index, Map<String, Set<String>> allowedAttributeValues) {
+			this.index = index;
+			this.allowedAttributeValues = allowedAttributeValues;
+		}
+
+		private boolean allowsValues(Map<String, String> attributes) {
+			for (Entry<String, Set<String>> entry : allowedAttributeValues.entrySet()) {
+				if (!entry.getValue().contains(attributes.get(entry.getKey()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataConversionException;
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverterFactoryImp;
+import se.uu.ub.cora.data.DataGroup;
+
+/**
+ * LazyMetadataHolder is a ReadOnlyMetadataHolder that keeps the metadata DataGroups indexed by id
+ * and converts an element into a MetadataElement the first time it is requested. Converted
+ * elements are kept, and the DataGroup they were converted from is released. Elements can be
+ * added and removed as in {@link MetadataHolder}.
+ * <p>
+ * References are not resolved for all elements at once, as that would require all elements to be
+ * converted. Instead the references of each converted element, such as the child dispatch table
+ * of a group, are resolved the first time they are requested and are then kept by the holder.
+ * Referenced elements are converted when they are first looked up.
+ * <p>
+ * The {@link MetadataUsageIndex} of the holder is updated each time an element is converted,
+ * added or removed. Only converted elements can have resolved references, and all elements they
+ * refer to have been looked up and converted, so when an element is changed only the resolved
+ * references of the elements found in the index as directly or indirectly referring to it are
+ * forgotten. {@link #getUsageIndex()} converts all elements the first time it is called, so that
+ * the returned index is complete.
+ * <p>
+ * Each id is assigned a dense int index when the DataGroup is registered, so elements have
+ * indexes before they are converted, see {@link #getIndexOfMetadataElement(String)}. As in
+ * MetadataHolder, the index of a removed element is reused for the next element added with a
+ * new id.
+ * <p>
+ * LazyMetadataHolder is thread safe, each element is converted at most once even if it is
+ * requested by several threads at the same time.
+ */
+public final class LazyMetadataHolder implements ReadOnlyMetadataHolder {
+	private final Map<String, DataGroup> dataGroups = new ConcurrentHashMap<>();
+	private final Map<String, MetadataElement> convertedElements = new ConcurrentHashMap<>();
+	private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+	private final List<String> idsByIndex;
+	private final Deque<Integer> freeIndexes = new ArrayDeque<>();
+	private final MetadataStringPool stringPool;
+	private final MetadataUsageIndex usageIndex;
+	private volatile boolean allElementsConverted = false;
+	private volatile MetadataReferenceResolver resolver;
+
+	private LazyMetadataHolder(Collection<DataGroup> metadataElements,
+			MetadataStringPool stringPool) {
+		this.stringPool = stringPool;
+		List<String> registeredIds = new ArrayList<>(metadataElements.size());
+		for (DataGroup metadataElement : metadataElements) {
+			String elementId = extractId(metadataElement);
+			if (dataGroups.put(elementId, metadataElement) == null) {
+				indexes.put(elementId, registeredIds.size());
+				registeredIds.add(elementId);
+			}
+		}
+		idsByIndex = new CopyOnWriteArrayList<>(registeredIds);
+		usageIndex = MetadataUsageIndex.usingMetadataHolderAndElementUsages(this,
+				Collections.emptyList());
+		resolver = MetadataReferenceResolver.usingMetadataHolder(this);
+	}
+
+	public static LazyMetadataHolder usingDataGroups(Collection<DataGroup> metadataElements) {
+		return new LazyMetadataHolder(metadataElements, new MetadataStringPool());
+	}
+
+	public static LazyMetadataHolder usingDataGroupsAndStringPool(
+			Collection<DataGroup> metadataElements, MetadataStringPool stringPool) {
+		return new LazyMetadataHolder(metadataElements, stringPool);
+	}
+
+	private String extractId(DataGroup metadataElement) {
+		if (metadataElement.containsChildWithNameInData("recordInfo")) {
+			DataGroup recordInfo = metadataElement.getFirstGroupWithNameInData("recordInfo");
+			if (recordInfo.containsChildWithNameInData("id")) {
+				return recordInfo.getFirstAtomicValueWithNameInData("id");
+			}
+		}
+		throw DataConversionException.withMessage("Metadata element without id can not be added");
+	}
+
+	/**
+	 * addMetadataElement adds the metadataElement, replacing any element or unconverted DataGroup
+	 * with the same id
+	 */
+	public synchronized void addMetadataElement(MetadataElement metadataElement) {
+		String elementId = metadataElement.getId();
+		if (!indexes.containsKey(elementId)) {
+			assignIndex(elementId);
+		}
+		convertedElements.put(elementId, metadataElement);
+		dataGroups.remove(elementId);
+		usageIndex.updateElement(elementId, metadataElement);
+		forgetResolvedReferencesAffectedBy(elementId);
+	}
+
+	private void assignIndex(String elementId) {
+		if (freeIndexes.isEmpty()) {
+			indexes.put(elementId, idsByIndex.size());
+			idsByIndex.add(elementId);
+		} else {
+			int index = freeIndexes.pop();
+			idsByIndex.set(index, elementId);
+			indexes.put(elementId, index);
+		}
+	}
+
+	private void forgetResolvedReferencesAffectedBy(String changedId) {
+		resolver.forgetResolvedElementsAffectedBy(changedId, usageIndex);
+	}
+
+	@Override
+	public MetadataElement getMetadataElement(String elementId) {
+		MetadataElement metadataElement = convertedElements.get(elementId);
+		if (metadataElement != null || !dataGroups.containsKey(elementId)) {
+			return metadataElement;
+		}
+		return convertedElements.computeIfAbsent(elementId, this::convertElement);
+	}
+
+	private MetadataElement convertElement(String elementId) {
+		DataGroup dataGroup = dataGroups.get(elementId);
+		if (dataGroup == null) {
+			return null;
+		}
+		MetadataElement metadataElement = tryToConvertDataGroup(elementId, dataGroup);
+		dataGroups.remove(elementId);
+		usageIndex.addElement(metadataElement);
+		return metadataElement;
+	}
+
+	private MetadataElement tryToConvertDataGroup(String elementId, DataGroup dataGroup) {
+		try {
+			return DataGroupToMetadataConverterFactoryImp
+					.fromDataGroupUsingStringPool(dataGroup, stringPool).factor().toMetadata();
+		} catch (Exception e) {
+			throw DataConversionException.withMessageAndException(
+					"Conversion of metadata failed for element " + elementId + ": "
+							+ e.getMessage(),
+					e);
+		}
+	}
+
+	/**
+	 * removeMetadataElement removes the element with the specified id without converting it
+	 * 
+	 * @return The removed MetadataElement if it had been converted, otherwise null
+	 */
+	public synchronized MetadataElement removeMetadataElement(String elementId) {
+		MetadataElement metadataElement = convertedElements.remove(elementId);
+		dataGroups.remove(elementId);
+		usageIndex.updateElement(elementId, null);
+		freeIndex(elementId);
+		forgetResolvedReferencesAffectedBy(elementId);
+		return metadataElement;
+	}
+
+	private void freeIndex(String elementId) {
+		Integer index = indexes.remove(elementId);
+		if (index != null) {
+			idsByIndex.set(index, null);
+			freeIndexes.push(index);
+		}
+	}
+
+	/**
+	 * getIndexOfMetadataElement returns the index assigned to the element with the specified id
+	 * when it was registered or added, without converting the element
+	 */
+	@Override
+	public int getIndexOfMetadataElement(String elementId) {
+		Integer index = indexes.get(elementId);
+		if (index == null || !elementId.equals(getIdByIndex(index))) {
+			return -1;
+		}
+		return index;
+	}
+
+	private String getIdByIndex(int index) {
+		if (index >= idsByIndex.size()) {
+			return null;
+		}
+		return idsByIndex.get(index);
+	}
+
+	/**
+	 * getMetadataElementByIndex returns the element with the specified index, converting it if
+	 * it has not yet been requested
+	 */
+	@Override
+	public MetadataElement getMetadataElementByIndex(int index) {
+		String elementId = index < 0 ? null : getIdByIndex(index);
+		if (elementId == null) {
+			return null;
+		}
+		return getMetadataElement(elementId);
+	}
+
+	@Override
+	public int getNumberOfIndexes() {
+		return idsByIndex.size();
+	}
+
+	/**
+	 * getAllMetadataElements returns all MetadataElements in this holder in index order,
+	 * converting all elements that have not yet been requested.
+	 */
+	@Override
+	public Collection<MetadataElement> getAllMetadataElements() {
+		List<MetadataElement> metadataElements = new ArrayList<>(indexes.size());
+		for (String elementId : idsByIndex) {
+			MetadataElement metadataElement = elementId == null ? null
+					: getMetadataElement(elementId);
+			if (metadataElement != null) {
+				metadataElements.add(metadataElement);
+			}
+		}
+		allElementsConverted = true;
+		return Collections.unmodifiableList(metadataElements);
+	}
+
+	/**
+	 * getUsageIndex returns the usage index of this holder, converting all elements that have not
+	 * yet been requested the first time it is called
+	 */
+	@Override
+	public MetadataUsageIndex getUsageIndex() {
+		if (!allElementsConverted) {
+			getAllMetadataElements();
+		}
+		return usageIndex;
+	}
+
+	/**
+	 * resolveReferences forgets all kept references, without converting or resolving any
+	 * elements. The references of an element are resolved again the first time they are
+	 * requested, see {@link #getChildDispatchTable(MetadataGroup)}.
+	 */
+	public synchronized void resolveReferences() {
+		resolver = MetadataReferenceResolver.usingMetadataHolder(this);
+	}
+
+	public MetadataReferenceResolver getMetadataReferenceResolver() {
+		return resolver;
+	}
+
+	@Override
+	public MetadataElement getReferencedElement(MetadataChildReference childReference) {
+		return getMetadataElement(childReference.getLinkedRecordId());
+	}
+
+	@Override
+	public List<CollectionVariable> getAttributesForElement(MetadataElement metadataElement) {
+		return resolver.getAttributesForElement(metadataElement);
+	}
+
+	@Override
+	public ChildReferenceDispatchTable getChildDispatchTable(MetadataGroup metadataGroup) {
+		return resolver.getChildDispatchTable(metadataGroup);
+	}
+
+	@Override
+	public ChildReferenceDispatchTable getChildDispatchTableByIndex(int index) {
+		return resolver.getChildDispatchTableByIndex(index);
+	}
+
+	@Override
+	public ItemCollection getRefCollection(CollectionVariable collectionVariable) {
+		return resolver.getRefCollection(collectionVariable);
+	}
+
+	@Override
+	public List<CollectionItem> getCollectionItems(ItemCollection itemCollection) {
+		return resolver.getCollectionItems(itemCollection);
+	}
+
+	public int getNumberOfElements() {
+		return indexes.size();
+	}
+
+	public int getNumberOfConvertedElements() {
+		return convertedElements.size();
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+
+import se.uu.ub.cora.data.DataAtomic;
+import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
+
+/**
+ * MetadataChangeAnalyzer compares two versions of the metadata and reports which elements have
+ * changed in a way that affects validation, term collection or link collection, together with all
+ * elements that directly or indirectly use them. A record type only needs to be revalidated,
+ * reindexed or have its links collected again if its metadata group is reported as changed for
+ * that purpose, see {@link MetadataChangeReport}.
+ * <p>
+ * Each element is compared using only the properties used for each purpose, so that for instance
+ * a changed text id does not cause any record type to be revalidated. Term and link collection
+ * both find the child reference for each part of the data by matching nameInData and attributes,
+ * so for them any change to what data an element matches counts as a change: its nameInData, its
+ * attribute references, the refCollection and finalValue of a collection variable and the items
+ * of an item collection. Changes are propagated to all elements referring to a changed element,
+ * as a changed attribute collection changes the matching of every element using it as an
+ * attribute, not only of the groups using it as a child. Elements using a changed
+ * element are found using the {@link MetadataUsageIndex} of both holders, so elements that stopped
+ * or started using a changed element are reported as well. The analysis is conservative, a
+ * reported change might not change the outcome for all data, but no affecting change is missed.
+ */
+public final class MetadataChangeAnalyzer {
+	private final ReadOnlyMetadataHolder previousMetadataHolder;
+	private final ReadOnlyMetadataHolder currentMetadataHolder;
+
+	private MetadataChangeAnalyzer(ReadOnlyMetadataHolder previousMetadataHolder,
+			ReadOnlyMetadataHolder currentMetadataHolder) {
+		this.previousMetadataHolder = previousMetadataHolder;
+		this.currentMetadataHolder = currentMetadataHolder;
+	}
+
+	public static MetadataChangeAnalyzer usingPreviousAndCurrentMetadataHolder(
+			ReadOnlyMetadataHolder previousMetadataHolder,
+			ReadOnlyMetadataHolder currentMetadataHolder) {
+		return new MetadataChangeAnalyzer(previousMetadataHolder, currentMetadataHolder);
+	}
+
+	public MetadataChangeReport analyze() {
+		Set<String> changedForValidation = new TreeSet<>();
+		Set<String> changedForCollectTerms = new TreeSet<>();
+		Set<String> changedForRecordLinks = new TreeSet<>();
+		for (String id : getIdsInBothHolders()) {
+			MetadataElement previous = previousMetadataHolder.getMetadataElement(id);
+			MetadataElement current = currentMetadataHolder.getMetadataElement(id);
+			addIdIfChanged(changedForValidation, id, createValidationKey(previous),
+					createValidationKey(current));
+			addIdIfChanged(changedForCollectTerms, id, createCollectTermKey(previous),
+					createCollectTermKey(current));
+			addIdIfChanged(changedForRecordLinks, id, createRecordLinkKey(previous),
+					createRecordLinkKey(current));
+		}
+		Set<String> changedElementIds = new TreeSet<>(changedForValidation);
+		changedElementIds.addAll(changedForCollectTerms);
+		changedElementIds.addAll(changedForRecordLinks);
+		return new MetadataChangeReport(changedElementIds,
+				addUsingElements(changedForValidation, MetadataUsageIndex::getElementsReferringTo),
+				addUsingElements(changedForCollectTerms,
+						MetadataUsageIndex::getElementsReferringTo),
+				addUsingElements(changedForRecordLinks,
+						MetadataUsageIndex::getElementsReferringTo));
+	}
+
+	private Set<String> getIdsInBothHolders() {
+		Set<String> ids = new TreeSet<>();
+		for (MetadataElement metadataElement : previousMetadataHolder.getAllMetadataElements()) {
+			ids.add(metadataElement.getId());
+		}
+		for (MetadataElement metadataElement : currentMetadataHolder.getAllMetadataElements()) {
+			ids.add(metadataElement.getId());
+		}
+		return ids;
+	}
+
+	private void addIdIfChanged(Set<String> changedIds, String id, List<Object> previousKey,
+			List<Object> currentKey) {
+		if (!Objects.equals(previousKey, currentKey)) {
+			changedIds.add(id);
+		}
+	}
+
+	private List<Object> createValidationKey(MetadataElement metadataElement) {
+		if (metadataElement == null) {
+			return null;
+		}
+		List<Object> key = new ArrayList<>(Arrays.asList(metadataElement.getClass(),
+				metadataElement.getNameInData(), metadataElement.getAttributeReferences()));
+		if (metadataElement instanceof MetadataGroup) {
+			addChildReferencesToValidationKey(key, (MetadataGroup) metadataElement);
+		} else if (metadataElement instanceof TextVariable) {
+			TextVariable textVariable = (TextVariable) metadataElement;
+			key.addAll(Arrays.asList(textVariable.getRegularExpression(),
+					textVariable.getFinalValue()));
+		} else if (metadataElement instanceof NumberVariable) {
+			NumberVariable numberVariable = (NumberVariable) metadataElement;
+			key.addAll(Arrays.asList(numberVariable.getMin(), numberVariable.getMax(),
+					numberVariable.getWarningMin(), numberVariable.getWarningMax(),
+					numberVariable.getNumOfDecmials()));
+		} else if (metadataElement instanceof CollectionVariable) {
+			CollectionVariable collectionVariable = (CollectionVariable) metadataElement;
+			key.addAll(Arrays.asList(collectionVariable.getRefCollectionId(),
+					collectionVariable.getFinalValue()));
+		} else if (metadataElement instanceof ItemCollection) {
+			key.add(new ArrayList<>(
+					((ItemCollection) metadataElement).getCollectionItemReferences()));
+		} else if (metadataElement instanceof RecordLink) {
+			RecordLink recordLink = (RecordLink) metadataElement;
+			key.addAll(Arrays.asList(recordLink.getLinkedRecordType(),
+					recordLink.getFinalValue(), createDataGroupKey(recordLink.getLinkedPath())));
+		}
+		return key;
+	}
+
+	private void addChildReferencesToValidationKey(List<Object> key, MetadataGroup metadataGroup) {
+		for (MetadataChildReference childReference : metadataGroup.getChildReferences()) {
+			key.addAll(Arrays.asList(childReference.getLinkedRecordId(),
+					childReference.getRepeatMin(), childReference.getRepeatMax()));
+		}
+	}
+
+	private List<Object> createDataGroupKey(DataGroup dataGroup) {
+		if (dataGroup == null) {
+			return Collections.emptyList();
+		}
+		List<Object> key = new ArrayList<>(Arrays.asList(dataGroup.getNameInData(),
+				dataGroup.getRepeatId()));
+		for (Entry<String, String> attribute : dataGroup.getAttributes().entrySet()) {
+			key.addAll(Arrays.asList(attribute.getKey(), attribute.getValue()));
+		}
+		for (DataElement child : dataGroup.getChildren()) {
+			if (child instanceof DataGroup) {
+				key.add(createDataGroupKey((DataGroup) child));
+			} else {
+				key.add(Arrays.asList(child.getNameInData(), child.getRepeatId(),
+						((DataAtomic) child).getValue()));
+			}
+		}
+		return key;
+	}
+
+	private List<Object> createMatchingKey(MetadataElement metadataElement) {
+		List<Object> key = new ArrayList<>(Arrays.asList(metadataElement.getClass(),
+				metadataElement.getNameInData(), metadataElement.getAttributeReferences()));
+		if (metadataElement instanceof CollectionVariable) {
+			CollectionVariable collectionVariable = (CollectionVariable) metadataElement;
+			key.addAll(Arrays.asList(collectionVariable.getRefCollectionId(),
+					collectionVariable.getFinalValue()));
+		} else if (metadataElement instanceof ItemCollection) {
+			key.add(new ArrayList<>(
+					((ItemCollection) metadataElement).getCollectionItemReferences()));
+		}
+		return key;
+	}
+
+	private List<Object> createCollectTermKey(MetadataElement metadataElement) {
+		if (metadataElement == null) {
+			return Collections.emptyList();
+		}
+		List<Object> key = createMatchingKey(metadataElement);
+		if (metadataElement instanceof MetadataGroup) {
+			for (MetadataChildReference childReference : ((MetadataGroup) metadataElement)
+					.getChildReferences()) {
+				key.add(childReference.getLinkedRecordId());
+				for (CollectTerm collectTerm : childReference.getCollectTerms()) {
+					key.addAll(Arrays.asList(collectTerm.type, collectTerm.id));
+				}
+			}
+		}
+		return key;
+	}
+
+	private List<Object> createRecordLinkKey(MetadataElement metadataElement) {
+		if (metadataElement == null) {
+			return Collections.emptyList();
+		}
+		List<Object> key = createMatchingKey(metadataElement);
+		if (metadataElement instanceof RecordLink) {
+			RecordLink recordLink = (RecordLink) metadataElement;
+			key.addAll(Arrays.asList(recordLink.getLinkedRecordType(),
+					createDataGroupKey(recordLink.getLinkedPath())));
+		} else if (metadataElement instanceof MetadataGroup) {
+			for (MetadataChildReference childReference : ((MetadataGroup) metadataElement)
+					.getChildReferences()) {
+				key.add(childReference.getLinkedRecordId());
+			}
+		}
+		return key;
+	}
+
+	private Set<String> addUsingElements(Set<String> changedIds,
+			BiFunction<MetadataUsageIndex, String, List<? extends MetadataElement>> users) {
+		Set<String> affectedIds = new TreeSet<>(changedIds);
+		Deque<String> idsToVisit = new ArrayDeque<>(changedIds);
+		MetadataUsageIndex previousUsageIndex = previousMetadataHolder.getUsageIndex();
+		MetadataUsageIndex currentUsageIndex = currentMetadataHolder.getUsageIndex();
+		while (!idsToVisit.isEmpty()) {
+			String id = idsToVisit.poll();
+			addUsers(affectedIds, idsToVisit, users.apply(previousUsageIndex, id));
+			addUsers(affectedIds, idsToVisit, users.apply(currentUsageIndex, id));
+		}
+		return affectedIds;
+	}
+
+	private void addUsers(Set<String> affectedIds, Deque<String> idsToVisit,
+			List<? extends MetadataElement> users) {
+		for (MetadataElement user : users) {
+			if (affectedIds.add(user.getId())) {
+				idsToVisit.add(user.getId());
+			}
+		}
+	}
+
+	public ReadOnlyMetadataHolder getPreviousMetadataHolder() {
+		// needed for test
+		return previousMetadataHolder;
+	}
+
+	public ReadOnlyMetadataHolder getCurrentMetadataHolder() {
+		// needed for test
+		return currentMetadataHolder;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * MetadataChangeReport is the result of a {@link MetadataChangeAnalyzer}. For each purpose it
+ * holds the ids of the elements changed for that purpose and of all elements using them, so the
+ * metadata group of a record type is reported if data of that record type needs to be handled
+ * again for the purpose.
+ * <p>
+ * All returned sets are sorted and unmodifiable.
+ */
+public final class MetadataChangeReport {
+	private final Set<String> changedElementIds;
+	private final Set<String> idsWithChangedValidation;
+	private final Set<String> idsWithChangedCollectTerms;
+	private final Set<String> idsWithChangedRecordLinks;
+
+	MetadataChangeReport(Set<String> changedElementIds, Set<String> idsWithChangedValidation,
+			Set<String> idsWithChangedCollectTerms, Set<String> idsWithChangedRecordLinks) {
+		this.changedElementIds = Collections.unmodifiableSet(changedElementIds);
+		this.idsWithChangedValidation = Collections.unmodifiableSet(idsWithChangedValidation);
+		this.idsWithChangedCollectTerms = Collections.unmodifiableSet(idsWithChangedCollectTerms);
+		this.idsWithChangedRecordLinks = Collections.unmodifiableSet(idsWithChangedRecordLinks);
+	}
+
+	public boolean hasChanges() {
+		return !changedElementIds.isEmpty();
+	}
+
+	/**
+	 * getChangedElementIds returns the ids of the elements that are added, removed or changed
+	 * for any purpose, not including the elements using them
+	 */
+	public Set<String> getChangedElementIds() {
+		return changedElementIds;
+	}
+
+	public Set<String> getIdsWithChangedValidation() {
+		return idsWithChangedValidation;
+	}
+
+	public Set<String> getIdsWithChangedCollectTerms() {
+		return idsWithChangedCollectTerms;
+	}
+
+	public Set<String> getIdsWithChangedRecordLinks() {
+		return idsWithChangedRecordLinks;
+	}
+
+	/**
+	 * hasChangedValidation returns true if data validated using the metadata group needs to be
+	 * validated again
+	 */
+	public boolean hasChangedValidation(String metadataGroupId) {
+		return idsWithChangedValidation.contains(metadataGroupId);
+	}
+
+	/**
+	 * hasChangedCollectTerms returns true if terms collected using the metadata group need to be
+	 * collected again, that is if the data needs to be reindexed
+	 */
+	public boolean hasChangedCollectTerms(String metadataGroupId) {
+		return idsWithChangedCollectTerms.contains(metadataGroupId);
+	}
+
+	/**
+	 * hasChangedRecordLinks returns true if links collected using the metadata group need to be
+	 * collected again
+	 */
+	public boolean hasChangedRecordLinks(String metadataGroupId) {
+		return idsWithChangedRecordLinks.contains(metadataGroupId);
+	}
+}
@@ -20,11 +20,17 @@
 package se.uu.ub.cora.bookkeeper.metadata;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * MetadataChildReference is used to hold information about a child in metadata
  * groups.
+ * <p>
+ * As metadata contains many child references their layout is kept compact, the secret and read
+ * only flags are kept as bits in one byte, the rarely used keys are kept in a separate object
+ * shared by all references without keys, and references without collect terms share one empty
+ * list, see {@link ObjectSizeEstimator} for the layout model used to estimate its size.
  * 
  * @author <a href="mailto:olov.mckie@ub.uu.se">Olov McKie</a>
  *
@@ -34,23 +40,19 @@ import java.util.List;
 public final class MetadataChildReference {
 
 	public static final int UNLIMITED = Integer.MAX_VALUE;
+	private static final byte SECRET = 1;
+	private static final byte READ_ONLY = 2;
 
-	private String linkedRecordType;
-	private String linkedRecordId;
+	private final String linkedRecordType;
+	private final String linkedRecordId;
 	private final int repeatMin;
 	private final int repeatMax;
 
-	private boolean secret = false;
+	private byte flags = 0;
 
-	private boolean readOnly = false;
+	private Keys keys = Keys.NO_KEYS;
 
-	private String repeatMinKey = "";
-
-	private String secretKey = "";
-
-	private String readOnlyKey = "";
-
-	private List<CollectTerm> collectTerms = new ArrayList<>();
+	private List<CollectTerm> collectTerms = Collections.emptyList();
 
 	public MetadataChildReference(String linkedRecordType, String linkedRecordId, int repeatMin,
 			int repeatMax) {
@@ -74,44 +76,51 @@ public final class MetadataChildReference {
 	}
 
 	public void setSecret(boolean secret) {
-		this.secret = secret;
+		setFlag(SECRET, secret);
+	}
+
+	private void setFlag(byte flag, boolean value) {
+		if (value) {
+			flags |= flag;
+		} else {
+			flags &= ~flag;
+		}
 	}
 
 	public boolean isSecret() {
-		return secret;
+		return (flags & SECRET) != 0;
 	}
 
 	public void setReadOnly(boolean readOnly) {
-		this.readOnly = readOnly;
+		setFlag(READ_ONLY, readOnly);
 	}
 
 	public boolean isReadOnly() {
-		return readOnly;
+		return (flags & READ_ONLY) != 0;
 	}
 
 	public void setRepeatMinKey(String repeatMinKey) {
-		this.repeatMinKey = repeatMinKey;
+		keys = Keys.withKeys(repeatMinKey, keys.secretKey, keys.readOnlyKey);
 	}
 
 	public String getRepeatMinKey() {
-		return repeatMinKey;
+		return keys.repeatMinKey;
 	}
 
 	public void setSecretKey(String secretKey) {
-		this.secretKey = secretKey;
+		keys = Keys.withKeys(keys.repeatMinKey, secretKey, keys.readOnlyKey);
 	}
 
 	public String getSecretKey() {
-		return secretKey;
+		return keys.secretKey;
 	}
 
 	public void setReadOnlyKey(String readOnlyKey) {
-		this.readOnlyKey = readOnlyKey;
-
+		keys = Keys.withKeys(keys.repeatMinKey, keys.secretKey, readOnlyKey);
 	}
 
 	public String getReadOnlyKey() {
-		return readOnlyKey;
+		return keys.readOnlyKey;
 	}
 
 	public String getLinkedRecordType() {
@@ -127,7 +136,31 @@ public final class MetadataChildReference {
 	}
 
 	public void addCollectIndexTerm(CollectTerm collectTerm) {
+		if (collectTerms.isEmpty()) {
+			collectTerms = new ArrayList<>(1);
+		}
 		collectTerms.add(collectTerm);
+	}
 
+	private static final class Keys {
+		private static final String NO_KEY = "";
+		private static final Keys NO_KEYS = new Keys(NO_KEY, NO_KEY, NO_KEY);
+		private final String repeatMinKey;
+		private final String secretKey;
+		private final String readOnlyKey;
+
+		private Keys(String repeatMinKey, String secretKey, String readOnlyKey) {
+			this.repeatMinKey = repeatMinKey;
+			this.secretKey = secretKey;
+			this.readOnlyKey = readOnlyKey;
+		}
+
+		private static Keys withKeys(String repeatMinKey, String secretKey, String readOnlyKey) {
+			if (NO_KEY.equals(repeatMinKey) && NO_KEY.equals(secretKey)
+					&& NO_KEY.equals(readOnlyKey)) {
+				return NO_KEYS;
+			}
+			return new Keys(repeatMinKey, secretKey, readOnlyKey);
+		}
 	}
 }
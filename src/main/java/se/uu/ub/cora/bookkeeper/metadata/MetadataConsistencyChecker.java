@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * MetadataConsistencyChecker verifies the whole metadata graph in a MetadataHolder, so that
+ * broken metadata is found when the metadata is loaded instead of when data is validated or
+ * collected.
+ * <p>
+ * {@link #findInconsistencies()} reports:
+ * <ul>
+ * <li>references to elements that do not exist, through child references, attribute references,
+ * referred collections, collection items and the text variables used when validating links</li>
+ * <li>references to elements of the wrong type, attributes that are not CollectionVariables,
+ * referred collections that are not ItemCollections, collection items that are not
+ * CollectionItems and link validation variables that are not TextVariables</li>
+ * <li>groups that directly or indirectly must contain themselves, that is cycles where every
+ * child reference has a repeatMin above 0. Recursion through an optional child reference ends
+ * in data and is allowed.</li>
+ * </ul>
+ * {@link #findUnusedItemCollections()} reports ItemCollections not referred to by any
+ * CollectionVariable, they do not break validation and are therefore not treated as
+ * inconsistencies.
+ */
+public final class MetadataConsistencyChecker {
+	private final ReadOnlyMetadataHolder metadataHolder;
+
+	private MetadataConsistencyChecker(ReadOnlyMetadataHolder metadataHolder) {
+		this.metadataHolder = metadataHolder;
+	}
+
+	public static MetadataConsistencyChecker usingMetadataHolder(
+			ReadOnlyMetadataHolder metadataHolder) {
+		return new MetadataConsistencyChecker(metadataHolder);
+	}
+
+	/**
+	 * ensureConsistency throws a {@link MetadataConsistencyException} listing all
+	 * inconsistencies, if any are found
+	 */
+	public void ensureConsistency() {
+		List<String> inconsistencies = findInconsistencies();
+		if (!inconsistencies.isEmpty()) {
+			throw MetadataConsistencyException.withMessage("Metadata is inconsistent: "
+					+ String.join(", ", inconsistencies));
+		}
+	}
+
+	/**
+	 * findInconsistencies returns a description of each inconsistency found, in a stable order
+	 */
+	public List<String> findInconsistencies() {
+		List<String> inconsistencies = new ArrayList<>();
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			checkElement(inconsistencies, metadataElement);
+		}
+		inconsistencies.addAll(findRecursiveGroups());
+		return inconsistencies;
+	}
+
+	private void checkElement(List<String> inconsistencies, MetadataElement metadataElement) {
+		String id = metadataElement.getId();
+		for (String attributeReference : metadataElement.getAttributeReferences()) {
+			checkReference(inconsistencies, id, "attribute reference", attributeReference,
+					CollectionVariable.class);
+		}
+		if (metadataElement instanceof MetadataGroup) {
+			for (MetadataChildReference childReference : ((MetadataGroup) metadataElement)
+					.getChildReferences()) {
+				checkReference(inconsistencies, id, "child reference",
+						childReference.getLinkedRecordId(), MetadataElement.class);
+			}
+		} else if (metadataElement instanceof CollectionVariable) {
+			checkReference(inconsistencies, id, "referred collection",
+					((CollectionVariable) metadataElement).getRefCollectionId(),
+					ItemCollection.class);
+		} else if (metadataElement instanceof ItemCollection) {
+			for (String itemReference : ((ItemCollection) metadataElement)
+					.getCollectionItemReferences()) {
+				checkReference(inconsistencies, id, "collection item", itemReference,
+						CollectionItem.class);
+			}
+		} else if (metadataElement instanceof RecordLink) {
+			checkIdsUsedInValidation(inconsistencies, id,
+					((RecordLink) metadataElement).getIdsUsedInValidation());
+		} else if (metadataElement instanceof ResourceLink) {
+			checkIdsUsedInValidation(inconsistencies, id,
+					ResourceLink.IDS_USED_IN_VALIDATION);
+		}
+	}
+
+	private void checkIdsUsedInValidation(List<String> inconsistencies, String id,
+			List<String> idsUsedInValidation) {
+		for (String idUsedInValidation : idsUsedInValidation) {
+			checkReference(inconsistencies, id, "validation variable", idUsedInValidation,
+					TextVariable.class);
+		}
+	}
+
+	private void checkReference(List<String> inconsistencies, String id, String referenceType,
+			String referencedId, Class<? extends MetadataElement> expectedType) {
+		MetadataElement referencedElement = metadataHolder.getMetadataElement(referencedId);
+		if (referencedElement == null) {
+			inconsistencies.add("Element " + id + " has " + referenceType
+					+ " to missing element " + referencedId);
+		} else if (!expectedType.isInstance(referencedElement)) {
+			inconsistencies.add("Element " + id + " has " + referenceType + " to element "
+					+ referencedId + " which is not a " + expectedType.getSimpleName());
+		}
+	}
+
+	private Set<String> findRecursiveGroups() {
+		Set<String> cycles = new TreeSet<>();
+		Set<String> finishedGroups = new HashSet<>();
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			if (metadataElement instanceof MetadataGroup) {
+				findCyclesFromGroup(cycles, finishedGroups, new LinkedHashSet<>(),
+						(MetadataGroup) metadataElement);
+			}
+		}
+		return cycles;
+	}
+
+	private void findCyclesFromGroup(Set<String> cycles, Set<String> finishedGroups,
+			LinkedHashSet<String> path, MetadataGroup metadataGroup) {
+		String id = metadataGroup.getId();
+		if (path.contains(id)) {
+			cycles.add(describeCycle(new ArrayList<>(path), id));
+			return;
+		}
+		if (finishedGroups.contains(id)) {
+			return;
+		}
+		path.add(id);
+		for (MetadataChildReference childReference : metadataGroup.getChildReferences()) {
+			possiblyFindCyclesThroughRequiredChild(cycles, finishedGroups, path, childReference);
+		}
+		path.remove(id);
+		finishedGroups.add(id);
+	}
+
+	private void possiblyFindCyclesThroughRequiredChild(Set<String> cycles,
+			Set<String> finishedGroups, LinkedHashSet<String> path,
+			MetadataChildReference childReference) {
+		if (childReference.getRepeatMin() == 0) {
+			return;
+		}
+		MetadataElement child = metadataHolder
+				.getMetadataElement(childReference.getLinkedRecordId());
+		if (child instanceof MetadataGroup) {
+			findCyclesFromGroup(cycles, finishedGroups, path, (MetadataGroup) child);
+		}
+	}
+
+	private String describeCycle(List<String> path, String repeatedId) {
+		List<String> cycle = new ArrayList<>(path.subList(path.indexOf(repeatedId), path.size()));
+		cycle.add(repeatedId);
+		return "Group " + repeatedId + " is recursive: " + String.join(" -> ", cycle);
+	}
+
+	/**
+	 * findUnusedItemCollections returns the ids of all ItemCollections that no CollectionVariable
+	 * refers to
+	 */
+	public Set<String> findUnusedItemCollections() {
+		Set<String> unusedItemCollections = new TreeSet<>();
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			if (metadataElement instanceof ItemCollection && usageIndex
+					.getCollectionVariablesUsingItemCollection(metadataElement.getId())
+					.isEmpty()) {
+				unusedItemCollections.add(metadataElement.getId());
+			}
+		}
+		return unusedItemCollections;
+	}
+
+	public ReadOnlyMetadataHolder getMetadataHolder() {
+		// needed for test
+		return metadataHolder;
+	}
+}
@@ -19,30 +19,119 @@
 
 package se.uu.ub.cora.bookkeeper.metadata;
 
-import java.util.HashMap;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * MetadataHolder holds all information about MetadataFormats MetadataGroups and
  * MetadataVariables
+ * <p>
+ * Elements are kept in an array and each element id is assigned a dense int index when it is
+ * added, see {@link #getIndexOfMetadataElement(String)}. The index of a removed element is
+ * reused for the next element added with a new id, so the array does not grow with holes when
+ * elements are removed and added again.
+ * <p>
+ * Elements can be read by several threads while elements are added or removed, changes are made
+ * one at a time and each read sees either the element before or after a change. References
+ * resolved by {@link #resolveReferences()} are kept by the holder, not by the elements, see
+ * {@link MetadataReferenceResolver}.
  * 
  * @author <a href="mailto:olov.mckie@ub.uu.se">Olov McKie</a>
  *
  * @since 0.1
  *
  */
-public class MetadataHolder {
+public class MetadataHolder implements ReadOnlyMetadataHolder {
 
-	private Map<String, MetadataElement> metadata = new HashMap<>();
+	private static final int INITIAL_CAPACITY = 16;
+	private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+	private final Deque<Integer> freeIndexes = new ArrayDeque<>();
+	private volatile AtomicReferenceArray<MetadataElement> elements = new AtomicReferenceArray<>(
+			INITIAL_CAPACITY);
+	private volatile int numOfIndexes = 0;
+	private volatile int numOfElements = 0;
+	private volatile MetadataUsageIndex usageIndex;
+	private volatile MetadataReferenceResolver resolver = MetadataReferenceResolver
+			.withoutKeptReferencesUsingMetadataHolder(this);
 
 	/**
 	 * addMetadataElement adds an element to the internal holder of elements
+	 * <p>
+	 * An element with an id not in the holder is assigned the index of a previously removed
+	 * element if there is one, otherwise the next new index. An element added with the same id
+	 * as an element in the holder replaces the previous element and keeps its index.
 	 * 
 	 * @param metadataElement
 	 *            A MetadataElement to add to the internal holder
 	 */
-	public void addMetadataElement(MetadataElement metadataElement) {
-		metadata.put(metadataElement.getId(), metadataElement);
+	public synchronized void addMetadataElement(MetadataElement metadataElement) {
+		String elementId = metadataElement.getId();
+		Integer index = indexes.get(elementId);
+		if (index == null) {
+			int newIndex = getFreeIndex();
+			elements.set(newIndex, metadataElement);
+			indexes.put(elementId, newIndex);
+			numOfElements++;
+		} else {
+			elements.set(index, metadataElement);
+		}
+		updateUsageIndex(elementId, metadataElement);
+		forgetResolvedReferencesAffectedBy(elementId);
+	}
+
+	private int getFreeIndex() {
+		if (!freeIndexes.isEmpty()) {
+			return freeIndexes.pop();
+		}
+		int newIndex = numOfIndexes;
+		ensureCapacity(newIndex + 1);
+		numOfIndexes = newIndex + 1;
+		return newIndex;
+	}
+
+	private void ensureCapacity(int capacity) {
+		AtomicReferenceArray<MetadataElement> currentElements = elements;
+		if (capacity > currentElements.length()) {
+			AtomicReferenceArray<MetadataElement> newElements = new AtomicReferenceArray<>(
+					Math.max(capacity, currentElements.length() * 2));
+			for (int index = 0; index < numOfIndexes; index++) {
+				newElements.set(index, currentElements.get(index));
+			}
+			elements = newElements;
+		}
+	}
+
+	/**
+	 * updateUsageIndex updates the usage index, if it is built, with the metadataElement now held
+	 * for the elementId, the metadataElement is null if the element was removed
+	 */
+	private void updateUsageIndex(String elementId, MetadataElement metadataElement) {
+		MetadataUsageIndex currentUsageIndex = usageIndex;
+		if (currentUsageIndex != null) {
+			currentUsageIndex.updateElement(elementId, metadataElement);
+		}
+	}
+
+	/**
+	 * forgetResolvedReferencesAffectedBy forgets the resolved references of the element with the
+	 * changedId and of all elements that directly or indirectly refer to it, see
+	 * {@link MetadataReferenceResolver}. Nothing is done if references have not been resolved,
+	 * references are resolved together with the usage index, so the index is always built when
+	 * references are kept.
+	 */
+	private void forgetResolvedReferencesAffectedBy(String changedId) {
+		MetadataReferenceResolver currentResolver = resolver;
+		if (currentResolver.keepsResolvedReferences()) {
+			currentResolver.forgetResolvedElementsAffectedBy(changedId, getUsageIndex());
+		}
 	}
 
 	/**
@@ -53,7 +142,303 @@ public class MetadataHolder {
 	 *            A String with the id of the Metadata element to get
 	 * @return The requested MetadataElement
 	 */
+	@Override
 	public MetadataElement getMetadataElement(String elementId) {
-		return metadata.get(elementId);
+		Integer index = indexes.get(elementId);
+		if (index == null) {
+			return null;
+		}
+		return getElementIfItHasId(index, elementId);
+	}
+
+	private MetadataElement getElementIfItHasId(int index, String elementId) {
+		MetadataElement metadataElement = getMetadataElementByIndex(index);
+		if (metadataElement == null || !metadataElement.getId().equals(elementId)) {
+			return null;
+		}
+		return metadataElement;
+	}
+
+	/**
+	 * getIndexOfMetadataElement returns the dense int index assigned to the element with the
+	 * specified id. Indexes start at 0 and are lower than {@link #getNumberOfIndexes()}, so they
+	 * can be used to keep data about elements in arrays instead of maps keyed by id.
+	 * 
+	 * @param elementId
+	 *            A String with the id of the Metadata element to get the index for
+	 * @return An int with the index of the element, or -1 if no element with the id is found
+	 */
+	@Override
+	public int getIndexOfMetadataElement(String elementId) {
+		Integer index = indexes.get(elementId);
+		if (index == null || getElementIfItHasId(index, elementId) == null) {
+			return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * getMetadataElementByIndex returns the MetadataElement with the specified index
+	 * 
+	 * @param index
+	 *            An int with the index of the element, as returned by
+	 *            {@link #getIndexOfMetadataElement(String)}
+	 * @return The requested MetadataElement or null if no element has the index
+	 */
+	@Override
+	public MetadataElement getMetadataElementByIndex(int index) {
+		AtomicReferenceArray<MetadataElement> currentElements = elements;
+		if (index < 0 || index >= numOfIndexes || index >= currentElements.length()) {
+			return null;
+		}
+		return currentElements.get(index);
+	}
+
+	/**
+	 * getNumberOfIndexes returns the number of indexes assigned, which is one more than the
+	 * highest index assigned to an element. Indexes of removed elements are reused before new
+	 * indexes are assigned.
+	 * 
+	 * @return An int with the number of assigned indexes
+	 */
+	@Override
+	public int getNumberOfIndexes() {
+		return numOfIndexes;
+	}
+
+	/**
+	 * removeMetadataElement removes the element with the specified id from the internal holder
+	 * of elements
+	 * 
+	 * @param elementId
+	 *            A String with the id of the Metadata element to remove
+	 * @return The removed MetadataElement or null if no element with the id was found
+	 */
+	public synchronized MetadataElement removeMetadataElement(String elementId) {
+		Integer index = indexes.get(elementId);
+		if (index == null) {
+			return null;
+		}
+		MetadataElement removedElement = elements.getAndSet(index, null);
+		indexes.remove(elementId);
+		freeIndexes.push(index);
+		numOfElements--;
+		updateUsageIndex(elementId, null);
+		forgetResolvedReferencesAffectedBy(elementId);
+		return removedElement;
+	}
+
+	/**
+	 * getAllMetadataElements returns all MetadataElements in this holder, in index order
+	 * 
+	 * @return A Collection with all MetadataElements
+	 */
+	@Override
+	public Collection<MetadataElement> getAllMetadataElements() {
+		return new AbstractCollection<MetadataElement>() {
+			@Override
+			public Iterator<MetadataElement> iterator() {
+				return new ElementIterator();
+			}
+
+			@Override
+			public int size() {
+				return numOfElements;
+			}
+		};
+	}
+
+	/**
+	 * resolveReferences resolves the id based references between the elements in this holder,
+	 * attribute references, referred collections and collection items, into direct references
+	 * to the referenced elements, and builds the child dispatch tables for all groups, see
+	 * {@link #getChildDispatchTable(MetadataGroup)}. This should be called once after all
+	 * elements have been added, so that traversal of the metadata does not need to lookup
+	 * elements by id. The resolved references are kept by the holder and are updated when
+	 * elements are added or removed.
+	 * <p>
+	 * References to elements that are not found in this holder are left unresolved.
+	 * <p>
+	 * The usage index, see {@link #getUsageIndex()}, is also built.
+	 */
+	public synchronized void resolveReferences() {
+		usageIndex = MetadataUsageIndex.fromMetadataHolder(this);
+		MetadataReferenceResolver newResolver = MetadataReferenceResolver
+				.usingMetadataHolder(this);
+		newResolver.resolveReferences();
+		resolver = newResolver;
+	}
+
+	/**
+	 * copy returns a new MetadataHolder with the same element instances at the same indexes as
+	 * this holder. The usage index and the resolved references are copied as well, so the copy
+	 * can be changed without affecting this holder, and without resolving the references of the
+	 * unchanged elements again.
+	 */
+	synchronized MetadataHolder copy() {
+		MetadataHolder copy = new MetadataHolder();
+		copy.indexes.putAll(indexes);
+		copy.freeIndexes.addAll(freeIndexes);
+		AtomicReferenceArray<MetadataElement> copiedElements = new AtomicReferenceArray<>(
+				elements.length());
+		for (int index = 0; index < numOfIndexes; index++) {
+			copiedElements.set(index, elements.get(index));
+		}
+		copy.elements = copiedElements;
+		copy.numOfIndexes = numOfIndexes;
+		copy.numOfElements = numOfElements;
+		if (usageIndex != null) {
+			copy.usageIndex = usageIndex.copyUsingMetadataHolder(copy);
+		}
+		copy.resolver = resolver.copyUsingMetadataHolder(copy);
+		return copy;
+	}
+
+	/**
+	 * getMetadataReferenceResolver returns the resolver keeping the resolved references of this
+	 * holder. If references have not been resolved the returned resolver resolves the references
+	 * again for each request.
+	 */
+	public MetadataReferenceResolver getMetadataReferenceResolver() {
+		return resolver;
+	}
+
+	/**
+	 * getUsageIndex returns a reverse index telling which elements use an element. The index is
+	 * built when references are resolved, or the first time it is requested, and is then updated
+	 * as elements are added or removed.
+	 * 
+	 * @return The MetadataUsageIndex for this holder
+	 */
+	@Override
+	public MetadataUsageIndex getUsageIndex() {
+		MetadataUsageIndex currentUsageIndex = usageIndex;
+		if (currentUsageIndex == null) {
+			currentUsageIndex = createUsageIndexIfMissing();
+		}
+		return currentUsageIndex;
+	}
+
+	private synchronized MetadataUsageIndex createUsageIndexIfMissing() {
+		if (usageIndex == null) {
+			usageIndex = MetadataUsageIndex.fromMetadataHolder(this);
+		}
+		return usageIndex;
+	}
+
+	/**
+	 * getReferencedElement returns the element referenced by the childReference
+	 * 
+	 * @param childReference
+	 *            A MetadataChildReference to get the referenced element for
+	 * @return The referenced MetadataElement or null if it is not found
+	 */
+	@Override
+	public MetadataElement getReferencedElement(MetadataChildReference childReference) {
+		return getMetadataElement(childReference.getLinkedRecordId());
+	}
+
+	/**
+	 * getAttributesForElement returns the CollectionVariables used as attributes for the element,
+	 * using the resolved attributes if they exist
+	 * 
+	 * @param metadataElement
+	 *            A MetadataElement to get the attributes for
+	 * @return A List with the attributes for the element
+	 * @throws DataMissingException
+	 *             if an attribute reference does not refer to a CollectionVariable in this holder
+	 */
+	@Override
+	public List<CollectionVariable> getAttributesForElement(MetadataElement metadataElement) {
+		return resolver.getAttributesForElement(metadataElement);
+	}
+
+	/**
+	 * getChildDispatchTable returns the table used to find the child references in the
+	 * metadataGroup that specify a data child, using the table built when references were
+	 * resolved if it exists. If references are not resolved a new table is built for each call.
+	 * 
+	 * @param metadataGroup
+	 *            A MetadataGroup to get the dispatch table for
+	 * @return The ChildReferenceDispatchTable for the group
+	 */
+	@Override
+	public ChildReferenceDispatchTable getChildDispatchTable(MetadataGroup metadataGroup) {
+		return resolver.getChildDispatchTable(metadataGroup);
+	}
+
+	/**
+	 * getChildDispatchTableByIndex returns the table used to find the child references in the
+	 * MetadataGroup with the specified index, in the same way as
+	 * {@link #getChildDispatchTable(MetadataGroup)} but without looking up the group by id
+	 * 
+	 * @param index
+	 *            An int with the index of the group, as returned by
+	 *            {@link ChildReferenceDispatchTable#getIndexOfReferencedElement(int)}
+	 * @return The ChildReferenceDispatchTable for the group
+	 * @throws DataMissingException
+	 *             if no MetadataGroup has the index
+	 */
+	@Override
+	public ChildReferenceDispatchTable getChildDispatchTableByIndex(int index) {
+		return resolver.getChildDispatchTableByIndex(index);
+	}
+
+	/**
+	 * getRefCollection returns the ItemCollection referred to by the collectionVariable, using
+	 * the resolved collection if it exists
+	 * 
+	 * @param collectionVariable
+	 *            A CollectionVariable to get the referred collection for
+	 * @return The referred ItemCollection or null if it is not found
+	 */
+	@Override
+	public ItemCollection getRefCollection(CollectionVariable collectionVariable) {
+		return resolver.getRefCollection(collectionVariable);
+	}
+
+	/**
+	 * getCollectionItems returns the CollectionItems in the itemCollection, using the resolved
+	 * items if they exist
+	 * 
+	 * @param itemCollection
+	 *            An ItemCollection to get the items for
+	 * @return A List with the items in the collection
+	 * @throws DataMissingException
+	 *             if an item reference does not refer to a CollectionItem in this holder
+	 */
+	@Override
+	public List<CollectionItem> getCollectionItems(ItemCollection itemCollection) {
+		return resolver.getCollectionItems(itemCollection);
+	}
+
+	private final class ElementIterator implements Iterator<MetadataElement> {
+		private final AtomicReferenceArray<MetadataElement> iteratedElements = elements;
+		private final int iteratedNumOfIndexes = Math.min(numOfIndexes,
+				iteratedElements.length());
+		private int nextIndex = findNextIndexWithElement(0);
+
+		private int findNextIndexWithElement(int fromIndex) {
+			int index = fromIndex;
+			while (index < iteratedNumOfIndexes && iteratedElements.get(index) == null) {
+				index++;
+			}
+			return index;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < iteratedNumOfIndexes;
+		}
+
+		@Override
+		public MetadataElement next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			MetadataElement metadataElement = iteratedElements.get(nextIndex);
+			nextIndex = findNextIndexWithElement(nextIndex + 1);
+			return metadataElement;
+		}
 	}
 }
@@ -18,37 +18,420 @@
  */
 package se.uu.ub.cora.bookkeeper.metadata;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataConversionException;
 import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverter;
 import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverterFactory;
 import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverterFactoryImp;
 import se.uu.ub.cora.data.DataGroup;
 import se.uu.ub.cora.storage.MetadataStorage;
 
+/**
+ * MetadataHolderFromStoragePopulator creates a MetadataHolder with all metadata elements read
+ * from a MetadataStorage.
+ * <p>
+ * By default the elements are converted sequentially in the calling thread, and the exception
+ * from the first element that can not be converted is thrown as is. A populator created using
+ * {@link #usingExecutor(Executor)} splits the elements into batches that are converted
+ * concurrently using the executor. All elements are then converted even if some conversions
+ * fail, and all failures are reported together in one {@link DataConversionException}.
+ * <p>
+ * By default populated holders are verified using {@link MetadataConsistencyChecker} before
+ * they are returned, so that broken metadata fails at load time instead of during validation,
+ * term collection or link collection. This means that metadata that could be populated before,
+ * with for example a child reference to a missing element, now fails with a
+ * {@link MetadataConsistencyException}. Callers that need the earlier behaviour can use a
+ * populator from {@link #withoutConsistencyCheck()}.
+ * <p>
+ * The strings and collect terms in the converted elements are canonicalized using a new
+ * {@link MetadataStringPool} for each population, see {@link #getStringPool()} for a report of
+ * how much memory the sharing saved in the latest population.
+ * <p>
+ * For nodes that only use a small part of the metadata,
+ * {@link #createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(MetadataStorage, Collection)}
+ * creates a holder with only the elements reachable from some root elements, and
+ * {@link #createLazyMetadataHolderFromMetadataStorage(MetadataStorage)} creates a holder that
+ * converts elements on first use instead.
+ */
 public final class MetadataHolderFromStoragePopulator {
+	static final int BATCH_SIZE = 100;
+	private final Executor executor;
+	private final boolean checkConsistency;
+	private volatile MetadataStringPool latestStringPool = new MetadataStringPool();
+
+	public MetadataHolderFromStoragePopulator() {
+		this(null, true);
+	}
+
+	private MetadataHolderFromStoragePopulator(Executor executor, boolean checkConsistency) {
+		this.executor = executor;
+		this.checkConsistency = checkConsistency;
+	}
+
+	public static MetadataHolderFromStoragePopulator usingExecutor(Executor executor) {
+		return new MetadataHolderFromStoragePopulator(executor, true);
+	}
+
+	/**
+	 * withoutConsistencyCheck returns a populator that converts elements in the same way as this
+	 * populator, but returns populated holders without verifying them using
+	 * {@link MetadataConsistencyChecker}
+	 */
+	public MetadataHolderFromStoragePopulator withoutConsistencyCheck() {
+		return new MetadataHolderFromStoragePopulator(executor, false);
+	}
 
+	/**
+	 * createAndPopulateMetadataHolderFromMetadataStorage creates a MetadataHolder with all
+	 * metadata elements in the metadataStorage
+	 * 
+	 * @throws MetadataConsistencyException
+	 *             if consistency is checked and any inconsistency is found in the populated
+	 *             metadata
+	 */
 	public MetadataHolder createAndPopulateMetadataHolderFromMetadataStorage(
 			MetadataStorage metadataStorage) {
+		MetadataStringPool stringPool = createStringPoolForPopulation();
 		MetadataHolder mh = new MetadataHolder();
 		Collection<DataGroup> metadataElementDataGroups = metadataStorage.getMetadataElements();
 		convertDataGroupsToMetadataElementsAndAddThemToMetadataHolder(metadataElementDataGroups,
-				mh);
+				mh, stringPool);
+		mh.resolveReferences();
+		possiblyEnsureConsistency(mh);
 		return mh;
 	}
 
+	private MetadataStringPool createStringPoolForPopulation() {
+		MetadataStringPool stringPool = new MetadataStringPool();
+		latestStringPool = stringPool;
+		return stringPool;
+	}
+
+	private void possiblyEnsureConsistency(MetadataHolder mh) {
+		if (checkConsistency) {
+			MetadataConsistencyChecker.usingMetadataHolder(mh).ensureConsistency();
+		}
+	}
+
+	/**
+	 * createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds creates a MetadataHolder
+	 * with only the metadata elements reachable from the elements with the rootIds, typically the
+	 * metadata groups of the record types served. An element is reachable if it is a root element,
+	 * or if a reachable element refers to it as a child, attribute, referred collection or
+	 * collection item. The text variables used when validating record links and resource links
+	 * are reachable if any record link or resource link is reachable.
+	 * <p>
+	 * Only reachable elements are converted.
+	 * 
+	 * @throws MetadataConsistencyException
+	 *             if any reachable id, root ids included, has no element in storage, or if
+	 *             consistency is checked and any other inconsistency is found in the populated
+	 *             metadata
+	 */
+	public MetadataHolder createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+			MetadataStorage metadataStorage, Collection<String> rootIds) {
+		ConversionResult elementsWithoutId = new ConversionResult(0);
+		Map<String, DataGroup> dataGroupsById = indexDataGroupsById(
+				metadataStorage.getMetadataElements(), elementsWithoutId);
+		return populateMetadataHolderReachableFromIds(dataGroupsById, elementsWithoutId,
+				rootIds);
+	}
+
+	/**
+	 * indexMetadataElementsById reads all metadata elements from the metadataStorage and returns
+	 * them by id, so that several holders with reachable elements can be created from one read
+	 * of the storage
+	 */
+	Map<String, DataGroup> indexMetadataElementsById(MetadataStorage metadataStorage) {
+		ConversionResult elementsWithoutId = new ConversionResult(0);
+		Map<String, DataGroup> dataGroupsById = indexDataGroupsById(
+				metadataStorage.getMetadataElements(), elementsWithoutId);
+		throwErrorIfAnyConversionFailed(List.of(elementsWithoutId));
+		return dataGroupsById;
+	}
+
+	MetadataHolder createAndPopulateMetadataHolderFromIndexedMetadataElementsReachableFromIds(
+			Map<String, DataGroup> dataGroupsById, Collection<String> rootIds) {
+		return populateMetadataHolderReachableFromIds(dataGroupsById, new ConversionResult(0),
+				rootIds);
+	}
+
+	private MetadataHolder populateMetadataHolderReachableFromIds(
+			Map<String, DataGroup> dataGroupsById, ConversionResult elementsWithoutId,
+			Collection<String> rootIds) {
+		MetadataStringPool stringPool = createStringPoolForPopulation();
+		MetadataHolder mh = new MetadataHolder();
+		Set<String> missingIds = new TreeSet<>();
+		List<ConversionResult> results = new ArrayList<>();
+		results.add(elementsWithoutId);
+		results.addAll(convertReachableElementsAndAddThemToMetadataHolder(dataGroupsById,
+				rootIds, mh, missingIds, stringPool));
+		throwErrorIfAnyConversionFailed(results);
+		throwErrorIfAnyReachableIdIsMissing(missingIds);
+		mh.resolveReferences();
+		possiblyEnsureConsistency(mh);
+		return mh;
+	}
+
+	private Map<String, DataGroup> indexDataGroupsById(Collection<DataGroup> metadataElements,
+			ConversionResult elementsWithoutId) {
+		Map<String, DataGroup> dataGroupsById = new HashMap<>(metadataElements.size());
+		for (DataGroup metadataElement : metadataElements) {
+			String id = extractIdOrNull(metadataElement);
+			if (id == null) {
+				handleFailure(metadataElement, new DataMissingException(
+						"No id found in recordInfo for metadata element"), elementsWithoutId);
+			} else {
+				dataGroupsById.put(id, metadataElement);
+			}
+		}
+		return dataGroupsById;
+	}
+
+	private List<ConversionResult> convertReachableElementsAndAddThemToMetadataHolder(
+			Map<String, DataGroup> dataGroupsById, Collection<String> rootIds,
+			MetadataHolder mh, Set<String> missingIds, MetadataStringPool stringPool) {
+		Set<String> foundIds = new HashSet<>();
+		List<ConversionResult> allResults = new ArrayList<>();
+		List<DataGroup> dataGroupsToConvert = getNotFoundDataGroups(rootIds, dataGroupsById,
+				foundIds, missingIds);
+		while (!dataGroupsToConvert.isEmpty()) {
+			List<ConversionResult> results = convertDataGroups(dataGroupsToConvert, stringPool);
+			addConvertedElementsToMetadataHolder(results, mh);
+			allResults.addAll(results);
+			List<String> referencedIds = getReferencedIds(results);
+			dataGroupsToConvert = getNotFoundDataGroups(referencedIds, dataGroupsById, foundIds,
+					missingIds);
+		}
+		return allResults;
+	}
+
+	private List<DataGroup> getNotFoundDataGroups(Collection<String> ids,
+			Map<String, DataGroup> dataGroupsById, Set<String> foundIds,
+			Set<String> missingIds) {
+		List<DataGroup> dataGroups = new ArrayList<>();
+		for (String id : ids) {
+			DataGroup dataGroup = dataGroupsById.get(id);
+			if (dataGroup == null) {
+				missingIds.add(id);
+			} else if (foundIds.add(id)) {
+				dataGroups.add(dataGroup);
+			}
+		}
+		return dataGroups;
+	}
+
+	private void throwErrorIfAnyReachableIdIsMissing(Set<String> missingIds) {
+		if (!missingIds.isEmpty()) {
+			throw MetadataConsistencyException.withMessage(
+					"Metadata is inconsistent: reachable elements missing in storage: "
+							+ String.join(", ", missingIds));
+		}
+	}
+
+	private List<String> getReferencedIds(List<ConversionResult> results) {
+		List<String> referencedIds = new ArrayList<>();
+		for (ConversionResult result : results) {
+			for (MetadataElement metadataElement : result.convertedElements) {
+				referencedIds.addAll(MetadataReferenceResolver.getReferencedIds(metadataElement));
+				addIdsUsedInValidation(metadataElement, referencedIds);
+			}
+		}
+		return referencedIds;
+	}
+
+	private void addIdsUsedInValidation(MetadataElement metadataElement,
+			List<String> referencedIds) {
+		if (metadataElement instanceof RecordLink) {
+			referencedIds.addAll(((RecordLink) metadataElement).getIdsUsedInValidation());
+		} else if (metadataElement instanceof ResourceLink) {
+			referencedIds.addAll(ResourceLink.IDS_USED_IN_VALIDATION);
+		}
+	}
+
+	/**
+	 * createLazyMetadataHolderFromMetadataStorage creates a {@link LazyMetadataHolder} that
+	 * converts the metadata elements read from the metadataStorage the first time they are
+	 * requested, using a new string pool that the holder keeps for its lifetime. The holder is
+	 * not checked for consistency, as its elements are not converted up front.
+	 */
+	public LazyMetadataHolder createLazyMetadataHolderFromMetadataStorage(
+			MetadataStorage metadataStorage) {
+		return LazyMetadataHolder.usingDataGroupsAndStringPool(
+				metadataStorage.getMetadataElements(), createStringPoolForPopulation());
+	}
+
 	private void convertDataGroupsToMetadataElementsAndAddThemToMetadataHolder(
-			Collection<DataGroup> metadataElements, MetadataHolder mh) {
+			Collection<DataGroup> metadataElements, MetadataHolder mh,
+			MetadataStringPool stringPool) {
+		List<ConversionResult> results = convertDataGroups(metadataElements, stringPool);
+		addConvertedElementsToMetadataHolder(results, mh);
+		throwErrorIfAnyConversionFailed(results);
+	}
+
+	private List<ConversionResult> convertDataGroups(Collection<DataGroup> metadataElements,
+			MetadataStringPool stringPool) {
+		List<List<DataGroup>> batches = splitIntoBatches(metadataElements);
+		if (executor == null) {
+			return convertBatchesSequentially(batches, stringPool);
+		}
+		return convertBatchesConcurrently(batches, stringPool);
+	}
+
+	private List<List<DataGroup>> splitIntoBatches(Collection<DataGroup> metadataElements) {
+		List<List<DataGroup>> batches = new ArrayList<>();
+		List<DataGroup> batch = new ArrayList<>(BATCH_SIZE);
 		for (DataGroup metadataElement : metadataElements) {
-			convertDataGroupToMetadataElementAndAddItToMetadataHolder(metadataElement, mh);
+			if (batch.size() == BATCH_SIZE) {
+				batches.add(batch);
+				batch = new ArrayList<>(BATCH_SIZE);
+			}
+			batch.add(metadataElement);
 		}
+		batches.add(batch);
+		return batches;
 	}
 
-	private void convertDataGroupToMetadataElementAndAddItToMetadataHolder(
-			DataGroup metadataElement, MetadataHolder mh) {
+	private List<ConversionResult> convertBatchesSequentially(List<List<DataGroup>> batches,
+			MetadataStringPool stringPool) {
+		List<ConversionResult> results = new ArrayList<>(batches.size());
+		for (List<DataGroup> batch : batches) {
+			results.add(convertBatch(batch, stringPool));
+		}
+		return results;
+	}
+
+	private List<ConversionResult> convertBatchesConcurrently(List<List<DataGroup>> batches,
+			MetadataStringPool stringPool) {
+		List<CompletableFuture<ConversionResult>> futures = new ArrayList<>(batches.size());
+		for (List<DataGroup> batch : batches) {
+			futures.add(CompletableFuture.supplyAsync(() -> convertBatch(batch, stringPool),
+					executor));
+		}
+		List<ConversionResult> results = new ArrayList<>(futures.size());
+		for (CompletableFuture<ConversionResult> future : futures) {
+			results.add(future.join());
+		}
+		return results;
+	}
+
+	private ConversionResult convertBatch(List<DataGroup> batch, MetadataStringPool stringPool) {
+		ConversionResult result = new ConversionResult(batch.size());
+		for (DataGroup metadataElement : batch) {
+			tryToConvertDataGroupToMetadataElement(metadataElement, result, stringPool);
+		}
+		return result;
+	}
+
+	private void tryToConvertDataGroupToMetadataElement(DataGroup metadataElement,
+			ConversionResult result, MetadataStringPool stringPool) {
+		try {
+			result.convertedElements
+					.add(convertDataGroupToMetadataElement(metadataElement, stringPool));
+		} catch (RuntimeException exception) {
+			handleFailure(metadataElement, exception, result);
+		}
+	}
+
+	private void handleFailure(DataGroup metadataElement, RuntimeException exception,
+			ConversionResult result) {
+		if (executor == null) {
+			throw exception;
+		}
+		result.failedElements.add(describeElement(metadataElement));
+		result.exceptions.add(exception);
+	}
+
+	private String describeElement(DataGroup metadataElement) {
+		String id = extractIdOrNull(metadataElement);
+		if (id == null) {
+			return "element without id";
+		}
+		return id;
+	}
+
+	private MetadataElement convertDataGroupToMetadataElement(DataGroup metadataElement,
+			MetadataStringPool stringPool) {
 		DataGroupToMetadataConverterFactory factory = DataGroupToMetadataConverterFactoryImp
-				.fromDataGroup(metadataElement);
+				.fromDataGroupUsingStringPool(metadataElement, stringPool);
 		DataGroupToMetadataConverter converter = factory.factor();
-		mh.addMetadataElement(converter.toMetadata());
+		return converter.toMetadata();
+	}
+
+	private String extractIdOrNull(DataGroup metadataElement) {
+		if (metadataElement.containsChildWithNameInData("recordInfo")) {
+			DataGroup recordInfo = metadataElement.getFirstGroupWithNameInData("recordInfo");
+			if (recordInfo.containsChildWithNameInData("id")) {
+				return recordInfo.getFirstAtomicValueWithNameInData("id");
+			}
+		}
+		return null;
+	}
+
+	private void addConvertedElementsToMetadataHolder(List<ConversionResult> results,
+			MetadataHolder mh) {
+		for (ConversionResult result : results) {
+			for (MetadataElement metadataElement : result.convertedElements) {
+				mh.addMetadataElement(metadataElement);
+			}
+		}
+	}
+
+	private void throwErrorIfAnyConversionFailed(List<ConversionResult> results) {
+		List<String> failedElements = new ArrayList<>();
+		List<RuntimeException> exceptions = new ArrayList<>();
+		for (ConversionResult result : results) {
+			failedElements.addAll(result.failedElements);
+			exceptions.addAll(result.exceptions);
+		}
+		if (!exceptions.isEmpty()) {
+			throw createExceptionForFailedConversions(failedElements, exceptions);
+		}
+	}
+
+	private DataConversionException createExceptionForFailedConversions(
+			List<String> failedElements, List<RuntimeException> exceptions) {
+		StringBuilder message = new StringBuilder();
+		message.append("Conversion of metadata failed for ").append(exceptions.size())
+				.append(" element(s):");
+		for (int i = 0; i < exceptions.size(); i++) {
+			message.append(' ').append(failedElements.get(i)).append(" (")
+					.append(exceptions.get(i).getMessage()).append(')');
+		}
+		DataConversionException conversionException = DataConversionException
+				.withMessageAndException(message.toString(), exceptions.get(0));
+		for (RuntimeException exception : exceptions.subList(1, exceptions.size())) {
+			conversionException.addSuppressed(exception);
+		}
+		return conversionException;
+	}
+
+	/**
+	 * getStringPool returns the string pool used by the latest population, or by the latest
+	 * created LazyMetadataHolder. Each population uses a new pool, so the pool only holds strings
+	 * from that population.
+	 */
+	public MetadataStringPool getStringPool() {
+		return latestStringPool;
+	}
+
+	private static final class ConversionResult {
+		private final List<MetadataElement> convertedElements;
+		private final List<String> failedElements = new ArrayList<>();
+		private final List<RuntimeException> exceptions = new ArrayList<>();
+
+		ConversionResult(int size) {
+			convertedElements = new ArrayList<>(size);
+		}
 	}
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * MetadataHolderProvider gives readers the currently published MetadataHolder, and lets a new
+ * MetadataHolder be published without stopping the readers.
+ * <p>
+ * Each published MetadataHolder gets a version one higher than the previously published one.
+ * Readers get the current {@link VersionedMetadataHolder} without locking, and keep using it for
+ * as long as they hold on to it, so validations and collections in progress when a new holder is
+ * published finish using the version they started with. A MetadataHolder must not be modified
+ * after it has been published.
+ * <p>
+ * The first MetadataHolder is created using the supplier the first time it is requested,
+ * {@link #reload()} and {@link #reloadInBackground(Executor)} create and publish a new one.
+ * <p>
+ * MetadataHolderProvider is thread safe.
+ */
+public final class MetadataHolderProvider {
+	private final Supplier<MetadataHolder> metadataHolderSupplier;
+	private final AtomicReference<VersionedMetadataHolder> current = new AtomicReference<>();
+	private final Object reloadLock = new Object();
+
+	private MetadataHolderProvider(Supplier<MetadataHolder> metadataHolderSupplier) {
+		this.metadataHolderSupplier = metadataHolderSupplier;
+	}
+
+	public static MetadataHolderProvider usingMetadataHolderSupplier(
+			Supplier<MetadataHolder> metadataHolderSupplier) {
+		return new MetadataHolderProvider(metadataHolderSupplier);
+	}
+
+	public static MetadataHolderProvider usingMetadataStorage(MetadataStorage metadataStorage) {
+		return new MetadataHolderProvider(() -> new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage));
+	}
+
+	/**
+	 * getCurrent returns the currently published VersionedMetadataHolder, creating and publishing
+	 * the first version if no version has been published yet.
+	 * 
+	 * @return The current VersionedMetadataHolder
+	 */
+	public VersionedMetadataHolder getCurrent() {
+		VersionedMetadataHolder currentVersion = current.get();
+		if (currentVersion == null) {
+			return publishFirstVersionIfNotAlreadyPublished();
+		}
+		return currentVersion;
+	}
+
+	private VersionedMetadataHolder publishFirstVersionIfNotAlreadyPublished() {
+		synchronized (reloadLock) {
+			VersionedMetadataHolder currentVersion = current.get();
+			if (currentVersion == null) {
+				return publishAsFirstVersionUnlessAlreadyPublished(metadataHolderSupplier.get());
+			}
+			return currentVersion;
+		}
+	}
+
+	private VersionedMetadataHolder publishAsFirstVersionUnlessAlreadyPublished(
+			MetadataHolder metadataHolder) {
+		VersionedMetadataHolder firstVersion = VersionedMetadataHolder
+				.withVersionAndMetadataHolder(1, metadataHolder);
+		if (current.compareAndSet(null, firstVersion)) {
+			return firstVersion;
+		}
+		return current.get();
+	}
+
+	public MetadataHolder getMetadataHolder() {
+		return getCurrent().getMetadataHolder();
+	}
+
+	/**
+	 * getCurrentVersion returns the version of the currently published MetadataHolder, or 0 if no
+	 * MetadataHolder has been published yet. Calling this method does not create a
+	 * MetadataHolder.
+	 * 
+	 * @return A long with the current version
+	 */
+	public long getCurrentVersion() {
+		VersionedMetadataHolder currentVersion = current.get();
+		return currentVersion == null ? 0 : currentVersion.getVersion();
+	}
+
+	/**
+	 * reload creates a new MetadataHolder using the supplier and publishes it. Readers continue
+	 * to get the previous version while the new MetadataHolder is created. If creating the new
+	 * MetadataHolder fails, the previous version is kept.
+	 * <p>
+	 * Reloads are serialized, a reload started while another reload is creating its
+	 * MetadataHolder waits for it to be published before creating its own. A MetadataHolder
+	 * created from older metadata can therefore never be published after one created from newer
+	 * metadata.
+	 * 
+	 * @return The newly published VersionedMetadataHolder
+	 */
+	public VersionedMetadataHolder reload() {
+		synchronized (reloadLock) {
+			return publish(metadataHolderSupplier.get());
+		}
+	}
+
+	/**
+	 * update publishes the MetadataHolder returned by createUpdatedHolder, called with the
+	 * currently published MetadataHolder. Updates and reloads are done one at a time, so an update
+	 * is never lost because a reload or another update was published while it was created.
+	 * <p>
+	 * createUpdatedHolder must not modify the current MetadataHolder, it is still used by readers,
+	 * but should return a changed copy of it.
+	 * 
+	 * @param createUpdatedHolder
+	 *            A UnaryOperator creating the updated MetadataHolder from the current one
+	 * @return The newly published VersionedMetadataHolder
+	 */
+	public VersionedMetadataHolder update(UnaryOperator<MetadataHolder> createUpdatedHolder) {
+		synchronized (reloadLock) {
+			return publish(createUpdatedHolder.apply(getMetadataHolder()));
+		}
+	}
+
+	/**
+	 * reloadInBackground does the same as {@link #reload()} using the executor, the returned
+	 * future is completed when the new MetadataHolder is published, or exceptionally if creating
+	 * it fails.
+	 */
+	public CompletableFuture<VersionedMetadataHolder> reloadInBackground(Executor executor) {
+		return CompletableFuture.supplyAsync(this::reload, executor);
+	}
+
+	/**
+	 * publish publishes metadataHolder as the next version, readers getting the current version
+	 * after this method returns get the published MetadataHolder.
+	 * <p>
+	 * The version is set using an atomic compare-and-set on the current version, so holders
+	 * published concurrently, from other calls to publish or from a reload, always get different
+	 * versions.
+	 * 
+	 * @param metadataHolder
+	 *            A MetadataHolder to publish, it must not be modified after it is published
+	 * @return The published VersionedMetadataHolder
+	 */
+	public VersionedMetadataHolder publish(MetadataHolder metadataHolder) {
+		return current.updateAndGet(
+				currentVersion -> createNextVersion(currentVersion, metadataHolder));
+	}
+
+	private VersionedMetadataHolder createNextVersion(VersionedMetadataHolder currentVersion,
+			MetadataHolder metadataHolder) {
+		long nextVersion = currentVersion == null ? 1 : currentVersion.getVersion() + 1;
+		return VersionedMetadataHolder.withVersionAndMetadataHolder(nextVersion, metadataHolder);
+	}
+}
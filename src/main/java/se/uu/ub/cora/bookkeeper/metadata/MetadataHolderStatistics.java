@@ -0,0 +1,322 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * MetadataHolderStatistics reports the size and shape of the metadata in a MetadataHolder, such
+ * as the number of elements of each type, estimated heap size of each type, how deeply groups are
+ * nested and which groups and collections are largest.
+ * <p>
+ * Sizes are estimated from the object layout of a 64 bit JVM with compressed references and
+ * compact strings. The estimated size of an element includes the strings, lists, child references
+ * and collect terms it refers to, but not other elements it refers to or objects from other
+ * libraries such as the linked path of a RecordLink. Objects shared between elements, such as
+ * canonicalized strings, are counted once, for the first element found using them.
+ * <p>
+ * All statistics are calculated when the instance is created.
+ */
+public final class MetadataHolderStatistics {
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final Map<String, Integer> numOfElementsPerType = new TreeMap<>();
+	private final Map<String, Long> estimatedSizePerType = new TreeMap<>();
+	private final Map<String, Integer> numOfChildReferencesPerGroup = new HashMap<>();
+	private final Map<String, Integer> numOfItemsPerCollection = new HashMap<>();
+	private final Map<String, Integer> numOfVariablesPerRegularExpression = new HashMap<>();
+	private final Map<String, Integer> nestingDepthPerGroup = new HashMap<>();
+	private final Set<Object> countedObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+	private int numOfElements = 0;
+	private int numOfChildReferences = 0;
+	private int numOfCollectTerms = 0;
+	private String deepestGroupId;
+	private int deepestGroupNesting = 0;
+
+	private MetadataHolderStatistics(ReadOnlyMetadataHolder metadataHolder) {
+		this.metadataHolder = metadataHolder;
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			addElementToStatistics(metadataElement);
+		}
+		calculateGroupNesting();
+	}
+
+	public static MetadataHolderStatistics fromMetadataHolder(
+			ReadOnlyMetadataHolder metadataHolder) {
+		return new MetadataHolderStatistics(metadataHolder);
+	}
+
+	private void addElementToStatistics(MetadataElement metadataElement) {
+		numOfElements++;
+		String type = metadataElement.getClass().getSimpleName();
+		numOfElementsPerType.merge(type, 1, Integer::sum);
+		estimatedSizePerType.merge(type, estimateRetainedSize(metadataElement, metadataElement),
+				Long::sum);
+		if (metadataElement instanceof MetadataGroup) {
+			addGroupToStatistics((MetadataGroup) metadataElement);
+		} else if (metadataElement instanceof ItemCollection) {
+			ItemCollection itemCollection = (ItemCollection) metadataElement;
+			numOfItemsPerCollection.put(itemCollection.getId(),
+					itemCollection.getCollectionItemReferences().size());
+		} else if (metadataElement instanceof TextVariable) {
+			numOfVariablesPerRegularExpression.merge(
+					((TextVariable) metadataElement).getRegularExpression(), 1, Integer::sum);
+		}
+	}
+
+	private void addGroupToStatistics(MetadataGroup metadataGroup) {
+		List<MetadataChildReference> childReferences = metadataGroup.getChildReferences();
+		numOfChildReferencesPerGroup.put(metadataGroup.getId(), childReferences.size());
+		numOfChildReferences += childReferences.size();
+		for (MetadataChildReference childReference : childReferences) {
+			numOfCollectTerms += childReference.getCollectTerms().size();
+		}
+	}
+
+	private long estimateRetainedSize(Object object, MetadataElement owner) {
+		if (object == null || countedObjects.contains(object)
+				|| isOtherMetadataElement(object, owner)) {
+			return 0;
+		}
+		countedObjects.add(object);
+		if (object instanceof String) {
+			return ObjectSizeEstimator.estimateSizeOfString((String) object);
+		}
+		if (object instanceof List) {
+			return estimateRetainedSizeOfList((List<?>) object, owner);
+		}
+		if (isMetadataClass(object)) {
+			return estimateRetainedSizeOfMetadataObject(object, owner);
+		}
+		return 0;
+	}
+
+	private boolean isOtherMetadataElement(Object object, MetadataElement owner) {
+		return object instanceof MetadataElement && object != owner;
+	}
+
+	private long estimateRetainedSizeOfList(List<?> list, MetadataElement owner) {
+		long size = ObjectSizeEstimator.estimateSizeOfArrayList(list.size());
+		for (Object listElement : list) {
+			size += estimateRetainedSize(listElement, owner);
+		}
+		return size;
+	}
+
+	private boolean isMetadataClass(Object object) {
+		return object.getClass().getPackage() == MetadataHolderStatistics.class.getPackage();
+	}
+
+	private long estimateRetainedSizeOfMetadataObject(Object object, MetadataElement owner) {
+		long size = ObjectSizeEstimator.estimateShallowSize(object.getClass());
+		for (Field field : ObjectSizeEstimator.getInstanceFields(object.getClass())) {
+			if (!field.getType().isPrimitive()) {
+				size += estimateRetainedSize(readField(field, object), owner);
+			}
+		}
+		return size;
+	}
+
+	private Object readField(Field field, Object object) {
+		try {
+			field.setAccessible(true);
+			return field.get(object);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private void calculateGroupNesting() {
+		Set<String> groupsInProgress = new HashSet<>();
+		for (String groupId : numOfChildReferencesPerGroup.keySet()) {
+			int nesting = calculateNestingForGroup(
+					(MetadataGroup) metadataHolder.getMetadataElement(groupId), groupsInProgress);
+			if (nesting > deepestGroupNesting || nesting == deepestGroupNesting
+					&& groupId.compareTo(deepestGroupId) < 0) {
+				deepestGroupNesting = nesting;
+				deepestGroupId = groupId;
+			}
+		}
+	}
+
+	private int calculateNestingForGroup(MetadataGroup metadataGroup,
+			Set<String> groupsInProgress) {
+		String groupId = metadataGroup.getId();
+		Integer calculatedNesting = nestingDepthPerGroup.get(groupId);
+		if (calculatedNesting != null) {
+			return calculatedNesting;
+		}
+		if (!groupsInProgress.add(groupId)) {
+			return 0;
+		}
+		int deepestChildNesting = 0;
+		for (MetadataChildReference childReference : metadataGroup.getChildReferences()) {
+			MetadataElement child = metadataHolder.getReferencedElement(childReference);
+			if (child instanceof MetadataGroup) {
+				deepestChildNesting = Math.max(deepestChildNesting,
+						calculateNestingForGroup((MetadataGroup) child, groupsInProgress));
+			}
+		}
+		groupsInProgress.remove(groupId);
+		int nesting = deepestChildNesting + 1;
+		nestingDepthPerGroup.put(groupId, nesting);
+		return nesting;
+	}
+
+	public int getNumberOfElements() {
+		return numOfElements;
+	}
+
+	/**
+	 * getNumberOfElementsPerType returns the number of elements for each element type, keyed by
+	 * the simple class name of the elements, for instance TextVariable
+	 */
+	public Map<String, Integer> getNumberOfElementsPerType() {
+		return Collections.unmodifiableMap(numOfElementsPerType);
+	}
+
+	/**
+	 * getEstimatedSizePerType returns the estimated heap size in bytes of all elements of each
+	 * element type, keyed by the simple class name of the elements
+	 */
+	public Map<String, Long> getEstimatedSizePerType() {
+		return Collections.unmodifiableMap(estimatedSizePerType);
+	}
+
+	public long getEstimatedTotalSize() {
+		long totalSize = 0;
+		for (long size : estimatedSizePerType.values()) {
+			totalSize += size;
+		}
+		return totalSize;
+	}
+
+	public int getNumberOfChildReferences() {
+		return numOfChildReferences;
+	}
+
+	public int getNumberOfCollectTerms() {
+		return numOfCollectTerms;
+	}
+
+	/**
+	 * getDeepestGroupNesting returns the number of levels of groups in the most deeply nested
+	 * group, a group without child groups has nesting 1. References back to a group already being
+	 * followed, in recursive metadata, are not followed again.
+	 */
+	public int getDeepestGroupNesting() {
+		return deepestGroupNesting;
+	}
+
+	public String getDeepestGroupId() {
+		return deepestGroupId;
+	}
+
+	/**
+	 * getWidestGroups returns the ids and number of child references of the groups with most child
+	 * references, ordered with the widest group first
+	 * 
+	 * @param maxNumberOfGroups
+	 *            An int with the maximum number of groups to return
+	 */
+	public Map<String, Integer> getWidestGroups(int maxNumberOfGroups) {
+		return getLargest(numOfChildReferencesPerGroup, maxNumberOfGroups);
+	}
+
+	/**
+	 * getLargestItemCollections returns the ids and number of items of the item collections with
+	 * most items, ordered with the largest collection first
+	 * 
+	 * @param maxNumberOfCollections
+	 *            An int with the maximum number of collections to return
+	 */
+	public Map<String, Integer> getLargestItemCollections(int maxNumberOfCollections) {
+		return getLargest(numOfItemsPerCollection, maxNumberOfCollections);
+	}
+
+	private Map<String, Integer> getLargest(Map<String, Integer> sizes, int maxNumber) {
+		List<Entry<String, Integer>> entries = new ArrayList<>(sizes.entrySet());
+		entries.sort(Entry.<String, Integer> comparingByValue().reversed()
+				.thenComparing(Entry.comparingByKey()));
+		Map<String, Integer> largest = new LinkedHashMap<>();
+		for (Entry<String, Integer> entry : entries.subList(0,
+				Math.min(maxNumber, entries.size()))) {
+			largest.put(entry.getKey(), entry.getValue());
+		}
+		return largest;
+	}
+
+	public int getNumberOfTextVariables() {
+		int numOfTextVariables = 0;
+		for (int numOfVariables : numOfVariablesPerRegularExpression.values()) {
+			numOfTextVariables += numOfVariables;
+		}
+		return numOfTextVariables;
+	}
+
+	public int getNumberOfDistinctRegularExpressions() {
+		return numOfVariablesPerRegularExpression.size();
+	}
+
+	/**
+	 * getMostUsedRegularExpressions returns the regular expressions used by most text variables,
+	 * and the number of text variables using them, ordered with the most used first
+	 * 
+	 * @param maxNumberOfRegularExpressions
+	 *            An int with the maximum number of regular expressions to return
+	 */
+	public Map<String, Integer> getMostUsedRegularExpressions(int maxNumberOfRegularExpressions) {
+		return getLargest(numOfVariablesPerRegularExpression, maxNumberOfRegularExpressions);
+	}
+
+	/**
+	 * createReport returns a short human readable summary of the statistics
+	 */
+	public String createReport() {
+		StringBuilder report = new StringBuilder();
+		report.append("Metadata: ").append(numOfElements).append(" elements, estimated ")
+				.append(getEstimatedTotalSize()).append(" bytes\n");
+		for (Entry<String, Integer> entry : numOfElementsPerType.entrySet()) {
+			report.append("  ").append(entry.getKey()).append(": ").append(entry.getValue())
+					.append(" elements, estimated ")
+					.append(estimatedSizePerType.get(entry.getKey())).append(" bytes\n");
+		}
+		report.append("Child references: ").append(numOfChildReferences)
+				.append(", collect terms: ").append(numOfCollectTerms).append('\n');
+		report.append("Deepest group nesting: ").append(deepestGroupNesting);
+		if (deepestGroupId != null) {
+			report.append(" (").append(deepestGroupId).append(')');
+		}
+		report.append('\n');
+		report.append("Text variables: ").append(getNumberOfTextVariables())
+				.append(", distinct regular expressions: ")
+				.append(getNumberOfDistinctRegularExpressions()).append('\n');
+		return report.toString();
+	}
+}
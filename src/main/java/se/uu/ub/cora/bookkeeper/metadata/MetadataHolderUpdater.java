@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverter;
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverterFactory;
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverterFactoryImp;
+import se.uu.ub.cora.data.DataGroup;
+
+/**
+ * MetadataHolderUpdater applies changes of single metadata elements to the MetadataHolder
+ * published by a {@link MetadataHolderProvider}, without repopulating the whole holder from
+ * storage.
+ * <p>
+ * Published holders are never modified. Each change is applied to a copy of the currently
+ * published holder, see {@link MetadataHolder#copy()}, and the copy is published as a new version
+ * using {@link MetadataHolderProvider#update(java.util.function.UnaryOperator)}. Readers using the
+ * previous version are not affected. The copy keeps the element instances of the published holder,
+ * and copies its usage index and resolved references, so only the changed element is converted.
+ * The copy forgets the resolved references of the changed element and of all elements directly
+ * or indirectly referring to it, see {@link MetadataHolder#addMetadataElement(MetadataElement)},
+ * so the references of those elements are resolved again when they are next used.
+ * <p>
+ * Both update methods return the ids of all elements that directly or indirectly refer to the
+ * changed element, that is the elements whose validation or link collection might be affected
+ * by the change. Elements referring to the changed element are found using the
+ * {@link MetadataUsageIndex} of the holder.
+ */
+public final class MetadataHolderUpdater {
+
+	private final MetadataHolderProvider metadataHolderProvider;
+	private final MetadataStringPool stringPool;
+
+	private MetadataHolderUpdater(MetadataHolderProvider metadataHolderProvider,
+			MetadataStringPool stringPool) {
+		this.metadataHolderProvider = metadataHolderProvider;
+		this.stringPool = stringPool;
+	}
+
+	public static MetadataHolderUpdater usingMetadataHolderProvider(
+			MetadataHolderProvider metadataHolderProvider) {
+		return new MetadataHolderUpdater(metadataHolderProvider, new MetadataStringPool());
+	}
+
+	/**
+	 * usingMetadataHolderProviderAndStringPool creates an updater that canonicalizes the strings
+	 * in converted elements using the stringPool, preferably the pool used when the holder was
+	 * populated, see {@link MetadataHolderFromStoragePopulator#getStringPool()}
+	 */
+	public static MetadataHolderUpdater usingMetadataHolderProviderAndStringPool(
+			MetadataHolderProvider metadataHolderProvider, MetadataStringPool stringPool) {
+		return new MetadataHolderUpdater(metadataHolderProvider, stringPool);
+	}
+
+	/**
+	 * addOrReplaceMetadataElement converts the dataGroup to a MetadataElement and publishes a
+	 * holder with the element added, replacing any existing element with the same id.
+	 * 
+	 * @param dataGroup
+	 *            A DataGroup with the metadata element to add or replace
+	 * @return A Set with the ids of the elements affected by the change
+	 */
+	public Set<String> addOrReplaceMetadataElement(DataGroup dataGroup) {
+		MetadataElement metadataElement = convertDataGroupToMetadataElement(dataGroup);
+		Set<String> affectedIds = new TreeSet<>();
+		metadataHolderProvider.update(currentHolder -> {
+			MetadataHolder updatedHolder = currentHolder.copy();
+			updatedHolder.addMetadataElement(metadataElement);
+			affectedIds.addAll(collectAffectedIds(updatedHolder, metadataElement.getId()));
+			return updatedHolder;
+		});
+		return affectedIds;
+	}
+
+	private MetadataElement convertDataGroupToMetadataElement(DataGroup dataGroup) {
+		DataGroupToMetadataConverterFactory factory = DataGroupToMetadataConverterFactoryImp
+				.fromDataGroupUsingStringPool(dataGroup, stringPool);
+		DataGroupToMetadataConverter converter = factory.factor();
+		return converter.toMetadata();
+	}
+
+	/**
+	 * removeMetadataElement publishes a holder without the element with the elementId. References
+	 * to the removed element are no longer resolved. Nothing is published if the current holder
+	 * has no element with the elementId.
+	 * 
+	 * @param elementId
+	 *            A String with the id of the element to remove
+	 * @return A Set with the ids of the elements affected by the change
+	 */
+	public Set<String> removeMetadataElement(String elementId) {
+		if (metadataHolderProvider.getMetadataHolder().getIndexOfMetadataElement(elementId) < 0) {
+			return new TreeSet<>();
+		}
+		Set<String> affectedIds = new TreeSet<>();
+		metadataHolderProvider.update(currentHolder -> {
+			MetadataHolder updatedHolder = currentHolder.copy();
+			updatedHolder.removeMetadataElement(elementId);
+			affectedIds.addAll(collectAffectedIds(updatedHolder, elementId));
+			return updatedHolder;
+		});
+		return affectedIds;
+	}
+
+	private Set<String> collectAffectedIds(MetadataHolder metadataHolder, String changedId) {
+		return metadataHolder.getUsageIndex().getIdsOfElementsDependingOn(List.of(changedId));
+	}
+}
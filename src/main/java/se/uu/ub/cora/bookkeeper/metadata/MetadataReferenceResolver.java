@@ -0,0 +1,344 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * MetadataReferenceResolver resolves the id based references between elements in a
+ * MetadataHolder into direct references between the element objects, and keeps the resolved
+ * references for the holder.
+ * <p>
+ * Resolved references are kept by the resolver, one immutable entry per element index in the
+ * holder, and never on the element objects themselves. The same element instance can therefore
+ * be used by several holders, for instance when a new version of the metadata reuses the
+ * unchanged elements of the previous version. Entries are created the first time an element is
+ * resolved and are safely published to other threads, so a resolver can be shared between
+ * threads. An entry is only used as long as the holder has the same element instance at the
+ * index.
+ * <p>
+ * When the holder adds or removes an element it calls
+ * {@link #forgetResolvedElementsAffectedBy(String, MetadataUsageIndex)}, which clears the entries
+ * of the affected elements in place, so a change costs time in proportion to the number of
+ * affected elements and not to the size of the holder. An entry resolved while a change is made
+ * is not kept, so an entry resolved from the elements before the change is never kept after it.
+ */
+public final class MetadataReferenceResolver {
+
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final boolean keepsResolvedReferences;
+	private final AtomicLong numOfChanges = new AtomicLong();
+	private volatile AtomicReferenceArray<ResolvedElement> resolvedElements;
+
+	private MetadataReferenceResolver(ReadOnlyMetadataHolder metadataHolder,
+			boolean keepsResolvedReferences, int numOfIndexes) {
+		this.metadataHolder = metadataHolder;
+		this.keepsResolvedReferences = keepsResolvedReferences;
+		resolvedElements = new AtomicReferenceArray<>(numOfIndexes);
+	}
+
+	public static MetadataReferenceResolver usingMetadataHolder(
+			ReadOnlyMetadataHolder metadataHolder) {
+		return new MetadataReferenceResolver(metadataHolder, true,
+				metadataHolder.getNumberOfIndexes());
+	}
+
+	/**
+	 * withoutKeptReferencesUsingMetadataHolder creates a resolver that does not keep any resolved
+	 * references, used by holders whose references have not been resolved
+	 */
+	static MetadataReferenceResolver withoutKeptReferencesUsingMetadataHolder(
+			ReadOnlyMetadataHolder metadataHolder) {
+		return new MetadataReferenceResolver(metadataHolder, false, 0);
+	}
+
+	/**
+	 * resolveReferences resolves the references of all elements in the holder
+	 */
+	public void resolveReferences() {
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			resolveReferencesForElement(metadataElement);
+		}
+	}
+
+	public void resolveReferencesForElement(MetadataElement metadataElement) {
+		getResolvedElement(metadataElement);
+	}
+
+	/**
+	 * isResolved returns true if this resolver keeps resolved references for the metadataElement
+	 */
+	public boolean isResolved(MetadataElement metadataElement) {
+		AtomicReferenceArray<ResolvedElement> currentResolvedElements = resolvedElements;
+		int index = metadataHolder.getIndexOfMetadataElement(metadataElement.getId());
+		if (!elementIsInHolderAtIndex(metadataElement, index, currentResolvedElements)) {
+			return false;
+		}
+		ResolvedElement resolvedElement = currentResolvedElements.get(index);
+		return resolvedElement != null && resolvedElement.metadataElement == metadataElement;
+	}
+
+	private boolean elementIsInHolderAtIndex(MetadataElement metadataElement, int index,
+			AtomicReferenceArray<ResolvedElement> currentResolvedElements) {
+		return index >= 0 && index < currentResolvedElements.length()
+				&& metadataHolder.getMetadataElementByIndex(index) == metadataElement;
+	}
+
+	private ResolvedElement getResolvedElement(MetadataElement metadataElement) {
+		int index = metadataHolder.getIndexOfMetadataElement(metadataElement.getId());
+		return getResolvedElement(metadataElement, index);
+	}
+
+	private ResolvedElement getResolvedElement(MetadataElement metadataElement, int index) {
+		AtomicReferenceArray<ResolvedElement> currentResolvedElements = resolvedElements;
+		if (!elementIsInHolderAtIndex(metadataElement, index, currentResolvedElements)) {
+			return resolveElement(metadataElement);
+		}
+		ResolvedElement resolvedElement = currentResolvedElements.get(index);
+		if (resolvedElement == null || resolvedElement.metadataElement != metadataElement) {
+			resolvedElement = resolveAndKeepElement(currentResolvedElements, index,
+					metadataElement);
+		}
+		return resolvedElement;
+	}
+
+	private ResolvedElement resolveAndKeepElement(
+			AtomicReferenceArray<ResolvedElement> currentResolvedElements, int index,
+			MetadataElement metadataElement) {
+		long numOfChangesBeforeResolve = numOfChanges.get();
+		ResolvedElement resolvedElement = resolveElement(metadataElement);
+		currentResolvedElements.set(index, resolvedElement);
+		if (numOfChanges.get() != numOfChangesBeforeResolve) {
+			currentResolvedElements.compareAndSet(index, resolvedElement, null);
+		}
+		return resolvedElement;
+	}
+
+	private ResolvedElement resolveElement(MetadataElement metadataElement) {
+		ResolvedElement resolvedElement = new ResolvedElement(metadataElement);
+		resolvedElement.attributes = resolveAttributes(metadataElement);
+		if (metadataElement instanceof MetadataGroup) {
+			resolvedElement.childDispatchTable = ChildReferenceDispatchTable
+					.usingMetadataHolderAndMetadataGroup(metadataHolder,
+							(MetadataGroup) metadataElement);
+		} else if (metadataElement instanceof CollectionVariable) {
+			resolvedElement.refCollection = resolveRefCollection(
+					(CollectionVariable) metadataElement);
+		} else if (metadataElement instanceof ItemCollection) {
+			resolvedElement.collectionItems = resolveCollectionItems(
+					(ItemCollection) metadataElement);
+		}
+		return resolvedElement;
+	}
+
+	private List<CollectionVariable> resolveAttributes(MetadataElement metadataElement) {
+		List<CollectionVariable> attributes = new ArrayList<>();
+		for (String attributeReference : metadataElement.getAttributeReferences()) {
+			MetadataElement attribute = metadataHolder.getMetadataElement(attributeReference);
+			if (!(attribute instanceof CollectionVariable)) {
+				return null;
+			}
+			attributes.add((CollectionVariable) attribute);
+		}
+		return Collections.unmodifiableList(attributes);
+	}
+
+	private ItemCollection resolveRefCollection(CollectionVariable collectionVariable) {
+		MetadataElement refCollection = metadataHolder
+				.getMetadataElement(collectionVariable.getRefCollectionId());
+		if (refCollection instanceof ItemCollection) {
+			return (ItemCollection) refCollection;
+		}
+		return null;
+	}
+
+	private List<CollectionItem> resolveCollectionItems(ItemCollection itemCollection) {
+		List<CollectionItem> collectionItems = new ArrayList<>();
+		for (String itemReference : itemCollection.getCollectionItemReferences()) {
+			MetadataElement collectionItem = metadataHolder.getMetadataElement(itemReference);
+			if (!(collectionItem instanceof CollectionItem)) {
+				return null;
+			}
+			collectionItems.add((CollectionItem) collectionItem);
+		}
+		return Collections.unmodifiableList(collectionItems);
+	}
+
+	/**
+	 * getAttributesForElement returns the CollectionVariables used as attributes for the element
+	 * 
+	 * @throws DataMissingException
+	 *             if an attribute reference does not refer to a CollectionVariable in the holder
+	 */
+	public List<CollectionVariable> getAttributesForElement(MetadataElement metadataElement) {
+		List<CollectionVariable> attributes = getResolvedElement(metadataElement).attributes;
+		if (attributes == null) {
+			throw new DataMissingException("Attribute for element with id: "
+					+ metadataElement.getId() + " is not a CollectionVariable in metadataHolder");
+		}
+		return attributes;
+	}
+
+	/**
+	 * getRefCollection returns the ItemCollection referred to by the collectionVariable, or null
+	 * if the holder has no ItemCollection with the referred id
+	 */
+	public ItemCollection getRefCollection(CollectionVariable collectionVariable) {
+		return getResolvedElement(collectionVariable).refCollection;
+	}
+
+	/**
+	 * getCollectionItems returns the CollectionItems in the itemCollection
+	 * 
+	 * @throws DataMissingException
+	 *             if an item reference does not refer to a CollectionItem in the holder
+	 */
+	public List<CollectionItem> getCollectionItems(ItemCollection itemCollection) {
+		List<CollectionItem> collectionItems = getResolvedElement(itemCollection).collectionItems;
+		if (collectionItems == null) {
+			throw new DataMissingException("Item in collection with id: " + itemCollection.getId()
+					+ " is not a CollectionItem in metadataHolder");
+		}
+		return collectionItems;
+	}
+
+	public ChildReferenceDispatchTable getChildDispatchTable(MetadataGroup metadataGroup) {
+		return getResolvedElement(metadataGroup).childDispatchTable;
+	}
+
+	/**
+	 * getChildDispatchTableByIndex returns the dispatch table for the MetadataGroup with the
+	 * specified index in the holder, finding the kept entry by the index without looking up the
+	 * group by id
+	 * 
+	 * @throws DataMissingException
+	 *             if the holder has no MetadataGroup with the index
+	 */
+	public ChildReferenceDispatchTable getChildDispatchTableByIndex(int index) {
+		MetadataElement metadataElement = metadataHolder.getMetadataElementByIndex(index);
+		if (!(metadataElement instanceof MetadataGroup)) {
+			throw new DataMissingException(
+					"No MetadataGroup with index: " + index + " in metadataHolder");
+		}
+		return getResolvedElement(metadataElement, index).childDispatchTable;
+	}
+
+	/**
+	 * copyUsingMetadataHolder creates a resolver for the copiedHolder, keeping the resolved
+	 * references of this resolver. The copiedHolder must have the same elements at the same
+	 * indexes as the holder of this resolver, see {@link MetadataHolder#copy()}.
+	 */
+	MetadataReferenceResolver copyUsingMetadataHolder(ReadOnlyMetadataHolder copiedHolder) {
+		AtomicReferenceArray<ResolvedElement> currentResolvedElements = resolvedElements;
+		MetadataReferenceResolver copy = new MetadataReferenceResolver(copiedHolder,
+				keepsResolvedReferences, currentResolvedElements.length());
+		for (int index = 0; index < currentResolvedElements.length(); index++) {
+			copy.resolvedElements.set(index, currentResolvedElements.get(index));
+		}
+		return copy;
+	}
+
+	/**
+	 * forgetResolvedElementsAffectedBy forgets, in place, the resolved references of the element
+	 * with the changedId and of all elements that the usageIndex finds as directly or indirectly
+	 * referring to it. Called by the holder after an element has been added or removed, room is
+	 * then also made for the resolved references of added elements.
+	 */
+	void forgetResolvedElementsAffectedBy(String changedId, MetadataUsageIndex usageIndex) {
+		if (!keepsResolvedReferences) {
+			return;
+		}
+		ensureRoomForAllIndexesInHolder();
+		numOfChanges.incrementAndGet();
+		AtomicReferenceArray<ResolvedElement> currentResolvedElements = resolvedElements;
+		forgetResolvedElement(currentResolvedElements, changedId);
+		for (String affectedId : usageIndex.getIdsOfElementsDependingOn(List.of(changedId))) {
+			forgetResolvedElement(currentResolvedElements, affectedId);
+		}
+	}
+
+	private void ensureRoomForAllIndexesInHolder() {
+		AtomicReferenceArray<ResolvedElement> currentResolvedElements = resolvedElements;
+		int numOfIndexes = metadataHolder.getNumberOfIndexes();
+		if (numOfIndexes > currentResolvedElements.length()) {
+			int grownLength = Math.max(numOfIndexes, currentResolvedElements.length() * 2);
+			AtomicReferenceArray<ResolvedElement> grown = new AtomicReferenceArray<>(grownLength);
+			for (int index = 0; index < currentResolvedElements.length(); index++) {
+				grown.set(index, currentResolvedElements.get(index));
+			}
+			resolvedElements = grown;
+		}
+	}
+
+	private void forgetResolvedElement(
+			AtomicReferenceArray<ResolvedElement> currentResolvedElements, String elementId) {
+		int index = metadataHolder.getIndexOfMetadataElement(elementId);
+		if (index >= 0 && index < currentResolvedElements.length()) {
+			currentResolvedElements.set(index, null);
+		}
+	}
+
+	boolean keepsResolvedReferences() {
+		return keepsResolvedReferences;
+	}
+
+	/**
+	 * getReferencedIdsForElement returns the ids of all elements the metadataElement refers to
+	 * through references that are resolved by this resolver
+	 */
+	public List<String> getReferencedIdsForElement(MetadataElement metadataElement) {
+		return getReferencedIds(metadataElement);
+	}
+
+	static List<String> getReferencedIds(MetadataElement metadataElement) {
+		List<String> referencedIds = new ArrayList<>(metadataElement.getAttributeReferences());
+		if (metadataElement instanceof MetadataGroup) {
+			for (MetadataChildReference childReference : ((MetadataGroup) metadataElement)
+					.getChildReferences()) {
+				referencedIds.add(childReference.getLinkedRecordId());
+			}
+		} else if (metadataElement instanceof CollectionVariable) {
+			referencedIds.add(((CollectionVariable) metadataElement).getRefCollectionId());
+		} else if (metadataElement instanceof ItemCollection) {
+			referencedIds
+					.addAll(((ItemCollection) metadataElement).getCollectionItemReferences());
+		}
+		return referencedIds;
+	}
+
+	/**
+	 * ResolvedElement holds the resolved references of one element. All fields are set before the
+	 * entry is stored in the resolver, and are never changed afterwards.
+	 */
+	private static final class ResolvedElement {
+		private final MetadataElement metadataElement;
+		private List<CollectionVariable> attributes;
+		private ChildReferenceDispatchTable childDispatchTable;
+		private ItemCollection refCollection;
+		private List<CollectionItem> collectionItems;
+
+		private ResolvedElement(MetadataElement metadataElement) {
+			this.metadataElement = metadataElement;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * MetadataStringPool canonicalizes strings, {@link CollectTerm}s and compiled regular expressions
+ * used in metadata, so that equal values read from different metadata DataGroups are shared as
+ * one instance in the converted metadata.
+ * <p>
+ * The pool keeps track of how many lookups returned an already pooled instance, and from that
+ * estimates how many bytes of heap the sharing saves, assuming the duplicate instances would
+ * otherwise have been kept by the converted metadata.
+ * <p>
+ * MetadataStringPool is thread safe.
+ */
+public final class MetadataStringPool {
+	private static final long COLLECT_TERM_SIZE = ObjectSizeEstimator
+			.estimateShallowSize(CollectTerm.class);
+	private final Map<String, String> strings = new ConcurrentHashMap<>();
+	private final Map<String, Map<String, CollectTerm>> collectTerms = new ConcurrentHashMap<>();
+	private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+	private final LongAdder numOfSharedStrings = new LongAdder();
+	private final LongAdder numOfSharedCollectTerms = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+
+	/**
+	 * fromMetadataHolder creates a MetadataStringPool holding the ids, nameInDatas, text ids,
+	 * compiled regular expressions and collect terms used by the elements in the metadataHolder,
+	 * so that elements converted using the pool share them with the elements already in the
+	 * holder. Seeding the pool is not counted as sharing.
+	 */
+	public static MetadataStringPool fromMetadataHolder(MetadataHolder metadataHolder) {
+		MetadataStringPool stringPool = new MetadataStringPool();
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			stringPool.addValuesUsedByElement(metadataElement);
+		}
+		return stringPool;
+	}
+
+	private void addValuesUsedByElement(MetadataElement metadataElement) {
+		addString(metadataElement.getId());
+		addString(metadataElement.getNameInData());
+		addString(metadataElement.getTextId());
+		addString(metadataElement.getDefTextId());
+		if (metadataElement instanceof TextVariable) {
+			addPatternIfCompiled((TextVariable) metadataElement);
+		}
+		if (metadataElement instanceof MetadataGroup) {
+			addCollectTermsUsedByGroup((MetadataGroup) metadataElement);
+		}
+	}
+
+	private void addString(String value) {
+		if (value != null) {
+			strings.putIfAbsent(value, value);
+		}
+	}
+
+	private void addPatternIfCompiled(TextVariable textVariable) {
+		Pattern pattern = textVariable.getPatternIfCompiled();
+		if (pattern != null) {
+			addString(pattern.pattern());
+			patterns.putIfAbsent(strings.get(pattern.pattern()), pattern);
+		}
+	}
+
+	private void addCollectTermsUsedByGroup(MetadataGroup metadataGroup) {
+		for (MetadataChildReference childReference : metadataGroup.getChildReferences()) {
+			for (CollectTerm collectTerm : childReference.getCollectTerms()) {
+				addCollectTerm(collectTerm);
+			}
+		}
+	}
+
+	private void addCollectTerm(CollectTerm collectTerm) {
+		if (collectTerm.type != null && collectTerm.id != null) {
+			addString(collectTerm.type);
+			addString(collectTerm.id);
+			collectTerms.computeIfAbsent(collectTerm.type, key -> new ConcurrentHashMap<>())
+					.putIfAbsent(collectTerm.id, collectTerm);
+		}
+	}
+
+	/**
+	 * canonicalize returns the pooled instance equal to the value, adding the value to the pool
+	 * if no equal instance is pooled.
+	 * 
+	 * @param value
+	 *            A String to canonicalize, can be null
+	 * @return The pooled String equal to value, or null if value is null
+	 */
+	public String canonicalize(String value) {
+		if (value == null) {
+			return null;
+		}
+		String pooled = strings.putIfAbsent(value, value);
+		if (pooled == null) {
+			return value;
+		}
+		if (pooled != value) {
+			numOfSharedStrings.increment();
+			bytesSaved.add(ObjectSizeEstimator.estimateSizeOfString(value));
+		}
+		return pooled;
+	}
+
+	/**
+	 * getCollectTermWithTypeAndId returns a shared CollectTerm with the type and id, creating it
+	 * the first time it is requested. CollectTerms are immutable so one instance can be used by
+	 * all child references collecting the same term.
+	 */
+	public CollectTerm getCollectTermWithTypeAndId(String type, String id) {
+		if (type == null || id == null) {
+			return CollectTerm.createCollectTermWithTypeAndId(type, id);
+		}
+		Map<String, CollectTerm> collectTermsForType = collectTerms.computeIfAbsent(type,
+				key -> new ConcurrentHashMap<>());
+		CollectTerm pooled = collectTermsForType.get(id);
+		if (pooled != null) {
+			numOfSharedCollectTerms.increment();
+			bytesSaved.add(COLLECT_TERM_SIZE);
+			return pooled;
+		}
+		return collectTermsForType.computeIfAbsent(id, key -> CollectTerm
+				.createCollectTermWithTypeAndId(canonicalize(type), canonicalize(id)));
+	}
+
+	/**
+	 * getPatternForRegularExpression returns a shared compiled Pattern for the regularExpression,
+	 * compiling it the first time it is requested. Patterns are immutable so one instance can be
+	 * used by all text variables with the same regular expression.
+	 * 
+	 * @param regularExpression
+	 *            A String with the regular expression to compile
+	 * @return The pooled Pattern for the regularExpression
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if the regular expression is invalid, invalid expressions are not pooled
+	 */
+	public Pattern getPatternForRegularExpression(String regularExpression) {
+		return patterns.computeIfAbsent(canonicalize(regularExpression), Pattern::compile);
+	}
+
+	public int getNumberOfPooledPatterns() {
+		return patterns.size();
+	}
+
+	public int getNumberOfPooledStrings() {
+		return strings.size();
+	}
+
+	public long getNumberOfSharedStrings() {
+		return numOfSharedStrings.sum();
+	}
+
+	public long getNumberOfSharedCollectTerms() {
+		return numOfSharedCollectTerms.sum();
+	}
+
+	/**
+	 * getEstimatedBytesSaved returns an estimate of the heap saved by sharing pooled instances
+	 * instead of keeping duplicates, based on the object layout of a 64 bit JVM with compressed
+	 * references and compact strings
+	 */
+	public long getEstimatedBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	/**
+	 * createReport returns a short human readable summary of the pool
+	 */
+	public String createReport() {
+		return "Metadata string pool: " + getNumberOfPooledStrings() + " pooled strings, "
+				+ getNumberOfSharedStrings() + " shared strings, "
+				+ getNumberOfSharedCollectTerms() + " shared collect terms, estimated "
+				+ getEstimatedBytesSaved() + " bytes saved";
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MetadataUsageIndex is a reverse index over the elements in a MetadataHolder, answering which
+ * elements use a given element without scanning all elements.
+ * <p>
+ * The index is built by {@link MetadataHolder#resolveReferences()} and is then kept up to date
+ * when elements are added to or removed from the holder, see
+ * {@link MetadataHolder#getUsageIndex()}. References to ids not found in the holder are indexed as
+ * well, so the elements referring to a missing element can be found. The lists returned by the
+ * query methods are unmodifiable snapshots, and are empty if nothing uses the id.
+ * <p>
+ * The index keeps the ids of the using elements, not the elements, and looks up the elements in
+ * the holder when it is queried. An index can therefore be built from {@link ElementUsages}
+ * without keeping the elements, see
+ * {@link #usingMetadataHolderAndElementUsages(ReadOnlyMetadataHolder, Iterable)}.
+ * <p>
+ * MetadataUsageIndex is thread safe. Changes are applied one element at a time while holding the
+ * lock of the index, and the users of each id are replaced with a new unmodifiable list instead
+ * of being changed in place. Queries do not lock, and never see a partially updated list. A query
+ * made while an element is replaced sees the users of an id either from before or from after the
+ * replacement.
+ */
+public final class MetadataUsageIndex {
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final Map<String, ElementUsages> indexedUsages = new ConcurrentHashMap<>();
+	private final Map<String, List<String>> referringElements = new ConcurrentHashMap<>();
+	private final Map<String, List<String>> parentGroups = new ConcurrentHashMap<>();
+	private final Map<String, List<String>> collectionVariables = new ConcurrentHashMap<>();
+	private final Map<String, List<String>> collectTermUsers = new ConcurrentHashMap<>();
+
+	private MetadataUsageIndex(ReadOnlyMetadataHolder metadataHolder) {
+		this.metadataHolder = metadataHolder;
+	}
+
+	public static MetadataUsageIndex fromMetadataHolder(ReadOnlyMetadataHolder metadataHolder) {
+		MetadataUsageIndex usageIndex = new MetadataUsageIndex(metadataHolder);
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			usageIndex.addElement(metadataElement);
+		}
+		return usageIndex;
+	}
+
+	/**
+	 * usingMetadataHolderAndElementUsages creates an index from the usages of all elements in the
+	 * metadataHolder, used by holders that can provide the usages without creating the elements
+	 */
+	public static MetadataUsageIndex usingMetadataHolderAndElementUsages(
+			ReadOnlyMetadataHolder metadataHolder, Iterable<ElementUsages> allElementUsages) {
+		MetadataUsageIndex usageIndex = new MetadataUsageIndex(metadataHolder);
+		for (ElementUsages elementUsages : allElementUsages) {
+			usageIndex.replaceUsages(elementUsages.elementId, elementUsages);
+		}
+		return usageIndex;
+	}
+
+	/**
+	 * copyUsingMetadataHolder creates an index with the same usages as this index, looking up
+	 * elements in the copiedHolder, used when a holder is copied
+	 */
+	synchronized MetadataUsageIndex copyUsingMetadataHolder(ReadOnlyMetadataHolder copiedHolder) {
+		MetadataUsageIndex copy = new MetadataUsageIndex(copiedHolder);
+		copy.indexedUsages.putAll(indexedUsages);
+		copy.referringElements.putAll(referringElements);
+		copy.parentGroups.putAll(parentGroups);
+		copy.collectionVariables.putAll(collectionVariables);
+		copy.collectTermUsers.putAll(collectTermUsers);
+		return copy;
+	}
+
+	void addElement(MetadataElement metadataElement) {
+		updateElement(metadataElement.getId(), metadataElement);
+	}
+
+	/**
+	 * updateElement replaces the usages of the element with the elementId with the usages of the
+	 * metadataElement, or removes them if the metadataElement is null
+	 */
+	void updateElement(String elementId, MetadataElement metadataElement) {
+		ElementUsages elementUsages = metadataElement == null ? ElementUsages.NONE
+				: ElementUsages.ofElement(metadataElement);
+		replaceUsages(elementId, elementUsages);
+	}
+
+	private synchronized void replaceUsages(String elementId, ElementUsages addedUsages) {
+		ElementUsages removedUsages = indexedUsages.remove(elementId);
+		if (removedUsages == null) {
+			removedUsages = ElementUsages.NONE;
+		}
+		if (addedUsages != ElementUsages.NONE) {
+			indexedUsages.put(elementId, addedUsages);
+		}
+		replaceUser(referringElements, elementId, removedUsages.referencedIds,
+				addedUsages.referencedIds);
+		replaceUser(parentGroups, elementId, removedUsages.childIds, addedUsages.childIds);
+		replaceUser(collectionVariables, elementId, removedUsages.refCollectionIds,
+				addedUsages.refCollectionIds);
+		replaceUser(collectTermUsers, elementId, removedUsages.collectTermIds,
+				addedUsages.collectTermIds);
+	}
+
+	private static void replaceUser(Map<String, List<String>> index, String userId,
+			Set<String> removedFromIds, Set<String> addedToIds) {
+		Set<String> ids = new LinkedHashSet<>(removedFromIds);
+		ids.addAll(addedToIds);
+		for (String id : ids) {
+			index.compute(id, (key, users) -> createReplacedUsers(users, userId,
+					addedToIds.contains(key)));
+		}
+	}
+
+	private static List<String> createReplacedUsers(List<String> users, String userId,
+			boolean addUser) {
+		List<String> replacedUsers = new ArrayList<>();
+		if (users != null) {
+			for (String user : users) {
+				if (!user.equals(userId)) {
+					replacedUsers.add(user);
+				}
+			}
+		}
+		if (addUser) {
+			replacedUsers.add(userId);
+		}
+		if (replacedUsers.isEmpty()) {
+			return null;
+		}
+		return Collections.unmodifiableList(replacedUsers);
+	}
+
+	/**
+	 * getElementsReferringTo returns all elements that refer to the element with the specified
+	 * id, through child references, attribute references, referred collections or collection
+	 * items
+	 */
+	public List<MetadataElement> getElementsReferringTo(String elementId) {
+		return getUsers(referringElements, elementId, MetadataElement.class);
+	}
+
+	/**
+	 * getIdsOfElementsDependingOn returns the ids of all elements that directly or indirectly
+	 * refer to any of the elements with the changedIds, following the same references as
+	 * {@link #getElementsReferringTo(String)}. The changedIds are not included, even if they
+	 * refer to each other.
+	 * 
+	 * @param changedIds
+	 *            A Collection with the ids of the changed elements
+	 * @return A sorted Set with the ids of the depending elements
+	 */
+	public Set<String> getIdsOfElementsDependingOn(Collection<String> changedIds) {
+		Set<String> visitedIds = new HashSet<>(changedIds);
+		Set<String> dependingIds = new TreeSet<>();
+		Deque<String> idsToVisit = new ArrayDeque<>(changedIds);
+		while (!idsToVisit.isEmpty()) {
+			for (String referringId : referringElements.getOrDefault(idsToVisit.poll(),
+					Collections.emptyList())) {
+				if (visitedIds.add(referringId)) {
+					dependingIds.add(referringId);
+					idsToVisit.add(referringId);
+				}
+			}
+		}
+		return dependingIds;
+	}
+
+	private <T extends MetadataElement> List<T> getUsers(Map<String, List<String>> index,
+			String id, Class<T> userType) {
+		List<String> userIds = index.get(id);
+		if (userIds == null) {
+			return Collections.emptyList();
+		}
+		List<T> users = new ArrayList<>(userIds.size());
+		for (String userId : userIds) {
+			MetadataElement user = metadataHolder.getMetadataElement(userId);
+			if (userType.isInstance(user)) {
+				users.add(userType.cast(user));
+			}
+		}
+		return Collections.unmodifiableList(users);
+	}
+
+	/**
+	 * getParentGroups returns all groups with a child reference to the element with the
+	 * specified id
+	 */
+	public List<MetadataGroup> getParentGroups(String elementId) {
+		return getUsers(parentGroups, elementId, MetadataGroup.class);
+	}
+
+	/**
+	 * getCollectionVariablesUsingItemCollection returns all collection variables referring to the
+	 * item collection with the specified id
+	 */
+	public List<CollectionVariable> getCollectionVariablesUsingItemCollection(
+			String itemCollectionId) {
+		return getUsers(collectionVariables, itemCollectionId, CollectionVariable.class);
+	}
+
+	/**
+	 * getChildReferencesUsingCollectTerm returns all child references that have the collect term
+	 * with the specified id
+	 */
+	public List<MetadataChildReference> getChildReferencesUsingCollectTerm(String collectTermId) {
+		List<MetadataChildReference> childReferences = new ArrayList<>();
+		for (MetadataGroup metadataGroup : getUsers(collectTermUsers, collectTermId,
+				MetadataGroup.class)) {
+			for (MetadataChildReference childReference : metadataGroup.getChildReferences()) {
+				if (hasCollectTerm(childReference, collectTermId)) {
+					childReferences.add(childReference);
+				}
+			}
+		}
+		return Collections.unmodifiableList(childReferences);
+	}
+
+	private static boolean hasCollectTerm(MetadataChildReference childReference,
+			String collectTermId) {
+		for (CollectTerm collectTerm : childReference.getCollectTerms()) {
+			if (collectTerm.id.equals(collectTermId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * ElementUsages holds the ids used by one element, each id once. The ids are the ids referred
+	 * to through any reference, the ids of the children of a group, the id of the collection
+	 * referred by a collection variable and the ids of the collect terms of the children of a
+	 * group.
+	 */
+	public static final class ElementUsages {
+		private static final ElementUsages NONE = new ElementUsages(null, List.of(), List.of(),
+				List.of(), List.of());
+		private final String elementId;
+		private final Set<String> referencedIds;
+		private final Set<String> childIds;
+		private final Set<String> refCollectionIds;
+		private final Set<String> collectTermIds;
+
+		private ElementUsages(String elementId, Collection<String> referencedIds,
+				Collection<String> childIds, Collection<String> refCollectionIds,
+				Collection<String> collectTermIds) {
+			this.elementId = elementId;
+			this.referencedIds = Collections.unmodifiableSet(new LinkedHashSet<>(referencedIds));
+			this.childIds = Collections.unmodifiableSet(new LinkedHashSet<>(childIds));
+			this.refCollectionIds = Collections
+					.unmodifiableSet(new LinkedHashSet<>(refCollectionIds));
+			this.collectTermIds = Collections.unmodifiableSet(new LinkedHashSet<>(collectTermIds));
+		}
+
+		public static ElementUsages ofElement(MetadataElement metadataElement) {
+			List<String> childIds = new ArrayList<>();
+			List<String> refCollectionIds = new ArrayList<>();
+			List<String> collectTermIds = new ArrayList<>();
+			if (metadataElement instanceof MetadataGroup) {
+				for (MetadataChildReference childReference : ((MetadataGroup) metadataElement)
+						.getChildReferences()) {
+					childIds.add(childReference.getLinkedRecordId());
+					for (CollectTerm collectTerm : childReference.getCollectTerms()) {
+						collectTermIds.add(collectTerm.id);
+					}
+				}
+			} else if (metadataElement instanceof CollectionVariable) {
+				refCollectionIds.add(((CollectionVariable) metadataElement).getRefCollectionId());
+			}
+			return new ElementUsages(metadataElement.getId(),
+					MetadataReferenceResolver.getReferencedIds(metadataElement), childIds,
+					refCollectionIds, collectTermIds);
+		}
+
+		public static ElementUsages withElementIdAndUsedIds(String elementId,
+				Collection<String> referencedIds, Collection<String> childIds,
+				Collection<String> refCollectionIds, Collection<String> collectTermIds) {
+			return new ElementUsages(elementId, referencedIds, childIds, refCollectionIds,
+					collectTermIds);
+		}
+
+		public String getElementId() {
+			return elementId;
+		}
+
+		public Set<String> getReferencedIds() {
+			return referencedIds;
+		}
+
+		public Set<String> getChildIds() {
+			return childIds;
+		}
+
+		public Set<String> getRefCollectionIds() {
+			return refCollectionIds;
+		}
+
+		public Set<String> getCollectTermIds() {
+			return collectTermIds;
+		}
+	}
+}
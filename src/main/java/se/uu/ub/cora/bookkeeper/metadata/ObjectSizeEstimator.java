@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ObjectSizeEstimator estimates the heap size of objects used in metadata, based on the object
+ * layout of a 64 bit JVM with compressed references and compact strings. The estimates ignore
+ * field packing and are meant for comparing sizes, not as exact measurements.
+ */
+final class ObjectSizeEstimator {
+	static final int OBJECT_HEADER_SIZE = 12;
+	static final int REFERENCE_SIZE = 4;
+	static final int ARRAY_HEADER_SIZE = 16;
+	static final int STRING_OBJECT_SIZE = 24;
+	static final int ARRAY_LIST_OBJECT_SIZE = 24;
+	private static final Map<Class<?>, Long> SHALLOW_SIZES = new ConcurrentHashMap<>();
+
+	private ObjectSizeEstimator() {
+		// not called
+		throw new UnsupportedOperationException();
+	}
+
+	static long estimateSizeOfString(String value) {
+		int bytesPerChar = isLatin1(value) ? 1 : 2;
+		long arraySize = ARRAY_HEADER_SIZE + (long) value.length() * bytesPerChar;
+		return STRING_OBJECT_SIZE + alignToEightBytes(arraySize);
+	}
+
+	private static boolean isLatin1(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static long estimateSizeOfArrayList(int size) {
+		return ARRAY_LIST_OBJECT_SIZE
+				+ alignToEightBytes(ARRAY_HEADER_SIZE + (long) size * REFERENCE_SIZE);
+	}
+
+	/**
+	 * estimateShallowSize returns the size of an instance of the class, not including the objects
+	 * its fields refer to
+	 */
+	static long estimateShallowSize(Class<?> objectClass) {
+		return SHALLOW_SIZES.computeIfAbsent(objectClass,
+				ObjectSizeEstimator::calculateShallowSize);
+	}
+
+	private static long calculateShallowSize(Class<?> objectClass) {
+		long size = OBJECT_HEADER_SIZE;
+		for (Field field : getInstanceFields(objectClass)) {
+			size += getFieldSize(field.getType());
+		}
+		return alignToEightBytes(size);
+	}
+
+	static Iterable<Field> getInstanceFields(Class<?> objectClass) {
+		List<Field> fields = new ArrayList<>();
+		Class<?> currentClass = objectClass;
+		while (currentClass != null && currentClass != Object.class) {
+			for (Field field : currentClass.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					fields.add(field);
+				}
+			}
+			currentClass = currentClass.getSuperclass();
+		}
+		return fields;
+	}
+
+	private static int getFieldSize(Class<?> fieldType) {
+		if (fieldType == long.class || fieldType == double.class) {
+			return 8;
+		}
+		if (fieldType == int.class || fieldType == float.class) {
+			return 4;
+		}
+		if (fieldType == short.class || fieldType == char.class) {
+			return 2;
+		}
+		if (fieldType == boolean.class || fieldType == byte.class) {
+			return 1;
+		}
+		return REFERENCE_SIZE;
+	}
+
+	static long alignToEightBytes(long size) {
+		return (size + 7) & ~7L;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ReadOnlyMetadataHolder is the read only view of a holder of metadata elements, used by
+ * everything that reads metadata without changing it, such as validators, collectors and
+ * writers. {@link MetadataHolder} is the modifiable implementation, and holders that can not be
+ * modified, such as a holder backed by a mapped file, implement only this interface.
+ */
+public interface ReadOnlyMetadataHolder {
+
+	MetadataElement getMetadataElement(String elementId);
+
+	/**
+	 * getIndexOfMetadataElement returns a dense int index for the element with the specified id,
+	 * or -1 if no element with the id is found. Indexes are lower than
+	 * {@link #getNumberOfIndexes()} and can be used to keep data about elements in arrays.
+	 */
+	int getIndexOfMetadataElement(String elementId);
+
+	/**
+	 * getMetadataElementByIndex returns the element with the specified index, or null if no
+	 * element has the index
+	 */
+	MetadataElement getMetadataElementByIndex(int index);
+
+	int getNumberOfIndexes();
+
+	Collection<MetadataElement> getAllMetadataElements();
+
+	MetadataUsageIndex getUsageIndex();
+
+	MetadataElement getReferencedElement(MetadataChildReference childReference);
+
+	/**
+	 * getAttributesForElement returns the CollectionVariables used as attributes for the element
+	 * 
+	 * @throws DataMissingException
+	 *             if an attribute reference does not refer to a CollectionVariable in the holder
+	 */
+	List<CollectionVariable> getAttributesForElement(MetadataElement metadataElement);
+
+	ChildReferenceDispatchTable getChildDispatchTable(MetadataGroup metadataGroup);
+
+	/**
+	 * getChildDispatchTableByIndex returns the dispatch table for the MetadataGroup with the
+	 * specified index, used to walk from a group to its child groups through the indexes kept by
+	 * {@link ChildReferenceDispatchTable#getIndexOfReferencedElement(int)}
+	 * 
+	 * @throws DataMissingException
+	 *             if the holder has no MetadataGroup with the index
+	 */
+	ChildReferenceDispatchTable getChildDispatchTableByIndex(int index);
+
+	/**
+	 * getRefCollection returns the ItemCollection referred to by the collectionVariable, or null
+	 * if the holder has no ItemCollection with the referred id
+	 */
+	ItemCollection getRefCollection(CollectionVariable collectionVariable);
+
+	/**
+	 * getCollectionItems returns the CollectionItems in the itemCollection
+	 * 
+	 * @throws DataMissingException
+	 *             if an item reference does not refer to a CollectionItem in the holder
+	 */
+	List<CollectionItem> getCollectionItems(ItemCollection itemCollection);
+}
@@ -25,6 +25,9 @@ import java.util.List;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class RecordLink extends MetadataElement {
+	public static final String LINKED_RECORD_ID_TEXT_VAR_ID = "linkedRecordIdTextVar";
+	public static final String LINKED_REPEAT_ID_TEXT_VAR_ID = "linkedRepeatIdTextVar";
+
 	private String linkedRecordType;
 	private DataGroup linkedPath;
 	private String refParentId;
@@ -54,6 +57,18 @@ public final class RecordLink extends MetadataElement {
 		return linkedPath;
 	}
 
+	/**
+	 * getIdsUsedInValidation returns the ids of the TextVariables used to validate data for this
+	 * link, in addition to the RecordLink itself. The linkedRepeatId is only validated for links
+	 * with a linkedPath.
+	 */
+	public List<String> getIdsUsedInValidation() {
+		if (linkedPath == null) {
+			return List.of(LINKED_RECORD_ID_TEXT_VAR_ID);
+		}
+		return List.of(LINKED_RECORD_ID_TEXT_VAR_ID, LINKED_REPEAT_ID_TEXT_VAR_ID);
+	}
+
 	public void setRefParentId(String refParentId) {
 		this.refParentId = refParentId;
 	}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * RecordTypeMetadataCache keeps MetadataHolders with the subset of the metadata used by a record
+ * type, that is the elements reachable from the record type's metadata group. The subset for a
+ * metadata group is created the first time it is requested, and the least recently used subsets
+ * are evicted when the estimated size of all kept subsets exceeds the size budget.
+ * <p>
+ * The metadata elements are read from the MetadataStorage and indexed by id once, the first time
+ * a subset is created, and the index is used for all subsets until {@link #evictAll()} is
+ * called, the next subset is then created from a new read of the storage.
+ * <p>
+ * RecordTypeMetadataCache is thread safe. Subsets are created without holding the lock, so if
+ * several threads request a missing subset at the same time it may be created more than once,
+ * the first one stored is then used. A subset created from a read of the storage made before
+ * {@link #evictAll()} was called is returned to its caller but never kept.
+ */
+public final class RecordTypeMetadataCache {
+	private final MetadataStorage metadataStorage;
+	private final long maxEstimatedSize;
+	private final Map<String, Subset> subsets = new LinkedHashMap<>(16, 0.75f, true);
+	private StorageGeneration storageGeneration = new StorageGeneration(0);
+	private long estimatedSize = 0;
+	private long numOfCreatedSubsets = 0;
+	private long numOfEvictedSubsets = 0;
+
+	private RecordTypeMetadataCache(MetadataStorage metadataStorage, long maxEstimatedSize) {
+		this.metadataStorage = metadataStorage;
+		this.maxEstimatedSize = maxEstimatedSize;
+	}
+
+	/**
+	 * usingMetadataStorageAndMaxEstimatedSize creates a cache that keeps subsets as long as their
+	 * total estimated size, as calculated by {@link MetadataHolderStatistics}, is at most
+	 * maxEstimatedSize bytes. The most recently used subset is always kept.
+	 */
+	public static RecordTypeMetadataCache usingMetadataStorageAndMaxEstimatedSize(
+			MetadataStorage metadataStorage, long maxEstimatedSize) {
+		return new RecordTypeMetadataCache(metadataStorage, maxEstimatedSize);
+	}
+
+	/**
+	 * getMetadataHolderForMetadataGroup returns a MetadataHolder with the elements reachable from
+	 * the metadata group, creating it if it is not kept in the cache
+	 * 
+	 * @param metadataGroupId
+	 *            A String with the id of the metadata group of a record type
+	 * @return A MetadataHolder with the metadata used by the metadata group
+	 */
+	public MetadataHolder getMetadataHolderForMetadataGroup(String metadataGroupId) {
+		MetadataHolder metadataHolder = getKeptMetadataHolder(metadataGroupId);
+		if (metadataHolder != null) {
+			return metadataHolder;
+		}
+		StorageGeneration generation = getCurrentStorageGeneration();
+		Subset subset = createSubset(generation, metadataGroupId);
+		return keepSubsetAndEvictLeastRecentlyUsed(generation, metadataGroupId, subset);
+	}
+
+	private synchronized MetadataHolder getKeptMetadataHolder(String metadataGroupId) {
+		Subset subset = subsets.get(metadataGroupId);
+		return subset == null ? null : subset.metadataHolder;
+	}
+
+	private synchronized StorageGeneration getCurrentStorageGeneration() {
+		return storageGeneration;
+	}
+
+	private Subset createSubset(StorageGeneration generation, String metadataGroupId) {
+		MetadataHolderFromStoragePopulator populator = new MetadataHolderFromStoragePopulator();
+		Map<String, DataGroup> dataGroupsById = generation.getDataGroupsById(populator);
+		MetadataHolder metadataHolder = populator
+				.createAndPopulateMetadataHolderFromIndexedMetadataElementsReachableFromIds(
+						dataGroupsById, List.of(metadataGroupId));
+		long subsetSize = MetadataHolderStatistics.fromMetadataHolder(metadataHolder)
+				.getEstimatedTotalSize();
+		return new Subset(metadataHolder, subsetSize);
+	}
+
+	private synchronized MetadataHolder keepSubsetAndEvictLeastRecentlyUsed(
+			StorageGeneration generation, String metadataGroupId, Subset subset) {
+		if (generation != storageGeneration) {
+			return subset.metadataHolder;
+		}
+		Subset keptSubset = subsets.get(metadataGroupId);
+		if (keptSubset != null) {
+			return keptSubset.metadataHolder;
+		}
+		subsets.put(metadataGroupId, subset);
+		estimatedSize += subset.estimatedSize;
+		numOfCreatedSubsets++;
+		evictLeastRecentlyUsedWhileOverBudget();
+		return subset.metadataHolder;
+	}
+
+	private void evictLeastRecentlyUsedWhileOverBudget() {
+		Iterator<Subset> iterator = subsets.values().iterator();
+		while (estimatedSize > maxEstimatedSize && subsets.size() > 1) {
+			Subset leastRecentlyUsed = iterator.next();
+			iterator.remove();
+			estimatedSize -= leastRecentlyUsed.estimatedSize;
+			numOfEvictedSubsets++;
+		}
+	}
+
+	/**
+	 * evictAll removes all subsets from the cache, for instance when the metadata in storage has
+	 * changed. Subsets already handed out are not changed. Subsets created after this method
+	 * returns are created from a new read of the storage.
+	 */
+	public synchronized void evictAll() {
+		subsets.clear();
+		estimatedSize = 0;
+		storageGeneration = new StorageGeneration(storageGeneration.generation + 1);
+	}
+
+	public synchronized long getStorageGeneration() {
+		return storageGeneration.generation;
+	}
+
+	public synchronized boolean isKept(String metadataGroupId) {
+		return subsets.containsKey(metadataGroupId);
+	}
+
+	public synchronized int getNumberOfKeptSubsets() {
+		return subsets.size();
+	}
+
+	public synchronized long getEstimatedSize() {
+		return estimatedSize;
+	}
+
+	public synchronized long getNumberOfCreatedSubsets() {
+		return numOfCreatedSubsets;
+	}
+
+	public synchronized long getNumberOfEvictedSubsets() {
+		return numOfEvictedSubsets;
+	}
+
+	private final class StorageGeneration {
+		private final long generation;
+		private Map<String, DataGroup> dataGroupsById;
+
+		StorageGeneration(long generation) {
+			this.generation = generation;
+		}
+
+		synchronized Map<String, DataGroup> getDataGroupsById(
+				MetadataHolderFromStoragePopulator populator) {
+			if (dataGroupsById == null) {
+				dataGroupsById = populator.indexMetadataElementsById(metadataStorage);
+			}
+			return dataGroupsById;
+		}
+	}
+
+	private static final class Subset {
+		private final MetadataHolder metadataHolder;
+		private final long estimatedSize;
+
+		Subset(MetadataHolder metadataHolder, long estimatedSize) {
+			this.metadataHolder = metadataHolder;
+			this.estimatedSize = estimatedSize;
+		}
+	}
+}
@@ -19,7 +19,18 @@
 
 package se.uu.ub.cora.bookkeeper.metadata;
 
+import java.util.List;
+
 public final class ResourceLink extends MetadataElement {
+	public static final String STREAM_ID_TEXT_VAR_ID = "streamIdTextVar";
+	public static final String FILENAME_TEXT_VAR_ID = "filenameTextVar";
+	public static final String FILESIZE_TEXT_VAR_ID = "filesizeTextVar";
+	public static final String MIME_TYPE_TEXT_VAR_ID = "mimeTypeTextVar";
+	/**
+	 * IDS_USED_IN_VALIDATION are the ids of the TextVariables used to validate every resource link
+	 */
+	public static final List<String> IDS_USED_IN_VALIDATION = List.of(STREAM_ID_TEXT_VAR_ID,
+			FILENAME_TEXT_VAR_ID, FILESIZE_TEXT_VAR_ID, MIME_TYPE_TEXT_VAR_ID);
 
 	private ResourceLink(String id, String nameInData, String textId, String defTextId) {
 		super(id, nameInData, textId, defTextId);
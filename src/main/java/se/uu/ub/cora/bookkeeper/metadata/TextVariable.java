@@ -19,9 +19,17 @@
 
 package se.uu.ub.cora.bookkeeper.metadata;
 
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 /**
  * TextVariable is the class that handles metadata for a RegularExpression
  * variable
+ * <p>
+ * The regular expression is compiled into a Pattern once, when the variable is created from a
+ * compiled Pattern or a valid pooled expression, or else the first time {@link #getPattern()} is
+ * called. Metadata converted from storage is always created with a compiled Pattern, so an
+ * invalid regular expression is reported when the metadata is loaded.
  * 
  * @author <a href="mailto:olov.mckie@ub.uu.se">Olov McKie</a>
  *
@@ -31,25 +39,75 @@ package se.uu.ub.cora.bookkeeper.metadata;
 public final class TextVariable extends MetadataElement {
 
 	private final String regularExpression;
+	private volatile Pattern pattern;
 	private String refParentId;
 	private String finalValue;
 
 	public static TextVariable withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(
 			String id, String nameInData, String textId, String defTextId,
 			String regularExpression) {
-		return new TextVariable(id, nameInData, textId, defTextId, regularExpression);
+		return new TextVariable(id, nameInData, textId, defTextId, regularExpression, null);
+	}
+
+	/**
+	 * withIdAndNameInDataAndTextIdAndDefTextIdAndPattern creates a TextVariable using an already
+	 * compiled pattern, so that variables with the same regular expression can share one Pattern
+	 */
+	public static TextVariable withIdAndNameInDataAndTextIdAndDefTextIdAndPattern(String id,
+			String nameInData, String textId, String defTextId, Pattern pattern) {
+		return new TextVariable(id, nameInData, textId, defTextId, pattern.pattern(), pattern);
+	}
+
+	/**
+	 * withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpressionUsingStringPool creates a
+	 * TextVariable using the Pattern pooled in the stringPool for the regular expression. It is
+	 * used when reading snapshots of already loaded metadata. An invalid regular expression is
+	 * kept as it is and is compiled the first time {@link #getPattern()} is called.
+	 */
+	public static TextVariable withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpressionUsingStringPool(
+			String id, String nameInData, String textId, String defTextId,
+			String regularExpression, MetadataStringPool stringPool) {
+		try {
+			return withIdAndNameInDataAndTextIdAndDefTextIdAndPattern(id, nameInData, textId,
+					defTextId, stringPool.getPatternForRegularExpression(regularExpression));
+		} catch (PatternSyntaxException e) {
+			return withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id, nameInData,
+					textId, defTextId, stringPool.canonicalize(regularExpression));
+		}
 	}
 
 	private TextVariable(String id, String nameInData, String textId, String defTextId,
-			String regularExpression) {
+			String regularExpression, Pattern pattern) {
 		super(id, nameInData, textId, defTextId);
 		this.regularExpression = regularExpression;
+		this.pattern = pattern;
 	}
 
 	public String getRegularExpression() {
 		return regularExpression;
 	}
 
+	/**
+	 * getPattern returns the compiled regular expression, compiling it the first time if the
+	 * variable was not created with a compiled pattern
+	 * 
+	 * @return The Pattern for the regular expression
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if the regular expression is invalid
+	 */
+	public Pattern getPattern() {
+		Pattern currentPattern = pattern;
+		if (currentPattern == null) {
+			currentPattern = Pattern.compile(regularExpression);
+			pattern = currentPattern;
+		}
+		return currentPattern;
+	}
+
+	Pattern getPatternIfCompiled() {
+		return pattern;
+	}
+
 	public void setRefParentId(String refParentId) {
 		this.refParentId = refParentId;
 	}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+/**
+ * VersionedMetadataHolder is an immutable pairing of a MetadataHolder and the version it was
+ * published as by a {@link MetadataHolderProvider}. The version can be used as part of cache keys
+ * for data derived from the metadata.
+ */
+public final class VersionedMetadataHolder {
+	private final long version;
+	private final MetadataHolder metadataHolder;
+
+	private VersionedMetadataHolder(long version, MetadataHolder metadataHolder) {
+		this.version = version;
+		this.metadataHolder = metadataHolder;
+	}
+
+	public static VersionedMetadataHolder withVersionAndMetadataHolder(long version,
+			MetadataHolder metadataHolder) {
+		return new VersionedMetadataHolder(version, metadataHolder);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public MetadataHolder getMetadataHolder() {
+		return metadataHolder;
+	}
+}
@@ -20,26 +20,35 @@
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToCollectionItemConverter implements DataGroupToMetadataConverter {
 
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToCollectionItemConverter(DataGroup dataGroup) {
+	private DataGroupToCollectionItemConverter(DataGroup dataGroup, MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToCollectionItemConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToCollectionItemConverter(dataGroup);
+		return new DataGroupToCollectionItemConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToCollectionItemConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToCollectionItemConverter(dataGroup, stringPool);
 	}
 
 	@Override
 	public CollectionItem toMetadata() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
@@ -49,7 +58,7 @@ public final class DataGroupToCollectionItemConverter implements DataGroupToMeta
 
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 	}
 
 }
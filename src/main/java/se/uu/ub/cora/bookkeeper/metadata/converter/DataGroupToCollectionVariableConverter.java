@@ -20,32 +20,43 @@
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToCollectionVariableConverter implements DataGroupToMetadataConverter {
 
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToCollectionVariableConverter(DataGroup dataGroup) {
+	private DataGroupToCollectionVariableConverter(DataGroup dataGroup,
+			MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToCollectionVariableConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToCollectionVariableConverter(dataGroup);
+		return new DataGroupToCollectionVariableConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToCollectionVariableConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToCollectionVariableConverter(dataGroup, stringPool);
 	}
 
 	@Override
 	public CollectionVariable toMetadata() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
 
 		DataGroup refCollection = (DataGroup) dataGroup
 				.getFirstChildWithNameInData("refCollection");
-		String refCollectionId = refCollection.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		String refCollectionId = stringPool
+				.canonicalize(refCollection.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 
 		CollectionVariable collectionVariable = new CollectionVariable(id, nameInData, textId,
 				defTextId, refCollectionId);
@@ -56,7 +67,7 @@ public final class DataGroupToCollectionVariableConverter implements DataGroupTo
 
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 	}
 
 	private void possiblyConvertRefParentId(CollectionVariable collectionVariable) {
@@ -67,13 +78,15 @@ public final class DataGroupToCollectionVariableConverter implements DataGroupTo
 
 	private void convertRefParentId(CollectionVariable collectionVariable) {
 		DataGroup refParentGroup = dataGroup.getFirstGroupWithNameInData("refParentId");
-		String refParentId = refParentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		String refParentId = stringPool
+				.canonicalize(refParentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 		collectionVariable.setRefParentId(refParentId);
 	}
 
 	private void convertFinalValue(CollectionVariable collectionVariable) {
 		if (dataGroup.containsChildWithNameInData("finalValue")) {
-			String finalValue = dataGroup.getFirstAtomicValueWithNameInData("finalValue");
+			String finalValue = stringPool
+					.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("finalValue"));
 			collectionVariable.setFinalValue(finalValue);
 		}
 	}
@@ -20,26 +20,35 @@
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataElement;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToItemCollectionConverter implements DataGroupToMetadataConverter {
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToItemCollectionConverter(DataGroup dataGroup) {
+	private DataGroupToItemCollectionConverter(DataGroup dataGroup, MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToItemCollectionConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToItemCollectionConverter(dataGroup);
+		return new DataGroupToItemCollectionConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToItemCollectionConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToItemCollectionConverter(dataGroup, stringPool);
 	}
 
 	@Override
 	public ItemCollection toMetadata() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
@@ -50,7 +59,8 @@ public final class DataGroupToItemCollectionConverter implements DataGroupToMeta
 				.getFirstGroupWithNameInData("collectionItemReferences");
 		for (DataElement dataElement : collectionItemReferences.getChildren()) {
 			DataGroup itemRefElement = (DataGroup) dataElement;
-			String itemRefId = itemRefElement.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+			String itemRefId = stringPool.canonicalize(
+					itemRefElement.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 			itemCollection.addItemReference(itemRefId);
 		}
 
@@ -59,7 +69,7 @@ public final class DataGroupToItemCollectionConverter implements DataGroupToMeta
 
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 	}
 
 }
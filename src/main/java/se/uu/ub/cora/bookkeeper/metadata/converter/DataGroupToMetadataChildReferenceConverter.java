@@ -23,40 +23,50 @@ import java.util.List;
 
 import se.uu.ub.cora.bookkeeper.metadata.CollectTerm;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToMetadataChildReferenceConverter {
 
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 	private MetadataChildReference childReference;
 
-	private DataGroupToMetadataChildReferenceConverter(DataGroup dataGroup) {
+	private DataGroupToMetadataChildReferenceConverter(DataGroup dataGroup,
+			MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToMetadataChildReferenceConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToMetadataChildReferenceConverter(dataGroup);
+		return new DataGroupToMetadataChildReferenceConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToMetadataChildReferenceConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToMetadataChildReferenceConverter(dataGroup, stringPool);
 	}
 
 	public MetadataChildReference toMetadata() {
 		createMetadataChildReferenceWithBasicInfo();
 		if (dataGroup.containsChildWithNameInData("repeatMinKey")) {
-			childReference
-					.setRepeatMinKey(dataGroup.getFirstAtomicValueWithNameInData("repeatMinKey"));
+			childReference.setRepeatMinKey(stringPool
+					.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("repeatMinKey")));
 		}
 		if (dataGroup.containsChildWithNameInData("secret")) {
 			childReference.setSecret(getFirstAtomicValueWithNameInDataAsBoolean("secret"));
 		}
 		if (dataGroup.containsChildWithNameInData("secretKey")) {
-			childReference.setSecretKey(dataGroup.getFirstAtomicValueWithNameInData("secretKey"));
+			childReference.setSecretKey(stringPool
+					.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("secretKey")));
 		}
 		if (dataGroup.containsChildWithNameInData("readOnly")) {
 			childReference.setReadOnly(getFirstAtomicValueWithNameInDataAsBoolean("readOnly"));
 		}
 		if (dataGroup.containsChildWithNameInData("readOnlyKey")) {
-			childReference
-					.setReadOnlyKey(dataGroup.getFirstAtomicValueWithNameInData("readOnlyKey"));
+			childReference.setReadOnlyKey(stringPool
+					.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("readOnlyKey")));
 		}
 		return childReference;
 	}
@@ -66,8 +76,10 @@ public final class DataGroupToMetadataChildReferenceConverter {
 		int repeatMax = getRepeatMax();
 
 		DataGroup ref = dataGroup.getFirstGroupWithNameInData("ref");
-		String linkedRecordType = ref.getFirstAtomicValueWithNameInData("linkedRecordType");
-		String linkedRecordId = ref.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		String linkedRecordType = stringPool
+				.canonicalize(ref.getFirstAtomicValueWithNameInData("linkedRecordType"));
+		String linkedRecordId = stringPool
+				.canonicalize(ref.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 		childReference = MetadataChildReference
 				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax(linkedRecordType,
 						linkedRecordId, repeatMin, repeatMax);
@@ -101,7 +113,7 @@ public final class DataGroupToMetadataChildReferenceConverter {
 		String collectTermId = collectIndexTermGroup
 				.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
 		String type = collectIndexTermGroup.getAttribute("type");
-		CollectTerm collectTerm = CollectTerm.createCollectTermWithTypeAndId(type, collectTermId);
+		CollectTerm collectTerm = stringPool.getCollectTermWithTypeAndId(type, collectTermId);
 
 		childReference.addCollectIndexTerm(collectTerm);
 	}
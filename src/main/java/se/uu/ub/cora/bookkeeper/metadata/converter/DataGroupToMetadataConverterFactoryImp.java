@@ -19,18 +19,32 @@
 
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToMetadataConverterFactoryImp
 		implements DataGroupToMetadataConverterFactory {
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToMetadataConverterFactoryImp(DataGroup dataGroup) {
+	private DataGroupToMetadataConverterFactoryImp(DataGroup dataGroup,
+			MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToMetadataConverterFactoryImp fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToMetadataConverterFactoryImp(dataGroup);
+		return new DataGroupToMetadataConverterFactoryImp(dataGroup, new MetadataStringPool());
+	}
+
+	/**
+	 * fromDataGroupUsingStringPool creates a factory for converters that canonicalize the strings
+	 * they read, and share collect terms, using the stringPool. Use the same pool for all elements
+	 * that are converted into one MetadataHolder so that equal values are shared between them.
+	 */
+	public static DataGroupToMetadataConverterFactoryImp fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToMetadataConverterFactoryImp(dataGroup, stringPool);
 	}
 
 	@Override
@@ -45,28 +59,36 @@ public final class DataGroupToMetadataConverterFactoryImp
 	private DataGroupToMetadataConverter createConverterBasedOnMetadataType() {
 		String type = dataGroup.getAttributes().get("type");
 		if ("group".equals(type)) {
-			return DataGroupToMetadataGroupConverter.fromDataGroup(dataGroup);
+			return DataGroupToMetadataGroupConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("collectionItem".equals(type)) {
-			return DataGroupToCollectionItemConverter.fromDataGroup(dataGroup);
+			return DataGroupToCollectionItemConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("collectionVariable".equals(type)) {
-			return DataGroupToCollectionVariableConverter.fromDataGroup(dataGroup);
+			return DataGroupToCollectionVariableConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("itemCollection".equals(type)) {
-			return DataGroupToItemCollectionConverter.fromDataGroup(dataGroup);
+			return DataGroupToItemCollectionConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("textVariable".equals(type)) {
-			return DataGroupToTextVariableConverter.fromDataGroup(dataGroup);
+			return DataGroupToTextVariableConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("numberVariable".equals(type)) {
-			return DataGroupToNumberVariableConverter.fromDataGroup(dataGroup);
+			return DataGroupToNumberVariableConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("recordLink".equals(type)) {
-			return DataGroupToRecordLinkConverter.fromDataGroup(dataGroup);
+			return DataGroupToRecordLinkConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		if ("resourceLink".equals(type)) {
-			return DataGroupToResourceLinkConverter.fromDataGroup(dataGroup);
+			return DataGroupToResourceLinkConverter.fromDataGroupUsingStringPool(dataGroup,
+					stringPool);
 		}
 		throw DataConversionException
 				.withMessage("No converter found for DataGroup with type:" + type);
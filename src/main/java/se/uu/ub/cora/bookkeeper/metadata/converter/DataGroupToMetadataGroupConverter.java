@@ -21,6 +21,7 @@ package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataElement;
 import se.uu.ub.cora.data.DataGroup;
 
@@ -28,14 +29,22 @@ public class DataGroupToMetadataGroupConverter implements DataGroupToMetadataCon
 
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	protected DataGroup dataGroup;
+	protected MetadataStringPool stringPool;
 	protected MetadataGroup metadataGroup;
 
-	protected DataGroupToMetadataGroupConverter(DataGroup dataGroup) {
+	protected DataGroupToMetadataGroupConverter(DataGroup dataGroup,
+			MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToMetadataGroupConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToMetadataGroupConverter(dataGroup);
+		return new DataGroupToMetadataGroupConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToMetadataGroupConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToMetadataGroupConverter(dataGroup, stringPool);
 	}
 
 	@Override
@@ -49,8 +58,9 @@ public class DataGroupToMetadataGroupConverter implements DataGroupToMetadataCon
 
 	private void createMetadataGroupWithBasicInfo() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
 		metadataGroup = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id, nameInData,
@@ -59,14 +69,14 @@ public class DataGroupToMetadataGroupConverter implements DataGroupToMetadataCon
 
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 	}
 
 	protected void convertRefParentId() {
 		if (dataGroup.containsChildWithNameInData("refParentId")) {
 			DataGroup refParentGroup = dataGroup.getFirstGroupWithNameInData("refParentId");
-			metadataGroup.setRefParentId(
-					refParentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
+			metadataGroup.setRefParentId(stringPool.canonicalize(
+					refParentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID)));
 		}
 	}
 
@@ -76,8 +86,8 @@ public class DataGroupToMetadataGroupConverter implements DataGroupToMetadataCon
 					.getFirstGroupWithNameInData("attributeReferences");
 			for (DataGroup attributeReference : attributeReferences
 					.getAllGroupsWithNameInData("ref")) {
-				String refValue = attributeReference
-						.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+				String refValue = stringPool.canonicalize(
+						attributeReference.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 				metadataGroup.addAttributeReference(refValue);
 			}
 		}
@@ -92,7 +102,7 @@ public class DataGroupToMetadataGroupConverter implements DataGroupToMetadataCon
 
 	private void convertChildReference(DataGroup childReference) {
 		DataGroupToMetadataChildReferenceConverter childConverter = DataGroupToMetadataChildReferenceConverter
-				.fromDataGroup(childReference);
+				.fromDataGroupUsingStringPool(childReference, stringPool);
 		MetadataChildReference metadataChildReference = childConverter.toMetadata();
 		metadataGroup.addChildReference(metadataChildReference);
 	}
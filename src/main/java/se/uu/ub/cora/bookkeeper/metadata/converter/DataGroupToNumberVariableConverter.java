@@ -20,6 +20,7 @@ package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import se.uu.ub.cora.bookkeeper.metadata.LimitsContainer;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
 import se.uu.ub.cora.bookkeeper.metadata.StandardMetadataParameters;
 import se.uu.ub.cora.bookkeeper.metadata.TextContainer;
@@ -28,13 +29,20 @@ import se.uu.ub.cora.data.DataGroup;
 public class DataGroupToNumberVariableConverter implements DataGroupToMetadataConverter {
 
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToNumberVariableConverter(DataGroup dataGroup) {
+	private DataGroupToNumberVariableConverter(DataGroup dataGroup, MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToNumberVariableConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToNumberVariableConverter(dataGroup);
+		return new DataGroupToNumberVariableConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToNumberVariableConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToNumberVariableConverter(dataGroup, stringPool);
 	}
 
 	@Override
@@ -49,8 +57,9 @@ public class DataGroupToNumberVariableConverter implements DataGroupToMetadataCo
 
 	private StandardMetadataParameters extractStandardParameters() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 
 		TextContainer textContainer = createTextContainer();
 		return StandardMetadataParameters.usingIdNameInDataAndTextContainer(id, nameInData,
@@ -65,7 +74,8 @@ public class DataGroupToNumberVariableConverter implements DataGroupToMetadataCo
 
 	private String extractTextUsingNameInData(String textNameInData) {
 		DataGroup textIdGroup = dataGroup.getFirstGroupWithNameInData(textNameInData);
-		return textIdGroup.getFirstAtomicValueWithNameInData("linkedRecordId");
+		return stringPool
+				.canonicalize(textIdGroup.getFirstAtomicValueWithNameInData("linkedRecordId"));
 	}
 
 	private LimitsContainer createMinAndMaxLimits() {
@@ -19,6 +19,7 @@
 
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
 import se.uu.ub.cora.data.DataGroup;
 
@@ -26,14 +27,21 @@ public final class DataGroupToRecordLinkConverter implements DataGroupToMetadata
 
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 	private RecordLink recordLink;
 
-	private DataGroupToRecordLinkConverter(DataGroup dataGroup) {
+	private DataGroupToRecordLinkConverter(DataGroup dataGroup, MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToRecordLinkConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToRecordLinkConverter(dataGroup);
+		return new DataGroupToRecordLinkConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToRecordLinkConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToRecordLinkConverter(dataGroup, stringPool);
 	}
 
 	@Override
@@ -49,14 +57,15 @@ public final class DataGroupToRecordLinkConverter implements DataGroupToMetadata
 	private void createRecordLinkWithBasicInfo() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
 
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
 
 		DataGroup linkedRecordTypeGroup = dataGroup.getFirstGroupWithNameInData("linkedRecordType");
-		String linkedRecordType = linkedRecordTypeGroup
-				.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		String linkedRecordType = stringPool.canonicalize(
+				linkedRecordTypeGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 
 		recordLink = RecordLink.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType(id,
 				nameInData, textId, defTextId, linkedRecordType);
@@ -64,7 +73,7 @@ public final class DataGroupToRecordLinkConverter implements DataGroupToMetadata
 
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 	}
 
 	private void convertLinkedPathIfExists() {
@@ -75,7 +84,8 @@ public final class DataGroupToRecordLinkConverter implements DataGroupToMetadata
 
 	private void convertFinalValueIfExists() {
 		if (dataGroup.containsChildWithNameInData("finalValue")) {
-			recordLink.setFinalValue(dataGroup.getFirstAtomicValueWithNameInData("finalValue"));
+			recordLink.setFinalValue(stringPool
+					.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("finalValue")));
 		}
 	}
 
@@ -87,7 +97,8 @@ public final class DataGroupToRecordLinkConverter implements DataGroupToMetadata
 
 	private void convertRefParentId() {
 		DataGroup refParentGroup = dataGroup.getFirstGroupWithNameInData("refParentId");
-		String refParentId = refParentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+		String refParentId = stringPool
+				.canonicalize(refParentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 		recordLink.setRefParentId(refParentId);
 	}
 
@@ -97,8 +108,8 @@ public final class DataGroupToRecordLinkConverter implements DataGroupToMetadata
 					.getFirstGroupWithNameInData("attributeReferences");
 			for (DataGroup attributeReference : attributeReferences
 					.getAllGroupsWithNameInData("ref")) {
-				String refValue = attributeReference
-						.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
+				String refValue = stringPool.canonicalize(
+						attributeReference.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID));
 				recordLink.addAttributeReference(refValue);
 			}
 		}
@@ -20,27 +20,36 @@
 
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.bookkeeper.metadata.ResourceLink;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToResourceLinkConverter implements DataGroupToMetadataConverter {
 
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToResourceLinkConverter(DataGroup dataGroup) {
+	private DataGroupToResourceLinkConverter(DataGroup dataGroup, MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToResourceLinkConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToResourceLinkConverter(dataGroup);
+		return new DataGroupToResourceLinkConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToResourceLinkConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToResourceLinkConverter(dataGroup, stringPool);
 	}
 
 	@Override
 	public ResourceLink toMetadata() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
 
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
 
@@ -50,6 +59,6 @@ public final class DataGroupToResourceLinkConverter implements DataGroupToMetada
 
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData("linkedRecordId");
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData("linkedRecordId"));
 	}
 }
@@ -19,44 +19,65 @@
 
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
 import se.uu.ub.cora.data.DataGroup;
 
 public final class DataGroupToTextVariableConverter implements DataGroupToMetadataConverter {
 
 	private DataGroup dataGroup;
+	private MetadataStringPool stringPool;
 
-	private DataGroupToTextVariableConverter(DataGroup dataGroup) {
+	private DataGroupToTextVariableConverter(DataGroup dataGroup, MetadataStringPool stringPool) {
 		this.dataGroup = dataGroup;
+		this.stringPool = stringPool;
 	}
 
 	public static DataGroupToTextVariableConverter fromDataGroup(DataGroup dataGroup) {
-		return new DataGroupToTextVariableConverter(dataGroup);
+		return new DataGroupToTextVariableConverter(dataGroup, new MetadataStringPool());
+	}
+
+	public static DataGroupToTextVariableConverter fromDataGroupUsingStringPool(
+			DataGroup dataGroup, MetadataStringPool stringPool) {
+		return new DataGroupToTextVariableConverter(dataGroup, stringPool);
 	}
 
 	@Override
 	public TextVariable toMetadata() {
 		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
 
-		String id = recordInfo.getFirstAtomicValueWithNameInData("id");
-		String nameInData = dataGroup.getFirstAtomicValueWithNameInData("nameInData");
+		String id = stringPool.canonicalize(recordInfo.getFirstAtomicValueWithNameInData("id"));
+		String nameInData = stringPool
+				.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("nameInData"));
 
 		String textId = extractTextIdByNameInData("textId");
 		String defTextId = extractTextIdByNameInData("defTextId");
-		String regularExpression = dataGroup.getFirstAtomicValueWithNameInData("regEx");
+		Pattern pattern = compileRegularExpression(id);
 
-		TextVariable textVariable = TextVariable
-				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id, nameInData,
-						textId, defTextId, regularExpression);
+		TextVariable textVariable = TextVariable.withIdAndNameInDataAndTextIdAndDefTextIdAndPattern(
+				id, nameInData, textId, defTextId, pattern);
 		possiblyConvertRefParentId(textVariable);
 		convertFinalValue(textVariable);
 
 		return textVariable;
 	}
 
+	private Pattern compileRegularExpression(String id) {
+		String regularExpression = dataGroup.getFirstAtomicValueWithNameInData("regEx");
+		try {
+			return stringPool.getPatternForRegularExpression(regularExpression);
+		} catch (PatternSyntaxException e) {
+			throw DataConversionException.withMessageAndException("TextVariable with id: " + id
+					+ " has an invalid regular expression: " + regularExpression, e);
+		}
+	}
+
 	private String extractTextIdByNameInData(String nameInData) {
 		DataGroup text = dataGroup.getFirstGroupWithNameInData(nameInData);
-		return text.getFirstAtomicValueWithNameInData("linkedRecordId");
+		return stringPool.canonicalize(text.getFirstAtomicValueWithNameInData("linkedRecordId"));
 	}
 
 	private void possiblyConvertRefParentId(TextVariable textVariable) {
@@ -67,13 +88,15 @@ public final class DataGroupToTextVariableConverter implements DataGroupToMetada
 
 	private void convertRefParentId(TextVariable textVariable) {
 		DataGroup refParentGroup = dataGroup.getFirstGroupWithNameInData("refParentId");
-		String refParentId = refParentGroup.getFirstAtomicValueWithNameInData("linkedRecordId");
+		String refParentId = stringPool
+				.canonicalize(refParentGroup.getFirstAtomicValueWithNameInData("linkedRecordId"));
 		textVariable.setRefParentId(refParentId);
 	}
 
 	private void convertFinalValue(TextVariable textVariable) {
 		if (dataGroup.containsChildWithNameInData("finalValue")) {
-			String finalValue = dataGroup.getFirstAtomicValueWithNameInData("finalValue");
+			String finalValue = stringPool
+					.canonicalize(dataGroup.getFirstAtomicValueWithNameInData("finalValue"));
 			textVariable.setFinalValue(finalValue);
 		}
 	}
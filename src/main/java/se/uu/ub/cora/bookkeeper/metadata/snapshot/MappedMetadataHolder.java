@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import se.uu.ub.cora.bookkeeper.metadata.ChildReferenceDispatchTable;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataReferenceResolver;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataUsageIndex;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataUsageIndex.ElementUsages;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
+
+/**
+ * MappedMetadataHolder is a ReadOnlyMetadataHolder backed by a memory mapped file written by
+ * {@link MappedMetadataHolderWriter}. Several processes on the same host mapping the same file
+ * share one copy of the encoded metadata in the page cache.
+ * <p>
+ * Elements are found by a binary search in the id index of the file and are decoded the first
+ * time they are requested, after which the same instance is returned for the element. References
+ * between elements are resolved and kept by a {@link MetadataReferenceResolver} for this holder.
+ * The {@link MetadataUsageIndex} is built from the usages stored in the file, without decoding
+ * any elements.
+ * <p>
+ * The checksum of the file is verified when the holder is created.
+ * <p>
+ * MappedMetadataHolder is thread safe.
+ */
+public final class MappedMetadataHolder implements ReadOnlyMetadataHolder {
+	private static final int CHECKSUM_POSITION = 2 * Integer.BYTES;
+	private static final int HEADER_LENGTH = 4 * Integer.BYTES;
+	private static final int INDEX_ENTRY_LENGTH = 3 * Integer.BYTES;
+	private final ByteBuffer buffer;
+	private final int numOfStrings;
+	private final int indexStart;
+	private final int numOfElements;
+	private final MetadataElementDecoder decoder;
+	private final AtomicReferenceArray<MetadataElement> decodedElements;
+	private final MetadataReferenceResolver resolver;
+	private volatile MetadataUsageIndex usageIndex;
+
+	private MappedMetadataHolder(ByteBuffer buffer) {
+		this.buffer = buffer;
+		ensureHeaderIsCorrect();
+		ensureChecksumIsCorrect();
+		numOfStrings = buffer.getInt(HEADER_LENGTH - Integer.BYTES);
+		int numOfElementsPosition = HEADER_LENGTH + numOfStrings * Integer.BYTES;
+		numOfElements = buffer.getInt(numOfElementsPosition);
+		indexStart = numOfElementsPosition + Integer.BYTES;
+		decoder = MetadataElementDecoder.usingStringTableAndStringPool(this::getString,
+				new MetadataStringPool());
+		decodedElements = new AtomicReferenceArray<>(numOfElements);
+		resolver = MetadataReferenceResolver.usingMetadataHolder(this);
+	}
+
+	public static MappedMetadataHolder fromFile(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return usingBuffer(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error mapping metadata file: " + file, e);
+		}
+	}
+
+	public static MappedMetadataHolder usingBuffer(ByteBuffer buffer) {
+		try {
+			return new MappedMetadataHolder(buffer.asReadOnlyBuffer());
+		} catch (IndexOutOfBoundsException e) {
+			throw MetadataSnapshotException.withMessageAndException("Mapped metadata is truncated",
+					e);
+		}
+	}
+
+	private void ensureHeaderIsCorrect() {
+		if (buffer.getInt(0) != MetadataSnapshotFormat.MAPPED_MAGIC) {
+			throw MetadataSnapshotException.withMessage("Data is not mapped metadata");
+		}
+		int formatVersion = buffer.getInt(Integer.BYTES);
+		if (formatVersion != MetadataSnapshotFormat.MAPPED_FORMAT_VERSION) {
+			throw MetadataSnapshotException.withMessage("Mapped metadata format version "
+					+ formatVersion + " is not supported, expected "
+					+ MetadataSnapshotFormat.MAPPED_FORMAT_VERSION);
+		}
+	}
+
+	private void ensureChecksumIsCorrect() {
+		int storedChecksum = buffer.getInt(CHECKSUM_POSITION);
+		ByteBuffer checksummedBuffer = buffer.duplicate();
+		checksummedBuffer.position(CHECKSUM_POSITION + Integer.BYTES);
+		if (MetadataSnapshotFormat.calculateMappedChecksum(checksummedBuffer) != storedChecksum) {
+			throw MetadataSnapshotException.withMessage("Mapped metadata checksum does not match");
+		}
+	}
+
+	private String getString(int index) {
+		int stringOffset = buffer.getInt(HEADER_LENGTH + index * Integer.BYTES);
+		int length = buffer.getInt(stringOffset);
+		byte[] bytes = new byte[length];
+		ByteBuffer stringBuffer = buffer.duplicate();
+		stringBuffer.position(stringOffset + Integer.BYTES);
+		stringBuffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public MetadataElement getMetadataElement(String elementId) {
+		int position = findPositionInIndex(elementId);
+		if (position < 0) {
+			return null;
+		}
+		return getDecodedElementAtPositionInIndex(position);
+	}
+
+	/**
+	 * getIndexOfMetadataElement returns the position of the element in the id index of the mapped
+	 * file, positions are ordered by id.
+	 */
+	@Override
+	public int getIndexOfMetadataElement(String elementId) {
+		int position = findPositionInIndex(elementId);
+		return position < 0 ? -1 : position;
+	}
+
+	@Override
+	public MetadataElement getMetadataElementByIndex(int index) {
+		if (index < 0 || index >= numOfElements) {
+			return null;
+		}
+		return getDecodedElementAtPositionInIndex(index);
+	}
+
+	@Override
+	public int getNumberOfIndexes() {
+		return numOfElements;
+	}
+
+	private int findPositionInIndex(String elementId) {
+		int low = 0;
+		int high = numOfElements - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = getIdAtPositionInIndex(middle).compareTo(elementId);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private String getIdAtPositionInIndex(int position) {
+		return getString(buffer.getInt(indexStart + position * INDEX_ENTRY_LENGTH));
+	}
+
+	private MetadataElement getDecodedElementAtPositionInIndex(int position) {
+		MetadataElement metadataElement = decodedElements.get(position);
+		if (metadataElement == null) {
+			decodedElements.compareAndSet(position, null, readElementAtPositionInIndex(position));
+			metadataElement = decodedElements.get(position);
+		}
+		return metadataElement;
+	}
+
+	private MetadataElement readElementAtPositionInIndex(int position) {
+		int elementOffset = buffer.getInt(indexStart + position * INDEX_ENTRY_LENGTH
+				+ Integer.BYTES);
+		ByteBuffer elementBuffer = buffer.duplicate();
+		elementBuffer.position(elementOffset);
+		try {
+			return decoder.readElement(elementBuffer);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw MetadataSnapshotException.withMessageAndException("Mapped metadata is truncated",
+					e);
+		}
+	}
+
+	/**
+	 * getAllMetadataElements returns a Collection that decodes the elements not decoded before
+	 * one at a time while it is iterated.
+	 */
+	@Override
+	public Collection<MetadataElement> getAllMetadataElements() {
+		return new AbstractCollection<MetadataElement>() {
+			@Override
+			public Iterator<MetadataElement> iterator() {
+				return new ElementIterator();
+			}
+
+			@Override
+			public int size() {
+				return numOfElements;
+			}
+		};
+	}
+
+	private final class ElementIterator implements Iterator<MetadataElement> {
+		private int position = 0;
+
+		@Override
+		public boolean hasNext() {
+			return position < numOfElements;
+		}
+
+		@Override
+		public MetadataElement next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return getDecodedElementAtPositionInIndex(position++);
+		}
+	}
+
+	@Override
+	public MetadataUsageIndex getUsageIndex() {
+		MetadataUsageIndex currentUsageIndex = usageIndex;
+		if (currentUsageIndex == null) {
+			currentUsageIndex = createUsageIndexIfMissing();
+		}
+		return currentUsageIndex;
+	}
+
+	private synchronized MetadataUsageIndex createUsageIndexIfMissing() {
+		if (usageIndex == null) {
+			usageIndex = MetadataUsageIndex.usingMetadataHolderAndElementUsages(this,
+					readAllElementUsages());
+		}
+		return usageIndex;
+	}
+
+	private List<ElementUsages> readAllElementUsages() {
+		List<ElementUsages> allElementUsages = new ArrayList<>(numOfElements);
+		for (int position = 0; position < numOfElements; position++) {
+			allElementUsages.add(readElementUsagesAtPositionInIndex(position));
+		}
+		return allElementUsages;
+	}
+
+	private ElementUsages readElementUsagesAtPositionInIndex(int position) {
+		int usagesOffset = buffer.getInt(indexStart + position * INDEX_ENTRY_LENGTH
+				+ 2 * Integer.BYTES);
+		ByteBuffer usagesBuffer = buffer.duplicate();
+		usagesBuffer.position(usagesOffset);
+		try {
+			return ElementUsages.withElementIdAndUsedIds(getIdAtPositionInIndex(position),
+					readStrings(usagesBuffer), readStrings(usagesBuffer),
+					readStrings(usagesBuffer), readStrings(usagesBuffer));
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw MetadataSnapshotException.withMessageAndException("Mapped metadata is truncated",
+					e);
+		}
+	}
+
+	private List<String> readStrings(ByteBuffer usagesBuffer) {
+		int numOfValues = usagesBuffer.getInt();
+		List<String> values = new ArrayList<>(numOfValues);
+		for (int i = 0; i < numOfValues; i++) {
+			values.add(getString(usagesBuffer.getInt()));
+		}
+		return values;
+	}
+
+	@Override
+	public MetadataElement getReferencedElement(MetadataChildReference childReference) {
+		return getMetadataElement(childReference.getLinkedRecordId());
+	}
+
+	@Override
+	public List<CollectionVariable> getAttributesForElement(MetadataElement metadataElement) {
+		return resolver.getAttributesForElement(metadataElement);
+	}
+
+	@Override
+	public ChildReferenceDispatchTable getChildDispatchTable(MetadataGroup metadataGroup) {
+		return resolver.getChildDispatchTable(metadataGroup);
+	}
+
+	@Override
+	public ChildReferenceDispatchTable getChildDispatchTableByIndex(int index) {
+		return resolver.getChildDispatchTableByIndex(index);
+	}
+
+	@Override
+	public ItemCollection getRefCollection(CollectionVariable collectionVariable) {
+		return resolver.getRefCollection(collectionVariable);
+	}
+
+	@Override
+	public List<CollectionItem> getCollectionItems(ItemCollection itemCollection) {
+		return resolver.getCollectionItems(itemCollection);
+	}
+}
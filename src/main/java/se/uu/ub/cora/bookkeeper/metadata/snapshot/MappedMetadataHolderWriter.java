@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataUsageIndex.ElementUsages;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
+
+/**
+ * MappedMetadataHolderWriter writes all elements in a MetadataHolder to a file in the format
+ * used by {@link MappedMetadataHolder}.
+ */
+public final class MappedMetadataHolderWriter {
+
+	public byte[] createMappedMetadata(ReadOnlyMetadataHolder metadataHolder) {
+		try {
+			return tryToCreateMappedMetadata(metadataHolder);
+		} catch (IOException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error creating mapped metadata: " + e.getMessage(), e);
+		}
+	}
+
+	private byte[] tryToCreateMappedMetadata(ReadOnlyMetadataHolder metadataHolder)
+			throws IOException {
+		List<MetadataElement> elements = getElementsSortedById(metadataHolder);
+		MetadataElementEncoder encoder = new MetadataElementEncoder();
+		ByteArrayOutputStream encodedElements = new ByteArrayOutputStream();
+		DataOutputStream elementsOut = new DataOutputStream(encodedElements);
+		ByteArrayOutputStream encodedUsages = new ByteArrayOutputStream();
+		DataOutputStream usagesOut = new DataOutputStream(encodedUsages);
+		int[] idIndexes = new int[elements.size()];
+		int[] elementOffsets = new int[elements.size()];
+		int[] usagesOffsets = new int[elements.size()];
+		for (int i = 0; i < elements.size(); i++) {
+			MetadataElement metadataElement = elements.get(i);
+			idIndexes[i] = encoder.getStringIndex(metadataElement.getId());
+			elementOffsets[i] = elementsOut.size();
+			encoder.writeElement(elementsOut, metadataElement);
+			usagesOffsets[i] = usagesOut.size();
+			writeUsages(encoder, usagesOut, ElementUsages.ofElement(metadataElement));
+		}
+		return writeFile(encoder.getStrings(), idIndexes, elementOffsets,
+				encodedElements.toByteArray(), usagesOffsets, encodedUsages.toByteArray());
+	}
+
+	private void writeUsages(MetadataElementEncoder encoder, DataOutput out,
+			ElementUsages elementUsages) throws IOException {
+		writeStringIndexes(encoder, out, elementUsages.getReferencedIds());
+		writeStringIndexes(encoder, out, elementUsages.getChildIds());
+		writeStringIndexes(encoder, out, elementUsages.getRefCollectionIds());
+		writeStringIndexes(encoder, out, elementUsages.getCollectTermIds());
+	}
+
+	private void writeStringIndexes(MetadataElementEncoder encoder, DataOutput out,
+			Collection<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			out.writeInt(encoder.getStringIndex(value));
+		}
+	}
+
+	private List<MetadataElement> getElementsSortedById(ReadOnlyMetadataHolder metadataHolder) {
+		List<MetadataElement> elements = new ArrayList<>(
+				metadataHolder.getAllMetadataElements());
+		elements.sort(Comparator.comparing(MetadataElement::getId));
+		return elements;
+	}
+
+	private byte[] writeFile(List<String> strings, int[] idIndexes, int[] elementOffsets,
+			byte[] encodedElements, int[] usagesOffsets, byte[] encodedUsages)
+			throws IOException {
+		List<byte[]> encodedStrings = encodeStrings(strings);
+		int stringsStart = 4 * Integer.BYTES + strings.size() * Integer.BYTES + Integer.BYTES
+				+ idIndexes.length * 3 * Integer.BYTES;
+
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(file);
+		out.writeInt(MetadataSnapshotFormat.MAPPED_MAGIC);
+		out.writeInt(MetadataSnapshotFormat.MAPPED_FORMAT_VERSION);
+		out.writeInt(0);
+		out.writeInt(strings.size());
+		int stringOffset = stringsStart;
+		for (byte[] encodedString : encodedStrings) {
+			out.writeInt(stringOffset);
+			stringOffset += Integer.BYTES + encodedString.length;
+		}
+		int elementsStart = stringOffset;
+		int usagesStart = elementsStart + encodedElements.length;
+		out.writeInt(idIndexes.length);
+		for (int i = 0; i < idIndexes.length; i++) {
+			out.writeInt(idIndexes[i]);
+			out.writeInt(elementsStart + elementOffsets[i]);
+			out.writeInt(usagesStart + usagesOffsets[i]);
+		}
+		for (byte[] encodedString : encodedStrings) {
+			out.writeInt(encodedString.length);
+			out.write(encodedString);
+		}
+		out.write(encodedElements);
+		out.write(encodedUsages);
+		return writeChecksum(file.toByteArray());
+	}
+
+	private byte[] writeChecksum(byte[] mappedMetadata) {
+		ByteBuffer mappedBuffer = ByteBuffer.wrap(mappedMetadata);
+		mappedBuffer.position(3 * Integer.BYTES);
+		int checksum = MetadataSnapshotFormat.calculateMappedChecksum(mappedBuffer.slice());
+		mappedBuffer.putInt(2 * Integer.BYTES, checksum);
+		return mappedMetadata;
+	}
+
+	private List<byte[]> encodeStrings(List<String> strings) {
+		List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+		for (String value : strings) {
+			encodedStrings.add(value.getBytes(StandardCharsets.UTF_8));
+		}
+		return encodedStrings;
+	}
+
+	/**
+	 * writeToFile writes the mapped metadata to a temporary file next to the file which is then
+	 * moved into place, so that processes mapping the file never see a partially written file.
+	 */
+	public void writeToFile(ReadOnlyMetadataHolder metadataHolder, Path file) {
+		byte[] mappedMetadata = createMappedMetadata(metadataHolder);
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(temporaryFile, mappedMetadata);
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error writing mapped metadata to file: " + file, e);
+		}
+	}
+}
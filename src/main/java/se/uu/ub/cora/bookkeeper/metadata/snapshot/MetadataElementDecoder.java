@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+
+import se.uu.ub.cora.bookkeeper.metadata.CollectTerm;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.LimitsContainer;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
+import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
+import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
+import se.uu.ub.cora.bookkeeper.metadata.ResourceLink;
+import se.uu.ub.cora.bookkeeper.metadata.StandardMetadataParameters;
+import se.uu.ub.cora.bookkeeper.metadata.TextContainer;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.bookkeeper.storage.DataGroupDecoder;
+
+/**
+ * MetadataElementDecoder reads MetadataElements written by {@link MetadataElementEncoder}. String
+ * indexes are looked up using the provided string table, and text variables with the same regular
+ * expression share the Pattern pooled in the provided string pool.
+ */
+final class MetadataElementDecoder {
+	private final IntFunction<String> stringTable;
+	private final MetadataStringPool stringPool;
+	private final DataGroupDecoder dataGroupDecoder = new DataGroupDecoder();
+
+	private MetadataElementDecoder(IntFunction<String> stringTable,
+			MetadataStringPool stringPool) {
+		this.stringTable = stringTable;
+		this.stringPool = stringPool;
+	}
+
+	static MetadataElementDecoder usingStringTableAndStringPool(IntFunction<String> stringTable,
+			MetadataStringPool stringPool) {
+		return new MetadataElementDecoder(stringTable, stringPool);
+	}
+
+	static String[] readStringTable(ByteBuffer buffer) {
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readUtf8(buffer);
+		}
+		return strings;
+	}
+
+	static String readUtf8(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	MetadataElement readElement(ByteBuffer buffer) {
+		byte type = buffer.get();
+		String id = readString(buffer);
+		String nameInData = readString(buffer);
+		String textId = readString(buffer);
+		String defTextId = readString(buffer);
+		switch (type) {
+		case MetadataSnapshotFormat.GROUP:
+			return readGroup(buffer, id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.TEXT_VARIABLE:
+			return readTextVariable(buffer, id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.NUMBER_VARIABLE:
+			return readNumberVariable(buffer, id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.COLLECTION_VARIABLE:
+			return readCollectionVariable(buffer, id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.ITEM_COLLECTION:
+			return readItemCollection(buffer, id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.COLLECTION_ITEM:
+			return new CollectionItem(id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.RECORD_LINK:
+			return readRecordLink(buffer, id, nameInData, textId, defTextId);
+		case MetadataSnapshotFormat.RESOURCE_LINK:
+			return ResourceLink.withIdAndNameInDataAndTextIdAndDefTextId(id, nameInData, textId,
+					defTextId);
+		default:
+			throw MetadataSnapshotException
+					.withMessage("Unknown element type: " + type + " for element: " + id);
+		}
+	}
+
+	private MetadataGroup readGroup(ByteBuffer buffer, String id, String nameInData,
+			String textId, String defTextId) {
+		MetadataGroup metadataGroup = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id,
+				nameInData, textId, defTextId);
+		metadataGroup.setRefParentId(readString(buffer));
+		int numOfAttributeReferences = buffer.getInt();
+		for (int i = 0; i < numOfAttributeReferences; i++) {
+			metadataGroup.addAttributeReference(readString(buffer));
+		}
+		int numOfChildReferences = buffer.getInt();
+		for (int i = 0; i < numOfChildReferences; i++) {
+			metadataGroup.addChildReference(readChildReference(buffer));
+		}
+		return metadataGroup;
+	}
+
+	private MetadataChildReference readChildReference(ByteBuffer buffer) {
+		String linkedRecordType = readString(buffer);
+		String linkedRecordId = readString(buffer);
+		int repeatMin = buffer.getInt();
+		int repeatMax = buffer.getInt();
+		MetadataChildReference childReference = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax(linkedRecordType,
+						linkedRecordId, repeatMin, repeatMax);
+		childReference.setSecret(buffer.get() != 0);
+		childReference.setReadOnly(buffer.get() != 0);
+		childReference.setRepeatMinKey(readString(buffer));
+		childReference.setSecretKey(readString(buffer));
+		childReference.setReadOnlyKey(readString(buffer));
+		int numOfCollectTerms = buffer.getInt();
+		for (int i = 0; i < numOfCollectTerms; i++) {
+			String type = readString(buffer);
+			String collectTermId = readString(buffer);
+			childReference.addCollectIndexTerm(
+					CollectTerm.createCollectTermWithTypeAndId(type, collectTermId));
+		}
+		return childReference;
+	}
+
+	private TextVariable readTextVariable(ByteBuffer buffer, String id, String nameInData,
+			String textId, String defTextId) {
+		TextVariable textVariable = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpressionUsingStringPool(id,
+						nameInData, textId, defTextId, readString(buffer), stringPool);
+		textVariable.setRefParentId(readString(buffer));
+		textVariable.setFinalValue(readString(buffer));
+		return textVariable;
+	}
+
+	private NumberVariable readNumberVariable(ByteBuffer buffer, String id, String nameInData,
+			String textId, String defTextId) {
+		StandardMetadataParameters standardParams = StandardMetadataParameters
+				.usingIdNameInDataAndTextContainer(id, nameInData,
+						TextContainer.usingTextIdAndDefTextId(textId, defTextId));
+		LimitsContainer limits = LimitsContainer.usingMinAndMax(buffer.getDouble(),
+				buffer.getDouble());
+		LimitsContainer warnLimits = LimitsContainer.usingMinAndMax(buffer.getDouble(),
+				buffer.getDouble());
+		return NumberVariable.usingStandardParamsLimitsWarnLimitsAndNumOfDecimals(standardParams,
+				limits, warnLimits, buffer.getInt());
+	}
+
+	private CollectionVariable readCollectionVariable(ByteBuffer buffer, String id,
+			String nameInData, String textId, String defTextId) {
+		CollectionVariable collectionVariable = new CollectionVariable(id, nameInData, textId,
+				defTextId, readString(buffer));
+		collectionVariable.setRefParentId(readString(buffer));
+		collectionVariable.setFinalValue(readString(buffer));
+		return collectionVariable;
+	}
+
+	private ItemCollection readItemCollection(ByteBuffer buffer, String id, String nameInData,
+			String textId, String defTextId) {
+		ItemCollection itemCollection = new ItemCollection(id, nameInData, textId, defTextId);
+		int numOfItemReferences = buffer.getInt();
+		for (int i = 0; i < numOfItemReferences; i++) {
+			itemCollection.addItemReference(readString(buffer));
+		}
+		return itemCollection;
+	}
+
+	private RecordLink readRecordLink(ByteBuffer buffer, String id, String nameInData,
+			String textId, String defTextId) {
+		RecordLink recordLink = RecordLink
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType(id, nameInData,
+						textId, defTextId, readString(buffer));
+		recordLink.setRefParentId(readString(buffer));
+		recordLink.setFinalValue(readString(buffer));
+		int numOfAttributeReferences = buffer.getInt();
+		for (int i = 0; i < numOfAttributeReferences; i++) {
+			recordLink.addAttributeReference(readString(buffer));
+		}
+		if (buffer.get() != 0) {
+			recordLink.setLinkedPath(dataGroupDecoder.decodeDataGroup(buffer));
+		}
+		return recordLink;
+	}
+
+	String readString(ByteBuffer buffer) {
+		int index = buffer.getInt();
+		if (index == MetadataSnapshotFormat.NULL_STRING) {
+			return null;
+		}
+		return stringTable.apply(index);
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.uu.ub.cora.bookkeeper.metadata.CollectTerm;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
+import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
+import se.uu.ub.cora.bookkeeper.metadata.ResourceLink;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.bookkeeper.storage.DataGroupEncoder;
+import se.uu.ub.cora.data.DataGroup;
+
+/**
+ * MetadataElementEncoder writes MetadataElements in the snapshot format. All strings are
+ * written as indexes into a string table kept by the encoder, the table must be written using
+ * {@link #writeStringTable(DataOutput)} after all elements have been encoded.
+ */
+final class MetadataElementEncoder {
+	private final Map<String, Integer> stringIndexes = new HashMap<>();
+	private final List<String> strings = new ArrayList<>();
+	private final DataGroupEncoder dataGroupEncoder = new DataGroupEncoder();
+
+	void writeElement(DataOutput out, MetadataElement metadataElement) throws IOException {
+		out.writeByte(getElementType(metadataElement));
+		writeString(out, metadataElement.getId());
+		writeString(out, metadataElement.getNameInData());
+		writeString(out, metadataElement.getTextId());
+		writeString(out, metadataElement.getDefTextId());
+		writeTypeSpecificFields(out, metadataElement);
+	}
+
+	private byte getElementType(MetadataElement metadataElement) {
+		if (metadataElement instanceof MetadataGroup) {
+			return MetadataSnapshotFormat.GROUP;
+		}
+		if (metadataElement instanceof TextVariable) {
+			return MetadataSnapshotFormat.TEXT_VARIABLE;
+		}
+		if (metadataElement instanceof NumberVariable) {
+			return MetadataSnapshotFormat.NUMBER_VARIABLE;
+		}
+		if (metadataElement instanceof CollectionVariable) {
+			return MetadataSnapshotFormat.COLLECTION_VARIABLE;
+		}
+		if (metadataElement instanceof ItemCollection) {
+			return MetadataSnapshotFormat.ITEM_COLLECTION;
+		}
+		if (metadataElement instanceof CollectionItem) {
+			return MetadataSnapshotFormat.COLLECTION_ITEM;
+		}
+		if (metadataElement instanceof RecordLink) {
+			return MetadataSnapshotFormat.RECORD_LINK;
+		}
+		if (metadataElement instanceof ResourceLink) {
+			return MetadataSnapshotFormat.RESOURCE_LINK;
+		}
+		throw MetadataSnapshotException.withMessage("No snapshot encoding found for element: "
+				+ metadataElement.getId() + " of type: " + metadataElement.getClass().getName());
+	}
+
+	private void writeTypeSpecificFields(DataOutput out, MetadataElement metadataElement)
+			throws IOException {
+		if (metadataElement instanceof MetadataGroup) {
+			writeGroupFields(out, (MetadataGroup) metadataElement);
+		} else if (metadataElement instanceof TextVariable) {
+			writeTextVariableFields(out, (TextVariable) metadataElement);
+		} else if (metadataElement instanceof NumberVariable) {
+			writeNumberVariableFields(out, (NumberVariable) metadataElement);
+		} else if (metadataElement instanceof CollectionVariable) {
+			writeCollectionVariableFields(out, (CollectionVariable) metadataElement);
+		} else if (metadataElement instanceof ItemCollection) {
+			writeStrings(out, ((ItemCollection) metadataElement).getCollectionItemReferences());
+		} else if (metadataElement instanceof RecordLink) {
+			writeRecordLinkFields(out, (RecordLink) metadataElement);
+		}
+	}
+
+	private void writeGroupFields(DataOutput out, MetadataGroup metadataGroup)
+			throws IOException {
+		writeString(out, metadataGroup.getRefParentId());
+		writeStrings(out, metadataGroup.getAttributeReferences());
+		List<MetadataChildReference> childReferences = metadataGroup.getChildReferences();
+		out.writeInt(childReferences.size());
+		for (MetadataChildReference childReference : childReferences) {
+			writeChildReference(out, childReference);
+		}
+	}
+
+	private void writeChildReference(DataOutput out, MetadataChildReference childReference)
+			throws IOException {
+		writeString(out, childReference.getLinkedRecordType());
+		writeString(out, childReference.getLinkedRecordId());
+		out.writeInt(childReference.getRepeatMin());
+		out.writeInt(childReference.getRepeatMax());
+		out.writeBoolean(childReference.isSecret());
+		out.writeBoolean(childReference.isReadOnly());
+		writeString(out, childReference.getRepeatMinKey());
+		writeString(out, childReference.getSecretKey());
+		writeString(out, childReference.getReadOnlyKey());
+		List<CollectTerm> collectTerms = childReference.getCollectTerms();
+		out.writeInt(collectTerms.size());
+		for (CollectTerm collectTerm : collectTerms) {
+			writeString(out, collectTerm.type);
+			writeString(out, collectTerm.id);
+		}
+	}
+
+	private void writeTextVariableFields(DataOutput out, TextVariable textVariable)
+			throws IOException {
+		writeString(out, textVariable.getRegularExpression());
+		writeString(out, textVariable.getRefParentId());
+		writeString(out, textVariable.getFinalValue());
+	}
+
+	private void writeNumberVariableFields(DataOutput out, NumberVariable numberVariable)
+			throws IOException {
+		out.writeDouble(numberVariable.getMin());
+		out.writeDouble(numberVariable.getMax());
+		out.writeDouble(numberVariable.getWarningMin());
+		out.writeDouble(numberVariable.getWarningMax());
+		out.writeInt(numberVariable.getNumOfDecmials());
+	}
+
+	private void writeCollectionVariableFields(DataOutput out,
+			CollectionVariable collectionVariable) throws IOException {
+		writeString(out, collectionVariable.getRefCollectionId());
+		writeString(out, collectionVariable.getRefParentId());
+		writeString(out, collectionVariable.getFinalValue());
+	}
+
+	private void writeRecordLinkFields(DataOutput out, RecordLink recordLink)
+			throws IOException {
+		writeString(out, recordLink.getLinkedRecordType());
+		writeString(out, recordLink.getRefParentId());
+		writeString(out, recordLink.getFinalValue());
+		writeStrings(out, recordLink.getAttributeReferences());
+		DataGroup linkedPath = recordLink.getLinkedPath();
+		out.writeBoolean(linkedPath != null);
+		if (linkedPath != null) {
+			dataGroupEncoder.writeDataGroup(out, linkedPath);
+		}
+	}
+
+	private void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	private void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(MetadataSnapshotFormat.NULL_STRING);
+		} else {
+			out.writeInt(getStringIndex(value));
+		}
+	}
+
+	int getStringIndex(String value) {
+		return stringIndexes.computeIfAbsent(value, this::addToStringTable);
+	}
+
+	List<String> getStrings() {
+		return strings;
+	}
+
+	private int addToStringTable(String value) {
+		strings.add(value);
+		return strings.size() - 1;
+	}
+
+	void writeStringTable(DataOutput out) throws IOException {
+		out.writeInt(strings.size());
+		for (String value : strings) {
+			writeUtf8(out, value);
+		}
+	}
+
+	static void writeUtf8(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
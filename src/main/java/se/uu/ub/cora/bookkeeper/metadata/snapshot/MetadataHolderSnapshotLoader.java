@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderFromStoragePopulator;
+import se.uu.ub.cora.bookkeeper.storage.CachingMetadataStorage;
+import se.uu.ub.cora.bookkeeper.storage.DataGroupEncoder;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * MetadataHolderSnapshotLoader loads a MetadataHolder from a local snapshot file, and only falls
+ * back to populating it from MetadataStorage when the snapshot file is missing, corrupt or
+ * written for another metadata version. After a fallback a new snapshot is written to the file,
+ * so that the next load can use it. The reason a snapshot file could not be used is logged as a
+ * warning.
+ * <p>
+ * The primary way to load is {@link #loadMetadataHolder(String)}, with a metadata version the
+ * caller already has and that is cheap to get, such as a version kept by the storage that is
+ * changed whenever the metadata changes, or the version of a deployment. Storage is then only read
+ * when the snapshot file can not be used.
+ * <p>
+ * When no such version exists, {@link #loadMetadataHolder()} calculates the version from the
+ * content of the metadata in storage, see {@link #calculateMetadataVersion(Collection)}. This
+ * reads and hashes all metadata elements on every load, so it only saves the time spent
+ * converting the elements.
+ */
+public final class MetadataHolderSnapshotLoader {
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final Logger LOGGER = System
+			.getLogger(MetadataHolderSnapshotLoader.class.getName());
+	private final Path snapshotFile;
+	private final MetadataStorage metadataStorage;
+	private final MetadataHolderFromStoragePopulator populator;
+
+	private MetadataHolderSnapshotLoader(Path snapshotFile, MetadataStorage metadataStorage,
+			MetadataHolderFromStoragePopulator populator) {
+		this.snapshotFile = snapshotFile;
+		this.metadataStorage = metadataStorage;
+		this.populator = populator;
+	}
+
+	public static MetadataHolderSnapshotLoader usingSnapshotFileAndMetadataStorage(
+			Path snapshotFile, MetadataStorage metadataStorage) {
+		return new MetadataHolderSnapshotLoader(snapshotFile, metadataStorage,
+				new MetadataHolderFromStoragePopulator());
+	}
+
+	public static MetadataHolderSnapshotLoader usingSnapshotFileMetadataStorageAndPopulator(
+			Path snapshotFile, MetadataStorage metadataStorage,
+			MetadataHolderFromStoragePopulator populator) {
+		return new MetadataHolderSnapshotLoader(snapshotFile, metadataStorage, populator);
+	}
+
+	/**
+	 * loadMetadataHolder loads the MetadataHolder using a metadata version calculated from the
+	 * metadata elements in storage. The elements are read from storage once, to calculate the
+	 * version, and are only converted if the snapshot file can not be used.
+	 * <p>
+	 * Prefer {@link #loadMetadataHolder(String)} when a cheaper metadata version is available.
+	 */
+	public MetadataHolder loadMetadataHolder() {
+		CachingMetadataStorage storageReadOnce = CachingMetadataStorage
+				.usingMetadataStorage(metadataStorage);
+		String metadataVersion = calculateMetadataVersion(storageReadOnce.getMetadataElements());
+		return loadMetadataHolderUsingStorage(metadataVersion, storageReadOnce);
+	}
+
+	/**
+	 * loadMetadataHolder loads the MetadataHolder from the snapshot file if it was written for the
+	 * metadataVersion, and otherwise from storage.
+	 * 
+	 * @param metadataVersion
+	 *            A String that changes whenever the metadata in storage changes
+	 * @return The loaded MetadataHolder
+	 */
+	public MetadataHolder loadMetadataHolder(String metadataVersion) {
+		return loadMetadataHolderUsingStorage(metadataVersion, metadataStorage);
+	}
+
+	private MetadataHolder loadMetadataHolderUsingStorage(String metadataVersion,
+			MetadataStorage storage) {
+		if (Files.exists(snapshotFile)) {
+			try {
+				return MetadataHolderSnapshotReader.usingExpectedMetadataVersion(metadataVersion)
+						.readSnapshotFromFile(snapshotFile);
+			} catch (MetadataSnapshotException e) {
+				LOGGER.log(Level.WARNING, "Metadata snapshot " + snapshotFile
+						+ " could not be used, loading metadata from storage", e);
+			}
+		}
+		return populateFromStorageAndWriteSnapshot(metadataVersion, storage);
+	}
+
+	/**
+	 * calculateMetadataVersion returns a SHA-256 hash, as a hex string, of the content of the
+	 * metadataElements. Each DataGroup is encoded using {@link DataGroupEncoder} and hashed, and
+	 * the hashes are combined in sorted order, so the version only depends on the content of the
+	 * elements and not on the order storage returns them in.
+	 */
+	public static String calculateMetadataVersion(Collection<DataGroup> metadataElements) {
+		DataGroupEncoder encoder = new DataGroupEncoder();
+		List<byte[]> elementHashes = new ArrayList<>(metadataElements.size());
+		for (DataGroup metadataElement : metadataElements) {
+			elementHashes.add(createDigest().digest(encoder.encodeDataGroup(metadataElement)));
+		}
+		elementHashes.sort(Arrays::compare);
+		MessageDigest digest = createDigest();
+		for (byte[] elementHash : elementHashes) {
+			digest.update(elementHash);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error calculating metadata version: " + e.getMessage(), e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte value : bytes) {
+			hex.append(Character.forDigit((value >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(value & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private MetadataHolder populateFromStorageAndWriteSnapshot(String metadataVersion,
+			MetadataStorage storage) {
+		MetadataHolder metadataHolder = populator
+				.createAndPopulateMetadataHolderFromMetadataStorage(storage);
+		MetadataHolderSnapshotWriter.usingMetadataVersion(metadataVersion)
+				.writeSnapshotToFile(metadataHolder, snapshotFile);
+		return metadataHolder;
+	}
+
+	// needed for test
+	MetadataHolderFromStoragePopulator getPopulator() {
+		return populator;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
+
+/**
+ * MetadataHolderSnapshotReader creates a MetadataHolder from a snapshot written by
+ * {@link MetadataHolderSnapshotWriter}.
+ * <p>
+ * A snapshot is only accepted if its checksum is correct and it is written in the current
+ * snapshot format for the expected metadata version, otherwise a
+ * {@link MetadataSnapshotException} is thrown so that the caller can fall back to reading the
+ * metadata from storage.
+ */
+public final class MetadataHolderSnapshotReader {
+	private String expectedMetadataVersion;
+
+	private MetadataHolderSnapshotReader(String expectedMetadataVersion) {
+		this.expectedMetadataVersion = expectedMetadataVersion;
+	}
+
+	public static MetadataHolderSnapshotReader usingExpectedMetadataVersion(
+			String expectedMetadataVersion) {
+		return new MetadataHolderSnapshotReader(expectedMetadataVersion);
+	}
+
+	public MetadataHolder readSnapshotFromFile(Path file) {
+		try {
+			return readSnapshot(Files.readAllBytes(file));
+		} catch (IOException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error reading metadata snapshot from file: " + file, e);
+		}
+	}
+
+	public MetadataHolder readSnapshot(byte[] snapshot) {
+		ensureChecksumIsCorrect(snapshot);
+		ByteBuffer buffer = ByteBuffer.wrap(snapshot, 0,
+				snapshot.length - MetadataSnapshotFormat.CHECKSUM_LENGTH);
+		try {
+			return readValidatedSnapshot(buffer);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw MetadataSnapshotException
+					.withMessageAndException("Metadata snapshot is truncated", e);
+		}
+	}
+
+	private void ensureChecksumIsCorrect(byte[] snapshot) {
+		int contentLength = snapshot.length - MetadataSnapshotFormat.CHECKSUM_LENGTH;
+		if (contentLength < 0) {
+			throw MetadataSnapshotException.withMessage("Metadata snapshot is truncated");
+		}
+		int checksum = MetadataSnapshotFormat.calculateChecksum(snapshot, contentLength);
+		if (checksum != ByteBuffer.wrap(snapshot, contentLength,
+				MetadataSnapshotFormat.CHECKSUM_LENGTH).getInt()) {
+			throw MetadataSnapshotException
+					.withMessage("Metadata snapshot checksum does not match content");
+		}
+	}
+
+	private MetadataHolder readValidatedSnapshot(ByteBuffer buffer) {
+		ensureHeaderIsCorrect(buffer);
+		MetadataElementDecoder decoder = createDecoderUsingStringTable(buffer);
+		MetadataHolder metadataHolder = new MetadataHolder();
+		int numOfElements = buffer.getInt();
+		for (int i = 0; i < numOfElements; i++) {
+			metadataHolder.addMetadataElement(decoder.readElement(buffer));
+		}
+		metadataHolder.resolveReferences();
+		return metadataHolder;
+	}
+
+	private void ensureHeaderIsCorrect(ByteBuffer buffer) {
+		if (buffer.getInt() != MetadataSnapshotFormat.MAGIC) {
+			throw MetadataSnapshotException.withMessage("Data is not a metadata snapshot");
+		}
+		int formatVersion = buffer.getInt();
+		if (formatVersion != MetadataSnapshotFormat.FORMAT_VERSION) {
+			throw MetadataSnapshotException
+					.withMessage("Metadata snapshot format version " + formatVersion
+							+ " is not supported, expected " + MetadataSnapshotFormat.FORMAT_VERSION);
+		}
+		String metadataVersion = MetadataElementDecoder.readUtf8(buffer);
+		if (!expectedMetadataVersion.equals(metadataVersion)) {
+			throw MetadataSnapshotException.withMessage("Metadata snapshot has metadata version "
+					+ metadataVersion + ", expected " + expectedMetadataVersion);
+		}
+	}
+
+	private MetadataElementDecoder createDecoderUsingStringTable(ByteBuffer buffer) {
+		String[] strings = MetadataElementDecoder.readStringTable(buffer);
+		return MetadataElementDecoder.usingStringTableAndStringPool(index -> strings[index],
+				new MetadataStringPool());
+	}
+}
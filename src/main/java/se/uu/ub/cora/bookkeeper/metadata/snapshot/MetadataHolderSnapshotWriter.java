@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
+
+/**
+ * MetadataHolderSnapshotWriter writes all elements in a MetadataHolder to a compact binary
+ * snapshot, that can be read using {@link MetadataHolderSnapshotReader} without converting the
+ * metadata from DataGroups again.
+ * <p>
+ * The snapshot is marked with the metadata version given when the writer is created, and the
+ * reader only accepts snapshots with the version it expects. Elements are written sorted by id,
+ * so that the same metadata always gives the same snapshot.
+ */
+public final class MetadataHolderSnapshotWriter {
+	private String metadataVersion;
+
+	private MetadataHolderSnapshotWriter(String metadataVersion) {
+		this.metadataVersion = metadataVersion;
+	}
+
+	public static MetadataHolderSnapshotWriter usingMetadataVersion(String metadataVersion) {
+		return new MetadataHolderSnapshotWriter(metadataVersion);
+	}
+
+	public byte[] createSnapshot(ReadOnlyMetadataHolder metadataHolder) {
+		try {
+			return tryToCreateSnapshot(metadataHolder);
+		} catch (IOException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error creating metadata snapshot: " + e.getMessage(), e);
+		}
+	}
+
+	private byte[] tryToCreateSnapshot(ReadOnlyMetadataHolder metadataHolder) throws IOException {
+		MetadataElementEncoder encoder = new MetadataElementEncoder();
+		byte[] encodedElements = encodeElementsSortedById(encoder, metadataHolder);
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream(encodedElements.length + 1024);
+		DataOutputStream out = new DataOutputStream(snapshot);
+		out.writeInt(MetadataSnapshotFormat.MAGIC);
+		out.writeInt(MetadataSnapshotFormat.FORMAT_VERSION);
+		MetadataElementEncoder.writeUtf8(out, metadataVersion);
+		encoder.writeStringTable(out);
+		out.write(encodedElements);
+		byte[] content = snapshot.toByteArray();
+		out.writeInt(MetadataSnapshotFormat.calculateChecksum(content, content.length));
+		return snapshot.toByteArray();
+	}
+
+	private byte[] encodeElementsSortedById(MetadataElementEncoder encoder,
+			ReadOnlyMetadataHolder metadataHolder) throws IOException {
+		List<MetadataElement> elements = new ArrayList<>(
+				metadataHolder.getAllMetadataElements());
+		elements.sort(Comparator.comparing(MetadataElement::getId));
+		ByteArrayOutputStream encodedElements = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(encodedElements);
+		out.writeInt(elements.size());
+		for (MetadataElement metadataElement : elements) {
+			encoder.writeElement(out, metadataElement);
+		}
+		return encodedElements.toByteArray();
+	}
+
+	/**
+	 * writeSnapshotToFile writes a snapshot of the metadataHolder to the file. The snapshot is
+	 * first written to a temporary file next to the file which is then moved into place, so that
+	 * readers never see a partially written snapshot.
+	 */
+	public void writeSnapshotToFile(ReadOnlyMetadataHolder metadataHolder, Path file) {
+		byte[] snapshot = createSnapshot(metadataHolder);
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(temporaryFile, snapshot);
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw MetadataSnapshotException.withMessageAndException(
+					"Error writing metadata snapshot to file: " + file, e);
+		}
+	}
+}
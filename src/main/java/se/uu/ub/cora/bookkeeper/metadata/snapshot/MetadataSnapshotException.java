@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+public final class MetadataSnapshotException extends RuntimeException {
+
+	private static final long serialVersionUID = -2304167373093429781L;
+
+	public static MetadataSnapshotException withMessage(String message) {
+		return new MetadataSnapshotException(message);
+	}
+
+	public static MetadataSnapshotException withMessageAndException(String message,
+			Exception exception) {
+		return new MetadataSnapshotException(message, exception);
+	}
+
+	private MetadataSnapshotException(String message) {
+		super(message);
+	}
+
+	private MetadataSnapshotException(String message, Exception exception) {
+		super(message, exception);
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * MetadataSnapshotFormat holds the constants describing the binary snapshot format.
+ * <p>
+ * A snapshot consists of a header (magic number, format version and metadata version), a table
+ * with all distinct strings used by the elements, the encoded elements referring to strings by
+ * their index in the string table, and finally a CRC32 checksum of all preceding bytes, stored as
+ * an int. Linked paths of record links are DataGroups and are written using
+ * {@link se.uu.ub.cora.bookkeeper.storage.DataGroupEncoder}.
+ * <p>
+ * A mapped metadata file, used by {@link MappedMetadataHolder}, instead starts with a header
+ * (magic number, format version and a CRC32 checksum of all bytes after the checksum), followed
+ * by the offsets of all strings, an index with the id string index, element offset and usages
+ * offset for each element sorted by id, the strings, the encoded elements and finally the usages
+ * of each element as string indexes. This makes it possible to look up single strings and
+ * elements without reading the whole file.
+ */
+final class MetadataSnapshotFormat {
+	static final int MAGIC = 0x434D4453;
+	static final int FORMAT_VERSION = 2;
+	static final int MAPPED_MAGIC = 0x434D444D;
+	static final int MAPPED_FORMAT_VERSION = 2;
+	static final int NULL_STRING = -1;
+	static final int CHECKSUM_LENGTH = Integer.BYTES;
+
+	static final byte GROUP = 1;
+	static final byte TEXT_VARIABLE = 2;
+	static final byte NUMBER_VARIABLE = 3;
+	static final byte COLLECTION_VARIABLE = 4;
+	static final byte ITEM_COLLECTION = 5;
+	static final byte COLLECTION_ITEM = 6;
+	static final byte RECORD_LINK = 7;
+	static final byte RESOURCE_LINK = 8;
+
+	static int calculateChecksum(byte[] bytes, int length) {
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes, 0, length);
+		return (int) checksum.getValue();
+	}
+
+	/**
+	 * calculateMappedChecksum returns the CRC32 checksum of the remaining bytes in the buffer. The
+	 * checksum is 32 bits and is stored as an int in mapped metadata files.
+	 */
+	static int calculateMappedChecksum(ByteBuffer buffer) {
+		CRC32 checksum = new CRC32();
+		checksum.update(buffer);
+		return (int) checksum.getValue();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * CachingMetadataStorage is a MetadataStorage that reads each kind of metadata from another
+ * MetadataStorage the first time it is requested and then returns the same unmodifiable
+ * collection to all following callers, so that the link collector, term collector and populators
+ * can share one instance and only read from the underlying storage once.
+ * <p>
+ * When the metadata in the underlying storage changes, {@link #invalidate()} must be called. The
+ * cached collections are then dropped and all registered {@link MetadataChangeListener}s are
+ * notified, in the thread calling invalidate.
+ * <p>
+ * CachingMetadataStorage is thread safe.
+ */
+public final class CachingMetadataStorage implements MetadataStorage {
+	private final MetadataStorage metadataStorage;
+	private volatile Map<MetadataKind, Collection<DataGroup>> cache = new ConcurrentHashMap<>();
+	private final List<MetadataChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	private enum MetadataKind {
+		METADATA_ELEMENTS, PRESENTATION_ELEMENTS, TEXTS, RECORD_TYPES, COLLECT_TERMS
+	}
+
+	private CachingMetadataStorage(MetadataStorage metadataStorage) {
+		this.metadataStorage = metadataStorage;
+	}
+
+	public static CachingMetadataStorage usingMetadataStorage(MetadataStorage metadataStorage) {
+		return new CachingMetadataStorage(metadataStorage);
+	}
+
+	@Override
+	public Collection<DataGroup> getMetadataElements() {
+		return getCachedOrRead(MetadataKind.METADATA_ELEMENTS,
+				metadataStorage::getMetadataElements);
+	}
+
+	private Collection<DataGroup> getCachedOrRead(MetadataKind kind,
+			Supplier<Collection<DataGroup>> reader) {
+		return cache.computeIfAbsent(kind,
+				key -> Collections.unmodifiableList(new ArrayList<>(reader.get())));
+	}
+
+	@Override
+	public Collection<DataGroup> getPresentationElements() {
+		return getCachedOrRead(MetadataKind.PRESENTATION_ELEMENTS,
+				metadataStorage::getPresentationElements);
+	}
+
+	@Override
+	public Collection<DataGroup> getTexts() {
+		return getCachedOrRead(MetadataKind.TEXTS, metadataStorage::getTexts);
+	}
+
+	@Override
+	public Collection<DataGroup> getRecordTypes() {
+		return getCachedOrRead(MetadataKind.RECORD_TYPES, metadataStorage::getRecordTypes);
+	}
+
+	@Override
+	public Collection<DataGroup> getCollectTerms() {
+		return getCachedOrRead(MetadataKind.COLLECT_TERMS, metadataStorage::getCollectTerms);
+	}
+
+	/**
+	 * invalidate drops all cached metadata, so that it is read from the underlying storage again
+	 * when next requested, and then notifies all registered listeners. Collections already
+	 * returned to callers are not changed.
+	 * <p>
+	 * The cache is replaced with a new empty cache rather than cleared, so a read from the
+	 * underlying storage that is in progress when invalidate is called ends up in the dropped
+	 * cache and is never returned to callers requesting metadata after invalidate.
+	 */
+	public void invalidate() {
+		cache = new ConcurrentHashMap<>();
+		for (MetadataChangeListener listener : listeners) {
+			listener.metadataChanged();
+		}
+	}
+
+	public void addMetadataChangeListener(MetadataChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeMetadataChangeListener(MetadataChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	public MetadataStorage getMetadataStorage() {
+		// needed for test
+		return metadataStorage;
+	}
+}
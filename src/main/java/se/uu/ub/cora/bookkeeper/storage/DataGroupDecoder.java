@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import se.uu.ub.cora.data.Action;
+import se.uu.ub.cora.data.DataAtomic;
+import se.uu.ub.cora.data.DataAtomicProvider;
+import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.data.DataGroupProvider;
+import se.uu.ub.cora.data.DataRecordLink;
+import se.uu.ub.cora.data.DataRecordLinkProvider;
+
+/**
+ * DataGroupDecoder decodes DataGroups written by {@link DataGroupEncoder}, creating the groups,
+ * record links and atomics using {@link DataGroupProvider}, {@link DataRecordLinkProvider} and
+ * {@link DataAtomicProvider}.
+ */
+public final class DataGroupDecoder {
+
+	/**
+	 * decodeDataGroup reads one encoded DataGroup starting at the position of the buffer, and
+	 * leaves the position of the buffer after the DataGroup
+	 * 
+	 * @throws MetadataFileException
+	 *             if the buffer does not contain an encoded DataGroup at its position
+	 */
+	public DataGroup decodeDataGroup(ByteBuffer buffer) {
+		byte type = buffer.get();
+		if (type == MetadataFileFormat.DATA_GROUP) {
+			return readGroup(buffer);
+		}
+		if (type == MetadataFileFormat.DATA_RECORD_LINK) {
+			return readRecordLink(buffer);
+		}
+		throw MetadataFileException.withMessage("Encoded element is not a DataGroup");
+	}
+
+	private DataGroup readGroup(ByteBuffer buffer) {
+		DataGroup dataGroup = DataGroupProvider.getDataGroupUsingNameInData(readString(buffer));
+		readGroupContent(buffer, dataGroup);
+		return dataGroup;
+	}
+
+	private DataRecordLink readRecordLink(ByteBuffer buffer) {
+		DataRecordLink recordLink = DataRecordLinkProvider
+				.getDataRecordLinkUsingNameInData(readString(buffer));
+		readGroupContent(buffer, recordLink);
+		int numOfActions = buffer.getInt();
+		for (int i = 0; i < numOfActions; i++) {
+			recordLink.addAction(Action.valueOf(readString(buffer)));
+		}
+		return recordLink;
+	}
+
+	private void readGroupContent(ByteBuffer buffer, DataGroup dataGroup) {
+		possiblySetRepeatId(dataGroup, readString(buffer));
+		int numOfAttributes = buffer.getInt();
+		for (int i = 0; i < numOfAttributes; i++) {
+			dataGroup.addAttributeByIdWithValue(readString(buffer), readString(buffer));
+		}
+		int numOfChildren = buffer.getInt();
+		for (int i = 0; i < numOfChildren; i++) {
+			readChildAndAddToDataGroup(buffer, dataGroup);
+		}
+	}
+
+	private void possiblySetRepeatId(DataElement dataElement, String repeatId) {
+		if (repeatId != null) {
+			dataElement.setRepeatId(repeatId);
+		}
+	}
+
+	private void readChildAndAddToDataGroup(ByteBuffer buffer, DataGroup dataGroup) {
+		byte type = buffer.get();
+		if (type == MetadataFileFormat.DATA_GROUP) {
+			dataGroup.addChild(readGroup(buffer));
+		} else if (type == MetadataFileFormat.DATA_RECORD_LINK) {
+			dataGroup.addChild(readRecordLink(buffer));
+		} else if (type == MetadataFileFormat.DATA_ATOMIC) {
+			dataGroup.addChild(readAtomic(buffer));
+		} else {
+			throw MetadataFileException.withMessage("Unknown encoded child type: " + type);
+		}
+	}
+
+	private DataAtomic readAtomic(ByteBuffer buffer) {
+		String nameInData = readString(buffer);
+		String repeatId = readString(buffer);
+		String value = readString(buffer);
+		DataAtomic dataAtomic = DataAtomicProvider.getDataAtomicUsingNameInDataAndValue(nameInData,
+				value);
+		possiblySetRepeatId(dataAtomic, repeatId);
+		return dataAtomic;
+	}
+
+	static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == MetadataFileFormat.NULL_STRING) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map.Entry;
+
+import se.uu.ub.cora.data.Action;
+import se.uu.ub.cora.data.DataAtomic;
+import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.data.DataRecordLink;
+
+/**
+ * DataGroupEncoder encodes DataGroups, with all their children, attributes and repeatIds, into
+ * the element format described in {@link MetadataFileFormat}. DataRecordLinks are encoded with
+ * their actions, so that they are decoded as DataRecordLinks. DataAtomics with attributes are not
+ * encoded, as DataAtomicProvider can not create DataAtomics with attributes, and a
+ * {@link MetadataFileException} is thrown instead of silently dropping the attributes. It is the
+ * only encoding of DataGroups in bookkeeper, also used for the linked paths in metadata
+ * snapshots, and DataGroups encoded by it are read using {@link DataGroupDecoder}.
+ */
+public final class DataGroupEncoder {
+
+	public byte[] encodeDataGroup(DataGroup dataGroup) {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try {
+			writeDataGroup(new DataOutputStream(encoded), dataGroup);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * writeDataGroup writes the encoded dataGroup to out, so that it can be embedded in other
+	 * encoded data
+	 */
+	public void writeDataGroup(DataOutput out, DataGroup dataGroup) throws IOException {
+		writeGroup(out, dataGroup);
+	}
+
+	private void writeGroup(DataOutput out, DataGroup dataGroup) throws IOException {
+		if (dataGroup instanceof DataRecordLink) {
+			out.writeByte(MetadataFileFormat.DATA_RECORD_LINK);
+			writeGroupContent(out, dataGroup);
+			writeActions(out, ((DataRecordLink) dataGroup).getActions());
+		} else {
+			out.writeByte(MetadataFileFormat.DATA_GROUP);
+			writeGroupContent(out, dataGroup);
+		}
+	}
+
+	private void writeGroupContent(DataOutput out, DataGroup dataGroup) throws IOException {
+		writeString(out, dataGroup.getNameInData());
+		writeString(out, dataGroup.getRepeatId());
+		out.writeInt(dataGroup.getAttributes().size());
+		for (Entry<String, String> attribute : dataGroup.getAttributes().entrySet()) {
+			writeString(out, attribute.getKey());
+			writeString(out, attribute.getValue());
+		}
+		out.writeInt(dataGroup.getChildren().size());
+		for (DataElement child : dataGroup.getChildren()) {
+			writeChild(out, child);
+		}
+	}
+
+	private void writeActions(DataOutput out, List<Action> actions) throws IOException {
+		out.writeInt(actions.size());
+		for (Action action : actions) {
+			writeString(out, action.name());
+		}
+	}
+
+	private void writeChild(DataOutput out, DataElement child) throws IOException {
+		if (child instanceof DataGroup) {
+			writeGroup(out, (DataGroup) child);
+		} else {
+			writeAtomic(out, (DataAtomic) child);
+		}
+	}
+
+	private void writeAtomic(DataOutput out, DataAtomic dataAtomic) throws IOException {
+		ensureAtomicHasNoAttributes(dataAtomic);
+		out.writeByte(MetadataFileFormat.DATA_ATOMIC);
+		writeString(out, dataAtomic.getNameInData());
+		writeString(out, dataAtomic.getRepeatId());
+		writeString(out, dataAtomic.getValue());
+	}
+
+	private void ensureAtomicHasNoAttributes(DataAtomic dataAtomic) {
+		if (!dataAtomic.getAttributes().isEmpty()) {
+			throw MetadataFileException.withMessage("DataAtomic with nameInData "
+					+ dataAtomic.getNameInData()
+					+ " has attributes, which can not be recreated when it is decoded");
+		}
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(MetadataFileFormat.NULL_STRING);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * FileMetadataStorage is a MetadataStorage reading metadata from a local directory written by
+ * {@link FileMetadataStorageWriter}, making it possible to run and benchmark startup and
+ * validation without a database. It can be used as storage for
+ * MetadataHolderFromStoragePopulator like any other MetadataStorage.
+ * <p>
+ * The index of a file is read the first time it is needed, after that single metadata elements can
+ * be read using {@link #getMetadataElement(String)} without reading or decoding any other element.
+ * A kind of metadata without a file in the directory is treated as empty. Every element read is
+ * verified against its checksum, and a {@link MetadataFileException} is thrown if the files can not
+ * be read or are corrupt.
+ * <p>
+ * The index read from a file is kept together with the file key, size and modification time of
+ * the file, and is read again when any of them has changed. The index and the elements of one
+ * call are read through the same open channel, so a file replaced during a call, as done by
+ * {@link FileMetadataStorageWriter}, does not mix the index of one file with the content of
+ * another. Elements are read at their long offsets, so files larger than 2 GB can be read.
+ * <p>
+ * FileMetadataStorage is thread safe.
+ */
+public final class FileMetadataStorage implements MetadataStorage {
+	private final Path directory;
+	private final DataGroupDecoder decoder = new DataGroupDecoder();
+	private final Map<MetadataFile, FileIndex> indexes = new ConcurrentHashMap<>();
+
+	private static final class FileIndex {
+		private static final FileIndex EMPTY = new FileIndex(null, 0);
+		private final FileVersion fileVersion;
+		private final Map<String, Integer> positions = new HashMap<>();
+		private final List<String> ids;
+		private final long[] offsets;
+		private final int[] lengths;
+		private final int[] checksums;
+
+		private FileIndex(FileVersion fileVersion, int numOfElements) {
+			this.fileVersion = fileVersion;
+			ids = new ArrayList<>(numOfElements);
+			offsets = new long[numOfElements];
+			lengths = new int[numOfElements];
+			checksums = new int[numOfElements];
+		}
+	}
+
+	private static final class FileVersion {
+		private final Object fileKey;
+		private final long size;
+		private final FileTime lastModifiedTime;
+
+		private FileVersion(BasicFileAttributes attributes) {
+			fileKey = attributes.fileKey();
+			size = attributes.size();
+			lastModifiedTime = attributes.lastModifiedTime();
+		}
+
+		private boolean isSameAs(FileVersion other) {
+			return other != null && Objects.equals(fileKey, other.fileKey) && size == other.size
+					&& lastModifiedTime.equals(other.lastModifiedTime);
+		}
+	}
+
+	private FileMetadataStorage(Path directory) {
+		this.directory = directory;
+	}
+
+	public static FileMetadataStorage usingDirectory(Path directory) {
+		return new FileMetadataStorage(directory);
+	}
+
+	@Override
+	public Collection<DataGroup> getMetadataElements() {
+		return readAllFromFile(MetadataFile.METADATA_ELEMENTS);
+	}
+
+	@Override
+	public Collection<DataGroup> getPresentationElements() {
+		return readAllFromFile(MetadataFile.PRESENTATION_ELEMENTS);
+	}
+
+	@Override
+	public Collection<DataGroup> getTexts() {
+		return readAllFromFile(MetadataFile.TEXTS);
+	}
+
+	@Override
+	public Collection<DataGroup> getRecordTypes() {
+		return readAllFromFile(MetadataFile.RECORD_TYPES);
+	}
+
+	@Override
+	public Collection<DataGroup> getCollectTerms() {
+		return readAllFromFile(MetadataFile.COLLECT_TERMS);
+	}
+
+	/**
+	 * getMetadataElementIds returns the ids of all metadata elements, in the order they are stored
+	 * in the file, without reading any of the elements.
+	 */
+	public List<String> getMetadataElementIds() {
+		return readFromFile(MetadataFile.METADATA_ELEMENTS, OpenMetadataFile::getIds);
+	}
+
+	/**
+	 * getMetadataElement reads only the metadata element with the specified id from file.
+	 * 
+	 * @throws MetadataFileException
+	 *             if no metadata element with the id exists
+	 */
+	public DataGroup getMetadataElement(String id) {
+		return readFromFile(MetadataFile.METADATA_ELEMENTS,
+				openFile -> openFile.readElementWithId(id));
+	}
+
+	private Collection<DataGroup> readAllFromFile(MetadataFile metadataFile) {
+		return readFromFile(metadataFile, OpenMetadataFile::readAllElements);
+	}
+
+	private <T> T readFromFile(MetadataFile metadataFile,
+			Function<OpenMetadataFile, T> fileReader) {
+		try (OpenMetadataFile openFile = openFile(metadataFile)) {
+			return fileReader.apply(openFile);
+		}
+	}
+
+	/**
+	 * openMetadataElementsFile opens the metadata elements file, so that the index and any number
+	 * of elements can be read from the same version of the file, even if the file is replaced
+	 * while it is open. The returned file must be closed.
+	 */
+	OpenMetadataFile openMetadataElementsFile() {
+		return openFile(MetadataFile.METADATA_ELEMENTS);
+	}
+
+	private OpenMetadataFile openFile(MetadataFile metadataFile) {
+		Path file = getFile(metadataFile);
+		try {
+			return openExistingFile(metadataFile, file);
+		} catch (NoSuchFileException e) {
+			return new OpenMetadataFile(file, null, FileIndex.EMPTY);
+		} catch (IOException | IllegalArgumentException e) {
+			throw MetadataFileException
+					.withMessageAndException("Error reading metadata file: " + file, e);
+		}
+	}
+
+	private OpenMetadataFile openExistingFile(MetadataFile metadataFile, Path file)
+			throws IOException {
+		FileVersion fileVersion = new FileVersion(
+				Files.readAttributes(file, BasicFileAttributes.class));
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			FileIndex index = getIndexForOpenFile(metadataFile, file, channel, fileVersion);
+			return new OpenMetadataFile(file, channel, index);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private Path getFile(MetadataFile metadataFile) {
+		return directory.resolve(metadataFile.fileName);
+	}
+
+	/**
+	 * The file version is read before the file is opened, so if the file is replaced in between,
+	 * the index read from the new file is kept with the version of the old file and is read again
+	 * on the next call, never the other way around.
+	 */
+	private FileIndex getIndexForOpenFile(MetadataFile metadataFile, Path file,
+			FileChannel channel, FileVersion fileVersion) throws IOException {
+		FileIndex index = indexes.get(metadataFile);
+		if (index == null || !fileVersion.isSameAs(index.fileVersion)) {
+			index = readIndexFromChannel(file, channel, fileVersion);
+			indexes.put(metadataFile, index);
+		}
+		return index;
+	}
+
+	private FileIndex readIndexFromChannel(Path file, FileChannel channel,
+			FileVersion fileVersion) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(MetadataFileFormat.HEADER_LENGTH);
+		readFully(file, channel, header, 0);
+		header.flip();
+		ensureHeaderIsCorrect(file, header);
+		int numOfElements = header.getInt();
+		int indexLength = header.getInt();
+		ByteBuffer indexBuffer = ByteBuffer.allocate(indexLength);
+		readFully(file, channel, indexBuffer, MetadataFileFormat.HEADER_LENGTH);
+		indexBuffer.flip();
+		return readIndex(file, indexBuffer, fileVersion, numOfElements);
+	}
+
+	private void readFully(Path file, FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw MetadataFileException.withMessage("Metadata file is truncated: " + file);
+			}
+		}
+	}
+
+	private FileIndex readIndex(Path file, ByteBuffer buffer, FileVersion fileVersion,
+			int numOfElements) {
+		try {
+			FileIndex index = new FileIndex(fileVersion, numOfElements);
+			for (int i = 0; i < numOfElements; i++) {
+				String id = DataGroupDecoder.readString(buffer);
+				index.ids.add(id);
+				index.positions.put(id, i);
+				index.offsets[i] = buffer.getLong();
+				index.lengths[i] = buffer.getInt();
+				index.checksums[i] = buffer.getInt();
+			}
+			return index;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| NegativeArraySizeException e) {
+			throw MetadataFileException
+					.withMessageAndException("Metadata file is truncated: " + file, e);
+		}
+	}
+
+	private void ensureHeaderIsCorrect(Path file, ByteBuffer buffer) {
+		if (buffer.getInt() != MetadataFileFormat.MAGIC) {
+			throw MetadataFileException.withMessage("File is not a metadata file: " + file);
+		}
+		int formatVersion = buffer.getInt();
+		if (formatVersion != MetadataFileFormat.FORMAT_VERSION) {
+			throw MetadataFileException.withMessage("Metadata file format version "
+					+ formatVersion + " is not supported, expected "
+					+ MetadataFileFormat.FORMAT_VERSION + ": " + file);
+		}
+	}
+
+	/**
+	 * getMetadataElementChecksums returns the checksum of each metadata element by id, read from
+	 * the index without reading any of the elements. An element with the same id and checksum as
+	 * in a previous read is unchanged.
+	 */
+	Map<String, Integer> getMetadataElementChecksums() {
+		return readFromFile(MetadataFile.METADATA_ELEMENTS, OpenMetadataFile::getChecksums);
+	}
+
+	/**
+	 * OpenMetadataFile reads the index and elements of one version of a metadata file through
+	 * one open channel.
+	 */
+	final class OpenMetadataFile implements Closeable {
+		private final Path file;
+		private final FileChannel channel;
+		private final FileIndex index;
+
+		private OpenMetadataFile(Path file, FileChannel channel, FileIndex index) {
+			this.file = file;
+			this.channel = channel;
+			this.index = index;
+		}
+
+		List<String> getIds() {
+			return Collections.unmodifiableList(index.ids);
+		}
+
+		/**
+		 * getChecksums returns the checksum of each element by id, read from the index without
+		 * reading any of the elements.
+		 */
+		Map<String, Integer> getChecksums() {
+			Map<String, Integer> checksums = new HashMap<>(index.ids.size());
+			for (int i = 0; i < index.ids.size(); i++) {
+				checksums.put(index.ids.get(i), index.checksums[i]);
+			}
+			return checksums;
+		}
+
+		DataGroup readElementWithId(String id) {
+			Integer position = index.positions.get(id);
+			if (position == null) {
+				throw MetadataFileException
+						.withMessage("No metadata element found with id: " + id);
+			}
+			return readElement(position);
+		}
+
+		Collection<DataGroup> readAllElements() {
+			List<DataGroup> dataGroups = new ArrayList<>(index.ids.size());
+			for (int position = 0; position < index.ids.size(); position++) {
+				dataGroups.add(readElement(position));
+			}
+			return dataGroups;
+		}
+
+		private DataGroup readElement(int position) {
+			String id = index.ids.get(position);
+			byte[] bytes = readElementBytes(position);
+			ensureChecksumIsCorrect(id, index.checksums[position], bytes);
+			try {
+				return decoder.decodeDataGroup(ByteBuffer.wrap(bytes));
+			} catch (BufferUnderflowException | IndexOutOfBoundsException
+					| NegativeArraySizeException e) {
+				throw MetadataFileException.withMessageAndException(
+						"Metadata element " + id + " is truncated in metadata file: " + file, e);
+			}
+		}
+
+		private byte[] readElementBytes(int position) {
+			try {
+				ByteBuffer element = ByteBuffer.allocate(index.lengths[position]);
+				readFully(file, channel, element, index.offsets[position]);
+				return element.array();
+			} catch (IOException | IllegalArgumentException e) {
+				throw MetadataFileException
+						.withMessageAndException("Error reading metadata file: " + file, e);
+			}
+		}
+
+		private void ensureChecksumIsCorrect(String id, int checksum, byte[] bytes) {
+			if (checksum != MetadataFileFormat.calculateChecksum(bytes, 0, bytes.length)) {
+				throw MetadataFileException
+						.withMessage("Checksum does not match for metadata element " + id
+								+ " in metadata file: " + file);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (channel == null) {
+				return;
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw MetadataFileException
+						.withMessageAndException("Error closing metadata file: " + file, e);
+			}
+		}
+	}
+
+	public Path getDirectory() {
+		// needed for test
+		return directory;
+	}
+}
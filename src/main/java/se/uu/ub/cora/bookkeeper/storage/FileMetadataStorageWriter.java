@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * FileMetadataStorageWriter writes all metadata in a MetadataStorage to a directory, in the
+ * indexed format read by {@link FileMetadataStorage}.
+ * <p>
+ * Each file is first written to a temporary file in the same directory and then moved into place,
+ * so that a reader never sees a partly written file.
+ */
+public final class FileMetadataStorageWriter {
+	private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+	private final Path directory;
+	private final DataGroupEncoder encoder = new DataGroupEncoder();
+
+	private FileMetadataStorageWriter(Path directory) {
+		this.directory = directory;
+	}
+
+	public static FileMetadataStorageWriter usingDirectory(Path directory) {
+		return new FileMetadataStorageWriter(directory);
+	}
+
+	public void writeMetadataStorage(MetadataStorage metadataStorage) {
+		for (MetadataFile metadataFile : MetadataFile.values()) {
+			writeMetadataFile(metadataFile,
+					metadataFile.readFromMetadataStorage(metadataStorage));
+		}
+	}
+
+	private void writeMetadataFile(MetadataFile metadataFile, Iterable<DataGroup> dataGroups) {
+		Path file = directory.resolve(metadataFile.fileName);
+		Path temporaryFile = directory.resolve(metadataFile.fileName + TEMPORARY_FILE_SUFFIX);
+		try {
+			Files.createDirectories(directory);
+			writeFileContent(temporaryFile, dataGroups);
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw MetadataFileException
+					.withMessageAndException("Error writing metadata file: " + file, e);
+		}
+	}
+
+	private void writeFileContent(Path file, Iterable<DataGroup> dataGroups) throws IOException {
+		List<String> ids = new ArrayList<>();
+		List<byte[]> elements = new ArrayList<>();
+		for (DataGroup dataGroup : dataGroups) {
+			ids.add(getIdFromDataGroup(dataGroup));
+			elements.add(encoder.encodeDataGroup(dataGroup));
+		}
+		byte[] index = createIndex(ids, elements);
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MetadataFileFormat.MAGIC);
+			out.writeInt(MetadataFileFormat.FORMAT_VERSION);
+			out.writeInt(elements.size());
+			out.writeInt(index.length);
+			out.write(index);
+			for (byte[] element : elements) {
+				out.write(element);
+			}
+		}
+	}
+
+	private byte[] createIndex(List<String> ids, List<byte[]> elements) throws IOException {
+		int indexLength = calculateIndexLength(ids);
+		long offset = (long) MetadataFileFormat.HEADER_LENGTH + indexLength;
+		ByteArrayOutputStream index = new ByteArrayOutputStream(indexLength);
+		DataOutputStream out = new DataOutputStream(index);
+		for (int i = 0; i < ids.size(); i++) {
+			byte[] element = elements.get(i);
+			DataGroupEncoder.writeString(out, ids.get(i));
+			out.writeLong(offset);
+			out.writeInt(element.length);
+			out.writeInt(MetadataFileFormat.calculateChecksum(element, 0, element.length));
+			offset += element.length;
+		}
+		return index.toByteArray();
+	}
+
+	private int calculateIndexLength(List<String> ids) throws IOException {
+		ByteArrayOutputStream idBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(idBytes);
+		for (String id : ids) {
+			DataGroupEncoder.writeString(out, id);
+		}
+		return idBytes.size() + ids.size() * (Long.BYTES + 2 * Integer.BYTES);
+	}
+
+	static String getIdFromDataGroup(DataGroup dataGroup) {
+		if (!dataGroup.containsChildWithNameInData("recordInfo")) {
+			return "";
+		}
+		DataGroup recordInfo = dataGroup.getFirstGroupWithNameInData("recordInfo");
+		if (!recordInfo.containsChildWithNameInData("id")) {
+			return "";
+		}
+		return recordInfo.getFirstAtomicValueWithNameInData("id");
+	}
+
+	public Path getDirectory() {
+		// needed for test
+		return directory;
+	}
+}
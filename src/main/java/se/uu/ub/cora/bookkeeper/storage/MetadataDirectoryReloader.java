@@ -0,0 +1,336 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataConsistencyChecker;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataReferenceResolver;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataGroupToMetadataConverterFactoryImp;
+import se.uu.ub.cora.bookkeeper.storage.FileMetadataStorage.OpenMetadataFile;
+import se.uu.ub.cora.data.DataGroup;
+
+/**
+ * MetadataDirectoryReloader creates MetadataHolders from a directory written by
+ * {@link FileMetadataStorageWriter} and publishes them in a {@link MetadataHolderProvider}, so
+ * that validators and collectors using the provider get new metadata without a restart.
+ * <p>
+ * {@link #reloadChangedElements()} compares the checksums in the index of the metadata elements
+ * file with the ones from the previous reload, and only reads and converts the elements that are
+ * added or changed. All other elements, also those referring to a changed element, are shared with
+ * the previously published MetadataHolder. Elements only refer to other elements by id, the
+ * resolved references are kept by each holder, see {@link MetadataReferenceResolver}, and are
+ * resolved again for the new holder. Published holders are never modified, so readers still
+ * using the previous version are not affected.
+ * <p>
+ * The checksums, ids and elements of one reload are all read from the same version of the
+ * metadata elements file. Each reload converts elements using a new {@link MetadataStringPool}
+ * seeded from the previously published MetadataHolder, so converted elements share strings and
+ * patterns with the kept elements, while values only used by removed elements are not kept
+ * forever. The usage index of a MetadataHolder is built before it is published.
+ * <p>
+ * {@link #startWatching(Executor)} uses a WatchService to reload each time the metadata elements
+ * file in the directory is changed. If a reload fails, the previously published MetadataHolder is
+ * kept, the failure is logged and the exception is available from
+ * {@link #getLastReloadException()} until a later reload succeeds. A failed reload is retried
+ * after a delay that is doubled for each failure in a row, up to a maximum, and changes seen
+ * during the delay are handled by the retry. Registered {@link MetadataChangeListener}s are
+ * notified after each published MetadataHolder.
+ * <p>
+ * MetadataDirectoryReloader is thread safe, reloads are done one at a time.
+ */
+public final class MetadataDirectoryReloader implements Closeable {
+	private static final Logger LOGGER = System
+			.getLogger(MetadataDirectoryReloader.class.getName());
+	static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+	static final long MAX_RETRY_DELAY_MILLIS = 60000;
+	private final Path directory;
+	private final MetadataHolderProvider metadataHolderProvider;
+	private final List<MetadataChangeListener> listeners = new CopyOnWriteArrayList<>();
+	private Map<String, Integer> loadedChecksums = Collections.emptyMap();
+	private MetadataHolder loadedMetadataHolder;
+	private WatchService watchService;
+	private volatile Exception lastReloadException;
+
+	private MetadataDirectoryReloader(Path directory,
+			MetadataHolderProvider metadataHolderProvider) {
+		this.directory = directory;
+		this.metadataHolderProvider = metadataHolderProvider;
+	}
+
+	public static MetadataDirectoryReloader usingDirectoryAndMetadataHolderProvider(
+			Path directory, MetadataHolderProvider metadataHolderProvider) {
+		return new MetadataDirectoryReloader(directory, metadataHolderProvider);
+	}
+
+	/**
+	 * reloadChangedElements creates a new MetadataHolder from the directory and publishes it, if
+	 * any metadata element has been added, changed or removed since the previous reload. The first
+	 * call reads and converts all metadata elements.
+	 * 
+	 * @return A Set with the ids of all elements that were added, changed or removed, empty if
+	 *         nothing has changed
+	 */
+	public synchronized Set<String> reloadChangedElements() {
+		FileMetadataStorage fileStorage = FileMetadataStorage.usingDirectory(directory);
+		try (OpenMetadataFile metadataFile = fileStorage.openMetadataElementsFile()) {
+			return reloadChangedElementsFromFile(metadataFile);
+		}
+	}
+
+	private Set<String> reloadChangedElementsFromFile(OpenMetadataFile metadataFile) {
+		Map<String, Integer> checksums = metadataFile.getChecksums();
+		Set<String> changedIds = findChangedIds(checksums);
+		if (loadedMetadataHolder != null && changedIds.isEmpty()) {
+			return new TreeSet<>();
+		}
+		MetadataHolder metadataHolder = createMetadataHolder(metadataFile, changedIds);
+		metadataHolderProvider.publish(metadataHolder);
+		loadedMetadataHolder = metadataHolder;
+		loadedChecksums = checksums;
+		notifyListeners();
+		return changedIds;
+	}
+
+	private Set<String> findChangedIds(Map<String, Integer> checksums) {
+		Set<String> changedIds = new TreeSet<>();
+		for (Entry<String, Integer> entry : checksums.entrySet()) {
+			if (!entry.getValue().equals(loadedChecksums.get(entry.getKey()))) {
+				changedIds.add(entry.getKey());
+			}
+		}
+		for (String loadedId : loadedChecksums.keySet()) {
+			if (!checksums.containsKey(loadedId)) {
+				changedIds.add(loadedId);
+			}
+		}
+		return changedIds;
+	}
+
+	private MetadataHolder createMetadataHolder(OpenMetadataFile metadataFile,
+			Set<String> idsToConvert) {
+		MetadataStringPool stringPool = createStringPool();
+		MetadataHolder metadataHolder = new MetadataHolder();
+		List<MetadataElement> convertedElements = new ArrayList<>();
+		if (loadedMetadataHolder == null) {
+			for (DataGroup dataGroup : metadataFile.readAllElements()) {
+				convertedElements.add(convertDataGroupToMetadataElement(dataGroup, stringPool));
+			}
+		} else {
+			for (String id : metadataFile.getIds()) {
+				addLoadedOrConvertedElement(metadataFile, idsToConvert, metadataHolder,
+						convertedElements, id, stringPool);
+			}
+		}
+		for (MetadataElement convertedElement : convertedElements) {
+			metadataHolder.addMetadataElement(convertedElement);
+		}
+		metadataHolder.resolveReferences();
+		MetadataConsistencyChecker.usingMetadataHolder(metadataHolder).ensureConsistency();
+		ensureUsageIndexIsBuiltBeforePublish(metadataHolder);
+		return metadataHolder;
+	}
+
+	private void ensureUsageIndexIsBuiltBeforePublish(MetadataHolder metadataHolder) {
+		metadataHolder.getUsageIndex();
+	}
+
+	private MetadataStringPool createStringPool() {
+		if (loadedMetadataHolder == null) {
+			return new MetadataStringPool();
+		}
+		return MetadataStringPool.fromMetadataHolder(loadedMetadataHolder);
+	}
+
+	private void addLoadedOrConvertedElement(OpenMetadataFile metadataFile,
+			Set<String> idsToConvert, MetadataHolder metadataHolder,
+			List<MetadataElement> convertedElements, String id, MetadataStringPool stringPool) {
+		if (idsToConvert.contains(id)) {
+			DataGroup dataGroup = metadataFile.readElementWithId(id);
+			convertedElements.add(convertDataGroupToMetadataElement(dataGroup, stringPool));
+		} else {
+			metadataHolder.addMetadataElement(loadedMetadataHolder.getMetadataElement(id));
+		}
+	}
+
+	private MetadataElement convertDataGroupToMetadataElement(DataGroup dataGroup,
+			MetadataStringPool stringPool) {
+		return DataGroupToMetadataConverterFactoryImp
+				.fromDataGroupUsingStringPool(dataGroup, stringPool).factor().toMetadata();
+	}
+
+	private void notifyListeners() {
+		for (MetadataChangeListener listener : listeners) {
+			listener.metadataChanged();
+		}
+	}
+
+	/**
+	 * startWatching registers a WatchService for the directory and uses the executor to run a
+	 * task that reloads changed elements each time the metadata elements file is created,
+	 * modified or deleted. The task runs until {@link #close()} is called, or until startWatching
+	 * is called again, which stops the previous task before starting a new one.
+	 */
+	public synchronized void startWatching(Executor executor) {
+		try {
+			close();
+			watchService = directory.getFileSystem().newWatchService();
+			directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		} catch (IOException e) {
+			throw MetadataFileException.withMessageAndException(
+					"Error watching metadata directory: " + directory, e);
+		}
+		WatchService startedWatchService = watchService;
+		executor.execute(() -> watchForChanges(startedWatchService));
+	}
+
+	private void watchForChanges(WatchService startedWatchService) {
+		long retryDelayMillis = 0;
+		try {
+			while (true) {
+				if (retryDelayMillis == 0) {
+					waitForMetadataElementsChange(startedWatchService);
+				} else {
+					waitAndDiscardChanges(startedWatchService, retryDelayMillis);
+				}
+				retryDelayMillis = tryToReloadChangedElements(retryDelayMillis);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// close() has been called, stop watching
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void waitForMetadataElementsChange(WatchService startedWatchService)
+			throws InterruptedException {
+		boolean metadataElementsChanged = false;
+		while (!metadataElementsChanged) {
+			WatchKey key = startedWatchService.take();
+			metadataElementsChanged = containsMetadataElementsEvent(key.pollEvents());
+			key.reset();
+		}
+	}
+
+	private boolean containsMetadataElementsEvent(List<WatchEvent<?>> events) {
+		for (WatchEvent<?> event : events) {
+			if (event.kind() == OVERFLOW || MetadataFile.METADATA_ELEMENTS.fileName
+					.equals(String.valueOf(event.context()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void waitAndDiscardChanges(WatchService startedWatchService, long delayMillis)
+			throws InterruptedException {
+		long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		long remainingNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		while (remainingNanos > 0) {
+			WatchKey key = startedWatchService.poll(remainingNanos, TimeUnit.NANOSECONDS);
+			if (key != null) {
+				key.pollEvents();
+				key.reset();
+			}
+			remainingNanos = endTime - System.nanoTime();
+		}
+	}
+
+	private long tryToReloadChangedElements(long retryDelayMillis) {
+		try {
+			reloadChangedElements();
+			lastReloadException = null;
+			return 0;
+		} catch (RuntimeException e) {
+			lastReloadException = e;
+			long nextRetryDelayMillis = calculateNextRetryDelay(retryDelayMillis);
+			LOGGER.log(Level.WARNING, "Reloading metadata from " + directory
+					+ " failed, retrying in " + nextRetryDelayMillis + " ms", e);
+			return nextRetryDelayMillis;
+		}
+	}
+
+	static long calculateNextRetryDelay(long retryDelayMillis) {
+		if (retryDelayMillis == 0) {
+			return INITIAL_RETRY_DELAY_MILLIS;
+		}
+		return Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+	}
+
+	/**
+	 * close stops watching the directory, if watching was started. Already published
+	 * MetadataHolders are not affected.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+			watchService = null;
+		}
+	}
+
+	public Exception getLastReloadException() {
+		return lastReloadException;
+	}
+
+	public void addMetadataChangeListener(MetadataChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeMetadataChangeListener(MetadataChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	public Path getDirectory() {
+		// needed for test
+		return directory;
+	}
+
+	public MetadataHolderProvider getMetadataHolderProvider() {
+		// needed for test
+		return metadataHolderProvider;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.util.Collection;
+
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+/**
+ * MetadataFile lists the kinds of metadata in a MetadataStorage and the name of the file each
+ * kind is stored in by {@link FileMetadataStorageWriter}.
+ */
+enum MetadataFile {
+	METADATA_ELEMENTS("metadataElements.cmf"), PRESENTATION_ELEMENTS(
+			"presentationElements.cmf"), TEXTS("texts.cmf"), RECORD_TYPES(
+					"recordTypes.cmf"), COLLECT_TERMS("collectTerms.cmf");
+
+	final String fileName;
+
+	MetadataFile(String fileName) {
+		this.fileName = fileName;
+	}
+
+	Collection<DataGroup> readFromMetadataStorage(MetadataStorage metadataStorage) {
+		switch (this) {
+		case METADATA_ELEMENTS:
+			return metadataStorage.getMetadataElements();
+		case PRESENTATION_ELEMENTS:
+			return metadataStorage.getPresentationElements();
+		case TEXTS:
+			return metadataStorage.getTexts();
+		case RECORD_TYPES:
+			return metadataStorage.getRecordTypes();
+		default:
+			return metadataStorage.getCollectTerms();
+		}
+	}
+}
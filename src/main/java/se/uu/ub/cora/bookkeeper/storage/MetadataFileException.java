@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+public final class MetadataFileException extends RuntimeException {
+
+	private static final long serialVersionUID = 5391186227361853212L;
+
+	public static MetadataFileException withMessage(String message) {
+		return new MetadataFileException(message);
+	}
+
+	public static MetadataFileException withMessageAndException(String message,
+			Exception exception) {
+		return new MetadataFileException(message, exception);
+	}
+
+	private MetadataFileException(String message) {
+		super(message);
+	}
+
+	private MetadataFileException(String message, Exception exception) {
+		super(message, exception);
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.util.zip.CRC32;
+
+/**
+ * MetadataFileFormat holds the constants describing the files written by
+ * {@link FileMetadataStorageWriter} and read by {@link FileMetadataStorage}, one file for each
+ * {@link MetadataFile}.
+ * <p>
+ * A file starts with a header (magic number, format version, number of elements and length of the
+ * index), followed by an index with the id, file offset, length and CRC32 checksum of each
+ * element, and finally the encoded DataGroups. A single element can thereby be read and verified
+ * without reading the rest of the file, and changed elements can be found by comparing the
+ * checksums in the index. Offsets are longs, so files are not limited to 2 GB. DataRecordLinks are
+ * written like DataGroups followed by their actions. Strings are written as the number of UTF-8
+ * bytes followed by the bytes, or only {@link #NULL_STRING} for null.
+ */
+final class MetadataFileFormat {
+	static final int MAGIC = 0x434D4446;
+	static final int FORMAT_VERSION = 3;
+	static final int HEADER_LENGTH = 4 * Integer.BYTES;
+	static final int NULL_STRING = -1;
+
+	static final byte DATA_GROUP = 1;
+	static final byte DATA_ATOMIC = 2;
+	static final byte DATA_RECORD_LINK = 3;
+
+	static int calculateChecksum(byte[] bytes, int offset, int length) {
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes, offset, length);
+		return (int) checksum.getValue();
+	}
+}
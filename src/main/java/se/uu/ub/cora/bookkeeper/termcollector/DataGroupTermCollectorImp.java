@@ -23,16 +23,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import se.uu.ub.cora.bookkeeper.metadata.ChildReferenceDispatchTable;
 import se.uu.ub.cora.bookkeeper.metadata.CollectTerm;
 import se.uu.ub.cora.bookkeeper.metadata.CollectTermHolder;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderFromStoragePopulator;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
-import se.uu.ub.cora.bookkeeper.validator.MetadataMatchData;
-import se.uu.ub.cora.bookkeeper.validator.ValidationAnswer;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataAtomicProvider;
 import se.uu.ub.cora.data.DataElement;
@@ -43,7 +42,7 @@ import se.uu.ub.cora.storage.MetadataStorage;
 public class DataGroupTermCollectorImp implements DataGroupTermCollector {
 
 	private MetadataStorage metadataStorage;
-	private MetadataHolder metadataHolder;
+	private ReadOnlyMetadataHolder metadataHolder;
 	private CollectTermHolder collectTermHolder;
 
 	private Map<String, List<DataGroup>> collectedTerms = new HashMap<>();
@@ -66,7 +65,7 @@ public class DataGroupTermCollectorImp implements DataGroupTermCollector {
 		return createCollectedData(dataGroup);
 	}
 
-	private MetadataHolder populateMetadataHolderFromMetadataStorage() {
+	private ReadOnlyMetadataHolder populateMetadataHolderFromMetadataStorage() {
 		return new MetadataHolderFromStoragePopulator()
 				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
 	}
@@ -79,54 +78,36 @@ public class DataGroupTermCollectorImp implements DataGroupTermCollector {
 	}
 
 	private void collectTermsFromDataUsingMetadata(String metadataGroupId, DataGroup dataGroup) {
-		List<MetadataChildReference> metadataChildReferences = getMetadataGroupChildReferences(
-				metadataGroupId);
-		collectTermsFromDataUsingMetadataChildren(metadataChildReferences, dataGroup);
-	}
-
-	private List<MetadataChildReference> getMetadataGroupChildReferences(String metadataGroupId) {
 		MetadataGroup metadataGroup = (MetadataGroup) metadataHolder
 				.getMetadataElement(metadataGroupId);
-		return metadataGroup.getChildReferences();
-	}
-
-	private void collectTermsFromDataUsingMetadataChildren(
-			List<MetadataChildReference> metadataChildReferences, DataGroup dataGroup) {
-		for (MetadataChildReference metadataChildReference : metadataChildReferences) {
-			collectDataForMetadataChildIfItHasAtLeastOneCollectTerm(metadataChildReference,
-					dataGroup);
-			recurseAndCollectTermsFromChildsGroupChildren(dataGroup, metadataChildReference);
-		}
-	}
-
-	private void recurseAndCollectTermsFromChildsGroupChildren(DataGroup dataGroup,
-			MetadataChildReference metadataChildReference) {
-		String referenceId = metadataChildReference.getLinkedRecordId();
-		MetadataElement childMetadataElement = metadataHolder.getMetadataElement(referenceId);
-		if (isMetadataGroup(childMetadataElement)) {
-			recurseAndCollectTermFromChildsGroupChildren(dataGroup, childMetadataElement);
-		}
+		collectTermsFromDataUsingDispatchTable(metadataHolder.getChildDispatchTable(metadataGroup),
+				dataGroup);
 	}
 
-	private void recurseAndCollectTermFromChildsGroupChildren(DataGroup dataGroup,
-			MetadataElement childMetadataElement) {
-		String childMetadataGroupId = childMetadataElement.getId();
-		for (DataElement childDataElement : dataGroup.getChildren()) {
-			if (childMetadataSpecifiesChildData(childMetadataElement, childDataElement)) {
-				collectTermsFromDataUsingMetadata(childMetadataGroupId,
-						(DataGroup) childDataElement);
-			}
+	private void collectTermsFromDataUsingDispatchTable(ChildReferenceDispatchTable dispatchTable,
+			DataGroup dataGroup) {
+		List<MetadataChildReference> metadataChildReferences = dispatchTable.getChildReferences();
+		List<List<DataElement>> dispatchedChildren = dispatchTable
+				.dispatchChildren(dataGroup.getChildren());
+		for (int i = 0; i < metadataChildReferences.size(); i++) {
+			collectTermsFromDataUsingMetadataChild(dispatchTable, i, metadataChildReferences.get(i),
+					dispatchedChildren.get(i));
 		}
 	}
 
-	private boolean isMetadataGroup(MetadataElement childMetadataElement) {
-		return childMetadataElement instanceof MetadataGroup;
-	}
-
-	private void collectDataForMetadataChildIfItHasAtLeastOneCollectTerm(
-			MetadataChildReference metadataChildReference, DataGroup dataGroup) {
+	private void collectTermsFromDataUsingMetadataChild(ChildReferenceDispatchTable dispatchTable,
+			int childReferenceIndex, MetadataChildReference metadataChildReference,
+			List<DataElement> matchingChildren) {
+		MetadataElement childMetadataElement = dispatchTable
+				.getReferencedElement(childReferenceIndex);
 		if (childReferenceHasCollectTerms(metadataChildReference)) {
-			collectTermsFromDataGroupUsingMetadataChild(metadataChildReference, dataGroup);
+			collectTermsFromMatchingChildren(childMetadataElement,
+					metadataChildReference.getCollectTerms(), matchingChildren);
+		}
+		if (isMetadataGroup(childMetadataElement)) {
+			recurseAndCollectTermsFromMatchingChildren(metadataHolder.getChildDispatchTableByIndex(
+					dispatchTable.getIndexOfReferencedElement(childReferenceIndex)),
+					matchingChildren);
 		}
 	}
 
@@ -134,27 +115,23 @@ public class DataGroupTermCollectorImp implements DataGroupTermCollector {
 		return !metadataChildReference.getCollectTerms().isEmpty();
 	}
 
-	private void collectTermsFromDataGroupUsingMetadataChild(
-			MetadataChildReference metadataChildReference, DataGroup dataGroup) {
-		String referenceId = metadataChildReference.getLinkedRecordId();
-		MetadataElement childMetadataElement = metadataHolder.getMetadataElement(referenceId);
-		collectTermsFromDataGroupChildren(childMetadataElement,
-				metadataChildReference.getCollectTerms(), dataGroup);
+	private boolean isMetadataGroup(MetadataElement childMetadataElement) {
+		return childMetadataElement instanceof MetadataGroup;
 	}
 
-	private void collectTermsFromDataGroupChildren(MetadataElement childMetadataElement,
-			List<CollectTerm> collectTermsForChildReference, DataGroup dataGroup) {
-		for (DataElement childDataElement : dataGroup.getChildren()) {
-			collectTermsFromDataGroupChild(childMetadataElement, childDataElement,
+	private void collectTermsFromMatchingChildren(MetadataElement childMetadataElement,
+			List<CollectTerm> collectTermsForChildReference, List<DataElement> matchingChildren) {
+		for (DataElement childDataElement : matchingChildren) {
+			collectTermsFromDataGroupChildMatchingMetadata(childMetadataElement, childDataElement,
 					collectTermsForChildReference);
 		}
 	}
 
-	private void collectTermsFromDataGroupChild(MetadataElement childMetadataElement,
-			DataElement childDataElement, List<CollectTerm> collectTermsForChildReference) {
-		if (childMetadataSpecifiesChildData(childMetadataElement, childDataElement)) {
-			collectTermsFromDataGroupChildMatchingMetadata(childMetadataElement, childDataElement,
-					collectTermsForChildReference);
+	private void recurseAndCollectTermsFromMatchingChildren(
+			ChildReferenceDispatchTable childDispatchTable, List<DataElement> matchingChildren) {
+		for (DataElement childDataElement : matchingChildren) {
+			collectTermsFromDataUsingDispatchTable(childDispatchTable,
+					(DataGroup) childDataElement);
 		}
 	}
 
@@ -169,14 +146,6 @@ public class DataGroupTermCollectorImp implements DataGroupTermCollector {
 		}
 	}
 
-	private boolean childMetadataSpecifiesChildData(MetadataElement childMetadataElement,
-			DataElement dataElement) {
-		MetadataMatchData metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
-		ValidationAnswer validationAnswer = metadataMatchData
-				.metadataSpecifiesData(childMetadataElement, dataElement);
-		return validationAnswer.dataIsValid();
-	}
-
 	private void createCollectTermsForRecordLink(DataGroup childDataElement,
 			List<CollectTerm> collectTerms) {
 		String childDataElementValue = createValueForLinkedData(childDataElement);
@@ -22,17 +22,23 @@ package se.uu.ub.cora.bookkeeper.validator;
 import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
 import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
 import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataElement;
 
+/**
+ * DataCollectionVariableValidator validates the value of a DataAtomic against a
+ * CollectionVariable.
+ * <p>
+ * The validator keeps no state between calls to {@link #validateData(DataElement)}, so one
+ * instance can be reused and shared between threads.
+ */
 public class DataCollectionVariableValidator implements DataElementValidator {
 
-	protected MetadataHolder metadataHolder;
-	protected CollectionVariable collectionVariable;
-	private String dataValue;
+	protected final ReadOnlyMetadataHolder metadataHolder;
+	protected final CollectionVariable collectionVariable;
 
-	public DataCollectionVariableValidator(MetadataHolder metadataHolder,
+	public DataCollectionVariableValidator(ReadOnlyMetadataHolder metadataHolder,
 			CollectionVariable collectionVariable) {
 		this.metadataHolder = metadataHolder;
 		this.collectionVariable = collectionVariable;
@@ -41,60 +47,59 @@ public class DataCollectionVariableValidator implements DataElementValidator {
 	@Override
 	public ValidationAnswer validateData(DataElement dataElement) {
 		DataAtomic data = (DataAtomic) dataElement;
-		dataValue = data.getValue();
+		String dataValue = data.getValue();
 		if (finalValueIsDefinedInMetadata()) {
-			return validateDataValueIsFinalValue();
+			return validateDataValueIsFinalValue(dataValue);
 		}
-		return validateDataValueExistsInReferredCollection();
+		return validateDataValueExistsInReferredCollection(dataValue);
 	}
 
 	private boolean finalValueIsDefinedInMetadata() {
 		return null != collectionVariable.getFinalValue();
 	}
 
-	private ValidationAnswer validateDataValueIsFinalValue() {
-		if (dataValueIsFinalValue()) {
+	private ValidationAnswer validateDataValueIsFinalValue(String dataValue) {
+		if (dataValueIsFinalValue(dataValue)) {
 			return new ValidationAnswer();
 		}
-		return createErrorMessageForFinalValue();
+		return createErrorMessageForFinalValue(dataValue);
 	}
 
-	private boolean dataValueIsFinalValue() {
+	private boolean dataValueIsFinalValue(String dataValue) {
 		return collectionVariable.getFinalValue().equals(dataValue);
 	}
 
-	private ValidationAnswer createErrorMessageForFinalValue() {
+	private ValidationAnswer createErrorMessageForFinalValue(String dataValue) {
 		ValidationAnswer validationAnswer = new ValidationAnswer();
 		validationAnswer.addErrorMessage(
 				"Value:" + dataValue + " is not finalValue:" + collectionVariable.getFinalValue());
 		return validationAnswer;
 	}
 
-	private ValidationAnswer validateDataValueExistsInReferredCollection() {
-		ItemCollection referredCollection = (ItemCollection) metadataHolder
-				.getMetadataElement(collectionVariable.getRefCollectionId());
-		if (dataValueFoundInReferredCollection(referredCollection)) {
+	private ValidationAnswer validateDataValueExistsInReferredCollection(String dataValue) {
+		ItemCollection referredCollection = metadataHolder.getRefCollection(collectionVariable);
+		if (dataValueFoundInReferredCollection(referredCollection, dataValue)) {
 			return new ValidationAnswer();
 		}
-		return createErrorMessageForReferredCollection(referredCollection);
+		return createErrorMessageForReferredCollection(referredCollection, dataValue);
 	}
 
-	private boolean dataValueFoundInReferredCollection(ItemCollection referredCollection) {
-		for (String ref : referredCollection.getCollectionItemReferences()) {
-			if (collectionItemMatchesDataValue(ref)) {
+	private boolean dataValueFoundInReferredCollection(ItemCollection referredCollection,
+			String dataValue) {
+		for (CollectionItem colItem : metadataHolder.getCollectionItems(referredCollection)) {
+			if (collectionItemMatchesDataValue(colItem, dataValue)) {
 				return true;
 			}
 		}
 		return false;
 	}
 
-	private boolean collectionItemMatchesDataValue(String ref) {
-		CollectionItem colItem = (CollectionItem) metadataHolder.getMetadataElement(ref);
+	private boolean collectionItemMatchesDataValue(CollectionItem colItem, String dataValue) {
 		return colItem.getNameInData().equals(dataValue);
 	}
 
 	private ValidationAnswer createErrorMessageForReferredCollection(
-			ItemCollection referredCollection) {
+			ItemCollection referredCollection, String dataValue) {
 		ValidationAnswer validationAnswer = new ValidationAnswer();
 		validationAnswer.addErrorMessage("Data value:" + dataValue + " NOT found in collection:"
 				+ referredCollection.getNameInData());
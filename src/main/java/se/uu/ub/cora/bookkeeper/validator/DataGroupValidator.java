@@ -16,36 +16,42 @@
  *     You should have received a copy of the GNU General Public License
  *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package se.uu.ub.cora.bookkeeper.validator;
 
-import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringJoiner;
 
+import se.uu.ub.cora.bookkeeper.metadata.ChildReferenceDispatchTable;
 import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.data.DataElement;
 import se.uu.ub.cora.data.DataGroup;
 
+/**
+ * DataGroupValidator validates data groups against a MetadataGroup.
+ * <p>
+ * The validator keeps no state between calls to {@link #validateData(DataElement)}, so one
+ * instance can be reused and shared between threads.
+ */
 class DataGroupValidator implements DataElementValidator {
 
-	private DataValidatorFactory dataValidatorFactory;
+	private final DataValidatorFactory dataValidatorFactory;
 	private final MetadataGroup metadataGroup;
-	private MetadataHolder metadataHolder;
-	protected DataGroup dataGroup;
-	protected ValidationAnswer validationAnswer;
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final MetadataMatchData metadataMatchData;
 
-	DataGroupValidator(DataValidatorFactory dataValidatorFactory, MetadataHolder metadataHolder,
-			MetadataGroup metadataGroup) {
+	DataGroupValidator(DataValidatorFactory dataValidatorFactory,
+			ReadOnlyMetadataHolder metadataHolder, MetadataGroup metadataGroup) {
 		this.dataValidatorFactory = dataValidatorFactory;
 		this.metadataHolder = metadataHolder;
 		this.metadataGroup = metadataGroup;
+		metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
 	}
 
 	/**
@@ -59,101 +65,114 @@ class DataGroupValidator implements DataElementValidator {
 	 */
 	@Override
 	public ValidationAnswer validateData(DataElement dataGroup) {
-		this.dataGroup = (DataGroup) dataGroup;
-		validationAnswer = new ValidationAnswer();
-		validateNameInDataAndAttributes(dataGroup);
-		validateChildren();
+		ValidationAnswer validationAnswer = new ValidationAnswer();
+		validateNameInDataAndAttributes(dataGroup, validationAnswer);
+		validateChildren((DataGroup) dataGroup, validationAnswer);
 		return validationAnswer;
 	}
 
-	private void validateNameInDataAndAttributes(DataElement dataGroup) {
-		MetadataMatchData metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
+	private void validateNameInDataAndAttributes(DataElement dataGroup,
+			ValidationAnswer validationAnswer) {
 		ValidationAnswer va = metadataMatchData.metadataSpecifiesData(metadataGroup, dataGroup);
-		addMessagesFromAnswerToTotalValidationAnswer(va);
+		validationAnswer.addErrorMessages(va.getErrorMessages());
 	}
 
-	private void validateChildren() {
-		validateHasChildren();
-		validateDataContainsAllRequiredChildrenWithCorrectValues();
-		validateDataContainsNoUnspecifiedChildren();
+	private void validateChildren(DataGroup dataGroup, ValidationAnswer validationAnswer) {
+		List<DataElement> children = dataGroup.getChildren();
+		validateHasChildren(children, validationAnswer);
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(metadataGroup);
+		List<MetadataChildReference> childReferences = dispatchTable.getChildReferences();
+		List<List<Integer>> childIndexesByReference = dispatchTable
+				.dispatchChildIndexes(children);
+		boolean[] specifiedChildren = new boolean[children.size()];
+		for (int i = 0; i < childReferences.size(); i++) {
+			List<Integer> childIndexes = childIndexesByReference.get(i);
+			markChildrenAsSpecified(specifiedChildren, childIndexes);
+			validateDataContainsRequiredChildReferenceWithCorrectValue(dataGroup, dispatchTable, i,
+					childIndexes, validationAnswer);
+		}
+		validateDataContainsNoUnspecifiedChildren(children, specifiedChildren, validationAnswer);
 	}
 
-	private void validateHasChildren() {
-		if (dataGroup.getChildren().isEmpty()) {
-			validationAnswer.addErrorMessage("DataGroup " + metadataGroup.getNameInData()
-					+ " should have children, it does not.");
+	private void markChildrenAsSpecified(boolean[] specifiedChildren,
+			List<Integer> childIndexes) {
+		for (Integer childIndex : childIndexes) {
+			specifiedChildren[childIndex] = true;
 		}
 	}
 
-	private void validateDataContainsAllRequiredChildrenWithCorrectValues() {
-		Collection<MetadataChildReference> childReferences = metadataGroup.getChildReferences();
-		for (MetadataChildReference childReference : childReferences) {
-			validateDataContainsRequiredChildReferenceWithCorrectValue(childReference);
+	private void validateHasChildren(List<DataElement> children,
+			ValidationAnswer validationAnswer) {
+		if (children.isEmpty()) {
+			validationAnswer.addErrorMessage("DataGroup " + metadataGroup.getNameInData()
+					+ " should have children, it does not.");
 		}
 	}
 
-	private void validateDataContainsRequiredChildReferenceWithCorrectValue(
-			MetadataChildReference childReference) {
-		String referenceId = childReference.getLinkedRecordId();
+	private void validateDataContainsRequiredChildReferenceWithCorrectValue(DataGroup dataGroup,
+			ChildReferenceDispatchTable dispatchTable, int childReferenceIndex,
+			List<Integer> matchingChildIndexes, ValidationAnswer validationAnswer) {
+		MetadataChildReference childReference = dispatchTable.getChildReferences()
+				.get(childReferenceIndex);
+		List<DataElement> children = dataGroup.getChildren();
 		boolean mayBeRepeated = childReference.getRepeatMax() > 1;
-
-		int childrenFound = validateAndCountChildrenWithReferenceId(referenceId, mayBeRepeated);
-		validateRepeatMinAndMax(childReference, childrenFound);
-	}
-
-	private int validateAndCountChildrenWithReferenceId(String referenceId, boolean mayBeRepeated) {
-		int childrenFound = 0;
+		int referencedElementIndex = dispatchTable.getIndexOfReferencedElement(childReferenceIndex);
 		Set<String> repeatIds = new HashSet<>();
-		for (DataElement childData : dataGroup.getChildren()) {
-			if (isChildDataSpecifiedByChildReferenceId(childData, referenceId)) {
-				childrenFound++;
-				validateRepeatId(mayBeRepeated, repeatIds, childData);
-				validateChildElementData(referenceId, childData);
-			}
+		for (Integer childIndex : matchingChildIndexes) {
+			DataElement childData = children.get(childIndex);
+			validateRepeatId(dataGroup, mayBeRepeated, repeatIds, childData, validationAnswer);
+			validateChildElementData(referencedElementIndex, childData, validationAnswer);
 		}
-		return childrenFound;
+		validateRepeatMinAndMax(dispatchTable, childReferenceIndex, matchingChildIndexes.size(),
+				validationAnswer);
 	}
 
-	private void validateRepeatId(boolean mayBeRepeated, Set<String> repeatIds,
-			DataElement childData) {
+	private void validateRepeatId(DataGroup dataGroup, boolean mayBeRepeated,
+			Set<String> repeatIds, DataElement childData, ValidationAnswer validationAnswer) {
 		if (mayBeRepeated) {
-			validateRepeatId(repeatIds, childData);
+			validateRepeatId(dataGroup, repeatIds, childData, validationAnswer);
 		} else {
-			validateNoRepeatId(childData);
+			validateNoRepeatId(dataGroup, childData, validationAnswer);
 		}
 	}
 
-	private void validateRepeatId(Set<String> repeatIds, DataElement childData) {
+	private void validateRepeatId(DataGroup dataGroup, Set<String> repeatIds,
+			DataElement childData, ValidationAnswer validationAnswer) {
 		String repeatId = childData.getRepeatId();
 		if (repeatId == null || repeatId.isEmpty()) {
-			validationAnswer.addErrorMessage(
-					createIdentifiedErrorMessage(childData) + " must have non empty repeatId");
+			validationAnswer.addErrorMessage(createIdentifiedErrorMessage(dataGroup, childData)
+					+ " must have non empty repeatId");
 		} else {
-			validateUniqueRepeatId(repeatIds, childData);
+			validateUniqueRepeatId(dataGroup, repeatIds, childData, validationAnswer);
 		}
 	}
 
-	private String createIdentifiedErrorMessage(DataElement childData) {
+	private String createIdentifiedErrorMessage(DataGroup dataGroup, DataElement childData) {
 		return "Repeatable child " + childData.getNameInData() + " in group "
 				+ dataGroup.getNameInData();
 	}
 
-	private void validateUniqueRepeatId(Set<String> repeatIds, DataElement childData) {
+	private void validateUniqueRepeatId(DataGroup dataGroup, Set<String> repeatIds,
+			DataElement childData, ValidationAnswer validationAnswer) {
 		String repeatId = childData.getRepeatId();
 		if (repeatIds.contains(repeatId)) {
-			validationAnswer.addErrorMessage(createIdentifiedErrorMessage(childData)
+			validationAnswer.addErrorMessage(createIdentifiedErrorMessage(dataGroup, childData)
 					+ " must have unique repeatId: " + repeatId);
 		} else {
 			repeatIds.add(repeatId);
 		}
 	}
 
-	private void validateRepeatMinAndMax(MetadataChildReference childReference, int childrenFound) {
+	private void validateRepeatMinAndMax(ChildReferenceDispatchTable dispatchTable,
+			int childReferenceIndex, int childrenFound, ValidationAnswer validationAnswer) {
+		MetadataChildReference childReference = dispatchTable.getChildReferences()
+				.get(childReferenceIndex);
 		String referenceId = childReference.getLinkedRecordId();
 
 		if (childrenFound < childReference.getRepeatMin()) {
 			validationAnswer.addErrorMessage("Did not find enough data children with referenceId: "
-					+ referenceId + getReferenceText(referenceId) + ".");
+					+ referenceId + getReferenceText(dispatchTable, childReferenceIndex) + ".");
 		}
 		if (childrenFound > childReference.getRepeatMax()) {
 			validationAnswer.addErrorMessage(
@@ -161,64 +180,56 @@ class DataGroupValidator implements DataElementValidator {
 		}
 	}
 
-	private String getReferenceText(String referenceId) {
-		MetadataElement childElement = metadataHolder.getMetadataElement(referenceId);
+	private String getReferenceText(ChildReferenceDispatchTable dispatchTable,
+			int childReferenceIndex) {
+		MetadataElement childElement = dispatchTable.getReferencedElement(childReferenceIndex);
 		StringBuilder sb = new StringBuilder();
 		sb.append("(with nameInData:");
 		sb.append(childElement.getNameInData());
-		sb.append(getAttributesTextForMetadata(childElement));
+		sb.append(getAttributesTextForMetadata(dispatchTable, childReferenceIndex, childElement));
 		return sb.toString();
 	}
 
-	private String getAttributesTextForMetadata(MetadataElement childElement) {
+	private String getAttributesTextForMetadata(ChildReferenceDispatchTable dispatchTable,
+			int childReferenceIndex, MetadataElement childElement) {
 		if (childElement.getAttributeReferences().isEmpty()) {
 			return "";
 		}
-		return getTextForExistingMetadataAttributes(childElement);
+		return getTextForExistingMetadataAttributes(dispatchTable, childReferenceIndex);
 	}
 
-	private String getTextForExistingMetadataAttributes(MetadataElement childElement) {
+	private String getTextForExistingMetadataAttributes(ChildReferenceDispatchTable dispatchTable,
+			int childReferenceIndex) {
 		StringJoiner joiner = new StringJoiner(", ");
-		for (String attributeRef : childElement.getAttributeReferences()) {
-			CollectionVariable attributeElement = (CollectionVariable) metadataHolder
-					.getMetadataElement(attributeRef);
-
+		for (CollectionVariable attributeElement : dispatchTable
+				.getAttributesForReferencedElement(childReferenceIndex)) {
 			joiner.add(attributeElement.getNameInData() + ":" + attributeElement.getFinalValue());
 		}
 		return " and attributes: " + joiner.toString();
 	}
 
-	private boolean isChildDataSpecifiedByChildReferenceId(DataElement childData,
-			String referenceId) {
-		MetadataElement childElement = metadataHolder.getMetadataElement(referenceId);
-		if (childElement == null) {
-			throw DataValidationException.withMessage(referenceId + " not found in metadataHolder");
-		}
-		MetadataMatchData metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
-		return metadataMatchData.metadataSpecifiesData(childElement, childData).dataIsValid();
-	}
-
-	private void validateNoRepeatId(DataElement childData) {
+	private void validateNoRepeatId(DataGroup dataGroup, DataElement childData,
+			ValidationAnswer validationAnswer) {
 		String repeatId = childData.getRepeatId();
 		if (repeatId != null) {
-			validationAnswer.addErrorMessage(
-					createIdentifiedErrorMessage(childData) + " can not have a repeatId");
+			validationAnswer.addErrorMessage(createIdentifiedErrorMessage(dataGroup, childData)
+					+ " can not have a repeatId");
 		}
 	}
 
-	private void validateChildElementData(String referenceId, DataElement childData) {
-		DataElementValidator childValidator = dataValidatorFactory.factor(referenceId);
+	private void validateChildElementData(int referencedElementIndex, DataElement childData,
+			ValidationAnswer validationAnswer) {
+		DataElementValidator childValidator = dataValidatorFactory
+				.factorByIndex(referencedElementIndex);
 		ValidationAnswer va = childValidator.validateData(childData);
-		addMessagesFromAnswerToTotalValidationAnswer(va);
-	}
-
-	private void addMessagesFromAnswerToTotalValidationAnswer(ValidationAnswer aValidationAnswer) {
-		validationAnswer.addErrorMessages(aValidationAnswer.getErrorMessages());
+		validationAnswer.addErrorMessages(va.getErrorMessages());
 	}
 
-	private void validateDataContainsNoUnspecifiedChildren() {
-		for (DataElement childData : dataGroup.getChildren()) {
-			if (!isChildDataSpecifiedInMetadataGroup(childData)) {
+	private void validateDataContainsNoUnspecifiedChildren(List<DataElement> children,
+			boolean[] specifiedChildren, ValidationAnswer validationAnswer) {
+		for (int i = 0; i < children.size(); i++) {
+			if (!specifiedChildren[i]) {
+				DataElement childData = children.get(i);
 				validationAnswer
 						.addErrorMessage("Could not find metadata for child with nameInData: "
 								+ childData.getNameInData() + getAttributesText(childData));
@@ -226,17 +237,6 @@ class DataGroupValidator implements DataElementValidator {
 		}
 	}
 
-	private boolean isChildDataSpecifiedInMetadataGroup(DataElement childData) {
-		Collection<MetadataChildReference> childReferences = metadataGroup.getChildReferences();
-		for (MetadataChildReference childReference : childReferences) {
-			String referenceId = childReference.getLinkedRecordId();
-			if (isChildDataSpecifiedByChildReferenceId(childData, referenceId)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 	private String getAttributesText(DataElement childData) {
 		if (childData.getAttributes().isEmpty()) {
 			return "";
@@ -251,4 +251,9 @@ class DataGroupValidator implements DataElementValidator {
 		}
 		return " and attributes: " + joiner.toString();
 	}
+
+	MetadataGroup getMetadataGroup() {
+		// needed for test
+		return metadataGroup;
+	}
 }
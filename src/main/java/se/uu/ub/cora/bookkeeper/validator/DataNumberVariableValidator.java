@@ -22,11 +22,15 @@ import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataElement;
 
+/**
+ * DataNumberVariableValidator validates the value of a DataAtomic against a NumberVariable.
+ * <p>
+ * The validator keeps no state between calls to {@link #validateData(DataElement)}, so one
+ * instance can be reused and shared between threads.
+ */
 public class DataNumberVariableValidator implements DataElementValidator {
 
-	private NumberVariable numberVariable;
-	private double dataValue;
-	private String dataStringValue;
+	private final NumberVariable numberVariable;
 
 	public DataNumberVariableValidator(NumberVariable numberVariable) {
 		this.numberVariable = numberVariable;
@@ -34,36 +38,34 @@ public class DataNumberVariableValidator implements DataElementValidator {
 
 	@Override
 	public ValidationAnswer validateData(DataElement dataElement) {
-		dataValue = getDataValueAsDouble((DataAtomic) dataElement);
+		String dataStringValue = ((DataAtomic) dataElement).getValue();
+		double dataValue = Double.parseDouble(dataStringValue);
 		ValidationAnswer validationAnswer = new ValidationAnswer();
-		addErrorIfDataIsNotValid(validationAnswer);
+		addErrorIfDataIsNotValid(validationAnswer, dataValue, dataStringValue);
 		return validationAnswer;
 	}
 
-	private double getDataValueAsDouble(DataAtomic dataAtomic) {
-		dataStringValue = dataAtomic.getValue();
-		return Double.parseDouble(dataStringValue);
-	}
-
-	private void addErrorIfDataIsNotValid(ValidationAnswer validationAnswer) {
-		addErrorIfOutsideMinMax(validationAnswer);
-		addErrorIfMoreDecimalsThanAllowed(validationAnswer);
+	private void addErrorIfDataIsNotValid(ValidationAnswer validationAnswer, double dataValue,
+			String dataStringValue) {
+		addErrorIfOutsideMinMax(validationAnswer, dataValue);
+		addErrorIfMoreDecimalsThanAllowed(validationAnswer, dataStringValue);
 	}
 
-	private void addErrorIfOutsideMinMax(ValidationAnswer validationAnswer) {
+	private void addErrorIfOutsideMinMax(ValidationAnswer validationAnswer, double dataValue) {
 		if (valueIsOutsideAllowedMinMax(dataValue)) {
 			validationAnswer.addErrorMessage("");
 		}
 	}
 
-	private void addErrorIfMoreDecimalsThanAllowed(ValidationAnswer validationAnswer) {
-		int numOfDecimals = getNumberOfDecimals();
+	private void addErrorIfMoreDecimalsThanAllowed(ValidationAnswer validationAnswer,
+			String dataStringValue) {
+		int numOfDecimals = getNumberOfDecimals(dataStringValue);
 		if (numOfDecimals > numberVariable.getNumOfDecmials()) {
 			validationAnswer.addErrorMessage("");
 		}
 	}
 
-	private int getNumberOfDecimals() {
+	private int getNumberOfDecimals(String dataStringValue) {
 		String[] valueSplittedOnDecimal = dataStringValue.split("\\.");
 		int noDecimals = 0;
 		return valueHasDecimals(valueSplittedOnDecimal) ? numOfDecimals(valueSplittedOnDecimal)
@@ -22,68 +22,79 @@ package se.uu.ub.cora.bookkeeper.validator;
 import java.util.Map;
 
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
 import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
 import se.uu.ub.cora.data.DataElement;
 import se.uu.ub.cora.data.DataGroup;
 
+/**
+ * DataRecordLinkValidator validates data record links against a RecordLink.
+ * <p>
+ * The TextVariables for the linkedRecordId and linkedRepeatId children are read from the
+ * MetadataHolder on each validation, and a validator is only created again if the MetadataHolder
+ * returns another TextVariable than last time. The validator keeps no state between calls to
+ * {@link #validateData(DataElement)}, so one instance can be reused and shared between threads.
+ */
 public class DataRecordLinkValidator implements DataElementValidator {
-
 	private static final String LINKED_REPEAT_ID = "linkedRepeatId";
 	private static final String LINKED_RECORD_TYPE = "linkedRecordType";
 	private static final String LINKED_RECORD_ID = "linkedRecordId";
-	private ValidationAnswer validationAnswer;
-	private MetadataHolder metadataHolder;
-	private DataGroup dataRecordLink;
-	private RecordLink recordLink;
-	private Map<String, DataGroup> recordTypeHolder;
+	private final MetadataMatchData metadataMatchData;
+	private final RecordLink recordLink;
+	private final Map<String, DataGroup> recordTypeHolder;
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final ValidatorCache textVariableValidators = new ValidatorCache();
 
 	public DataRecordLinkValidator(Map<String, DataGroup> recordTypeHolder,
-			MetadataHolder metadataHolder, RecordLink recordLink) {
+			ReadOnlyMetadataHolder metadataHolder, RecordLink recordLink) {
 		this.recordTypeHolder = recordTypeHolder;
-		this.metadataHolder = metadataHolder;
 		this.recordLink = recordLink;
+		this.metadataHolder = metadataHolder;
+		metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
+	}
+
+	private DataElementValidator getTextVariableValidator(String metadataId) {
+		int index = metadataHolder.getIndexOfMetadataElement(metadataId);
+		MetadataElement metadataElement = metadataHolder.getMetadataElementByIndex(index);
+		return textVariableValidators.getOrCreate(index, metadataElement,
+				element -> new DataTextVariableValidator((TextVariable) element));
 	}
 
 	@Override
 	public ValidationAnswer validateData(DataElement dataElement) {
-		validationAnswer = new ValidationAnswer();
-		dataRecordLink = (DataGroup) dataElement;
-		validateNameInData();
-		validateRecordType();
-		validateRecordId();
-		validateNoLinkedPath();
-		validateLinkedRepeatId();
+		ValidationAnswer validationAnswer = new ValidationAnswer();
+		DataGroup dataRecordLink = (DataGroup) dataElement;
+		validateNameInData(dataRecordLink, validationAnswer);
+		validateRecordType(dataRecordLink, validationAnswer);
+		validateRecordId(dataRecordLink, validationAnswer);
+		validateNoLinkedPath(dataRecordLink, validationAnswer);
+		validateLinkedRepeatId(dataRecordLink, validationAnswer);
 		return validationAnswer;
 	}
 
-	private void validateNameInData() {
-		MetadataMatchData metadataMatchData = MetadataMatchData.withMetadataHolder(metadataHolder);
+	private void validateNameInData(DataGroup dataRecordLink, ValidationAnswer validationAnswer) {
 		ValidationAnswer va = metadataMatchData.metadataSpecifiesData(recordLink, dataRecordLink);
-		addMessagesFromAnswerToTotalValidationAnswer(va);
+		validationAnswer.addErrorMessages(va.getErrorMessages());
 	}
 
-	private void addMessagesFromAnswerToTotalValidationAnswer(ValidationAnswer aValidationAnswer) {
-		validationAnswer.addErrorMessages(aValidationAnswer.getErrorMessages());
-	}
-
-	private void validateRecordType() {
-		if (recordTypeIsEmpty()) {
-			validationAnswer.addErrorMessage(
-					createNameInDataMessagePart() + " must have an nonempty recordType as child.");
-		} else if (incomingRecordTypeNotSameAsOrChildOfTypeSpecifiedInMetadata()) {
-			validationAnswer.addErrorMessage(createNameInDataMessagePart()
+	private void validateRecordType(DataGroup dataRecordLink, ValidationAnswer validationAnswer) {
+		if (recordTypeIsEmpty(dataRecordLink)) {
+			validationAnswer.addErrorMessage(createNameInDataMessagePart(dataRecordLink)
+					+ " must have an nonempty recordType as child.");
+		} else if (incomingRecordTypeNotSameAsOrChildOfTypeSpecifiedInMetadata(dataRecordLink)) {
+			validationAnswer.addErrorMessage(createNameInDataMessagePart(dataRecordLink)
 					+ " must have an recordType:" + recordLink.getLinkedRecordType());
 		}
 	}
 
-	private boolean recordTypeIsEmpty() {
+	private boolean recordTypeIsEmpty(DataGroup dataRecordLink) {
 		return !dataRecordLink.containsChildWithNameInData(LINKED_RECORD_TYPE)
 				|| dataRecordLink.getFirstAtomicValueWithNameInData(LINKED_RECORD_TYPE).isEmpty();
 	}
 
-	private boolean incomingRecordTypeNotSameAsOrChildOfTypeSpecifiedInMetadata() {
+	private boolean incomingRecordTypeNotSameAsOrChildOfTypeSpecifiedInMetadata(
+			DataGroup dataRecordLink) {
 		String linkedRecordType = dataRecordLink
 				.getFirstAtomicValueWithNameInData(LINKED_RECORD_TYPE);
 		if (matchesRecordTypeInLink(linkedRecordType)) {
@@ -132,33 +143,28 @@ public class DataRecordLinkValidator implements DataElementValidator {
 		return parentGroup.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
 	}
 
-	private void validateRecordId() {
-		if (recordIdIsMissing()) {
-			validationAnswer.addErrorMessage(
-					createNameInDataMessagePart() + " must have an nonempty recordId as child.");
+	private void validateRecordId(DataGroup dataRecordLink, ValidationAnswer validationAnswer) {
+		if (recordIdIsMissing(dataRecordLink)) {
+			validationAnswer.addErrorMessage(createNameInDataMessagePart(dataRecordLink)
+					+ " must have an nonempty recordId as child.");
 		} else {
-			validateRecordIdValue();
+			validateRecordIdValue(dataRecordLink, validationAnswer);
 		}
 	}
 
-	private void validateRecordIdValue() {
+	private void validateRecordIdValue(DataGroup dataRecordLink,
+			ValidationAnswer validationAnswer) {
 		if (finalValueIsDefinedInMetadata()) {
-			validateDataValueIsFinalValue();
+			validateDataValueIsFinalValue(dataRecordLink, validationAnswer);
 		} else {
-			validateTextVariableValueByMetadataIdAndNameInData("linkedRecordIdTextVar",
-					LINKED_RECORD_ID);
+			validateTextVariableData(getLinkedRecordIdValidator(),
+					dataRecordLink.getFirstChildWithNameInData(LINKED_RECORD_ID),
+					validationAnswer);
 		}
 	}
 
-	private void validateTextVariableValueByMetadataIdAndNameInData(String metadataId,
-			String nameInData) {
-		DataTextVariableValidator dataValidator = createDataValidator(metadataId);
-		DataElement linkedRecordIdData = dataRecordLink.getFirstChildWithNameInData(nameInData);
-		validateTextVariableData(dataValidator, linkedRecordIdData);
-	}
-
-	private void validateTextVariableData(DataTextVariableValidator dataValidator,
-			DataElement textVariableData) {
+	private void validateTextVariableData(DataElementValidator dataValidator,
+			DataElement textVariableData, ValidationAnswer validationAnswer) {
 		ValidationAnswer va = dataValidator.validateData(textVariableData);
 
 		if (va.dataIsInvalid()) {
@@ -166,12 +172,7 @@ public class DataRecordLinkValidator implements DataElementValidator {
 		}
 	}
 
-	private DataTextVariableValidator createDataValidator(String metadataId) {
-		MetadataElement metadataElement = metadataHolder.getMetadataElement(metadataId);
-		return new DataTextVariableValidator((TextVariable) metadataElement);
-	}
-
-	private boolean recordIdIsMissing() {
+	private boolean recordIdIsMissing(DataGroup dataRecordLink) {
 		return !dataRecordLink.containsChildWithNameInData(LINKED_RECORD_ID);
 	}
 
@@ -179,10 +180,12 @@ public class DataRecordLinkValidator implements DataElementValidator {
 		return null != recordLink.getFinalValue();
 	}
 
-	private void validateDataValueIsFinalValue() {
+	private void validateDataValueIsFinalValue(DataGroup dataRecordLink,
+			ValidationAnswer validationAnswer) {
 		String dataValue = dataRecordLink.getFirstAtomicValueWithNameInData(LINKED_RECORD_ID);
 		if (!dataValueIsFinalValue(dataValue)) {
-			createErrorMessageForFinalValue(dataValue);
+			validationAnswer.addErrorMessage(
+					"Value:" + dataValue + " is not finalValue:" + recordLink.getFinalValue());
 		}
 	}
 
@@ -190,31 +193,24 @@ public class DataRecordLinkValidator implements DataElementValidator {
 		return recordLink.getFinalValue().equals(dataValue);
 	}
 
-	private void createErrorMessageForFinalValue(String dataValue) {
-		validationAnswer.addErrorMessage(
-				"Value:" + dataValue + " is not finalValue:" + recordLink.getFinalValue());
-	}
-
-	private String createNameInDataMessagePart() {
+	private String createNameInDataMessagePart(DataGroup dataRecordLink) {
 		return "DataRecordLink with nameInData:" + dataRecordLink.getNameInData();
 	}
 
-	private void validateNoLinkedPath() {
-		if (thereIsALinkedPath()) {
+	private void validateNoLinkedPath(DataGroup dataRecordLink,
+			ValidationAnswer validationAnswer) {
+		if (dataRecordLink.containsChildWithNameInData("linkedPath")) {
 			validationAnswer.addErrorMessage(
-					createNameInDataMessagePart() + " should not have a linkedPath");
+					createNameInDataMessagePart(dataRecordLink) + " should not have a linkedPath");
 		}
 	}
 
-	private boolean thereIsALinkedPath() {
-		return dataRecordLink.containsChildWithNameInData("linkedPath");
-	}
-
-	private void validateLinkedRepeatId() {
+	private void validateLinkedRepeatId(DataGroup dataRecordLink,
+			ValidationAnswer validationAnswer) {
 		if (dataShouldContainALinkedRepeatId()) {
-			validateHasLinkedRepeatId();
+			validateHasLinkedRepeatId(dataRecordLink, validationAnswer);
 		} else {
-			validateDoesNotHaveLinkedRepeatId();
+			validateDoesNotHaveLinkedRepeatId(dataRecordLink, validationAnswer);
 		}
 	}
 
@@ -222,33 +218,35 @@ public class DataRecordLinkValidator implements DataElementValidator {
 		return recordLink.getLinkedPath() != null;
 	}
 
-	private void validateHasLinkedRepeatId() {
-		if (linkedRepeatIdIsMissing()) {
+	private void validateHasLinkedRepeatId(DataGroup dataRecordLink,
+			ValidationAnswer validationAnswer) {
+		if (linkedRepeatIdIsMissing(dataRecordLink)) {
 			validationAnswer.addErrorMessage(
-					createNameInDataMessagePart() + " should have a linkedRepeatId");
+					createNameInDataMessagePart(dataRecordLink) + " should have a linkedRepeatId");
 		} else {
-			validateRepeatIdValue();
+			validateTextVariableData(getLinkedRepeatIdValidator(),
+					dataRecordLink.getFirstChildWithNameInData(LINKED_REPEAT_ID),
+					validationAnswer);
 		}
 	}
 
-	private void validateRepeatIdValue() {
-		validateTextVariableValueByMetadataIdAndNameInData("linkedRepeatIdTextVar",
-				LINKED_REPEAT_ID);
-	}
-
-	private boolean linkedRepeatIdIsMissing() {
+	private boolean linkedRepeatIdIsMissing(DataGroup dataRecordLink) {
 		return !dataRecordLink.containsChildWithNameInData(LINKED_REPEAT_ID);
 	}
 
-	private void validateDoesNotHaveLinkedRepeatId() {
-		if (linkedRepeatIdIsNotNull()) {
-			validationAnswer.addErrorMessage(
-					createNameInDataMessagePart() + " should not have a linkedRepeatId");
+	private void validateDoesNotHaveLinkedRepeatId(DataGroup dataRecordLink,
+			ValidationAnswer validationAnswer) {
+		if (dataRecordLink.containsChildWithNameInData(LINKED_REPEAT_ID)) {
+			validationAnswer.addErrorMessage(createNameInDataMessagePart(dataRecordLink)
+					+ " should not have a linkedRepeatId");
 		}
 	}
 
-	private boolean linkedRepeatIdIsNotNull() {
-		return dataRecordLink.containsChildWithNameInData(LINKED_REPEAT_ID);
+	DataElementValidator getLinkedRecordIdValidator() {
+		return getTextVariableValidator(RecordLink.LINKED_RECORD_ID_TEXT_VAR_ID);
 	}
 
+	DataElementValidator getLinkedRepeatIdValidator() {
+		return getTextVariableValidator(RecordLink.LINKED_REPEAT_ID_TEXT_VAR_ID);
+	}
 }
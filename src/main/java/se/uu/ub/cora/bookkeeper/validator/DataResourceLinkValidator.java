@@ -21,75 +21,77 @@
 package se.uu.ub.cora.bookkeeper.validator;
 
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ResourceLink;
 import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
 import se.uu.ub.cora.data.DataElement;
 import se.uu.ub.cora.data.DataGroup;
 
+/**
+ * DataResourceLinkValidator validates data resource links.
+ * <p>
+ * The TextVariables for the streamId, filename, filesize and mimeType children are read from the
+ * MetadataHolder on each validation, and a validator is only created again if the MetadataHolder
+ * returns another TextVariable than last time. The validator keeps no state between calls to
+ * {@link #validateData(DataElement)}, so one instance can be reused and shared between threads.
+ */
 public class DataResourceLinkValidator implements DataElementValidator {
-
 	private static final String STREAM_ID = "streamId";
-	private ValidationAnswer validationAnswer;
-	private MetadataHolder metadataHolder;
-	private DataGroup dataForResourceLink;
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final ValidatorCache textVariableValidators = new ValidatorCache();
 
-	public DataResourceLinkValidator(MetadataHolder metadataHolder) {
+	public DataResourceLinkValidator(ReadOnlyMetadataHolder metadataHolder) {
 		this.metadataHolder = metadataHolder;
 	}
 
+	private DataElementValidator getTextVariableValidator(String metadataId) {
+		int index = metadataHolder.getIndexOfMetadataElement(metadataId);
+		MetadataElement metadataElement = metadataHolder.getMetadataElementByIndex(index);
+		return textVariableValidators.getOrCreate(index, metadataElement,
+				element -> new DataTextVariableValidator((TextVariable) element));
+	}
+
 	@Override
 	public ValidationAnswer validateData(DataElement dataElement) {
-		validationAnswer = new ValidationAnswer();
-		dataForResourceLink = (DataGroup) dataElement;
-		validateNameInData();
-		validateStreamId();
-		validateFileName();
-		validateFileSize();
-		validateMimeType();
+		ValidationAnswer validationAnswer = new ValidationAnswer();
+		DataGroup dataForResourceLink = (DataGroup) dataElement;
+		validateNameInData(dataForResourceLink, validationAnswer);
+		validateChild(dataForResourceLink, ResourceLink.STREAM_ID_TEXT_VAR_ID, STREAM_ID,
+				validationAnswer);
+		validateChild(dataForResourceLink, ResourceLink.FILENAME_TEXT_VAR_ID, "filename",
+				validationAnswer);
+		validateChild(dataForResourceLink, ResourceLink.FILESIZE_TEXT_VAR_ID, "filesize",
+				validationAnswer);
+		validateChild(dataForResourceLink, ResourceLink.MIME_TYPE_TEXT_VAR_ID, "mimeType",
+				validationAnswer);
 		return validationAnswer;
 	}
 
-	private void validateNameInData() {
-		if (nameInDataIsEmpty()) {
+	private void validateNameInData(DataGroup dataForResourceLink,
+			ValidationAnswer validationAnswer) {
+		if (dataForResourceLink.getNameInData().isEmpty()) {
 			validationAnswer.addErrorMessage("DataResourceLink must have a nonempty nameInData");
 		}
 	}
 
-	private boolean nameInDataIsEmpty() {
-		return dataForResourceLink.getNameInData().isEmpty();
-	}
-
-	private void validateStreamId() {
-		validateChild("streamIdTextVar", STREAM_ID);
-	}
-
-	private void validateChild(String metadataId, String nameInData) {
-		if (childIsMissing(nameInData)) {
-			validationAnswer.addErrorMessage(createNameInDataMessagePart()
+	private void validateChild(DataGroup dataForResourceLink, String textVariableId,
+			String nameInData, ValidationAnswer validationAnswer) {
+		if (childIsMissing(dataForResourceLink, nameInData)) {
+			validationAnswer.addErrorMessage(createNameInDataMessagePart(dataForResourceLink)
 					+ " must have an nonempty " + nameInData + " as child.");
 		} else {
-			validateChildValue(metadataId, nameInData);
+			validateTextVariableData(getTextVariableValidator(textVariableId),
+					dataForResourceLink.getFirstChildWithNameInData(nameInData),
+					validationAnswer);
 		}
 	}
 
-	private boolean childIsMissing(String nameInData) {
+	private boolean childIsMissing(DataGroup dataForResourceLink, String nameInData) {
 		return !dataForResourceLink.containsChildWithNameInData(nameInData);
 	}
 
-	private void validateChildValue(String metdataId, String nameInData) {
-		validateTextVariableValueByMetadataIdAndNameInData(metdataId, nameInData);
-	}
-
-	private void validateTextVariableValueByMetadataIdAndNameInData(String metadataId,
-			String nameInData) {
-		DataTextVariableValidator dataValidator = createDataValidator(metadataId);
-		DataElement linkedRecordIdData = dataForResourceLink
-				.getFirstChildWithNameInData(nameInData);
-		validateTextVariableData(dataValidator, linkedRecordIdData);
-	}
-
-	private void validateTextVariableData(DataTextVariableValidator dataValidator,
-			DataElement textVariableData) {
+	private void validateTextVariableData(DataElementValidator dataValidator,
+			DataElement textVariableData, ValidationAnswer validationAnswer) {
 		ValidationAnswer va = dataValidator.validateData(textVariableData);
 
 		if (va.dataIsInvalid()) {
@@ -97,24 +99,7 @@ public class DataResourceLinkValidator implements DataElementValidator {
 		}
 	}
 
-	private DataTextVariableValidator createDataValidator(String metadataId) {
-		MetadataElement metadataElement = metadataHolder.getMetadataElement(metadataId);
-		return new DataTextVariableValidator((TextVariable) metadataElement);
-	}
-
-	private String createNameInDataMessagePart() {
+	private String createNameInDataMessagePart(DataGroup dataForResourceLink) {
 		return "DataRecordLink with nameInData:" + dataForResourceLink.getNameInData();
 	}
-
-	private void validateFileName() {
-		validateChild("filenameTextVar", "filename");
-	}
-
-	private void validateFileSize() {
-		validateChild("filesizeTextVar", "filesize");
-	}
-
-	private void validateMimeType() {
-		validateChild("mimeTypeTextVar", "mimeType");
-	}
 }
@@ -23,10 +23,15 @@ import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataElement;
 
+/**
+ * DataTextVariableValidator validates the value of a DataAtomic against a TextVariable.
+ * <p>
+ * The validator keeps no state between calls to {@link #validateData(DataElement)}, so one
+ * instance can be reused and shared between threads.
+ */
 public class DataTextVariableValidator implements DataElementValidator {
 
-	private TextVariable textVariable;
-	private String dataValue;
+	private final TextVariable textVariable;
 
 	public DataTextVariableValidator(TextVariable textVariable) {
 		this.textVariable = textVariable;
@@ -35,47 +40,47 @@ public class DataTextVariableValidator implements DataElementValidator {
 	@Override
 	public ValidationAnswer validateData(DataElement dataElement) {
 		DataAtomic dataAtomic = (DataAtomic) dataElement;
-		dataValue = dataAtomic.getValue();
+		String dataValue = dataAtomic.getValue();
 		if (finalValueIsDefinedInMetadata()) {
-			return validateDataValueIsFinalValue();
+			return validateDataValueIsFinalValue(dataValue);
 		}
-		return validateDataValueIsValidAccordingToRegEx();
+		return validateDataValueIsValidAccordingToRegEx(dataValue);
 	}
 
 	private boolean finalValueIsDefinedInMetadata() {
 		return null != textVariable.getFinalValue();
 	}
 
-	private ValidationAnswer validateDataValueIsFinalValue() {
-		if (dataValueIsFinalValue()) {
+	private ValidationAnswer validateDataValueIsFinalValue(String dataValue) {
+		if (dataValueIsFinalValue(dataValue)) {
 			return new ValidationAnswer();
 		}
-		return createErrorMessageForFinalValue();
+		return createErrorMessageForFinalValue(dataValue);
 	}
 
-	private boolean dataValueIsFinalValue() {
+	private boolean dataValueIsFinalValue(String dataValue) {
 		return textVariable.getFinalValue().equals(dataValue);
 	}
 
-	private ValidationAnswer createErrorMessageForFinalValue() {
+	private ValidationAnswer createErrorMessageForFinalValue(String dataValue) {
 		ValidationAnswer validationAnswer = new ValidationAnswer();
 		validationAnswer.addErrorMessage(
 				"Value:" + dataValue + " is not finalValue:" + textVariable.getFinalValue());
 		return validationAnswer;
 	}
 
-	private ValidationAnswer validateDataValueIsValidAccordingToRegEx() {
-		if (dataIsInvalidAccordingToRegEx()) {
-			return createValidationAnswerWithError();
+	private ValidationAnswer validateDataValueIsValidAccordingToRegEx(String dataValue) {
+		if (dataIsInvalidAccordingToRegEx(dataValue)) {
+			return createValidationAnswerWithError(dataValue);
 		}
 		return new ValidationAnswer();
 	}
 
-	private boolean dataIsInvalidAccordingToRegEx() {
-		return !dataValue.matches(textVariable.getRegularExpression());
+	private boolean dataIsInvalidAccordingToRegEx(String dataValue) {
+		return !textVariable.getPattern().matcher(dataValue).matches();
 	}
 
-	private ValidationAnswer createValidationAnswerWithError() {
+	private ValidationAnswer createValidationAnswerWithError(String dataValue) {
 		ValidationAnswer validationAnswer = new ValidationAnswer();
 		validationAnswer.addErrorMessage("TextVariable with nameInData:"
 				+ textVariable.getNameInData() + " is NOT valid, regular expression("
@@ -83,4 +88,8 @@ public class DataTextVariableValidator implements DataElementValidator {
 		return validationAnswer;
 	}
 
+	TextVariable getTextVariable() {
+		// needed for test
+		return textVariable;
+	}
 }
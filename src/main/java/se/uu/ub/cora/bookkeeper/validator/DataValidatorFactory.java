@@ -23,4 +23,10 @@ public interface DataValidatorFactory {
 
 	DataElementValidator factor(String elementId);
 
+	/**
+	 * factorByIndex factors a validator for the element with the specified index in the
+	 * MetadataHolder, such as the indexes kept by a ChildReferenceDispatchTable
+	 */
+	DataElementValidator factorByIndex(int index);
+
 }
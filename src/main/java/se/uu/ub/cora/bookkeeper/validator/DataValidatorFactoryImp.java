@@ -24,28 +24,60 @@ import java.util.Map;
 import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
 import se.uu.ub.cora.bookkeeper.metadata.ResourceLink;
 import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
 import se.uu.ub.cora.data.DataGroup;
 
+/**
+ * DataValidatorFactoryImp factors validators for the elements in a MetadataHolder.
+ * <p>
+ * Validators keep no state between validations, so the factory creates one validator per
+ * metadata element and returns the same validator for later calls with the same id or index. A
+ * cached validator is only reused as long as the MetadataHolder returns the same element for the
+ * index, if the element is replaced a new validator is created. The factory can safely be
+ * shared between threads as long as the MetadataHolder is not changed.
+ */
 public class DataValidatorFactoryImp implements DataValidatorFactory {
 
-	private MetadataHolder metadataHolder;
-	private Map<String, DataGroup> recordTypeHolder;
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final Map<String, DataGroup> recordTypeHolder;
+	private final ValidatorCache validatorCache = new ValidatorCache();
 
 	public DataValidatorFactoryImp(Map<String, DataGroup> recordTypeHolder,
-			MetadataHolder metadataHolder) {
+			ReadOnlyMetadataHolder metadataHolder) {
 		this.recordTypeHolder = recordTypeHolder;
 		this.metadataHolder = metadataHolder;
 	}
 
 	@Override
 	public DataElementValidator factor(String elementId) {
-		MetadataElement metadataElement = metadataHolder.getMetadataElement(elementId);
+		int index = metadataHolder.getIndexOfMetadataElement(elementId);
+		MetadataElement metadataElement = metadataHolder.getMetadataElementByIndex(index);
+		if (metadataElement == null) {
+			throw createNoValidatorCreatedException(elementId);
+		}
+		return validatorCache.getOrCreate(index, metadataElement, this::createValidator);
+	}
 
+	@Override
+	public DataElementValidator factorByIndex(int index) {
+		MetadataElement metadataElement = metadataHolder.getMetadataElementByIndex(index);
+		if (metadataElement == null) {
+			throw DataValidationException
+					.withMessage("No validator created for element with index: " + index);
+		}
+		return validatorCache.getOrCreate(index, metadataElement, this::createValidator);
+	}
+
+	private DataValidationException createNoValidatorCreatedException(String elementId) {
+		return DataValidationException
+				.withMessage("No validator created for element with id: " + elementId);
+	}
+
+	private DataElementValidator createValidator(MetadataElement metadataElement) {
 		if (metadataElement instanceof MetadataGroup) {
 			return new DataGroupValidator(this, metadataHolder, (MetadataGroup) metadataElement);
 		}
@@ -66,11 +98,10 @@ public class DataValidatorFactoryImp implements DataValidatorFactory {
 		if (metadataElement instanceof ResourceLink) {
 			return new DataResourceLinkValidator(metadataHolder);
 		}
-		throw DataValidationException
-				.withMessage("No validator created for element with id: " + elementId);
+		throw createNoValidatorCreatedException(metadataElement.getId());
 	}
 
-	public MetadataHolder getMetadataHolder() {
+	public ReadOnlyMetadataHolder getMetadataHolder() {
 		// needed for test
 		return metadataHolder;
 	}
@@ -19,34 +19,66 @@
 
 package se.uu.ub.cora.bookkeeper.validator;
 
+import java.util.Map;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.bookkeeper.metadata.VersionedMetadataHolder;
 import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
 import se.uu.ub.cora.storage.MetadataStorage;
 
 /**
  * ValidateData is a class to validate if a set of data is valid according to its metadataFormat
+ * <p>
+ * DataValidatorImp keeps no state between calls to {@link #validateData(String, DataElement)},
+ * so one instance can be shared between threads handling concurrent requests, as long as the
+ * DataValidatorFactory is thread safe. {@link DataValidatorFactoryImp} is thread safe as long as
+ * its MetadataHolder is not changed, a new factory and validator should be created for a new
+ * version of the metadata.
+ * <p>
+ * A validator created using
+ * {@link #usingMetadataHolderProviderAndRecordTypeHolder(MetadataHolderProvider, Map)} instead
+ * validates using the metadata currently published by the provider. One
+ * {@link DataValidatorFactoryImp} is created for each published version, and each validation
+ * uses the version that was current when it started.
  * 
  * @author olov
  * 
  */
 public class DataValidatorImp implements DataValidator {
 
-	private MetadataStorage metadataStorage;
-	private String metadataId;
-	private DataElement dataElement;
-	private DataValidatorFactory dataValidatorFactory;
+	private final MetadataStorage metadataStorage;
+	private final DataValidatorFactory dataValidatorFactory;
+	private final MetadataHolderProvider metadataHolderProvider;
+	private final Map<String, DataGroup> recordTypeHolder;
+	private volatile VersionedValidatorFactory versionedValidatorFactory;
 
 	public DataValidatorImp(MetadataStorage metadataStorage,
 			DataValidatorFactory validatorFactory) {
 		this.metadataStorage = metadataStorage;
 		this.dataValidatorFactory = validatorFactory;
+		metadataHolderProvider = null;
+		recordTypeHolder = null;
+	}
+
+	private DataValidatorImp(MetadataHolderProvider metadataHolderProvider,
+			Map<String, DataGroup> recordTypeHolder) {
+		metadataStorage = null;
+		dataValidatorFactory = null;
+		this.metadataHolderProvider = metadataHolderProvider;
+		this.recordTypeHolder = recordTypeHolder;
+	}
+
+	public static DataValidatorImp usingMetadataHolderProviderAndRecordTypeHolder(
+			MetadataHolderProvider metadataHolderProvider,
+			Map<String, DataGroup> recordTypeHolder) {
+		return new DataValidatorImp(metadataHolderProvider, recordTypeHolder);
 	}
 
 	@Override
 	public ValidationAnswer validateData(String metadataId, DataElement dataElement) {
-		this.metadataId = metadataId;
-		this.dataElement = dataElement;
 		try {
-			return tryToValidateData();
+			return tryToValidateData(metadataId, dataElement);
 		} catch (Exception exception) {
 			ValidationAnswer validationAnswer = new ValidationAnswer();
 			validationAnswer.addErrorMessageAndAppendErrorMessageFromExceptionToMessage(
@@ -57,13 +89,34 @@ public class DataValidatorImp implements DataValidator {
 		}
 	}
 
-	private ValidationAnswer tryToValidateData() {
-		return validateDataUsingDataValidator();
+	private ValidationAnswer tryToValidateData(String metadataId, DataElement dataElement) {
+		DataElementValidator elementValidator = getDataValidatorFactory().factor(metadataId);
+		return elementValidator.validateData(dataElement);
 	}
 
-	private ValidationAnswer validateDataUsingDataValidator() {
-		DataElementValidator elementValidator = dataValidatorFactory.factor(metadataId);
-		return elementValidator.validateData(dataElement);
+	/**
+	 * getDataValidatorFactory returns the factory used for validations started now, for a
+	 * validator using a MetadataHolderProvider this is the factory for the currently published
+	 * version of the metadata
+	 */
+	public DataValidatorFactory getDataValidatorFactory() {
+		if (metadataHolderProvider == null) {
+			return dataValidatorFactory;
+		}
+		return getValidatorFactoryForCurrentVersion();
+	}
+
+	private DataValidatorFactory getValidatorFactoryForCurrentVersion() {
+		VersionedMetadataHolder currentMetadata = metadataHolderProvider.getCurrent();
+		VersionedValidatorFactory validatorFactory = versionedValidatorFactory;
+		if (validatorFactory == null
+				|| validatorFactory.version != currentMetadata.getVersion()) {
+			validatorFactory = new VersionedValidatorFactory(currentMetadata.getVersion(),
+					new DataValidatorFactoryImp(recordTypeHolder,
+							currentMetadata.getMetadataHolder()));
+			versionedValidatorFactory = validatorFactory;
+		}
+		return validatorFactory.validatorFactory;
 	}
 
 	public MetadataStorage getMetadataStorage() {
@@ -71,8 +124,18 @@ public class DataValidatorImp implements DataValidator {
 		return metadataStorage;
 	}
 
-	public DataValidatorFactory getDataValidatorFactory() {
+	public MetadataHolderProvider getMetadataHolderProvider() {
 		// needed for test
-		return dataValidatorFactory;
+		return metadataHolderProvider;
+	}
+
+	private static final class VersionedValidatorFactory {
+		private final long version;
+		private final DataValidatorFactory validatorFactory;
+
+		private VersionedValidatorFactory(long version, DataValidatorFactory validatorFactory) {
+			this.version = version;
+			this.validatorFactory = validatorFactory;
+		}
 	}
 }
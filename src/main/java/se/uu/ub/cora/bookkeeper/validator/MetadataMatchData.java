@@ -16,7 +16,6 @@
  *     You should have received a copy of the GNU General Public License
  *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package se.uu.ub.cora.bookkeeper.validator;
 
 import java.util.Collection;
@@ -25,37 +24,41 @@ import java.util.Map.Entry;
 
 import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
-import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataAtomicProvider;
 import se.uu.ub.cora.data.DataElement;
 
+/**
+ * MetadataMatchData checks if a metadata element specifies a data element, by nameInData and
+ * attributes.
+ * <p>
+ * The validators for attributes are cached per attribute element. Instances keep no other state
+ * between calls, so one instance can be reused and shared between threads.
+ */
 public final class MetadataMatchData {
 
-	private MetadataHolder metadataHolder;
-	private MetadataElement metadataElement;
-	private DataElement dataElement;
-	private ValidationAnswer validationAnswer;
+	private final ReadOnlyMetadataHolder metadataHolder;
+	private final ValidatorCache attributeValidators = new ValidatorCache();
 
-	public static MetadataMatchData withMetadataHolder(MetadataHolder metadataHolder) {
+	public static MetadataMatchData withMetadataHolder(ReadOnlyMetadataHolder metadataHolder) {
 		return new MetadataMatchData(metadataHolder);
 	}
 
-	private MetadataMatchData(MetadataHolder metadataHolder) {
+	private MetadataMatchData(ReadOnlyMetadataHolder metadataHolder) {
 		this.metadataHolder = metadataHolder;
 	}
 
 	public ValidationAnswer metadataSpecifiesData(MetadataElement metadataElement,
 			DataElement dataElement) {
-		this.metadataElement = metadataElement;
-		this.dataElement = dataElement;
-		validationAnswer = new ValidationAnswer();
-		validateNameInData();
-		validateAttributes();
+		ValidationAnswer validationAnswer = new ValidationAnswer();
+		validateNameInData(metadataElement, dataElement, validationAnswer);
+		validateAttributes(metadataElement, dataElement, validationAnswer);
 		return validationAnswer;
 	}
 
-	private void validateNameInData() {
+	private void validateNameInData(MetadataElement metadataElement, DataElement dataElement,
+			ValidationAnswer validationAnswer) {
 		String metadataNameInData = metadataElement.getNameInData();
 		String dataNameInData = dataElement.getNameInData();
 		if (!metadataNameInData.equals(dataNameInData)) {
@@ -64,84 +67,84 @@ public final class MetadataMatchData {
 		}
 	}
 
-	private void validateAttributes() {
-		validateDataContainsAllRequiredAttributesWithCorrectValues();
-		validateDataContainsNoUnspecifiedAttributes();
+	private void validateAttributes(MetadataElement metadataElement, DataElement dataElement,
+			ValidationAnswer validationAnswer) {
+		Collection<CollectionVariable> mdAttributes = metadataHolder
+				.getAttributesForElement(metadataElement);
+		validateDataContainsAllRequiredAttributesWithCorrectValues(mdAttributes, dataElement,
+				validationAnswer);
+		validateDataContainsNoUnspecifiedAttributes(mdAttributes, dataElement, validationAnswer);
 	}
 
-	private void validateDataContainsAllRequiredAttributesWithCorrectValues() {
-		Collection<String> mdAttributeReferences = metadataElement.getAttributeReferences();
-		for (String mdAttributeReference : mdAttributeReferences) {
-			validateDataContainsAttributeReferenceWithCorrectData(mdAttributeReference);
+	private void validateDataContainsAllRequiredAttributesWithCorrectValues(
+			Collection<CollectionVariable> mdAttributes, DataElement dataElement,
+			ValidationAnswer validationAnswer) {
+		for (CollectionVariable mdAttribute : mdAttributes) {
+			validateDataContainsAttributeWithCorrectData(mdAttribute, dataElement,
+					validationAnswer);
 		}
 	}
 
-	private void validateDataContainsAttributeReferenceWithCorrectData(
-			String mdAttributeReference) {
-		String nameInData = getNameInDataForAttributeReference(mdAttributeReference);
+	private void validateDataContainsAttributeWithCorrectData(CollectionVariable mdAttribute,
+			DataElement dataElement, ValidationAnswer validationAnswer) {
+		String nameInData = mdAttribute.getNameInData();
 
 		Map<String, String> dataAttributes = dataElement.getAttributes();
 		boolean dataAttributesContainsValueForAttribute = dataAttributes.containsKey(nameInData);
 		if (dataAttributesContainsValueForAttribute) {
-			DataAtomic dataAtomicElement = createDataAtomicFromAttribute(mdAttributeReference,
+			DataAtomic dataAtomicElement = createDataAtomicFromAttribute(nameInData,
 					dataAttributes);
-			validateAttribute(mdAttributeReference, dataAtomicElement);
+			validateAttribute(mdAttribute, dataAtomicElement, validationAnswer);
 		} else {
 			validationAnswer.addErrorMessage(
 					"Attribute with nameInData: " + nameInData + " does not exist in data.");
 		}
 	}
 
-	private DataAtomic createDataAtomicFromAttribute(String mdAttributeReference,
+	private DataAtomic createDataAtomicFromAttribute(String nameInData,
 			Map<String, String> dataAttributes) {
-		String nameInData = getNameInDataForAttributeReference(mdAttributeReference);
 		String value = dataAttributes.get(nameInData);
 
 		return DataAtomicProvider.getDataAtomicUsingNameInDataAndValue(nameInData, value);
 	}
 
-	private void validateAttribute(String mdAttributeReference, DataAtomic dataElement) {
-		CollectionVariable attributeElement = (CollectionVariable) metadataHolder
-				.getMetadataElement(mdAttributeReference);
-		DataElementValidator attributeValidator = new DataCollectionVariableValidator(
-				metadataHolder, attributeElement);
+	private void validateAttribute(CollectionVariable attributeElement, DataAtomic dataElement,
+			ValidationAnswer validationAnswer) {
+		DataElementValidator attributeValidator = attributeValidators.getOrCreate(
+				metadataHolder.getIndexOfMetadataElement(attributeElement.getId()),
+				attributeElement, element -> new DataCollectionVariableValidator(metadataHolder,
+						(CollectionVariable) element));
 		ValidationAnswer aValidationAnswer = attributeValidator.validateData(dataElement);
-		addMessagesFromAnswerToTotalValidationAnswer(aValidationAnswer);
-	}
-
-	private void addMessagesFromAnswerToTotalValidationAnswer(ValidationAnswer aValidationAnswer) {
 		validationAnswer.addErrorMessages(aValidationAnswer.getErrorMessages());
 	}
 
-	private String getNameInDataForAttributeReference(String mdAttributeReference) {
-		CollectionVariable mdAttribute = (CollectionVariable) metadataHolder
-				.getMetadataElement(mdAttributeReference);
-		return mdAttribute.getNameInData();
-	}
-
-	private void validateDataContainsNoUnspecifiedAttributes() {
+	private void validateDataContainsNoUnspecifiedAttributes(
+			Collection<CollectionVariable> mdAttributes, DataElement dataElement,
+			ValidationAnswer validationAnswer) {
 		Map<String, String> dAttributes = dataElement.getAttributes();
 		for (Entry<String, String> attribute : dAttributes.entrySet()) {
 			String nameInDataFromDataAttribute = attribute.getKey();
-			validateNameInDataFromDataAttributeIsSpecifiedInMetadata(nameInDataFromDataAttribute);
+			validateNameInDataFromDataAttributeIsSpecifiedInMetadata(mdAttributes,
+					nameInDataFromDataAttribute, validationAnswer);
 		}
 	}
 
-	private void validateNameInDataFromDataAttributeIsSpecifiedInMetadata(String dataNameInData) {
-		if (!isNameInDataFromDataSpecifiedInMetadata(dataNameInData)) {
+	private void validateNameInDataFromDataAttributeIsSpecifiedInMetadata(
+			Collection<CollectionVariable> mdAttributes, String dataNameInData,
+			ValidationAnswer validationAnswer) {
+		if (!isNameInDataFromDataSpecifiedInMetadata(mdAttributes, dataNameInData)) {
 			validationAnswer.addErrorMessage(
 					"Data attribute with id: " + dataNameInData + " does not exist in metadata.");
 		}
 	}
 
-	private boolean isNameInDataFromDataSpecifiedInMetadata(String dataNameInData) {
-		Collection<String> mdAttributeReferences = metadataElement.getAttributeReferences();
-		for (String mdAttributeReference : mdAttributeReferences) {
-			String metadataNameInData = getNameInDataForAttributeReference(mdAttributeReference);
-			if (dataNameInData.equals(metadataNameInData)) {
+	private boolean isNameInDataFromDataSpecifiedInMetadata(
+			Collection<CollectionVariable> mdAttributes, String dataNameInData) {
+		for (CollectionVariable mdAttribute : mdAttributes) {
+			if (dataNameInData.equals(mdAttribute.getNameInData())) {
 				return true;
 			}
 		}
 		return false;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package se.uu.ub.cora.bookkeeper.validator;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.ReadOnlyMetadataHolder;
+
+/**
+ * ValidatorCache keeps one validator per metadata element, in an array indexed by the index of
+ * the element in the MetadataHolder, see
+ * {@link ReadOnlyMetadataHolder#getIndexOfMetadataElement(String)}. A cached validator is only
+ * reused as long as it was created for the same metadata element instance, if the element at an
+ * index is replaced a new validator is created and cached instead.
+ * <p>
+ * The array grows when a validator is cached for a higher index than it has room for. A
+ * validator cached at the same time as the array grows can be lost, it is then created again the
+ * next time it is requested.
+ */
+final class ValidatorCache {
+	private volatile AtomicReferenceArray<CachedValidator> validators = createValidators(0);
+
+	/**
+	 * getOrCreate returns the validator cached for the metadataElement at the index, creating and
+	 * caching it with the validatorCreator if needed. Validators for elements without an index,
+	 * index -1, are created for each call.
+	 */
+	DataElementValidator getOrCreate(int index, MetadataElement metadataElement,
+			Function<MetadataElement, DataElementValidator> validatorCreator) {
+		if (index < 0) {
+			return validatorCreator.apply(metadataElement);
+		}
+		AtomicReferenceArray<CachedValidator> currentValidators = validators;
+		if (index < currentValidators.length()) {
+			CachedValidator cachedValidator = currentValidators.get(index);
+			if (cachedValidator != null && cachedValidator.metadataElement == metadataElement) {
+				return cachedValidator.validator;
+			}
+		}
+		DataElementValidator validator = validatorCreator.apply(metadataElement);
+		ensureRoomForIndex(index).set(index, new CachedValidator(metadataElement, validator));
+		return validator;
+	}
+
+	private synchronized AtomicReferenceArray<CachedValidator> ensureRoomForIndex(int index) {
+		AtomicReferenceArray<CachedValidator> currentValidators = validators;
+		if (index < currentValidators.length()) {
+			return currentValidators;
+		}
+		AtomicReferenceArray<CachedValidator> grown = createValidators(
+				Math.max(index + 1, currentValidators.length() * 2));
+		for (int i = 0; i < currentValidators.length(); i++) {
+			grown.set(i, currentValidators.get(i));
+		}
+		validators = grown;
+		return grown;
+	}
+
+	private static AtomicReferenceArray<CachedValidator> createValidators(int length) {
+		return new AtomicReferenceArray<>(length);
+	}
+
+	private static final class CachedValidator {
+		private final MetadataElement metadataElement;
+		private final DataElementValidator validator;
+
+		private CachedValidator(MetadataElement metadataElement,
+				DataElementValidator validator) {
+			this.metadataElement = metadataElement;
+			this.validator = validator;
+		}
+	}
+}
@@ -35,7 +35,6 @@ public class DataAtomicSpy implements DataAtomic {
 		this.nameInData = nameInData;
 		this.value = value;
 		this.repeatId = repeatId;
-
 	}
 
 	@Override
@@ -55,8 +54,7 @@ public class DataAtomicSpy implements DataAtomic {
 
 	@Override
 	public void setRepeatId(String repeatId) {
-		// TODO Auto-generated method stub
-
+		this.repeatId = repeatId;
 	}
 
 }
@@ -21,6 +21,7 @@ package se.uu.ub.cora.bookkeeper.linkcollector;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertTrue;
 
 import java.util.List;
@@ -30,6 +31,8 @@ import org.testng.annotations.Test;
 
 import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
 import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataConsistencyException;
+import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataAtomicProvider;
 import se.uu.ub.cora.data.DataGroup;
@@ -79,6 +82,17 @@ public class DataGroupRecordLinkCollectorTest {
 		assertCorrectOneGroupWithOneLink(linkList, 5);
 	}
 
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "missingTextVar not found in metadataHolder")
+	public void testChildReferenceToMissingElementThrowsErrorWhenDataHasChildren() {
+		dataGroupRecordLinkCollectorMetadataCreator.addMetadataForOneGroupWithOneLink("test");
+		dataGroupRecordLinkCollectorMetadataCreator.addChildReferenceParentIdChildRecordTypeIdMinMax(
+				"testGroup", "metadataTextVariable", "missingTextVar", 0, 1);
+		DataGroup dataGroup = createDataGroupWithOneLink();
+
+		linkCollector.collectLinks("testGroup", dataGroup);
+	}
+
 	@Test
 	public void testFromAndToPartsAreCorrectTypes() {
 		dataGroupRecordLinkCollectorMetadataCreator.addMetadataForOneGroupWithOneLink("test");
@@ -94,6 +108,19 @@ public class DataGroupRecordLinkCollectorTest {
 
 	}
 
+	@Test
+	public void testCollectingTwiceWithSameCollectorDoesNotShareLinks() {
+		dataGroupRecordLinkCollectorMetadataCreator.addMetadataForOneGroupWithOneLink("test");
+		DataGroup dataGroup = createDataGroupWithOneLink();
+
+		List<DataGroup> linkList = linkCollector.collectLinks("testGroup", dataGroup);
+		List<DataGroup> linkList2 = linkCollector.collectLinks("testGroup", dataGroup);
+
+		assertEquals(linkList.size(), 1);
+		assertEquals(linkList2.size(), 1);
+		assertNotSame(linkList.get(0), linkList2.get(0));
+	}
+
 	private DataGroup createDataGroupWithOneLink() {
 		DataGroup dataGroup = new DataGroupSpy("testGroup");
 		DataGroup dataRecordLink = createTestLinkWithRecordTypeAndRecordId();
@@ -210,10 +237,12 @@ public class DataGroupRecordLinkCollectorTest {
 		DataGroup recordToRecordLink = linkList.get(0);
 		assertEquals(recordToRecordLink.getNameInData(), "recordToRecordLink");
 
-		assertCorrectGroupsFactoredForOneGroupWithOneLink();
+		List<String> namesOfGroupsFactored = dataGroupFactory.usedNameInDatas;
+		assertEquals(namesOfGroupsFactored,
+				List.of("linkedPath", "recordToRecordLink", "linkedPath"));
 
-		assertEquals(dataAtomicFactory.usedNameInDatas.size(), 8);
-		assertEquals(dataAtomicFactory.usedValues.size(), 8);
+		assertEquals(dataAtomicFactory.usedNameInDatas.size(), 9);
+		assertEquals(dataAtomicFactory.usedValues.size(), 9);
 
 		assertCorrectAtomicDataUsingIndexNameInDataAndValue(0, "nameInData", "testLink");
 		assertCorrectAtomicDataUsingIndexNameInDataAndValue(1, "repeatId", "e3");
@@ -224,11 +253,35 @@ public class DataGroupRecordLinkCollectorTest {
 		assertCorrectAtomicDataUsingIndexNameInDataAndValue(5, "linkedRecordType",
 				"someRecordType");
 		assertCorrectAtomicDataUsingIndexNameInDataAndValue(6, "linkedRecordId", "someRecordId");
-		assertCorrectAtomicDataUsingIndexNameInDataAndValue(7, "linkedRepeatId", "e3");
+		assertCorrectAtomicDataUsingIndexNameInDataAndValue(7, "nameInData", "someNameInData");
+		assertCorrectAtomicDataUsingIndexNameInDataAndValue(8, "linkedRepeatId", "e3");
 
 		// assertCorrectOneGroupWithOneLink(linkList);
 	}
 
+	@Test
+	public void testLinkedPathIsCopiedForEachCollectedLink() {
+		dataGroupRecordLinkCollectorMetadataCreator.addMetadataForOneGroupWithOneLinkWithPath();
+		DataGroup metadataLinkedPath = ((RecordLink) dataGroupRecordLinkCollectorMetadataCreator
+				.getMetadataHolder().getMetadataElement("testLink")).getLinkedPath();
+		DataGroup dataGroup = createDataGroupContainingLinkWithRepeatId();
+
+		DataGroup firstLinkedPath = collectLinkedPathInToPart(dataGroup);
+		DataGroup secondLinkedPath = collectLinkedPathInToPart(dataGroup);
+
+		assertNotSame(firstLinkedPath, metadataLinkedPath);
+		assertNotSame(secondLinkedPath, firstLinkedPath);
+		assertEquals(firstLinkedPath.getFirstAtomicValueWithNameInData("nameInData"),
+				"someNameInData");
+		assertEquals(metadataLinkedPath.getChildren().size(), 1);
+	}
+
+	private DataGroup collectLinkedPathInToPart(DataGroup dataGroup) {
+		DataGroup recordToRecordLink = linkCollector.collectLinks("testGroup", dataGroup).get(0);
+		return recordToRecordLink.getFirstGroupWithNameInData("to")
+				.getFirstGroupWithNameInData("linkedPath");
+	}
+
 	private DataGroup createDataGroupContainingLinkWithRepeatId() {
 		// DataGroup dataGroup = DataGroupProvider.getDataGroupUsingNameInData("testGroup");
 		DataGroup dataGroup = new DataGroupSpy("testGroup");
@@ -370,8 +423,8 @@ public class DataGroupRecordLinkCollectorTest {
 
 		assertEquals(namesOfLinksFactored.get(0), "from");
 		assertEquals(namesOfLinksFactored.get(1), "to");
-		assertEquals(dataAtomicFactory.usedNameInDatas.size(), 20);
-		assertEquals(dataAtomicFactory.usedValues.size(), 20);
+		assertEquals(dataAtomicFactory.usedNameInDatas.size(), 19);
+		assertEquals(dataAtomicFactory.usedValues.size(), 19);
 
 		// assertCorrectAtomicData();
 	}
@@ -30,6 +30,8 @@ import org.testng.annotations.Test;
 
 import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
 import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.bookkeeper.metadata.RecordTypeMetadataCache;
 import se.uu.ub.cora.bookkeeper.validator.MetadataStorageStub;
 import se.uu.ub.cora.data.DataAtomic;
 import se.uu.ub.cora.data.DataAtomicProvider;
@@ -37,11 +39,10 @@ import se.uu.ub.cora.data.DataElement;
 import se.uu.ub.cora.data.DataGroup;
 import se.uu.ub.cora.data.DataGroupProvider;
 import se.uu.ub.cora.data.DataRecordLinkProvider;
-import se.uu.ub.cora.storage.MetadataStorage;
 
 public class DataRecordLinkCollectorTest {
 	private DataRecordLinkCollector linkCollector;
-	private MetadataStorage metadataStorage;
+	private MetadataStorageStub metadataStorage;
 	private DataGroupFactorySpy dataGroupFactory;
 	private DataAtomicFactorySpy dataAtomicFactory;
 	private DataRecordLinkFactorySpy dataRecordLinkFactory;
@@ -101,6 +102,90 @@ public class DataRecordLinkCollectorTest {
 
 	}
 
+	@Test
+	public void testMetadataIsReadFromStorageOnlyOnce() {
+		DataGroup dataGroup = new DataGroupSpy("bush");
+		linkCollector.collectLinks("bush", dataGroup, "recordType", "recordId");
+		linkCollector.collectLinks("bush", dataGroup, "recordType", "recordId");
+
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+	}
+
+	@Test
+	public void testNoMetadataIsReadFromStorageBeforeFirstCollect() {
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 0);
+	}
+
+	@Test
+	public void testRefreshMetadataReadsMetadataFromStorageAgain() {
+		DataRecordLinkCollectorImp collectorImp = (DataRecordLinkCollectorImp) linkCollector;
+		DataGroup dataGroup = new DataGroupSpy("bush");
+		collectorImp.collectLinks("bush", dataGroup, "recordType", "recordId");
+
+		collectorImp.refreshMetadata();
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 2);
+
+		collectorImp.collectLinks("bush", dataGroup, "recordType", "recordId");
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 2);
+	}
+
+	@Test
+	public void testCollectorsUsingSameProviderShareMetadata() {
+		MetadataHolderProvider provider = MetadataHolderProvider
+				.usingMetadataStorage(metadataStorage);
+		DataRecordLinkCollectorImp collector = DataRecordLinkCollectorImp
+				.usingMetadataHolderProvider(provider);
+		DataRecordLinkCollectorImp otherCollector = DataRecordLinkCollectorImp
+				.usingMetadataHolderProvider(provider);
+		DataGroup dataGroup = new DataGroupSpy("bush");
+
+		collector.collectLinks("bush", dataGroup, "recordType", "recordId");
+		otherCollector.collectLinks("bush", dataGroup, "recordType", "recordId");
+
+		assertSame(collector.getMetadataHolderProvider(), provider);
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+	}
+
+	@Test
+	public void testRefreshMetadataPublishesNewVersion() {
+		DataRecordLinkCollectorImp collectorImp = (DataRecordLinkCollectorImp) linkCollector;
+		collectorImp.collectLinks("bush", new DataGroupSpy("bush"), "recordType", "recordId");
+
+		collectorImp.refreshMetadata();
+
+		assertEquals(collectorImp.getMetadataHolderProvider().getCurrentVersion(), 2);
+	}
+
+	@Test
+	public void testCollectLinksUsingRecordTypeMetadataCache() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+		DataRecordLinkCollectorImp collector = DataRecordLinkCollectorImp
+				.usingRecordTypeMetadataCache(cache);
+		DataGroup dataGroup = new DataGroupSpy("bush");
+
+		collector.collectLinks("bush", dataGroup, "recordType", "recordId");
+		collector.collectLinks("bush", dataGroup, "recordType", "recordId");
+
+		assertSame(collector.getRecordTypeMetadataCache(), cache);
+		assertTrue(cache.isKept("bush"));
+		assertEquals(cache.getNumberOfCreatedSubsets(), 1);
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+	}
+
+	@Test
+	public void testRefreshMetadataEvictsRecordTypeMetadata() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+		DataRecordLinkCollectorImp collector = DataRecordLinkCollectorImp
+				.usingRecordTypeMetadataCache(cache);
+		collector.collectLinks("bush", new DataGroupSpy("bush"), "recordType", "recordId");
+
+		collector.refreshMetadata();
+
+		assertEquals(cache.getNumberOfKeptSubsets(), 0);
+	}
+
 	private void assertCorrectFactoredGroupsAndAtomics() {
 		List<String> namesOfGroupsFactored = dataGroupFactory.usedNameInDatas;
 		assertEquals(namesOfGroupsFactored.size(), 3);
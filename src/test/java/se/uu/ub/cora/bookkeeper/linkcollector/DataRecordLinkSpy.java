@@ -39,7 +39,11 @@ public class DataRecordLinkSpy implements DataGroup, DataRecordLink {
 	public Map<String, DataGroup> dataGroups = new HashMap<>();
 	public Map<String, List<DataGroup>> dataGroupsAsList = new HashMap<>();
 
+	public List<Action> actions = new ArrayList<>();
+	public Map<String, String> attributes = new HashMap<>();
+
 	public String nameInData;
+	public String repeatId;
 	public String recordType;
 	public String recordId;
 
@@ -55,14 +59,12 @@ public class DataRecordLinkSpy implements DataGroup, DataRecordLink {
 
 	@Override
 	public void addAction(Action action) {
-		// TODO Auto-generated method stub
-
+		actions.add(action);
 	}
 
 	@Override
 	public List<Action> getActions() {
-		// TODO Auto-generated method stub
-		return null;
+		return actions;
 	}
 
 	@Override
@@ -72,8 +74,7 @@ public class DataRecordLinkSpy implements DataGroup, DataRecordLink {
 
 	@Override
 	public String getRepeatId() {
-		// TODO Auto-generated method stub
-		return null;
+		return repeatId;
 	}
 
 	@Override
@@ -112,8 +113,7 @@ public class DataRecordLinkSpy implements DataGroup, DataRecordLink {
 
 	@Override
 	public List<DataElement> getChildren() {
-		// TODO Auto-generated method stub
-		return null;
+		return children;
 	}
 
 	@Override
@@ -126,14 +126,12 @@ public class DataRecordLinkSpy implements DataGroup, DataRecordLink {
 
 	@Override
 	public void setRepeatId(String repeatId) {
-		// TODO Auto-generated method stub
-
+		this.repeatId = repeatId;
 	}
 
 	@Override
 	public void addAttributeByIdWithValue(String id, String value) {
-		// TODO Auto-generated method stub
-
+		attributes.put(id, value);
 	}
 
 	@Override
@@ -175,6 +173,6 @@ public class DataRecordLinkSpy implements DataGroup, DataRecordLink {
 
 	@Override
 	public Map<String, String> getAttributes() {
-		return null;
+		return attributes;
 	}
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
+
+public class ChildReferenceDispatchTableTest {
+	private MetadataHolder metadataHolder;
+	private MetadataGroup bookGroup;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataHolder = new MetadataHolder();
+		addItem("bookItem", "book");
+		addItem("articleItem", "article");
+		ItemCollection typeCollection = new ItemCollection("typeCollection", "type", "t", "d");
+		typeCollection.addItemReference("bookItem");
+		typeCollection.addItemReference("articleItem");
+		metadataHolder.addMetadataElement(typeCollection);
+		metadataHolder.addMetadataElement(
+				new CollectionVariable("typeVar", "type", "t", "d", "typeCollection"));
+		CollectionVariable bookTypeVar = new CollectionVariable("bookTypeVar", "type", "t", "d",
+				"typeCollection");
+		bookTypeVar.setFinalValue("book");
+		metadataHolder.addMetadataElement(bookTypeVar);
+
+		addTextVariable("titleTextVar", "title");
+		addGroupWithAttribute("anyTypeGroup", "part", "typeVar");
+		addGroupWithAttribute("bookTypeGroup", "part", "bookTypeVar");
+
+		bookGroup = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("bookGroup", "book",
+				"t", "d");
+		addChild(bookGroup, "titleTextVar");
+		addChild(bookGroup, "anyTypeGroup");
+		addChild(bookGroup, "bookTypeGroup");
+		addChild(bookGroup, "titleTextVar");
+		metadataHolder.addMetadataElement(bookGroup);
+		metadataHolder.resolveReferences();
+	}
+
+	private void addItem(String id, String nameInData) {
+		metadataHolder.addMetadataElement(new CollectionItem(id, nameInData, "t", "d"));
+	}
+
+	private void addTextVariable(String id, String nameInData) {
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id, nameInData, "t",
+						"d", ".*"));
+	}
+
+	private void addGroupWithAttribute(String id, String nameInData, String attributeId) {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id,
+				nameInData, "t", "d");
+		group.addAttributeReference(attributeId);
+		metadataHolder.addMetadataElement(group);
+	}
+
+	private void addChild(MetadataGroup group, String childId) {
+		group.addChildReference(MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+						childId, 0, 1));
+	}
+
+	private DataGroup createPartWithType(String type) {
+		DataGroup part = new DataGroupSpy("part");
+		part.addAttributeByIdWithValue("type", type);
+		return part;
+	}
+
+	@Test
+	public void testTableIsBuiltWhenReferencesAreResolved() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+		assertSame(metadataHolder.getChildDispatchTable(bookGroup), dispatchTable);
+		assertEquals(dispatchTable.getChildReferences(), bookGroup.getChildReferences());
+		assertTrue(dispatchTable.getUnresolvedChildReferenceIds().isEmpty());
+	}
+
+	@Test
+	public void testReferencedElementsAreKeptInTable() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+
+		assertSame(dispatchTable.getReferencedElement(1),
+				metadataHolder.getMetadataElement("anyTypeGroup"));
+		assertEquals(dispatchTable.getIndexOfReferencedElement(1),
+				metadataHolder.getIndexOfMetadataElement("anyTypeGroup"));
+		assertEquals(dispatchTable.getAttributesForReferencedElement(1),
+				List.of(metadataHolder.getMetadataElement("typeVar")));
+		assertTrue(dispatchTable.getAttributesForReferencedElement(0).isEmpty());
+	}
+
+	@Test
+	public void testChildTableIsFoundByIndexOfReferencedElement() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+
+		ChildReferenceDispatchTable childDispatchTable = metadataHolder
+				.getChildDispatchTableByIndex(dispatchTable.getIndexOfReferencedElement(1));
+
+		assertSame(childDispatchTable, metadataHolder.getChildDispatchTable(
+				(MetadataGroup) metadataHolder.getMetadataElement("anyTypeGroup")));
+	}
+
+	@Test(expectedExceptions = DataMissingException.class, expectedExceptionsMessageRegExp = ""
+			+ "No MetadataGroup with index: \\d+ in metadataHolder")
+	public void testChildTableByIndexOfNotGroupThrows() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+
+		metadataHolder.getChildDispatchTableByIndex(dispatchTable.getIndexOfReferencedElement(0));
+	}
+
+	@Test
+	public void testMissingReferencedElementIsNotKeptInTable() {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("someGroup",
+				"some", "t", "d");
+		addChild(group, "notInHolder");
+		metadataHolder.addMetadataElement(group);
+
+		ChildReferenceDispatchTable dispatchTable = metadataHolder.getChildDispatchTable(group);
+
+		assertNull(dispatchTable.getReferencedElement(0));
+		assertEquals(dispatchTable.getIndexOfReferencedElement(0), -1);
+	}
+
+	@Test(expectedExceptions = DataMissingException.class, expectedExceptionsMessageRegExp = ""
+			+ "Attribute for element with id: missingAttributeGroup is not a CollectionVariable "
+			+ "in metadataHolder")
+	public void testMissingAttributeOfReferencedElementThrows() {
+		addGroupWithAttribute("missingAttributeGroup", "part", "notInHolder");
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("someGroup",
+				"some", "t", "d");
+		addChild(group, "missingAttributeGroup");
+		metadataHolder.addMetadataElement(group);
+
+		metadataHolder.getChildDispatchTable(group).getAttributesForReferencedElement(0);
+	}
+
+	@Test
+	public void testTableIsKeptForGroupAddedAfterReferencesAreResolved() {
+		MetadataGroup group = createGroupWithTitle();
+		metadataHolder.addMetadataElement(group);
+
+		ChildReferenceDispatchTable dispatchTable = metadataHolder.getChildDispatchTable(group);
+		assertSame(metadataHolder.getChildDispatchTable(group), dispatchTable);
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				new DataAtomicSpy("title", "someTitle")), List.of(0));
+	}
+
+	private MetadataGroup createGroupWithTitle() {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("someGroup",
+				"some", "t", "d");
+		addChild(group, "titleTextVar");
+		return group;
+	}
+
+	@Test
+	public void testTableIsBuiltForEachCallWhenReferencesAreNotResolved() {
+		MetadataHolder notResolvedHolder = new MetadataHolder();
+		notResolvedHolder.addMetadataElement(metadataHolder.getMetadataElement("titleTextVar"));
+		MetadataGroup group = createGroupWithTitle();
+		notResolvedHolder.addMetadataElement(group);
+
+		assertFalse(notResolvedHolder.getMetadataReferenceResolver().isResolved(group));
+		ChildReferenceDispatchTable dispatchTable = notResolvedHolder.getChildDispatchTable(group);
+		assertNotSame(notResolvedHolder.getChildDispatchTable(group), dispatchTable);
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				new DataAtomicSpy("title", "someTitle")), List.of(0));
+	}
+
+	@Test
+	public void testDataWithoutAttributesIsDispatchedToAllReferencesWithSameNameInData() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				new DataAtomicSpy("title", "someTitle")), List.of(0, 3));
+		assertTrue(dispatchTable
+				.getIndexesOfChildReferencesSpecifyingData(new DataAtomicSpy("other", "value"))
+				.isEmpty());
+	}
+
+	@Test
+	public void testFinalValueAndCollectionValuesAreBothDispatched() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				createPartWithType("book")), List.of(1, 2));
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				createPartWithType("article")), List.of(1));
+		assertTrue(dispatchTable
+				.getIndexesOfChildReferencesSpecifyingData(createPartWithType("unknown"))
+				.isEmpty());
+	}
+
+	@Test
+	public void testMissingAndExtraAttributesAreNotDispatched() {
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+		assertTrue(dispatchTable.getIndexesOfChildReferencesSpecifyingData(new DataGroupSpy("part"))
+				.isEmpty());
+		DataGroup partWithExtraAttribute = createPartWithType("book");
+		partWithExtraAttribute.addAttributeByIdWithValue("extra", "value");
+		assertTrue(dispatchTable.getIndexesOfChildReferencesSpecifyingData(partWithExtraAttribute)
+				.isEmpty());
+	}
+
+	@Test
+	public void testDispatchChildrenKeepsDataOrder() {
+		DataElement title1 = new DataAtomicSpy("title", "first");
+		DataElement bookPart = createPartWithType("book");
+		DataElement title2 = new DataAtomicSpy("title", "second");
+		DataElement unknown = new DataAtomicSpy("unknown", "value");
+
+		List<List<DataElement>> dispatchedChildren = metadataHolder
+				.getChildDispatchTable(bookGroup)
+				.dispatchChildren(List.of(title1, bookPart, unknown, title2));
+
+		assertEquals(dispatchedChildren.size(), 4);
+		assertEquals(dispatchedChildren.get(0), List.of(title1, title2));
+		assertEquals(dispatchedChildren.get(1), List.of(bookPart));
+		assertEquals(dispatchedChildren.get(2), List.of(bookPart));
+		assertEquals(dispatchedChildren.get(3), List.of(title1, title2));
+	}
+
+	@Test
+	public void testDispatchChildIndexes() {
+		List<DataElement> dataChildren = List.of(new DataAtomicSpy("title", "first"),
+				createPartWithType("book"), new DataAtomicSpy("unknown", "value"),
+				new DataAtomicSpy("title", "second"));
+
+		List<List<Integer>> dispatchedIndexes = metadataHolder.getChildDispatchTable(bookGroup)
+				.dispatchChildIndexes(dataChildren);
+
+		assertEquals(dispatchedIndexes,
+				List.of(List.of(0, 3), List.of(1), List.of(1), List.of(0, 3)));
+	}
+
+	@Test
+	public void testUnresolvedReferencesAreReportedAndNeverDispatched() {
+		addChild(bookGroup, "missingTextVar");
+		addGroupWithAttribute("missingAttributeGroup", "part", "missingVar");
+		addChild(bookGroup, "missingAttributeGroup");
+		metadataHolder.resolveReferences();
+
+		ChildReferenceDispatchTable dispatchTable = metadataHolder
+				.getChildDispatchTable(bookGroup);
+		assertEquals(dispatchTable.getUnresolvedChildReferenceIds(),
+				List.of("missingTextVar", "missingVar"));
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				createPartWithType("book")), List.of(1, 2));
+	}
+
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "missingVar not found in metadataHolder")
+	public void testDispatchChildrenWithUnresolvedReferencesThrowsError() {
+		addGroupWithAttribute("missingAttributeGroup", "part", "missingVar");
+		addChild(bookGroup, "missingAttributeGroup");
+		metadataHolder.resolveReferences();
+
+		metadataHolder.getChildDispatchTable(bookGroup)
+				.dispatchChildren(List.of(new DataAtomicSpy("title", "first")));
+	}
+
+	@Test
+	public void testDispatchNoChildrenWithUnresolvedReferences() {
+		addChild(bookGroup, "missingTextVar");
+		metadataHolder.resolveReferences();
+
+		List<List<DataElement>> dispatchedChildren = metadataHolder
+				.getChildDispatchTable(bookGroup).dispatchChildren(List.of());
+
+		assertEquals(dispatchedChildren.size(), 5);
+		assertTrue(dispatchedChildren.get(4).isEmpty());
+	}
+
+	@Test
+	public void testTableIsRebuiltWhenAttributeOfChildIsRemovedUsingUpdater() {
+		MetadataHolderProvider metadataHolderProvider = MetadataHolderProvider
+				.usingMetadataHolderSupplier(() -> metadataHolder);
+		MetadataHolderUpdater.usingMetadataHolderProvider(metadataHolderProvider)
+				.removeMetadataElement("bookTypeVar");
+
+		ChildReferenceDispatchTable dispatchTable = metadataHolderProvider.getMetadataHolder()
+				.getChildDispatchTable(bookGroup);
+		assertEquals(dispatchTable.getIndexesOfChildReferencesSpecifyingData(
+				createPartWithType("book")), List.of(1));
+	}
+}
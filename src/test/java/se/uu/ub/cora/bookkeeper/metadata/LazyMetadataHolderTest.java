@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataConversionException;
+
+public class LazyMetadataHolderTest {
+	private MetadataStorageSpy metadataStorage;
+	private LazyMetadataHolder metadataHolder;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.addTextVariable("otherTextVar");
+		metadataStorage.addGroup("someGroup", "textVar");
+		metadataHolder = LazyMetadataHolder.usingDataGroups(metadataStorage.metadataElements);
+	}
+
+	@Test
+	public void testNoElementIsConvertedBeforeRequested() {
+		assertEquals(metadataHolder.getNumberOfElements(), 3);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 0);
+	}
+
+	@Test
+	public void testElementIsConvertedOnFirstRequest() {
+		MetadataElement textVar = metadataHolder.getMetadataElement("textVar");
+
+		assertTrue(textVar instanceof TextVariable);
+		assertEquals(textVar.getId(), "textVar");
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 1);
+	}
+
+	@Test
+	public void testElementIsOnlyConvertedOnce() {
+		MetadataElement textVar = metadataHolder.getMetadataElement("textVar");
+
+		assertSame(metadataHolder.getMetadataElement("textVar"), textVar);
+	}
+
+	@Test
+	public void testGetMissingElement() {
+		assertNull(metadataHolder.getMetadataElement("notFound"));
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 0);
+	}
+
+	@Test
+	public void testReferencedElementIsConvertedOnLookup() {
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+
+		MetadataElement referencedElement = metadataHolder
+				.getReferencedElement(group.getChildReferences().get(0));
+
+		assertSame(referencedElement, metadataHolder.getMetadataElement("textVar"));
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 2);
+	}
+
+	@Test
+	public void testGetAllMetadataElementsConvertsAllElements() {
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 3);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 3);
+	}
+
+	@Test
+	public void testAddMetadataElementReplacesUnconvertedElement() {
+		TextVariable textVar = TextVariable.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(
+				"textVar", "textVar", "textVarText", "textVarDefText", "^a$");
+
+		metadataHolder.addMetadataElement(textVar);
+
+		assertSame(metadataHolder.getMetadataElement("textVar"), textVar);
+		assertEquals(metadataHolder.getNumberOfElements(), 3);
+	}
+
+	@Test
+	public void testRemoveMetadataElement() {
+		MetadataElement textVar = metadataHolder.getMetadataElement("textVar");
+
+		MetadataElement removed = metadataHolder.removeMetadataElement("textVar");
+
+		assertSame(removed, textVar);
+		assertNull(metadataHolder.getMetadataElement("textVar"));
+		assertEquals(metadataHolder.getNumberOfElements(), 2);
+	}
+
+	@Test
+	public void testRemoveUnconvertedElementDoesNotConvertIt() {
+		MetadataElement removed = metadataHolder.removeMetadataElement("textVar");
+
+		assertNull(removed);
+		assertNull(metadataHolder.getMetadataElement("textVar"));
+		assertEquals(metadataHolder.getIndexOfMetadataElement("textVar"), -1);
+		assertEquals(metadataHolder.getNumberOfElements(), 2);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 0);
+	}
+
+	@Test
+	public void testChildDispatchTableIsKeptForConvertedGroup() {
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+
+		ChildReferenceDispatchTable dispatchTable = metadataHolder.getChildDispatchTable(group);
+
+		assertSame(metadataHolder.getChildDispatchTable(group), dispatchTable);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 2);
+	}
+
+	@Test
+	public void testChildDispatchTableIsForgottenWhenChildIsReplaced() {
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		ChildReferenceDispatchTable dispatchTable = metadataHolder.getChildDispatchTable(group);
+
+		metadataHolder.addMetadataElement(metadataHolder.getMetadataElement("textVar"));
+
+		assertNotSame(metadataHolder.getChildDispatchTable(group), dispatchTable);
+	}
+
+	@Test
+	public void testChildDispatchTableIsKeptWhenUnrelatedElementIsReplaced() {
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		ChildReferenceDispatchTable dispatchTable = metadataHolder.getChildDispatchTable(group);
+
+		metadataHolder.addMetadataElement(metadataHolder.getMetadataElement("otherTextVar"));
+		metadataHolder.removeMetadataElement("otherTextVar");
+
+		assertSame(metadataHolder.getChildDispatchTable(group), dispatchTable);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 2);
+	}
+
+	@Test
+	public void testUsageIndexIsCompleteAndUpdated() {
+		metadataHolder.getMetadataElement("someGroup");
+
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 3);
+		assertEquals(usageIndex.getParentGroups("textVar").size(), 1);
+		metadataHolder.removeMetadataElement("someGroup");
+		assertTrue(usageIndex.getParentGroups("textVar").isEmpty());
+	}
+
+	@Test
+	public void testResolveReferencesConvertsNoElements() {
+		metadataHolder.resolveReferences();
+
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 0);
+		assertTrue(metadataHolder.getMetadataReferenceResolver().keepsResolvedReferences());
+	}
+
+	@Test
+	public void testFailedConversionIsReportedWhenRequested() {
+		metadataStorage.addElementWithUnknownType("unknownTypeElement");
+		metadataHolder = LazyMetadataHolder.usingDataGroups(metadataStorage.metadataElements);
+
+		try {
+			metadataHolder.getMetadataElement("unknownTypeElement");
+			fail("DataConversionException should have been thrown");
+		} catch (DataConversionException e) {
+			assertTrue(e.getMessage()
+					.startsWith("Conversion of metadata failed for element unknownTypeElement: "));
+			assertTrue(e.getCause() instanceof RuntimeException);
+		}
+		assertEquals(metadataHolder.getNumberOfElements(), 4);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 0);
+	}
+
+	@Test(expectedExceptions = DataConversionException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata element without id can not be added")
+	public void testElementWithoutIdIsNotAccepted() {
+		metadataStorage.metadataElements.add(new DataGroupSpy("metadata"));
+		LazyMetadataHolder.usingDataGroups(metadataStorage.metadataElements);
+	}
+
+	@Test
+	public void testIndexesAreAssignedWhenDataGroupsAreRegistered() {
+		assertEquals(metadataHolder.getIndexOfMetadataElement("textVar"), 0);
+		assertEquals(metadataHolder.getIndexOfMetadataElement("otherTextVar"), 1);
+		assertEquals(metadataHolder.getIndexOfMetadataElement("someGroup"), 2);
+		assertEquals(metadataHolder.getIndexOfMetadataElement("notFound"), -1);
+		assertEquals(metadataHolder.getNumberOfIndexes(), 3);
+		assertEquals(metadataHolder.getNumberOfConvertedElements(), 0);
+	}
+
+	@Test
+	public void testGetByIndexConvertsElement() {
+		MetadataElement metadataElement = metadataHolder.getMetadataElementByIndex(1);
+
+		assertEquals(metadataElement.getId(), "otherTextVar");
+		assertSame(metadataHolder.getMetadataElement("otherTextVar"), metadataElement);
+		assertNull(metadataHolder.getMetadataElementByIndex(-1));
+		assertNull(metadataHolder.getMetadataElementByIndex(3));
+	}
+
+	@Test
+	public void testRemovedIndexIsReusedForNewId() {
+		metadataHolder.removeMetadataElement("otherTextVar");
+		TextVariable newTextVar = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("newTextVar",
+						"newTextVar", "someTextId", "someDefTextId", ".*");
+
+		metadataHolder.addMetadataElement(newTextVar);
+
+		assertEquals(metadataHolder.getIndexOfMetadataElement("otherTextVar"), -1);
+		assertEquals(metadataHolder.getIndexOfMetadataElement("newTextVar"), 1);
+		assertSame(metadataHolder.getMetadataElementByIndex(1), newTextVar);
+		assertEquals(metadataHolder.getNumberOfIndexes(), 3);
+	}
+
+	@Test
+	public void testConcurrentRequestsConvertElementOnce() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<MetadataElement>> requests = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				requests.add(() -> metadataHolder.getMetadataElement("someGroup"));
+			}
+			List<Future<MetadataElement>> results = executor.invokeAll(requests);
+
+			MetadataElement first = results.get(0).get();
+			for (Future<MetadataElement> result : results) {
+				assertSame(result.get(), first);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCreateLazyMetadataHolderFromPopulator() {
+		MetadataHolderFromStoragePopulator populator = new MetadataHolderFromStoragePopulator();
+
+		LazyMetadataHolder lazyHolder = populator
+				.createLazyMetadataHolderFromMetadataStorage(metadataStorage);
+		lazyHolder.getMetadataElement("textVar");
+		lazyHolder.getMetadataElement("someGroup");
+
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+		assertEquals(lazyHolder.getNumberOfConvertedElements(), 2);
+		assertTrue(populator.getStringPool().getNumberOfPooledStrings() > 0);
+	}
+}
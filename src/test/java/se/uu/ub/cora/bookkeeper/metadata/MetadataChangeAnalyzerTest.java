@@ -0,0 +1,305 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.data.DataGroup;
+
+public class MetadataChangeAnalyzerTest {
+	private MetadataHolder previousHolder;
+	private MetadataHolder currentHolder;
+
+	@BeforeMethod
+	public void setUp() {
+		previousHolder = new MetadataHolder();
+		addMetadata(previousHolder);
+		previousHolder.resolveReferences();
+		currentHolder = new MetadataHolder();
+		addMetadata(currentHolder);
+	}
+
+	private void addMetadata(MetadataHolder metadataHolder) {
+		metadataHolder.addMetadataElement(createTextVariable("titleTextVar", ".*"));
+		metadataHolder.addMetadataElement(createTextVariable("nameTextVar", ".*"));
+		metadataHolder.addMetadataElement(createRecordLink("authorLink", "person"));
+		MetadataGroup bookGroup = createGroup("bookGroup");
+		addChild(bookGroup, "titleTextVar", 1).addCollectIndexTerm(
+				CollectTerm.createCollectTermWithTypeAndId("index", "titleCollectTerm"));
+		addChild(bookGroup, "authorLink", 1);
+		metadataHolder.addMetadataElement(bookGroup);
+		MetadataGroup articleGroup = createGroup("articleGroup");
+		addChild(articleGroup, "titleTextVar", 1);
+		metadataHolder.addMetadataElement(articleGroup);
+		MetadataGroup personGroup = createGroup("personGroup");
+		addChild(personGroup, "nameTextVar", 1);
+		metadataHolder.addMetadataElement(personGroup);
+	}
+
+	private TextVariable createTextVariable(String id, String regularExpression) {
+		return TextVariable.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id,
+				id + "Name", id + "Text", id + "DefText", regularExpression);
+	}
+
+	private RecordLink createRecordLink(String id, String linkedRecordType) {
+		return RecordLink.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType(id,
+				id + "Name", id + "Text", id + "DefText", linkedRecordType);
+	}
+
+	private MetadataGroup createGroup(String id) {
+		return MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id, id + "Name",
+				id + "Text", id + "DefText");
+	}
+
+	private MetadataChildReference addChild(MetadataGroup group, String childId, int repeatMax) {
+		MetadataChildReference childReference = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+						childId, 1, repeatMax);
+		group.addChildReference(childReference);
+		return childReference;
+	}
+
+	private MetadataChangeReport analyze() {
+		return MetadataChangeAnalyzer
+				.usingPreviousAndCurrentMetadataHolder(previousHolder, currentHolder).analyze();
+	}
+
+	@Test
+	public void testInit() {
+		MetadataChangeAnalyzer analyzer = MetadataChangeAnalyzer
+				.usingPreviousAndCurrentMetadataHolder(previousHolder, currentHolder);
+
+		assertSame(analyzer.getPreviousMetadataHolder(), previousHolder);
+		assertSame(analyzer.getCurrentMetadataHolder(), currentHolder);
+	}
+
+	@Test
+	public void testNoChanges() {
+		MetadataChangeReport report = analyze();
+
+		assertFalse(report.hasChanges());
+		assertTrue(report.getIdsWithChangedValidation().isEmpty());
+		assertTrue(report.getIdsWithChangedCollectTerms().isEmpty());
+		assertTrue(report.getIdsWithChangedRecordLinks().isEmpty());
+	}
+
+	@Test
+	public void testChangedTextIdIsNotReported() {
+		currentHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("titleTextVar",
+						"titleTextVarName", "otherText", "otherDefText", ".*"));
+
+		assertFalse(analyze().hasChanges());
+	}
+
+	@Test
+	public void testChangedRegularExpressionChangesValidationOfUsingGroups() {
+		currentHolder.addMetadataElement(createTextVariable("titleTextVar", "^[a-z]*$"));
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getChangedElementIds(), Set.of("titleTextVar"));
+		assertEquals(report.getIdsWithChangedValidation(),
+				Set.of("titleTextVar", "bookGroup", "articleGroup"));
+		assertTrue(report.hasChangedValidation("bookGroup"));
+		assertFalse(report.hasChangedValidation("personGroup"));
+		assertFalse(report.hasChangedCollectTerms("bookGroup"));
+		assertFalse(report.hasChangedRecordLinks("bookGroup"));
+	}
+
+	@Test
+	public void testChangedRepeatMaxChangesValidationOfGroup() {
+		MetadataGroup personGroup = createGroup("personGroup");
+		addChild(personGroup, "nameTextVar", 2);
+		currentHolder.addMetadataElement(personGroup);
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getIdsWithChangedValidation(), Set.of("personGroup"));
+		assertTrue(report.getIdsWithChangedCollectTerms().isEmpty());
+		assertTrue(report.getIdsWithChangedRecordLinks().isEmpty());
+	}
+
+	@Test
+	public void testChangedCollectTermChangesCollectTermsOfGroup() {
+		MetadataGroup articleGroup = createGroup("articleGroup");
+		addChild(articleGroup, "titleTextVar", 1).addCollectIndexTerm(
+				CollectTerm.createCollectTermWithTypeAndId("index", "titleCollectTerm"));
+		currentHolder.addMetadataElement(articleGroup);
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getIdsWithChangedCollectTerms(), Set.of("articleGroup"));
+		assertTrue(report.hasChangedCollectTerms("articleGroup"));
+		assertFalse(report.hasChangedValidation("articleGroup"));
+		assertFalse(report.hasChangedRecordLinks("articleGroup"));
+	}
+
+	@Test
+	public void testChangedLinkedRecordTypeChangesLinksAndValidation() {
+		currentHolder.addMetadataElement(createRecordLink("authorLink", "organisation"));
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getIdsWithChangedRecordLinks(), Set.of("authorLink", "bookGroup"));
+		assertEquals(report.getIdsWithChangedValidation(), Set.of("authorLink", "bookGroup"));
+		assertTrue(report.getIdsWithChangedCollectTerms().isEmpty());
+	}
+
+	@Test
+	public void testChangedLinkedPathChangesLinks() {
+		RecordLink authorLink = createRecordLink("authorLink", "person");
+		DataGroup linkedPath = new DataGroupSpy("linkedPath");
+		linkedPath.addChild(new DataAtomicSpy("nameInData", "name"));
+		authorLink.setLinkedPath(linkedPath);
+		currentHolder.addMetadataElement(authorLink);
+
+		assertTrue(analyze().hasChangedRecordLinks("bookGroup"));
+	}
+
+	@Test
+	public void testRemovedElementIsReportedForGroupsPreviouslyUsingIt() {
+		MetadataGroup bookGroup = createGroup("bookGroup");
+		addChild(bookGroup, "titleTextVar", 1).addCollectIndexTerm(
+				CollectTerm.createCollectTermWithTypeAndId("index", "titleCollectTerm"));
+		currentHolder.addMetadataElement(bookGroup);
+		currentHolder.removeMetadataElement("authorLink");
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getChangedElementIds(), Set.of("authorLink", "bookGroup"));
+		assertEquals(report.getIdsWithChangedRecordLinks(), Set.of("authorLink", "bookGroup"));
+		assertTrue(report.hasChangedValidation("bookGroup"));
+		assertTrue(report.hasChangedCollectTerms("bookGroup"));
+	}
+
+	@Test
+	public void testAddedElementIsReportedForGroupsUsingIt() {
+		MetadataGroup personGroup = createGroup("personGroup");
+		addChild(personGroup, "nameTextVar", 1);
+		addChild(personGroup, "birthDateTextVar", 1);
+		previousHolder.addMetadataElement(personGroup);
+		currentHolder.addMetadataElement(personGroup);
+		currentHolder.addMetadataElement(createTextVariable("birthDateTextVar", ".*"));
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getChangedElementIds(), Set.of("birthDateTextVar"));
+		assertEquals(report.getIdsWithChangedValidation(),
+				Set.of("birthDateTextVar", "personGroup"));
+	}
+
+	@Test
+	public void testChangesArePropagatedThroughNestedGroups() {
+		MetadataGroup recordGroup = createGroup("recordGroup");
+		addChild(recordGroup, "bookGroup", 1);
+		previousHolder.addMetadataElement(recordGroup);
+		currentHolder.addMetadataElement(recordGroup);
+		currentHolder.addMetadataElement(createRecordLink("authorLink", "organisation"));
+
+		MetadataChangeReport report = analyze();
+
+		assertTrue(report.hasChangedRecordLinks("recordGroup"));
+		assertTrue(report.hasChangedValidation("recordGroup"));
+		assertFalse(report.hasChangedCollectTerms("recordGroup"));
+	}
+
+	@Test
+	public void testChangedNameInDataChangesCollectTermsAndLinks() {
+		currentHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("titleTextVar",
+						"otherName", "titleTextVarText", "titleTextVarDefText", ".*"));
+
+		MetadataChangeReport report = analyze();
+
+		assertTrue(report.hasChangedCollectTerms("bookGroup"));
+		assertTrue(report.hasChangedRecordLinks("bookGroup"));
+		assertTrue(report.hasChangedRecordLinks("articleGroup"));
+		assertFalse(report.hasChangedCollectTerms("personGroup"));
+	}
+
+	@Test
+	public void testChangedFinalValueOfAttributeChangesCollectTermsAndLinks() {
+		addTypedGroupWithAttributeCollection(previousHolder, "book", "bookItem", "articleItem");
+		addTypedGroupWithAttributeCollection(currentHolder, "article", "bookItem",
+				"articleItem");
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getChangedElementIds(), Set.of("typeCollectionVar"));
+		assertEquals(report.getIdsWithChangedCollectTerms(),
+				Set.of("typeCollectionVar", "typedGroup", "typedRecordGroup"));
+		assertEquals(report.getIdsWithChangedRecordLinks(),
+				Set.of("typeCollectionVar", "typedGroup", "typedRecordGroup"));
+		assertTrue(report.hasChangedValidation("typedRecordGroup"));
+	}
+
+	@Test
+	public void testChangedItemsOfAttributeCollectionChangesCollectTermsAndLinks() {
+		addTypedGroupWithAttributeCollection(previousHolder, "book", "bookItem", "articleItem");
+		addTypedGroupWithAttributeCollection(currentHolder, "book", "bookItem");
+
+		MetadataChangeReport report = analyze();
+
+		assertEquals(report.getChangedElementIds(), Set.of("articleItem", "typeCollection"));
+		assertEquals(report.getIdsWithChangedCollectTerms(), Set.of("articleItem",
+				"typeCollection", "typeCollectionVar", "typedGroup", "typedRecordGroup"));
+		assertTrue(report.hasChangedRecordLinks("typedRecordGroup"));
+		assertFalse(report.hasChangedCollectTerms("bookGroup"));
+	}
+
+	private void addTypedGroupWithAttributeCollection(MetadataHolder metadataHolder,
+			String finalValue, String... itemIds) {
+		ItemCollection typeCollection = new ItemCollection("typeCollection",
+				"typeCollectionName", "typeCollectionText", "typeCollectionDefText");
+		for (String itemId : itemIds) {
+			metadataHolder.addMetadataElement(
+					new CollectionItem(itemId, itemId + "Name", itemId + "Text",
+							itemId + "DefText"));
+			typeCollection.addItemReference(itemId);
+		}
+		metadataHolder.addMetadataElement(typeCollection);
+		CollectionVariable typeCollectionVar = new CollectionVariable("typeCollectionVar",
+				"type", "typeCollectionVarText", "typeCollectionVarDefText", "typeCollection");
+		typeCollectionVar.setFinalValue(finalValue);
+		metadataHolder.addMetadataElement(typeCollectionVar);
+		MetadataGroup typedGroup = createGroup("typedGroup");
+		typedGroup.addAttributeReference("typeCollectionVar");
+		addChild(typedGroup, "titleTextVar", 1);
+		metadataHolder.addMetadataElement(typedGroup);
+		MetadataGroup typedRecordGroup = createGroup("typedRecordGroup");
+		addChild(typedRecordGroup, "typedGroup", 1);
+		metadataHolder.addMetadataElement(typedRecordGroup);
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testReportIsUnmodifiable() {
+		analyze().getIdsWithChangedValidation().add("someId");
+	}
+}
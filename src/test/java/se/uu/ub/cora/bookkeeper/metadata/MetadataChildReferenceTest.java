@@ -21,6 +21,7 @@ package se.uu.ub.cora.bookkeeper.metadata;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import org.testng.annotations.BeforeMethod;
@@ -111,4 +112,84 @@ public class MetadataChildReferenceTest {
 		assertEquals(metadataChildReference.getCollectTerms().get(0).id, "somePermissionTerm");
 		assertEquals(metadataChildReference.getCollectTerms().get(0).type, "permission");
 	}
+
+	@Test
+	public void testNoCollectTermsUsesSharedEmptyList() {
+		MetadataChildReference otherChildReference = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadataGroup",
+						"otherChildReference", 1, 1);
+
+		assertTrue(metadataChildReference.getCollectTerms().isEmpty());
+		assertSame(metadataChildReference.getCollectTerms(),
+				otherChildReference.getCollectTerms());
+	}
+
+	@Test
+	public void testAddCollectTerms() {
+		CollectTerm indexTerm = CollectTerm.createCollectTermWithTypeAndId("index",
+				"someIndexTerm");
+		CollectTerm permissionTerm = CollectTerm.createCollectTermWithTypeAndId("permission",
+				"somePermissionTerm");
+
+		metadataChildReference.addCollectIndexTerm(indexTerm);
+		metadataChildReference.addCollectIndexTerm(permissionTerm);
+
+		assertEquals(metadataChildReference.getCollectTerms().size(), 2);
+		assertSame(metadataChildReference.getCollectTerms().get(0), indexTerm);
+		assertSame(metadataChildReference.getCollectTerms().get(1), permissionTerm);
+	}
+
+	@Test
+	public void testSecretAndReadOnlyAreIndependent() {
+		metadataChildReference.setSecret(true);
+		metadataChildReference.setReadOnly(true);
+		metadataChildReference.setSecret(false);
+
+		assertFalse(metadataChildReference.isSecret());
+		assertTrue(metadataChildReference.isReadOnly());
+
+		metadataChildReference.setReadOnly(false);
+		assertFalse(metadataChildReference.isReadOnly());
+	}
+
+	@Test
+	public void testKeysAreKeptIndependently() {
+		metadataChildReference.setRepeatMinKey("someRepeatMinKey");
+		metadataChildReference.setSecretKey("someSecretKey");
+		metadataChildReference.setReadOnlyKey("someReadOnlyKey");
+		metadataChildReference.setSecretKey("");
+
+		assertEquals(metadataChildReference.getRepeatMinKey(), "someRepeatMinKey");
+		assertEquals(metadataChildReference.getSecretKey(), "");
+		assertEquals(metadataChildReference.getReadOnlyKey(), "someReadOnlyKey");
+	}
+
+	@Test
+	public void testEstimatedSizeOfReferenceWithoutKeysAndCollectTerms() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("group",
+				"group", "groupText", "groupDefText");
+		metadataHolder.addMetadataElement(group);
+		addChildReferencesToGroup(group, 1);
+		long sizeWithOneReference = MetadataHolderStatistics.fromMetadataHolder(metadataHolder)
+				.getEstimatedTotalSize();
+
+		addChildReferencesToGroup(group, 100);
+		long sizeWithManyReferences = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder).getEstimatedTotalSize();
+
+		long growthOfReferenceList = ObjectSizeEstimator.estimateSizeOfArrayList(101)
+				- ObjectSizeEstimator.estimateSizeOfArrayList(1);
+		assertEquals(ObjectSizeEstimator.estimateShallowSize(MetadataChildReference.class), 40);
+		assertEquals(sizeWithManyReferences - sizeWithOneReference,
+				100 * 40 + growthOfReferenceList);
+	}
+
+	private void addChildReferencesToGroup(MetadataGroup group, int numOfReferences) {
+		for (int i = 0; i < numOfReferences; i++) {
+			group.addChildReference(MetadataChildReference
+					.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+							"child", 0, 1));
+		}
+	}
 }
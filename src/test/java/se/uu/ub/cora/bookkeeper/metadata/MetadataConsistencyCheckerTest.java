@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+
+public class MetadataConsistencyCheckerTest {
+	private MetadataHolder metadataHolder;
+	private MetadataConsistencyChecker checker;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(new CollectionItem("bookItem", "book", "t", "d"));
+		ItemCollection typeCollection = new ItemCollection("typeCollection", "type", "t", "d");
+		typeCollection.addItemReference("bookItem");
+		metadataHolder.addMetadataElement(typeCollection);
+		metadataHolder.addMetadataElement(
+				new CollectionVariable("typeVar", "type", "t", "d", "typeCollection"));
+		addTextVariable("titleTextVar");
+		MetadataGroup bookGroup = addGroup("bookGroup", "titleTextVar");
+		bookGroup.addAttributeReference("typeVar");
+		addGroup("recordGroup", "bookGroup");
+		checker = MetadataConsistencyChecker.usingMetadataHolder(metadataHolder);
+	}
+
+	private void addTextVariable(String id) {
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id, id, "t", "d",
+						".*"));
+	}
+
+	private MetadataGroup addGroup(String id, String... childIds) {
+		return addGroupWithRepeatMin(0, id, childIds);
+	}
+
+	private MetadataGroup addGroupWithRepeatMin(int repeatMin, String id, String... childIds) {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id, id, "t",
+				"d");
+		for (String childId : childIds) {
+			group.addChildReference(MetadataChildReference
+					.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+							childId, repeatMin, 1));
+		}
+		metadataHolder.addMetadataElement(group);
+		return group;
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(checker.getMetadataHolder(), metadataHolder);
+	}
+
+	@Test
+	public void testConsistentMetadata() {
+		assertTrue(checker.findInconsistencies().isEmpty());
+		checker.ensureConsistency();
+	}
+
+	@Test
+	public void testMissingChild() {
+		addGroup("otherGroup", "missingTextVar");
+
+		assertEquals(checker.findInconsistencies(), List.of(
+				"Element otherGroup has child reference to missing element missingTextVar"));
+	}
+
+	@Test
+	public void testMissingAndWrongTypeAttribute() {
+		MetadataGroup otherGroup = addGroup("otherGroup");
+		otherGroup.addAttributeReference("missingVar");
+		otherGroup.addAttributeReference("titleTextVar");
+
+		assertEquals(checker.findInconsistencies(), List.of(
+				"Element otherGroup has attribute reference to missing element missingVar",
+				"Element otherGroup has attribute reference to element titleTextVar"
+						+ " which is not a CollectionVariable"));
+	}
+
+	@Test
+	public void testMissingAndWrongTypeRefCollection() {
+		metadataHolder.addMetadataElement(
+				new CollectionVariable("missingCollectionVar", "type", "t", "d", "missing"));
+		metadataHolder.addMetadataElement(
+				new CollectionVariable("wrongCollectionVar", "type", "t", "d", "bookItem"));
+
+		assertEquals(checker.findInconsistencies(), List.of(
+				"Element missingCollectionVar has referred collection to missing element missing",
+				"Element wrongCollectionVar has referred collection to element bookItem"
+						+ " which is not a ItemCollection"));
+	}
+
+	@Test
+	public void testMissingAndWrongTypeCollectionItem() {
+		ItemCollection otherCollection = new ItemCollection("otherCollection", "type", "t", "d");
+		otherCollection.addItemReference("missingItem");
+		otherCollection.addItemReference("typeVar");
+		metadataHolder.addMetadataElement(otherCollection);
+
+		assertEquals(checker.findInconsistencies(), List.of(
+				"Element otherCollection has collection item to missing element missingItem",
+				"Element otherCollection has collection item to element typeVar"
+						+ " which is not a CollectionItem"));
+	}
+
+	@Test
+	public void testRecordLinkWithoutLinkedPathRequiresOnlyLinkedRecordIdVariable() {
+		metadataHolder.addMetadataElement(RecordLink
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType("someLink",
+						"someLink", "t", "d", "someRecordType"));
+		assertEquals(checker.findInconsistencies(), List.of("Element someLink has validation"
+				+ " variable to missing element linkedRecordIdTextVar"));
+
+		addTextVariable("linkedRecordIdTextVar");
+
+		assertTrue(checker.findInconsistencies().isEmpty());
+	}
+
+	@Test
+	public void testRecordLinkWithLinkedPathRequiresValidationVariables() {
+		RecordLink recordLink = RecordLink
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType("someLink",
+						"someLink", "t", "d", "someRecordType");
+		recordLink.setLinkedPath(new DataGroupSpy("linkedPath"));
+		metadataHolder.addMetadataElement(recordLink);
+		addTextVariable("linkedRecordIdTextVar");
+		addGroup("linkedRepeatIdTextVar");
+
+		assertEquals(checker.findInconsistencies(), List.of("Element someLink has validation"
+				+ " variable to element linkedRepeatIdTextVar which is not a TextVariable"));
+	}
+
+	@Test
+	public void testResourceLinkRequiresValidationVariables() {
+		metadataHolder.addMetadataElement(ResourceLink
+				.withIdAndNameInDataAndTextIdAndDefTextId("someResourceLink", "link", "t", "d"));
+		addTextVariable("streamIdTextVar");
+		addTextVariable("filenameTextVar");
+		addTextVariable("filesizeTextVar");
+
+		assertEquals(checker.findInconsistencies(), List.of("Element someResourceLink has"
+				+ " validation variable to missing element mimeTypeTextVar"));
+	}
+
+	@Test
+	public void testRecursiveGroups() {
+		addGroupWithRepeatMin(1, "firstGroup", "secondGroup");
+		addGroupWithRepeatMin(1, "secondGroup", "titleTextVar", "thirdGroup");
+		addGroupWithRepeatMin(1, "thirdGroup", "firstGroup");
+
+		assertEquals(checker.findInconsistencies(), List.of(
+				"Group firstGroup is recursive: firstGroup -> secondGroup -> thirdGroup"
+						+ " -> firstGroup"));
+	}
+
+	@Test
+	public void testRecursionThroughOptionalChildReferenceIsAllowed() {
+		addGroupWithRepeatMin(1, "firstGroup", "secondGroup");
+		addGroupWithRepeatMin(1, "secondGroup", "titleTextVar");
+		addGroup("thirdGroup", "firstGroup");
+		((MetadataGroup) metadataHolder.getMetadataElement("secondGroup"))
+				.addChildReference(MetadataChildReference
+						.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+								"thirdGroup", 0, 1));
+		addGroup("selfRecursiveGroup", "selfRecursiveGroup");
+
+		assertTrue(checker.findInconsistencies().isEmpty());
+	}
+
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata is inconsistent: Element otherGroup has child reference to missing element"
+			+ " missingTextVar, Element otherGroup has child reference to missing element"
+			+ " otherMissingTextVar")
+	public void testEnsureConsistencyThrowsWithAllInconsistencies() {
+		addGroup("otherGroup", "missingTextVar", "otherMissingTextVar");
+
+		checker.ensureConsistency();
+	}
+
+	@Test
+	public void testUnusedItemCollections() {
+		metadataHolder.addMetadataElement(
+				new ItemCollection("unusedCollection", "unused", "t", "d"));
+
+		assertEquals(checker.findUnusedItemCollections(), Set.of("unusedCollection"));
+		assertTrue(checker.findInconsistencies().isEmpty());
+	}
+
+	@Test
+	public void testPopulatorChecksConsistency() {
+		MetadataStorageSpy metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("someTextVar");
+		metadataStorage.addGroup("someGroup", "someTextVar");
+		MetadataHolderFromStoragePopulator populator = new MetadataHolderFromStoragePopulator();
+
+		MetadataHolder populatedHolder = populator
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		assertTrue(populatedHolder.getMetadataElement("someGroup") instanceof MetadataGroup);
+	}
+
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata is inconsistent: Element someGroup has child reference to missing element"
+			+ " missingTextVar")
+	public void testPopulatorFailsForInconsistentMetadata() {
+		MetadataStorageSpy metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addGroup("someGroup", "missingTextVar");
+
+		new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+	}
+}
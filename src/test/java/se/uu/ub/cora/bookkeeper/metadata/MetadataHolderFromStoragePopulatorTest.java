@@ -0,0 +1,367 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataConversionException;
+
+public class MetadataHolderFromStoragePopulatorTest {
+	private MetadataStorageSpy metadataStorage;
+	private ExecutorService executor;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataStorage = new MetadataStorageSpy();
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testPopulateSequentially() {
+		addManyTextVariablesAndAGroup();
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		assertAllElementsArePopulatedAndResolved(metadataHolder);
+	}
+
+	private void addManyTextVariablesAndAGroup() {
+		for (int i = 0; i < 250; i++) {
+			metadataStorage.addTextVariable("textVar" + i);
+		}
+		metadataStorage.addGroup("someGroup", "textVar0", "textVar249");
+	}
+
+	private void assertAllElementsArePopulatedAndResolved(MetadataHolder metadataHolder) {
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 251);
+		assertTrue(metadataHolder.getMetadataElement("textVar249") instanceof TextVariable);
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		assertSame(metadataHolder.getReferencedElement(group.getChildReferences().get(1)),
+				metadataHolder.getMetadataElement("textVar249"));
+	}
+
+	@Test
+	public void testPopulateUsingExecutor() {
+		addManyTextVariablesAndAGroup();
+
+		MetadataHolder metadataHolder = MetadataHolderFromStoragePopulator.usingExecutor(executor)
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		assertAllElementsArePopulatedAndResolved(metadataHolder);
+	}
+
+	@Test
+	public void testPopulateUsingExecutorNoElements() {
+		MetadataHolder metadataHolder = MetadataHolderFromStoragePopulator.usingExecutor(executor)
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 0);
+	}
+
+	@Test(expectedExceptions = DataConversionException.class, expectedExceptionsMessageRegExp = ""
+			+ "No converter found for DataGroup with type:unknownType")
+	public void testPopulateSequentiallyConversionFails() {
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.addElementWithUnknownType("unknownId");
+
+		new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+	}
+
+	@Test
+	public void testPopulateUsingExecutorAllFailuresAreReported() {
+		addManyTextVariablesAndAGroup();
+		metadataStorage.addElementWithUnknownType("unknownId1");
+		metadataStorage.metadataElements.add(0, new DataGroupSpy("metadata"));
+		metadataStorage.addElementWithUnknownType("unknownId2");
+
+		try {
+			MetadataHolderFromStoragePopulator.usingExecutor(executor)
+					.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+			fail("DataConversionException should have been thrown");
+		} catch (DataConversionException e) {
+			assertEquals(e.getMessage(), "Conversion of metadata failed for 3 element(s): "
+					+ "element without id (No converter found for DataGroup with type:null) "
+					+ "unknownId1 (No converter found for DataGroup with type:unknownType) "
+					+ "unknownId2 (No converter found for DataGroup with type:unknownType)");
+			assertTrue(e.getCause() != null);
+			assertEquals(e.getSuppressed().length, 2);
+		}
+	}
+
+	@Test
+	public void testEqualStringsAreSharedBetweenElements() {
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.addGroupWithOptionalChildren("textVar", "textVar");
+		metadataStorage.addGroup("someGroup", "textVar");
+		MetadataHolderFromStoragePopulator populator = new MetadataHolderFromStoragePopulator();
+
+		MetadataHolder metadataHolder = populator
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		assertSame(group.getChildReferences().get(0).getLinkedRecordId(),
+				metadataHolder.getMetadataElement("textVar").getId());
+		assertTrue(populator.getStringPool().getEstimatedBytesSaved() > 0);
+	}
+
+	@Test
+	public void testEachPopulationUsesANewStringPool() {
+		metadataStorage.addTextVariable("textVar");
+		MetadataHolderFromStoragePopulator populator = new MetadataHolderFromStoragePopulator();
+
+		populator.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+		MetadataStringPool firstPool = populator.getStringPool();
+		int stringsInFirstPool = firstPool.getNumberOfPooledStrings();
+		populator.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		assertNotSame(populator.getStringPool(), firstPool);
+		assertEquals(firstPool.getNumberOfPooledStrings(), stringsInFirstPool);
+		assertEquals(populator.getStringPool().getNumberOfPooledStrings(), stringsInFirstPool);
+	}
+
+	@Test(expectedExceptions = MetadataConsistencyException.class)
+	public void testPopulatedHolderIsCheckedForConsistency() {
+		metadataStorage.addGroup("someGroup", "textVarThatDoesNotExist");
+
+		new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+	}
+
+	@Test
+	public void testPopulateWithoutConsistencyCheck() {
+		metadataStorage.addGroup("someGroup", "textVarThatDoesNotExist");
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.withoutConsistencyCheck()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+
+		assertTrue(metadataHolder.getMetadataElement("someGroup") instanceof MetadataGroup);
+	}
+
+	@Test
+	public void testPopulateOnlyElementsReachableFromRootIds() {
+		metadataStorage.addGroup("rootGroup", "childGroup", "textVar");
+		metadataStorage.addGroup("childGroup", "childTextVar");
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.addTextVariable("childTextVar");
+		metadataStorage.addGroup("unusedGroup", "unusedTextVar");
+		metadataStorage.addTextVariable("unusedTextVar");
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("rootGroup"));
+
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 4);
+		assertTrue(metadataHolder.getMetadataElement("childTextVar") instanceof TextVariable);
+		assertNull(metadataHolder.getMetadataElement("unusedGroup"));
+		assertNull(metadataHolder.getMetadataElement("unusedTextVar"));
+		MetadataGroup rootGroup = (MetadataGroup) metadataHolder.getMetadataElement("rootGroup");
+		assertSame(metadataHolder.getReferencedElement(rootGroup.getChildReferences().get(0)),
+				metadataHolder.getMetadataElement("childGroup"));
+	}
+
+	@Test
+	public void testPopulateReachableFromSeveralRootIdsAndRecursiveGroup() {
+		metadataStorage.addGroupWithOptionalChildren("recursiveGroup", "recursiveGroup",
+				"textVar");
+		metadataStorage.addGroup("otherRootGroup", "textVar");
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.addTextVariable("unusedTextVar");
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("recursiveGroup", "otherRootGroup"));
+
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 3);
+		assertNull(metadataHolder.getMetadataElement("unusedTextVar"));
+	}
+
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata is inconsistent: Group recursiveGroup is recursive: "
+			+ "recursiveGroup -> recursiveGroup")
+	public void testRecursiveGroupReachableFromRootIdsIsReported() {
+		metadataStorage.addGroup("recursiveGroup", "recursiveGroup", "textVar");
+		metadataStorage.addTextVariable("textVar");
+
+		new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("recursiveGroup"));
+	}
+
+	@Test
+	public void testTextVariablesUsedByRecordLinkValidationAreReachable() {
+		metadataStorage.addGroup("rootGroup", "someLink");
+		metadataStorage.addRecordLink("someLink", "someRecordType");
+		metadataStorage.addTextVariable(RecordLink.LINKED_RECORD_ID_TEXT_VAR_ID);
+		metadataStorage.addTextVariable(RecordLink.LINKED_REPEAT_ID_TEXT_VAR_ID);
+		metadataStorage.addTextVariable(ResourceLink.STREAM_ID_TEXT_VAR_ID);
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("rootGroup"));
+
+		assertTrue(metadataHolder.getMetadataElement("someLink") instanceof RecordLink);
+		assertTrue(metadataHolder.getMetadataElement(
+				RecordLink.LINKED_RECORD_ID_TEXT_VAR_ID) != null);
+		assertNull(metadataHolder.getMetadataElement(RecordLink.LINKED_REPEAT_ID_TEXT_VAR_ID));
+		assertNull(metadataHolder
+				.getMetadataElement(ResourceLink.STREAM_ID_TEXT_VAR_ID));
+	}
+
+	@Test
+	public void testLinkedRepeatIdTextVariableIsReachableFromRecordLinkWithLinkedPath() {
+		metadataStorage.addGroup("rootGroup", "someLink");
+		metadataStorage.addRecordLinkWithLinkedPath("someLink", "someRecordType");
+		metadataStorage.addTextVariable(RecordLink.LINKED_RECORD_ID_TEXT_VAR_ID);
+		metadataStorage.addTextVariable(RecordLink.LINKED_REPEAT_ID_TEXT_VAR_ID);
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("rootGroup"));
+
+		assertTrue(metadataHolder.getMetadataElement(
+				RecordLink.LINKED_REPEAT_ID_TEXT_VAR_ID) != null);
+	}
+
+	@Test
+	public void testMissingReachableIdsAreReported() {
+		metadataStorage.addGroup("rootGroup", "missingTextVar", "someLink");
+		metadataStorage.addRecordLinkWithLinkedPath("someLink", "someRecordType");
+		metadataStorage.addTextVariable(RecordLink.LINKED_RECORD_ID_TEXT_VAR_ID);
+
+		try {
+			new MetadataHolderFromStoragePopulator()
+					.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+							metadataStorage, List.of("rootGroup", "notFound"));
+			fail("MetadataConsistencyException should have been thrown");
+		} catch (MetadataConsistencyException e) {
+			assertEquals(e.getMessage(), "Metadata is inconsistent: reachable elements missing"
+					+ " in storage: linkedRepeatIdTextVar, missingTextVar, notFound");
+		}
+	}
+
+	@Test
+	public void testPopulateReachableUsingExecutor() {
+		addManyTextVariablesAndAGroup();
+
+		MetadataHolder metadataHolder = MetadataHolderFromStoragePopulator
+				.usingExecutor(executor)
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("someGroup"));
+
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 3);
+	}
+
+	@Test(expectedExceptions = DataConversionException.class, expectedExceptionsMessageRegExp = ""
+			+ "No converter found for DataGroup with type:unknownType")
+	public void testFailedConversionOfReachableElementIsThrownSequentially() {
+		metadataStorage.addGroup("rootGroup", "unknownTypeElement");
+		metadataStorage.addElementWithUnknownType("unknownTypeElement");
+		metadataStorage.addElementWithUnknownType("unusedUnknownTypeElement");
+
+		new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("rootGroup"));
+	}
+
+	@Test
+	public void testFailedConversionOfReachableElementIsReportedUsingExecutor() {
+		metadataStorage.addGroup("rootGroup", "unknownTypeElement");
+		metadataStorage.addElementWithUnknownType("unknownTypeElement");
+		metadataStorage.addElementWithUnknownType("unusedUnknownTypeElement");
+
+		try {
+			MetadataHolderFromStoragePopulator.usingExecutor(executor)
+					.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+							metadataStorage, List.of("rootGroup"));
+			fail("DataConversionException should have been thrown");
+		} catch (DataConversionException e) {
+			assertEquals(e.getMessage(), "Conversion of metadata failed for 1 element(s): "
+					+ "unknownTypeElement "
+					+ "(No converter found for DataGroup with type:unknownType)");
+		}
+	}
+
+	@Test
+	public void testElementWithIdUnknownIsReachable() {
+		metadataStorage.addGroup("rootGroup", "unknown");
+		metadataStorage.addTextVariable("unknown");
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("rootGroup"));
+
+		assertTrue(metadataHolder.getMetadataElement("unknown") instanceof TextVariable);
+	}
+
+	@Test(expectedExceptions = DataMissingException.class, expectedExceptionsMessageRegExp = ""
+			+ "No id found in recordInfo for metadata element")
+	public void testElementWithoutIdIsThrownSequentiallyWhenPopulatingReachable() {
+		metadataStorage.addGroup("rootGroup", "textVar");
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.metadataElements.add(new DataGroupSpy("metadata"));
+
+		new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+						metadataStorage, List.of("rootGroup"));
+	}
+
+	@Test
+	public void testElementWithoutIdIsReportedUsingExecutorWhenPopulatingReachable() {
+		metadataStorage.addGroup("rootGroup", "unknownTypeElement");
+		metadataStorage.metadataElements.add(new DataGroupSpy("metadata"));
+		metadataStorage.addElementWithUnknownType("unknownTypeElement");
+
+		try {
+			MetadataHolderFromStoragePopulator.usingExecutor(executor)
+					.createAndPopulateMetadataHolderFromMetadataStorageReachableFromIds(
+							metadataStorage, List.of("rootGroup"));
+			fail("DataConversionException should have been thrown");
+		} catch (DataConversionException e) {
+			assertEquals(e.getMessage(), "Conversion of metadata failed for 2 element(s): "
+					+ "element without id (No id found in recordInfo for metadata element) "
+					+ "unknownTypeElement "
+					+ "(No converter found for DataGroup with type:unknownType)");
+			assertTrue(e.getCause() instanceof DataMissingException);
+			assertEquals(e.getSuppressed().length, 1);
+		}
+	}
+}
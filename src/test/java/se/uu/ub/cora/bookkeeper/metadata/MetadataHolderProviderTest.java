@@ -0,0 +1,278 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MetadataHolderProviderTest {
+	private List<MetadataHolder> createdMetadataHolders;
+	private MetadataHolderProvider provider;
+
+	@BeforeMethod
+	public void setUp() {
+		createdMetadataHolders = new ArrayList<>();
+		provider = MetadataHolderProvider.usingMetadataHolderSupplier(this::createMetadataHolder);
+	}
+
+	private MetadataHolder createMetadataHolder() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		createdMetadataHolders.add(metadataHolder);
+		return metadataHolder;
+	}
+
+	@Test
+	public void testNoMetadataHolderIsCreatedBeforeRequested() {
+		assertEquals(provider.getCurrentVersion(), 0);
+		assertEquals(createdMetadataHolders.size(), 0);
+	}
+
+	@Test
+	public void testUpdatePublishesHolderCreatedFromCurrent() {
+		MetadataHolder current = provider.getMetadataHolder();
+		MetadataHolder updatedHolder = new MetadataHolder();
+		List<MetadataHolder> updatedFrom = new ArrayList<>();
+
+		VersionedMetadataHolder published = provider.update(metadataHolder -> {
+			updatedFrom.add(metadataHolder);
+			return updatedHolder;
+		});
+
+		assertEquals(updatedFrom, List.of(current));
+		assertEquals(published.getVersion(), 2);
+		assertSame(provider.getMetadataHolder(), updatedHolder);
+	}
+
+	@Test
+	public void testFirstVersionIsCreatedOnFirstRequest() {
+		VersionedMetadataHolder current = provider.getCurrent();
+
+		assertEquals(current.getVersion(), 1);
+		assertSame(current.getMetadataHolder(), createdMetadataHolders.get(0));
+		assertSame(provider.getCurrent(), current);
+		assertSame(provider.getMetadataHolder(), current.getMetadataHolder());
+		assertEquals(createdMetadataHolders.size(), 1);
+	}
+
+	@Test
+	public void testReloadPublishesNextVersion() {
+		VersionedMetadataHolder first = provider.getCurrent();
+
+		VersionedMetadataHolder reloaded = provider.reload();
+
+		assertEquals(reloaded.getVersion(), 2);
+		assertSame(provider.getCurrent(), reloaded);
+		assertNotSame(reloaded.getMetadataHolder(), first.getMetadataHolder());
+		assertEquals(provider.getCurrentVersion(), 2);
+	}
+
+	@Test
+	public void testReaderKeepsVersionItStartedWith() {
+		VersionedMetadataHolder inProgress = provider.getCurrent();
+		MetadataHolder metadataHolderInProgress = inProgress.getMetadataHolder();
+
+		provider.reload();
+
+		assertEquals(inProgress.getVersion(), 1);
+		assertSame(inProgress.getMetadataHolder(), metadataHolderInProgress);
+	}
+
+	@Test
+	public void testPublish() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+
+		VersionedMetadataHolder published = provider.publish(metadataHolder);
+
+		assertEquals(published.getVersion(), 1);
+		assertSame(provider.getMetadataHolder(), metadataHolder);
+		assertEquals(createdMetadataHolders.size(), 0);
+	}
+
+	@Test
+	public void testFailedReloadKeepsCurrentVersion() {
+		VersionedMetadataHolder first = provider.getCurrent();
+		MetadataHolderProvider failingProvider = MetadataHolderProvider
+				.usingMetadataHolderSupplier(() -> {
+					throw new RuntimeException("reload failed");
+				});
+		failingProvider.publish(first.getMetadataHolder());
+
+		try {
+			failingProvider.reload();
+			fail("RuntimeException should have been thrown");
+		} catch (RuntimeException e) {
+			assertEquals(e.getMessage(), "reload failed");
+		}
+		assertEquals(failingProvider.getCurrentVersion(), 1);
+		assertSame(failingProvider.getMetadataHolder(), first.getMetadataHolder());
+	}
+
+	@Test
+	public void testReloadInBackground() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			provider.getCurrent();
+			CompletableFuture<VersionedMetadataHolder> reload = provider
+					.reloadInBackground(executor);
+
+			VersionedMetadataHolder reloaded = reload.join();
+			assertEquals(reloaded.getVersion(), 2);
+			assertSame(provider.getCurrent(), reloaded);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailedReloadInBackgroundCompletesExceptionally() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			MetadataHolderProvider failingProvider = MetadataHolderProvider
+					.usingMetadataHolderSupplier(() -> {
+						throw new RuntimeException("reload failed");
+					});
+			try {
+				failingProvider.reloadInBackground(executor).join();
+				fail("CompletionException should have been thrown");
+			} catch (CompletionException e) {
+				assertEquals(e.getCause().getMessage(), "reload failed");
+			}
+			assertEquals(failingProvider.getCurrentVersion(), 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testUsingMetadataStorage() {
+		MetadataStorageSpy metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("textVar");
+		MetadataHolderProvider storageProvider = MetadataHolderProvider
+				.usingMetadataStorage(metadataStorage);
+
+		assertTrue(storageProvider.getMetadataHolder()
+				.getMetadataElement("textVar") instanceof TextVariable);
+		storageProvider.reload();
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 2);
+	}
+
+	@Test
+	public void testConcurrentFirstRequestsCreateOneVersion() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<CompletableFuture<VersionedMetadataHolder>> requests = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				requests.add(CompletableFuture.supplyAsync(provider::getCurrent, executor));
+			}
+			for (CompletableFuture<VersionedMetadataHolder> request : requests) {
+				assertEquals(request.join().getVersion(), 1);
+			}
+			assertEquals(createdMetadataHolders.size(), 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testConcurrentReloadsAreSerialized() throws Exception {
+		CountDownLatch firstReloadStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirstReload = new CountDownLatch(1);
+		AtomicInteger numberOfReloadsInProgress = new AtomicInteger();
+		AtomicInteger maxNumberOfReloadsInProgress = new AtomicInteger();
+		List<MetadataHolder> builtMetadataHolders = new CopyOnWriteArrayList<>();
+		MetadataHolderProvider blockingProvider = MetadataHolderProvider
+				.usingMetadataHolderSupplier(() -> {
+					int inProgress = numberOfReloadsInProgress.incrementAndGet();
+					maxNumberOfReloadsInProgress.accumulateAndGet(inProgress, Math::max);
+					if (builtMetadataHolders.isEmpty()) {
+						firstReloadStarted.countDown();
+						awaitUninterruptibly(releaseFirstReload);
+					}
+					MetadataHolder metadataHolder = new MetadataHolder();
+					builtMetadataHolders.add(metadataHolder);
+					numberOfReloadsInProgress.decrementAndGet();
+					return metadataHolder;
+				});
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			CompletableFuture<VersionedMetadataHolder> firstReload = blockingProvider
+					.reloadInBackground(executor);
+			assertTrue(firstReloadStarted.await(10, TimeUnit.SECONDS));
+			CompletableFuture<VersionedMetadataHolder> secondReload = blockingProvider
+					.reloadInBackground(executor);
+			Thread.sleep(50);
+			releaseFirstReload.countDown();
+
+			assertEquals(firstReload.get(10, TimeUnit.SECONDS).getVersion(), 1);
+			assertEquals(secondReload.get(10, TimeUnit.SECONDS).getVersion(), 2);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(maxNumberOfReloadsInProgress.get(), 1);
+		assertSame(blockingProvider.getMetadataHolder(), builtMetadataHolders.get(1));
+	}
+
+	@Test
+	public void testConcurrentPublishesAndReloadsGetDifferentVersions() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<CompletableFuture<VersionedMetadataHolder>> updates = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				updates.add(CompletableFuture
+						.supplyAsync(() -> provider.publish(new MetadataHolder()), executor));
+				updates.add(CompletableFuture.supplyAsync(provider::reload, executor));
+			}
+			Set<Long> versions = new HashSet<>();
+			for (CompletableFuture<VersionedMetadataHolder> update : updates) {
+				versions.add(update.get(10, TimeUnit.SECONDS).getVersion());
+			}
+			assertEquals(versions.size(), 128);
+			assertEquals(provider.getCurrentVersion(), 128);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void awaitUninterruptibly(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MetadataHolderStatisticsTest {
+	private MetadataHolder metadataHolder;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataHolder = new MetadataHolder();
+		addTextVariable("textVar", "^.*$");
+		addTextVariable("otherTextVar", "^.*$");
+		addTextVariable("numberTextVar", "^[0-9]+$");
+		addItemCollection("smallCollection", "firstItem");
+		addItemCollection("largeCollection", "firstItem", "secondItem", "thirdItem");
+		metadataHolder.addMetadataElement(
+				new CollectionItem("firstItem", "first", "firstText", "firstDefText"));
+		addGroup("childGroup", "textVar");
+		addGroup("parentGroup", "childGroup", "otherTextVar", "numberTextVar");
+		addGroup("rootGroup", "parentGroup");
+		metadataHolder.resolveReferences();
+	}
+
+	private void addTextVariable(String id, String regularExpression) {
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id, id,
+						id + "Text", id + "DefText", regularExpression));
+	}
+
+	private void addItemCollection(String id, String... itemIds) {
+		ItemCollection itemCollection = new ItemCollection(id, id, id + "Text", id + "DefText");
+		for (String itemId : itemIds) {
+			itemCollection.addItemReference(itemId);
+		}
+		metadataHolder.addMetadataElement(itemCollection);
+	}
+
+	private MetadataGroup addGroup(String id, String... childIds) {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id, id,
+				id + "Text", id + "DefText");
+		for (String childId : childIds) {
+			MetadataChildReference childReference = MetadataChildReference
+					.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+							childId, 1, 1);
+			childReference.addCollectIndexTerm(
+					CollectTerm.createCollectTermWithTypeAndId("index", childId + "Term"));
+			group.addChildReference(childReference);
+		}
+		metadataHolder.addMetadataElement(group);
+		return group;
+	}
+
+	@Test
+	public void testNumberOfElementsPerType() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		assertEquals(statistics.getNumberOfElements(), 9);
+		Map<String, Integer> numOfElementsPerType = statistics.getNumberOfElementsPerType();
+		assertEquals(numOfElementsPerType.size(), 4);
+		assertEquals(numOfElementsPerType.get("TextVariable").intValue(), 3);
+		assertEquals(numOfElementsPerType.get("ItemCollection").intValue(), 2);
+		assertEquals(numOfElementsPerType.get("CollectionItem").intValue(), 1);
+		assertEquals(numOfElementsPerType.get("MetadataGroup").intValue(), 3);
+	}
+
+	@Test
+	public void testChildReferencesAndCollectTerms() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		assertEquals(statistics.getNumberOfChildReferences(), 5);
+		assertEquals(statistics.getNumberOfCollectTerms(), 5);
+	}
+
+	@Test
+	public void testEstimatedSizeOfCollectionItem() {
+		MetadataHolder holder = new MetadataHolder();
+		holder.addMetadataElement(new CollectionItem("item", "item", "itemText", "itemDefText"));
+
+		MetadataHolderStatistics statistics = MetadataHolderStatistics.fromMetadataHolder(holder);
+
+		long elementSize = ObjectSizeEstimator.estimateShallowSize(CollectionItem.class);
+		long stringsSize = ObjectSizeEstimator.estimateSizeOfString("item")
+				+ ObjectSizeEstimator.estimateSizeOfString("itemText")
+				+ ObjectSizeEstimator.estimateSizeOfString("itemDefText");
+		assertEquals(statistics.getEstimatedSizePerType().get("CollectionItem").longValue(),
+				elementSize + stringsSize);
+	}
+
+	@Test
+	public void testSharedStringIsCountedOnce() {
+		MetadataHolder holder = new MetadataHolder();
+		String sharedText = "sharedText";
+		holder.addMetadataElement(new CollectionItem("item1", "item1", sharedText, sharedText));
+		holder.addMetadataElement(new CollectionItem("item2", "item2", sharedText, sharedText));
+
+		MetadataHolderStatistics statistics = MetadataHolderStatistics.fromMetadataHolder(holder);
+
+		long elementSize = ObjectSizeEstimator.estimateShallowSize(CollectionItem.class);
+		long expectedSize = 2 * elementSize
+				+ 2 * ObjectSizeEstimator.estimateSizeOfString("item1")
+				+ ObjectSizeEstimator.estimateSizeOfString(sharedText);
+		assertEquals(statistics.getEstimatedTotalSize(), expectedSize);
+	}
+
+	@Test
+	public void testEstimatedSizesAreSummedForAllTypes() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		long sum = 0;
+		for (long size : statistics.getEstimatedSizePerType().values()) {
+			assertTrue(size > 0);
+			sum += size;
+		}
+		assertEquals(statistics.getEstimatedTotalSize(), sum);
+	}
+
+	@Test
+	public void testDeepestGroupNesting() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		assertEquals(statistics.getDeepestGroupNesting(), 3);
+		assertEquals(statistics.getDeepestGroupId(), "rootGroup");
+	}
+
+	@Test
+	public void testRecursiveGroupNesting() {
+		addGroup("recursiveGroup", "recursiveGroup", "rootGroup");
+		metadataHolder.resolveReferences();
+
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		assertEquals(statistics.getDeepestGroupNesting(), 4);
+		assertEquals(statistics.getDeepestGroupId(), "recursiveGroup");
+	}
+
+	@Test
+	public void testNoGroups() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(new MetadataHolder());
+
+		assertEquals(statistics.getNumberOfElements(), 0);
+		assertEquals(statistics.getDeepestGroupNesting(), 0);
+		assertNull(statistics.getDeepestGroupId());
+		assertTrue(statistics.getWidestGroups(5).isEmpty());
+	}
+
+	@Test
+	public void testWidestGroups() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		Map<String, Integer> widestGroups = statistics.getWidestGroups(2);
+
+		Iterator<Entry<String, Integer>> iterator = widestGroups.entrySet().iterator();
+		assertEntry(iterator.next(), "parentGroup", 3);
+		assertEntry(iterator.next(), "childGroup", 1);
+		assertEquals(widestGroups.size(), 2);
+	}
+
+	private void assertEntry(Entry<String, Integer> entry, String key, int value) {
+		assertEquals(entry.getKey(), key);
+		assertEquals(entry.getValue().intValue(), value);
+	}
+
+	@Test
+	public void testLargestItemCollections() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		Map<String, Integer> largestCollections = statistics.getLargestItemCollections(5);
+
+		Iterator<Entry<String, Integer>> iterator = largestCollections.entrySet().iterator();
+		assertEntry(iterator.next(), "largeCollection", 3);
+		assertEntry(iterator.next(), "smallCollection", 1);
+		assertEquals(largestCollections.size(), 2);
+	}
+
+	@Test
+	public void testRegularExpressions() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		assertEquals(statistics.getNumberOfTextVariables(), 3);
+		assertEquals(statistics.getNumberOfDistinctRegularExpressions(), 2);
+		Iterator<Entry<String, Integer>> iterator = statistics.getMostUsedRegularExpressions(1)
+				.entrySet().iterator();
+		assertEntry(iterator.next(), "^.*$", 2);
+		assertEquals(iterator.hasNext(), false);
+	}
+
+	@Test
+	public void testCreateReport() {
+		MetadataHolderStatistics statistics = MetadataHolderStatistics
+				.fromMetadataHolder(metadataHolder);
+
+		String report = statistics.createReport();
+
+		assertTrue(report.startsWith("Metadata: 9 elements, estimated "
+				+ statistics.getEstimatedTotalSize() + " bytes\n"));
+		assertTrue(report.contains("  TextVariable: 3 elements, estimated "
+				+ statistics.getEstimatedSizePerType().get("TextVariable") + " bytes\n"));
+		assertTrue(report.contains("Child references: 5, collect terms: 5\n"));
+		assertTrue(report.contains("Deepest group nesting: 3 (rootGroup)\n"));
+		assertTrue(report.endsWith("Text variables: 3, distinct regular expressions: 2\n"));
+	}
+}
@@ -20,6 +20,11 @@
 package se.uu.ub.cora.bookkeeper.metadata;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.NoSuchElementException;
 
 import org.testng.annotations.Test;
 
@@ -35,4 +40,125 @@ public class MetadataHolderTest {
 		assertEquals(metadataHolder.getMetadataElement("id"), textElement,
 				"textElement should be the same one that was entered");
 	}
+
+	@Test
+	public void testGetAllMetadataElements() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		MetadataElement textElement = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("id", "nameInData",
+						"textId", "defTextId", ".*");
+		metadataHolder.addMetadataElement(textElement);
+		MetadataElement groupElement = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(
+				"groupId", "nameInData", "textId", "defTextId");
+		metadataHolder.addMetadataElement(groupElement);
+
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+		assertTrue(metadataHolder.getAllMetadataElements().contains(textElement));
+		assertTrue(metadataHolder.getAllMetadataElements().contains(groupElement));
+	}
+
+	@Test
+	public void testRemoveMetadataElement() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		MetadataElement textElement = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("id", "nameInData",
+						"textId", "defTextId", ".*");
+		metadataHolder.addMetadataElement(textElement);
+
+		assertSame(metadataHolder.removeMetadataElement("id"), textElement);
+		assertNull(metadataHolder.getMetadataElement("id"));
+		assertNull(metadataHolder.removeMetadataElement("id"));
+	}
+
+	@Test
+	public void testIndexesAreAssignedInOrderOfAdding() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		MetadataElement first = createTextVariable("first");
+		MetadataElement second = createTextVariable("second");
+		metadataHolder.addMetadataElement(first);
+		metadataHolder.addMetadataElement(second);
+
+		assertEquals(metadataHolder.getIndexOfMetadataElement("first"), 0);
+		assertEquals(metadataHolder.getIndexOfMetadataElement("second"), 1);
+		assertSame(metadataHolder.getMetadataElementByIndex(0), first);
+		assertSame(metadataHolder.getMetadataElementByIndex(1), second);
+		assertEquals(metadataHolder.getNumberOfIndexes(), 2);
+	}
+
+	private MetadataElement createTextVariable(String id) {
+		return TextVariable.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(id,
+				"nameInData", "textId", "defTextId", ".*");
+	}
+
+	@Test
+	public void testIndexOfMissingElement() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+
+		assertEquals(metadataHolder.getIndexOfMetadataElement("notFound"), -1);
+		assertNull(metadataHolder.getMetadataElementByIndex(-1));
+		assertNull(metadataHolder.getMetadataElementByIndex(0));
+		assertEquals(metadataHolder.getNumberOfIndexes(), 0);
+	}
+
+	@Test
+	public void testReplacedElementKeepsIndex() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(createTextVariable("first"));
+		metadataHolder.addMetadataElement(createTextVariable("second"));
+		MetadataElement replacement = createTextVariable("first");
+
+		metadataHolder.addMetadataElement(replacement);
+
+		assertEquals(metadataHolder.getIndexOfMetadataElement("first"), 0);
+		assertSame(metadataHolder.getMetadataElementByIndex(0), replacement);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+	}
+
+	@Test
+	public void testRemovedElementKeepsIndexForSameId() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(createTextVariable("first"));
+		MetadataElement second = createTextVariable("second");
+		metadataHolder.addMetadataElement(second);
+
+		metadataHolder.removeMetadataElement("first");
+
+		assertEquals(metadataHolder.getIndexOfMetadataElement("first"), -1);
+		assertNull(metadataHolder.getMetadataElementByIndex(0));
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 1);
+		assertSame(metadataHolder.getAllMetadataElements().iterator().next(), second);
+
+		MetadataElement readded = createTextVariable("first");
+		metadataHolder.addMetadataElement(readded);
+		assertEquals(metadataHolder.getIndexOfMetadataElement("first"), 0);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+		assertEquals(metadataHolder.getNumberOfIndexes(), 2);
+	}
+
+	@Test
+	public void testRemovedIndexIsReusedForNewId() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(createTextVariable("first"));
+		metadataHolder.addMetadataElement(createTextVariable("second"));
+		metadataHolder.removeMetadataElement("first");
+		MetadataElement third = createTextVariable("third");
+
+		metadataHolder.addMetadataElement(third);
+
+		assertEquals(metadataHolder.getIndexOfMetadataElement("third"), 0);
+		assertSame(metadataHolder.getMetadataElementByIndex(0), third);
+		assertNull(metadataHolder.getMetadataElement("first"));
+		assertEquals(metadataHolder.getIndexOfMetadataElement("first"), -1);
+		assertEquals(metadataHolder.getNumberOfIndexes(), 2);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+	}
+
+	@Test(expectedExceptions = NoSuchElementException.class)
+	public void testIteratorThrowsWhenNoMoreElements() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(createTextVariable("first"));
+		metadataHolder.removeMetadataElement("first");
+
+		metadataHolder.getAllMetadataElements().iterator().next();
+	}
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.metadata.converter.DataConversionException;
+
+public class MetadataHolderUpdaterTest {
+	private MetadataStorageSpy metadataStorage;
+	private MetadataHolder publishedHolder;
+	private MetadataHolderProvider metadataHolderProvider;
+	private MetadataHolderUpdater updater;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("textVar");
+		metadataStorage.addTextVariable("otherTextVar");
+		metadataStorage.addGroup("childGroup", "textVar");
+		metadataStorage.addGroup("parentGroup", "childGroup", "otherTextVar");
+		metadataStorage.addGroup("unrelatedGroup", "otherTextVar");
+		publishedHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(metadataStorage);
+		metadataHolderProvider = MetadataHolderProvider
+				.usingMetadataHolderSupplier(() -> publishedHolder);
+		updater = MetadataHolderUpdater.usingMetadataHolderProvider(metadataHolderProvider);
+	}
+
+	private MetadataHolder getCurrentHolder() {
+		return metadataHolderProvider.getMetadataHolder();
+	}
+
+	@Test
+	public void testAddNewElement() {
+		Set<String> affectedIds = updater
+				.addOrReplaceMetadataElement(metadataStorage.createTextVariable("newTextVar"));
+
+		MetadataHolder metadataHolder = getCurrentHolder();
+		assertTrue(metadataHolder.getMetadataElement("newTextVar") instanceof TextVariable);
+		assertTrue(affectedIds.isEmpty());
+	}
+
+	@Test
+	public void testChangeIsPublishedAsNewVersionWithoutChangingPublishedHolder() {
+		assertSame(getCurrentHolder(), publishedHolder);
+
+		updater.addOrReplaceMetadataElement(metadataStorage.createTextVariable("newTextVar"));
+
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 2);
+		assertNotSame(getCurrentHolder(), publishedHolder);
+		assertNull(publishedHolder.getMetadataElement("newTextVar"));
+		assertEquals(publishedHolder.getAllMetadataElements().size(), 5);
+		assertSame(getCurrentHolder().getMetadataElement("textVar"),
+				publishedHolder.getMetadataElement("textVar"));
+	}
+
+	@Test
+	public void testAddNewGroupIsResolved() {
+		updater.addOrReplaceMetadataElement(
+				metadataStorage.createGroup("newGroup", "textVar", "childGroup"));
+
+		MetadataHolder metadataHolder = getCurrentHolder();
+		MetadataGroup newGroup = (MetadataGroup) metadataHolder.getMetadataElement("newGroup");
+		assertSame(metadataHolder.getReferencedElement(newGroup.getChildReferences().get(0)),
+				metadataHolder.getMetadataElement("textVar"));
+		assertSame(metadataHolder.getReferencedElement(newGroup.getChildReferences().get(1)),
+				metadataHolder.getMetadataElement("childGroup"));
+	}
+
+	@Test
+	public void testReplaceElementResolvesDependentsToNewElement() {
+		MetadataElement oldTextVar = publishedHolder.getMetadataElement("textVar");
+
+		updater.addOrReplaceMetadataElement(metadataStorage.createTextVariable("textVar"));
+
+		MetadataHolder metadataHolder = getCurrentHolder();
+		MetadataElement newTextVar = metadataHolder.getMetadataElement("textVar");
+		assertNotSame(newTextVar, oldTextVar);
+		MetadataGroup childGroup = (MetadataGroup) metadataHolder.getMetadataElement("childGroup");
+		assertSame(metadataHolder.getReferencedElement(childGroup.getChildReferences().get(0)),
+				newTextVar);
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+		assertFalse(resolver.isResolved(childGroup));
+		assertFalse(resolver.isResolved(metadataHolder.getMetadataElement("parentGroup")));
+		assertTrue(resolver.isResolved(metadataHolder.getMetadataElement("unrelatedGroup")));
+		assertTrue(publishedHolder.getMetadataReferenceResolver().isResolved(childGroup));
+	}
+
+	@Test
+	public void testReplaceElementReportsDirectAndIndirectDependents() {
+		Set<String> affectedIds = updater
+				.addOrReplaceMetadataElement(metadataStorage.createTextVariable("textVar"));
+
+		assertEquals(affectedIds, Set.of("childGroup", "parentGroup"));
+	}
+
+	@Test
+	public void testReplaceGroupResolvesNewChildReferences() {
+		updater.addOrReplaceMetadataElement(
+				metadataStorage.createGroup("childGroup", "otherTextVar"));
+
+		MetadataHolder metadataHolder = getCurrentHolder();
+		MetadataGroup childGroup = (MetadataGroup) metadataHolder.getMetadataElement("childGroup");
+		assertSame(metadataHolder.getReferencedElement(childGroup.getChildReferences().get(0)),
+				metadataHolder.getMetadataElement("otherTextVar"));
+		MetadataGroup parentGroup = (MetadataGroup) metadataHolder
+				.getMetadataElement("parentGroup");
+		assertSame(metadataHolder.getReferencedElement(parentGroup.getChildReferences().get(0)),
+				childGroup);
+	}
+
+	@Test
+	public void testRemoveElementLeavesReferencesToItMissing() {
+		Set<String> affectedIds = updater.removeMetadataElement("textVar");
+
+		MetadataHolder metadataHolder = getCurrentHolder();
+		assertNull(metadataHolder.getMetadataElement("textVar"));
+		MetadataGroup childGroup = (MetadataGroup) metadataHolder.getMetadataElement("childGroup");
+		MetadataChildReference childReference = childGroup.getChildReferences().get(0);
+		assertNull(metadataHolder.getReferencedElement(childReference));
+		assertEquals(affectedIds, Set.of("childGroup", "parentGroup"));
+		assertTrue(publishedHolder.getMetadataElement("textVar") instanceof TextVariable);
+	}
+
+	@Test
+	public void testRemoveMissingElement() {
+		Set<String> affectedIds = updater.removeMetadataElement("doesNotExist");
+
+		assertTrue(affectedIds.isEmpty());
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 1);
+		assertEquals(getCurrentHolder().getAllMetadataElements().size(), 5);
+	}
+
+	@Test
+	public void testConversionErrorLeavesHolderUnchanged() {
+		MetadataElement oldTextVar = publishedHolder.getMetadataElement("textVar");
+		try {
+			updater.addOrReplaceMetadataElement(metadataStorage
+					.createMetadataDataGroupWithIdAndType("textVar", "unknownType"));
+		} catch (DataConversionException e) {
+			assertEquals(e.getMessage(), "No converter found for DataGroup with type:unknownType");
+		}
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 0);
+		assertSame(getCurrentHolder().getMetadataElement("textVar"), oldTextVar);
+	}
+}
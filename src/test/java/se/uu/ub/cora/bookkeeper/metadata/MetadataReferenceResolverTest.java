@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MetadataReferenceResolverTest {
+	private MetadataHolder metadataHolder;
+	private MetadataGroup group;
+	private TextVariable textVariable;
+	private CollectionVariable collectionVariable;
+	private ItemCollection itemCollection;
+	private CollectionItem collectionItem;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataHolder = new MetadataHolder();
+		group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("someGroup", "someGroup",
+				"someTextId", "someDefTextId");
+		metadataHolder.addMetadataElement(group);
+		textVariable = TextVariable.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(
+				"someTextVar", "someTextVar", "someTextId", "someDefTextId", ".*");
+		metadataHolder.addMetadataElement(textVariable);
+		collectionVariable = new CollectionVariable("someCollectionVar", "type", "someTextId",
+				"someDefTextId", "someCollection");
+		metadataHolder.addMetadataElement(collectionVariable);
+		itemCollection = new ItemCollection("someCollection", "someCollection", "someTextId",
+				"someDefTextId");
+		metadataHolder.addMetadataElement(itemCollection);
+		collectionItem = new CollectionItem("someItem", "someItem", "someTextId",
+				"someDefTextId");
+		metadataHolder.addMetadataElement(collectionItem);
+	}
+
+	@Test
+	public void testChildReferenceIsLookedUpInHolder() {
+		MetadataChildReference childReference = addChildReferenceToGroup("someTextVar");
+
+		metadataHolder.resolveReferences();
+
+		assertSame(metadataHolder.getReferencedElement(childReference), textVariable);
+	}
+
+	private MetadataChildReference addChildReferenceToGroup(String linkedRecordId) {
+		MetadataChildReference childReference = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+						linkedRecordId, 1, 1);
+		group.addChildReference(childReference);
+		return childReference;
+	}
+
+	@Test
+	public void testChildReferenceToMissingElementIsNull() {
+		MetadataChildReference childReference = addChildReferenceToGroup("notInHolder");
+
+		metadataHolder.resolveReferences();
+
+		assertNull(metadataHolder.getReferencedElement(childReference));
+	}
+
+	@Test
+	public void testAllElementsAreResolved() {
+		metadataHolder.resolveReferences();
+
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+		for (MetadataElement metadataElement : metadataHolder.getAllMetadataElements()) {
+			assertTrue(resolver.isResolved(metadataElement));
+		}
+	}
+
+	@Test
+	public void testNothingIsKeptBeforeReferencesAreResolved() {
+		group.addAttributeReference("someCollectionVar");
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+
+		metadataHolder.getAttributesForElement(group);
+
+		assertFalse(resolver.isResolved(group));
+	}
+
+	@Test
+	public void testAttributesAreResolved() {
+		group.addAttributeReference("someCollectionVar");
+
+		metadataHolder.resolveReferences();
+
+		List<CollectionVariable> attributes = metadataHolder.getAttributesForElement(group);
+		assertEquals(attributes.size(), 1);
+		assertSame(attributes.get(0), collectionVariable);
+		assertSame(metadataHolder.getAttributesForElement(group), attributes);
+	}
+
+	@Test
+	public void testNoAttributesAreResolvedToEmptyList() {
+		metadataHolder.resolveReferences();
+
+		assertEquals(metadataHolder.getAttributesForElement(textVariable).size(), 0);
+	}
+
+	@Test
+	public void testAttributesNotResolvedAreLookedUpInHolder() {
+		group.addAttributeReference("someCollectionVar");
+
+		List<CollectionVariable> attributes = metadataHolder.getAttributesForElement(group);
+		assertEquals(attributes.size(), 1);
+		assertSame(attributes.get(0), collectionVariable);
+	}
+
+	@Test(expectedExceptions = DataMissingException.class, expectedExceptionsMessageRegExp = ""
+			+ "Attribute for element with id: someGroup is not a CollectionVariable "
+			+ "in metadataHolder")
+	public void testAttributeWithWrongTypeThrowsException() {
+		group.addAttributeReference("someTextVar");
+
+		metadataHolder.resolveReferences();
+
+		metadataHolder.getAttributesForElement(group);
+	}
+
+	@Test(expectedExceptions = DataMissingException.class, expectedExceptionsMessageRegExp = ""
+			+ "Attribute for element with id: someGroup is not a CollectionVariable "
+			+ "in metadataHolder")
+	public void testMissingAttributeThrowsExceptionWhenNotResolved() {
+		group.addAttributeReference("notInHolder");
+
+		metadataHolder.getAttributesForElement(group);
+	}
+
+	@Test
+	public void testRefCollectionAndItemsAreResolved() {
+		itemCollection.addItemReference("someItem");
+
+		metadataHolder.resolveReferences();
+
+		assertSame(metadataHolder.getRefCollection(collectionVariable), itemCollection);
+		List<CollectionItem> items = metadataHolder.getCollectionItems(itemCollection);
+		assertEquals(items.size(), 1);
+		assertSame(items.get(0), collectionItem);
+		assertSame(metadataHolder.getCollectionItems(itemCollection), items);
+	}
+
+	@Test
+	public void testRefCollectionAndItemsNotResolvedAreLookedUpInHolder() {
+		itemCollection.addItemReference("someItem");
+
+		assertSame(metadataHolder.getRefCollection(collectionVariable), itemCollection);
+		List<CollectionItem> items = metadataHolder.getCollectionItems(itemCollection);
+		assertEquals(items.size(), 1);
+		assertSame(items.get(0), collectionItem);
+	}
+
+	@Test
+	public void testMissingRefCollectionIsNull() {
+		CollectionVariable otherVariable = new CollectionVariable("otherCollectionVar", "other",
+				"someTextId", "someDefTextId", "notInHolder");
+		metadataHolder.addMetadataElement(otherVariable);
+
+		metadataHolder.resolveReferences();
+
+		assertNull(metadataHolder.getRefCollection(otherVariable));
+	}
+
+	@Test(expectedExceptions = DataMissingException.class, expectedExceptionsMessageRegExp = ""
+			+ "Item in collection with id: someCollection is not a CollectionItem "
+			+ "in metadataHolder")
+	public void testMissingItemThrowsException() {
+		itemCollection.addItemReference("notInHolder");
+
+		metadataHolder.resolveReferences();
+
+		metadataHolder.getCollectionItems(itemCollection);
+	}
+
+	@Test
+	public void testResolveReferencesForElement() {
+		MetadataReferenceResolver resolver = MetadataReferenceResolver
+				.usingMetadataHolder(metadataHolder);
+
+		resolver.resolveReferencesForElement(group);
+
+		assertTrue(resolver.isResolved(group));
+		assertFalse(resolver.isResolved(collectionVariable));
+	}
+
+	@Test
+	public void testElementNotInHolderIsResolvedButNotKept() {
+		metadataHolder.resolveReferences();
+		CollectionVariable otherVariable = new CollectionVariable("otherCollectionVar", "other",
+				"someTextId", "someDefTextId", "someCollection");
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+
+		assertSame(resolver.getRefCollection(otherVariable), itemCollection);
+		assertFalse(resolver.isResolved(otherVariable));
+	}
+
+	@Test
+	public void testSameElementInTwoHoldersIsResolvedPerHolder() {
+		MetadataHolder otherHolder = new MetadataHolder();
+		otherHolder.addMetadataElement(collectionVariable);
+		ItemCollection otherCollection = new ItemCollection("someCollection", "someCollection",
+				"someTextId", "someDefTextId");
+		otherHolder.addMetadataElement(otherCollection);
+
+		metadataHolder.resolveReferences();
+		otherHolder.resolveReferences();
+
+		assertSame(metadataHolder.getRefCollection(collectionVariable), itemCollection);
+		assertSame(otherHolder.getRefCollection(collectionVariable), otherCollection);
+	}
+
+	@Test
+	public void testAddingReferencedElementForgetsResolvedReferencesOfReferrers() {
+		group.addAttributeReference("someCollectionVar");
+		metadataHolder.resolveReferences();
+		ItemCollection newCollection = new ItemCollection("someCollection", "someCollection",
+				"someTextId", "someDefTextId");
+
+		metadataHolder.addMetadataElement(newCollection);
+
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+		assertFalse(resolver.isResolved(collectionVariable));
+		assertFalse(resolver.isResolved(group));
+		assertTrue(resolver.isResolved(textVariable));
+		assertSame(metadataHolder.getRefCollection(collectionVariable), newCollection);
+	}
+
+	@Test
+	public void testRemovingReferencedElementForgetsResolvedReferencesOfReferrers() {
+		metadataHolder.resolveReferences();
+
+		metadataHolder.removeMetadataElement("someCollection");
+
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+		assertFalse(resolver.isResolved(collectionVariable));
+		assertTrue(resolver.isResolved(group));
+		assertNull(metadataHolder.getRefCollection(collectionVariable));
+	}
+
+	@Test
+	public void testResolvedReferencesAreForgottenInSameResolverAndAddedElementIsKept() {
+		metadataHolder.resolveReferences();
+		MetadataReferenceResolver resolver = metadataHolder.getMetadataReferenceResolver();
+		CollectionVariable otherVariable = new CollectionVariable("otherCollectionVar", "other",
+				"someTextId", "someDefTextId", "someCollection");
+
+		metadataHolder.addMetadataElement(otherVariable);
+		resolver.resolveReferencesForElement(otherVariable);
+
+		assertSame(metadataHolder.getMetadataReferenceResolver(), resolver);
+		assertTrue(resolver.isResolved(otherVariable));
+		assertTrue(resolver.isResolved(collectionVariable));
+	}
+
+	@Test
+	public void testGetReferencedIdsForElement() {
+		addChildReferenceToGroup("someTextVar");
+		group.addAttributeReference("someCollectionVar");
+		itemCollection.addItemReference("someItem");
+		MetadataReferenceResolver resolver = MetadataReferenceResolver
+				.usingMetadataHolder(metadataHolder);
+
+		assertEquals(resolver.getReferencedIdsForElement(group),
+				List.of("someCollectionVar", "someTextVar"));
+		assertEquals(resolver.getReferencedIdsForElement(collectionVariable),
+				List.of("someCollection"));
+		assertEquals(resolver.getReferencedIdsForElement(itemCollection), List.of("someItem"));
+		assertEquals(resolver.getReferencedIdsForElement(textVariable), List.of());
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+public class MetadataStorageSpy implements MetadataStorage {
+
+	public List<DataGroup> metadataElements = new ArrayList<>();
+	public int numberOfCallsToGetMetadataElements = 0;
+
+	@Override
+	public Collection<DataGroup> getMetadataElements() {
+		numberOfCallsToGetMetadataElements++;
+		return metadataElements;
+	}
+
+	@Override
+	public Collection<DataGroup> getPresentationElements() {
+		return new ArrayList<>();
+	}
+
+	@Override
+	public Collection<DataGroup> getTexts() {
+		return new ArrayList<>();
+	}
+
+	@Override
+	public Collection<DataGroup> getRecordTypes() {
+		return new ArrayList<>();
+	}
+
+	@Override
+	public Collection<DataGroup> getCollectTerms() {
+		return new ArrayList<>();
+	}
+
+	public void addTextVariable(String id) {
+		metadataElements.add(createTextVariable(id));
+	}
+
+	public DataGroup createTextVariable(String id) {
+		DataGroup textVariable = createMetadataDataGroupWithIdAndType(id, "textVariable");
+		textVariable.addChild(new DataAtomicSpy("regEx", "^.*$"));
+		return textVariable;
+	}
+
+	public void addGroup(String id, String... childIds) {
+		metadataElements.add(createGroup(id, childIds));
+	}
+
+	public DataGroup createGroup(String id, String... childIds) {
+		return createGroupWithRepeatMin("1", id, childIds);
+	}
+
+	public void addGroupWithOptionalChildren(String id, String... childIds) {
+		metadataElements.add(createGroupWithRepeatMin("0", id, childIds));
+	}
+
+	private DataGroup createGroupWithRepeatMin(String repeatMin, String id,
+			String... childIds) {
+		DataGroup group = createMetadataDataGroupWithIdAndType(id, "group");
+		DataGroup childReferences = new DataGroupSpy("childReferences");
+		int repeatId = 0;
+		for (String childId : childIds) {
+			DataGroup childReference = new DataGroupSpy("childReference");
+			childReference.setRepeatId(String.valueOf(repeatId++));
+			DataGroup ref = new DataGroupSpy("ref");
+			ref.addChild(new DataAtomicSpy("linkedRecordType", "metadataTextVariable"));
+			ref.addChild(new DataAtomicSpy("linkedRecordId", childId));
+			childReference.addChild(ref);
+			childReference.addChild(new DataAtomicSpy("repeatMin", repeatMin));
+			childReference.addChild(new DataAtomicSpy("repeatMax", "1"));
+			childReferences.addChild(childReference);
+		}
+		group.addChild(childReferences);
+		return group;
+	}
+
+	public void addRecordLink(String id, String linkedRecordType) {
+		metadataElements.add(createRecordLink(id, linkedRecordType));
+	}
+
+	private DataGroup createRecordLink(String id, String linkedRecordType) {
+		DataGroup recordLink = createMetadataDataGroupWithIdAndType(id, "recordLink");
+		DataGroup linkedRecordTypeGroup = new DataGroupSpy("linkedRecordType");
+		linkedRecordTypeGroup.addChild(new DataAtomicSpy("linkedRecordType", "recordType"));
+		linkedRecordTypeGroup.addChild(new DataAtomicSpy("linkedRecordId", linkedRecordType));
+		recordLink.addChild(linkedRecordTypeGroup);
+		return recordLink;
+	}
+
+	public void addRecordLinkWithLinkedPath(String id, String linkedRecordType) {
+		DataGroup recordLink = createRecordLink(id, linkedRecordType);
+		DataGroup linkedPath = new DataGroupSpy("linkedPath");
+		linkedPath.addChild(new DataAtomicSpy("nameInData", "someNameInData"));
+		recordLink.addChild(linkedPath);
+		metadataElements.add(recordLink);
+	}
+
+	public void addElementWithUnknownType(String id) {
+		metadataElements.add(createMetadataDataGroupWithIdAndType(id, "unknownType"));
+	}
+
+	public DataGroup createMetadataDataGroupWithIdAndType(String id, String type) {
+		DataGroup dataGroup = new DataGroupSpy("metadata");
+		dataGroup.addAttributeByIdWithValue("type", type);
+		DataGroup recordInfo = new DataGroupSpy("recordInfo");
+		recordInfo.addChild(new DataAtomicSpy("id", id));
+		dataGroup.addChild(recordInfo);
+		dataGroup.addChild(new DataAtomicSpy("nameInData", id));
+		addTextByNameInDataAndId(dataGroup, "textId", id + "Text");
+		addTextByNameInDataAndId(dataGroup, "defTextId", id + "DefText");
+		return dataGroup;
+	}
+
+	private void addTextByNameInDataAndId(DataGroup dataGroup, String nameInData, String textId) {
+		DataGroup text = new DataGroupSpy(nameInData);
+		text.addChild(new DataAtomicSpy("linkedRecordType", "textSystemOne"));
+		text.addChild(new DataAtomicSpy("linkedRecordId", textId));
+		dataGroup.addChild(text);
+	}
+}
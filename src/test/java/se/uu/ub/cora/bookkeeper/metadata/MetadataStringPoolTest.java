@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MetadataStringPoolTest {
+	private MetadataStringPool stringPool;
+
+	@BeforeMethod
+	public void setUp() {
+		stringPool = new MetadataStringPool();
+	}
+
+	@Test
+	public void testCanonicalizeReturnsFirstInstance() {
+		String first = new String("someTextId");
+		String second = new String("someTextId");
+
+		assertSame(stringPool.canonicalize(first), first);
+		assertSame(stringPool.canonicalize(second), first);
+		assertEquals(stringPool.getNumberOfPooledStrings(), 1);
+		assertEquals(stringPool.getNumberOfSharedStrings(), 1);
+	}
+
+	@Test
+	public void testCanonicalizeNull() {
+		assertNull(stringPool.canonicalize(null));
+		assertEquals(stringPool.getNumberOfPooledStrings(), 0);
+	}
+
+	@Test
+	public void testCanonicalizeSameInstanceIsNotCountedAsShared() {
+		String value = "someTextId";
+		stringPool.canonicalize(value);
+		stringPool.canonicalize(value);
+
+		assertEquals(stringPool.getNumberOfSharedStrings(), 0);
+		assertEquals(stringPool.getEstimatedBytesSaved(), 0);
+	}
+
+	@Test
+	public void testEstimatedBytesSavedLatin1() {
+		stringPool.canonicalize(new String("someTextId"));
+		stringPool.canonicalize(new String("someTextId"));
+
+		assertEquals(stringPool.getEstimatedBytesSaved(), 24 + 32);
+	}
+
+	@Test
+	public void testEstimatedBytesSavedNotLatin1() {
+		stringPool.canonicalize(new String("Ābc"));
+		stringPool.canonicalize(new String("Ābc"));
+
+		assertEquals(stringPool.getEstimatedBytesSaved(), 24 + 24);
+	}
+
+	@Test
+	public void testCollectTermIsShared() {
+		CollectTerm first = stringPool.getCollectTermWithTypeAndId("index",
+				new String("someIndexTerm"));
+		CollectTerm second = stringPool.getCollectTermWithTypeAndId("index",
+				new String("someIndexTerm"));
+
+		assertSame(second, first);
+		assertEquals(first.type, "index");
+		assertEquals(first.id, "someIndexTerm");
+		assertEquals(stringPool.getNumberOfSharedCollectTerms(), 1);
+		assertEquals(stringPool.getEstimatedBytesSaved(), 24);
+	}
+
+	@Test
+	public void testCollectTermWithOtherTypeIsNotShared() {
+		CollectTerm first = stringPool.getCollectTermWithTypeAndId("index", "someTerm");
+		CollectTerm second = stringPool.getCollectTermWithTypeAndId("permission", "someTerm");
+
+		assertNotSame(second, first);
+		assertEquals(stringPool.getNumberOfSharedCollectTerms(), 0);
+	}
+
+	@Test
+	public void testCollectTermWithNullIsNotPooled() {
+		CollectTerm first = stringPool.getCollectTermWithTypeAndId(null, "someTerm");
+		CollectTerm second = stringPool.getCollectTermWithTypeAndId(null, "someTerm");
+
+		assertNotSame(second, first);
+		assertNull(first.type);
+		assertEquals(first.id, "someTerm");
+	}
+
+	@Test
+	public void testCreateReport() {
+		stringPool.canonicalize(new String("someTextId"));
+		stringPool.canonicalize(new String("someTextId"));
+		stringPool.getCollectTermWithTypeAndId("index", "someTerm");
+		stringPool.getCollectTermWithTypeAndId("index", "someTerm");
+
+		assertEquals(stringPool.createReport(),
+				"Metadata string pool: 3 pooled strings, 1 shared strings,"
+						+ " 1 shared collect terms, estimated 80 bytes saved");
+	}
+
+	@Test
+	public void testPatternIsCompiledOnceAndShared() {
+		Pattern first = stringPool.getPatternForRegularExpression(new String("^[a-z]+$"));
+		Pattern second = stringPool.getPatternForRegularExpression(new String("^[a-z]+$"));
+
+		assertSame(second, first);
+		assertEquals(first.pattern(), "^[a-z]+$");
+		assertEquals(stringPool.getNumberOfPooledPatterns(), 1);
+	}
+
+	@Test
+	public void testInvalidPatternIsNotPooled() {
+		try {
+			stringPool.getPatternForRegularExpression("[a-z");
+			fail("PatternSyntaxException should have been thrown");
+		} catch (PatternSyntaxException e) {
+			assertEquals(stringPool.getNumberOfPooledPatterns(), 0);
+		}
+	}
+
+	@Test
+	public void testFromMetadataHolderSharesValuesUsedByElements() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		Pattern pattern = Pattern.compile("^[a-z]+$");
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndPattern("someTextVar",
+						"someNameInData", "someTextId", "someDefTextId", pattern));
+		MetadataGroup metadataGroup = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(
+				"someGroup", "someGroupNameInData", "someGroupTextId", "someGroupDefTextId");
+		MetadataChildReference childReference = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+						"someTextVar", 1, 1);
+		CollectTerm collectTerm = CollectTerm.createCollectTermWithTypeAndId("index",
+				"someIndexTerm");
+		childReference.addCollectIndexTerm(collectTerm);
+		metadataGroup.addChildReference(childReference);
+		metadataHolder.addMetadataElement(metadataGroup);
+
+		MetadataStringPool seededPool = MetadataStringPool.fromMetadataHolder(metadataHolder);
+
+		assertSame(seededPool.canonicalize(new String("someNameInData")),
+				metadataHolder.getMetadataElement("someTextVar").getNameInData());
+		assertSame(seededPool.getPatternForRegularExpression(new String("^[a-z]+$")), pattern);
+		assertSame(seededPool.getCollectTermWithTypeAndId("index", "someIndexTerm"),
+				collectTerm);
+		assertEquals(seededPool.getNumberOfSharedStrings(), 2);
+		assertEquals(seededPool.getNumberOfSharedCollectTerms(), 1);
+	}
+
+	@Test
+	public void testFromMetadataHolderDoesNotCompileRegularExpressions() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("someTextVar",
+						"someNameInData", "someTextId", "someDefTextId", "[a-z"));
+
+		MetadataStringPool seededPool = MetadataStringPool.fromMetadataHolder(metadataHolder);
+
+		assertEquals(seededPool.getNumberOfPooledPatterns(), 0);
+		assertEquals(seededPool.getNumberOfSharedStrings(), 0);
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MetadataUsageIndexTest {
+	private MetadataHolder metadataHolder;
+	private MetadataGroup bookGroup;
+	private MetadataGroup articleGroup;
+	private MetadataGroup recordGroup;
+	private CollectionVariable typeVar;
+	private CollectionVariable otherTypeVar;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(new CollectionItem("bookItem", "book", "t", "d"));
+		ItemCollection typeCollection = new ItemCollection("typeCollection", "type", "t", "d");
+		typeCollection.addItemReference("bookItem");
+		metadataHolder.addMetadataElement(typeCollection);
+		typeVar = new CollectionVariable("typeVar", "type", "t", "d", "typeCollection");
+		metadataHolder.addMetadataElement(typeVar);
+		otherTypeVar = new CollectionVariable("otherTypeVar", "type", "t", "d",
+				"typeCollection");
+		metadataHolder.addMetadataElement(otherTypeVar);
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("titleTextVar",
+						"title", "t", "d", ".*"));
+
+		bookGroup = createGroup("bookGroup");
+		bookGroup.addAttributeReference("typeVar");
+		addChildWithCollectTerm(bookGroup, "titleTextVar", "titleCollectTerm");
+		addChildWithCollectTerm(bookGroup, "titleTextVar", "otherTitleCollectTerm");
+		articleGroup = createGroup("articleGroup");
+		addChildWithCollectTerm(articleGroup, "titleTextVar", "titleCollectTerm");
+		recordGroup = createGroup("recordGroup");
+		addChild(recordGroup, "bookGroup");
+		addChild(recordGroup, "missingGroup");
+		metadataHolder.resolveReferences();
+	}
+
+	private MetadataGroup createGroup(String id) {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(id, id, "t",
+				"d");
+		metadataHolder.addMetadataElement(group);
+		return group;
+	}
+
+	private MetadataChildReference addChild(MetadataGroup group, String childId) {
+		MetadataChildReference childReference = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadata",
+						childId, 0, 1);
+		group.addChildReference(childReference);
+		return childReference;
+	}
+
+	private void addChildWithCollectTerm(MetadataGroup group, String childId,
+			String collectTermId) {
+		addChild(group, childId).addCollectIndexTerm(
+				CollectTerm.createCollectTermWithTypeAndId("index", collectTermId));
+	}
+
+	@Test
+	public void testIndexIsBuiltWhenReferencesAreResolved() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		assertSame(metadataHolder.getUsageIndex(), usageIndex);
+		assertEquals(usageIndex.getParentGroups("titleTextVar"),
+				List.of(bookGroup, articleGroup));
+	}
+
+	@Test
+	public void testIndexIsBuiltWhenFirstRequested() {
+		MetadataHolder unresolvedHolder = new MetadataHolder();
+		unresolvedHolder.addMetadataElement(recordGroup);
+
+		MetadataUsageIndex usageIndex = unresolvedHolder.getUsageIndex();
+
+		assertSame(unresolvedHolder.getUsageIndex(), usageIndex);
+		assertNotSame(usageIndex, metadataHolder.getUsageIndex());
+		assertEquals(usageIndex.getParentGroups("bookGroup"), List.of(recordGroup));
+	}
+
+	@Test
+	public void testParentGroups() {
+		MetadataUsageIndex usageIndex = MetadataUsageIndex.fromMetadataHolder(metadataHolder);
+
+		assertEquals(usageIndex.getParentGroups("titleTextVar"),
+				List.of(bookGroup, articleGroup));
+		assertEquals(usageIndex.getParentGroups("bookGroup"), List.of(recordGroup));
+		assertEquals(usageIndex.getParentGroups("missingGroup"), List.of(recordGroup));
+		assertTrue(usageIndex.getParentGroups("recordGroup").isEmpty());
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testReturnedListsAreUnmodifiable() {
+		metadataHolder.getUsageIndex().getParentGroups("titleTextVar").clear();
+	}
+
+	@Test
+	public void testReturnedListsAreNotChangedByLaterUpdates() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+		List<MetadataGroup> parentGroups = usageIndex.getParentGroups("titleTextVar");
+
+		metadataHolder.removeMetadataElement("bookGroup");
+
+		assertEquals(parentGroups, List.of(bookGroup, articleGroup));
+		assertEquals(usageIndex.getParentGroups("titleTextVar"), List.of(articleGroup));
+	}
+
+	@Test
+	public void testSameInstanceIsIndexedOnce() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		usageIndex.addElement(articleGroup);
+		metadataHolder.addMetadataElement(articleGroup);
+
+		assertEquals(usageIndex.getParentGroups("titleTextVar"),
+				List.of(bookGroup, articleGroup));
+		assertEquals(usageIndex.getChildReferencesUsingCollectTerm("titleCollectTerm").size(),
+				2);
+	}
+
+	@Test
+	public void testCollectionVariablesUsingItemCollection() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		assertEquals(usageIndex.getCollectionVariablesUsingItemCollection("typeCollection"),
+				List.of(typeVar, otherTypeVar));
+		assertTrue(usageIndex.getCollectionVariablesUsingItemCollection("bookItem").isEmpty());
+	}
+
+	@Test
+	public void testChildReferencesUsingCollectTerm() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		assertEquals(usageIndex.getChildReferencesUsingCollectTerm("titleCollectTerm"), List.of(
+				bookGroup.getChildReferences().get(0), articleGroup.getChildReferences().get(0)));
+		assertEquals(usageIndex.getChildReferencesUsingCollectTerm("otherTitleCollectTerm"),
+				List.of(bookGroup.getChildReferences().get(1)));
+		assertTrue(usageIndex.getChildReferencesUsingCollectTerm("missingTerm").isEmpty());
+	}
+
+	@Test
+	public void testElementsReferringTo() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		assertEquals(usageIndex.getElementsReferringTo("typeVar"), List.of(bookGroup));
+		assertEquals(usageIndex.getElementsReferringTo("typeCollection"),
+				List.of(typeVar, otherTypeVar));
+		assertEquals(usageIndex.getElementsReferringTo("bookItem").size(), 1);
+		assertEquals(usageIndex.getElementsReferringTo("titleTextVar"),
+				List.of(bookGroup, articleGroup));
+	}
+
+	@Test
+	public void testIdsOfElementsDependingOn() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		assertEquals(usageIndex.getIdsOfElementsDependingOn(List.of("titleTextVar")),
+				Set.of("bookGroup", "articleGroup", "recordGroup"));
+		assertEquals(usageIndex.getIdsOfElementsDependingOn(List.of("typeCollection")),
+				Set.of("typeVar", "otherTypeVar", "bookGroup", "recordGroup"));
+		assertEquals(usageIndex.getIdsOfElementsDependingOn(List.of("bookItem", "bookGroup")),
+				Set.of("typeCollection", "typeVar", "otherTypeVar", "recordGroup"));
+		assertTrue(usageIndex.getIdsOfElementsDependingOn(List.of("recordGroup")).isEmpty());
+	}
+
+	@Test
+	public void testIndexIsUpdatedWhenElementIsRemoved() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+
+		metadataHolder.removeMetadataElement("bookGroup");
+
+		assertEquals(usageIndex.getParentGroups("titleTextVar"), List.of(articleGroup));
+		assertTrue(usageIndex.getElementsReferringTo("typeVar").isEmpty());
+		assertEquals(usageIndex.getChildReferencesUsingCollectTerm("titleCollectTerm"),
+				List.of(articleGroup.getChildReferences().get(0)));
+		assertTrue(usageIndex.getChildReferencesUsingCollectTerm("otherTitleCollectTerm")
+				.isEmpty());
+		assertEquals(usageIndex.getParentGroups("bookGroup"), List.of(recordGroup));
+	}
+
+	@Test
+	public void testIndexIsUpdatedWhenElementIsReplaced() {
+		MetadataUsageIndex usageIndex = metadataHolder.getUsageIndex();
+		CollectionVariable replacingTypeVar = new CollectionVariable("otherTypeVar", "type", "t",
+				"d", "otherCollection");
+
+		metadataHolder.addMetadataElement(replacingTypeVar);
+
+		assertEquals(usageIndex.getCollectionVariablesUsingItemCollection("typeCollection"),
+				List.of(typeVar));
+		assertEquals(usageIndex.getCollectionVariablesUsingItemCollection("otherCollection"),
+				List.of(replacingTypeVar));
+	}
+
+	@Test
+	public void testLazyMetadataHolderUpdatesIndex() {
+		MetadataStorageSpy metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("someTextVar");
+		metadataStorage.addGroup("someGroup", "someTextVar");
+		LazyMetadataHolder lazyHolder = LazyMetadataHolder
+				.usingDataGroups(metadataStorage.getMetadataElements());
+		MetadataUsageIndex usageIndex = lazyHolder.getUsageIndex();
+		assertEquals(usageIndex.getParentGroups("someTextVar").size(), 1);
+
+		lazyHolder.removeMetadataElement("someGroup");
+
+		assertTrue(usageIndex.getParentGroups("someTextVar").isEmpty());
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.data.DataGroup;
+
+public class RecordTypeMetadataCacheTest {
+	private MetadataStorageSpy metadataStorage;
+	private long sizeOfOneSubset;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataStorage = new MetadataStorageSpy();
+		addRecordTypeGroup("books");
+		addRecordTypeGroup("songs");
+		addRecordTypeGroup("films");
+		sizeOfOneSubset = calculateSizeOfSubset("books");
+	}
+
+	private void addRecordTypeGroup(String recordType) {
+		metadataStorage.addGroup(recordType + "Group", recordType + "TitleTextVar");
+		metadataStorage.addTextVariable(recordType + "TitleTextVar");
+	}
+
+	private long calculateSizeOfSubset(String recordType) {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+		cache.getMetadataHolderForMetadataGroup(recordType + "Group");
+		return cache.getEstimatedSize();
+	}
+
+	@Test
+	public void testSubsetContainsOnlyElementsForMetadataGroup() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+
+		MetadataHolder metadataHolder = cache.getMetadataHolderForMetadataGroup("booksGroup");
+
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+		assertTrue(metadataHolder.getMetadataElement("booksTitleTextVar") instanceof TextVariable);
+		assertNull(metadataHolder.getMetadataElement("songsGroup"));
+	}
+
+	@Test
+	public void testSubsetIsCreatedOnlyOnce() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+		int callsBefore = metadataStorage.numberOfCallsToGetMetadataElements;
+
+		MetadataHolder metadataHolder = cache.getMetadataHolderForMetadataGroup("booksGroup");
+
+		assertSame(cache.getMetadataHolderForMetadataGroup("booksGroup"), metadataHolder);
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, callsBefore + 1);
+		assertEquals(cache.getNumberOfCreatedSubsets(), 1);
+		assertEquals(cache.getNumberOfKeptSubsets(), 1);
+		assertEquals(cache.getEstimatedSize(), sizeOfOneSubset);
+	}
+
+	@Test
+	public void testNothingIsCreatedBeforeRequested() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+
+		assertEquals(cache.getNumberOfKeptSubsets(), 0);
+		assertEquals(cache.getEstimatedSize(), 0);
+		assertFalse(cache.isKept("booksGroup"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedSubsetIsEvictedWhenOverBudget() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, 2 * sizeOfOneSubset);
+		cache.getMetadataHolderForMetadataGroup("booksGroup");
+		cache.getMetadataHolderForMetadataGroup("songsGroup");
+		cache.getMetadataHolderForMetadataGroup("booksGroup");
+
+		cache.getMetadataHolderForMetadataGroup("filmsGroup");
+
+		assertTrue(cache.isKept("booksGroup"));
+		assertFalse(cache.isKept("songsGroup"));
+		assertTrue(cache.isKept("filmsGroup"));
+		assertEquals(cache.getNumberOfKeptSubsets(), 2);
+		assertEquals(cache.getNumberOfEvictedSubsets(), 1);
+		assertEquals(cache.getEstimatedSize(), 2 * sizeOfOneSubset);
+	}
+
+	@Test
+	public void testEvictedSubsetIsCreatedAgain() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, sizeOfOneSubset);
+		MetadataHolder bookMetadata = cache.getMetadataHolderForMetadataGroup("booksGroup");
+		cache.getMetadataHolderForMetadataGroup("songsGroup");
+
+		MetadataHolder recreatedBookMetadata = cache
+				.getMetadataHolderForMetadataGroup("booksGroup");
+
+		assertNotSame(recreatedBookMetadata, bookMetadata);
+		assertEquals(cache.getNumberOfCreatedSubsets(), 3);
+	}
+
+	@Test
+	public void testMostRecentlyUsedSubsetIsKeptEvenIfOverBudget() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, 0);
+
+		cache.getMetadataHolderForMetadataGroup("booksGroup");
+		cache.getMetadataHolderForMetadataGroup("songsGroup");
+
+		assertEquals(cache.getNumberOfKeptSubsets(), 1);
+		assertTrue(cache.isKept("songsGroup"));
+	}
+
+	@Test
+	public void testEvictAll() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+		cache.getMetadataHolderForMetadataGroup("booksGroup");
+
+		cache.evictAll();
+
+		assertEquals(cache.getNumberOfKeptSubsets(), 0);
+		assertEquals(cache.getEstimatedSize(), 0);
+	}
+
+	@Test
+	public void testStorageIsReadOncePerGeneration() {
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(metadataStorage, Long.MAX_VALUE);
+		int callsBefore = metadataStorage.numberOfCallsToGetMetadataElements;
+
+		cache.getMetadataHolderForMetadataGroup("booksGroup");
+		cache.getMetadataHolderForMetadataGroup("songsGroup");
+		cache.getMetadataHolderForMetadataGroup("filmsGroup");
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, callsBefore + 1);
+		assertEquals(cache.getStorageGeneration(), 0);
+
+		cache.evictAll();
+		cache.getMetadataHolderForMetadataGroup("booksGroup");
+		cache.getMetadataHolderForMetadataGroup("songsGroup");
+
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, callsBefore + 2);
+		assertEquals(cache.getStorageGeneration(), 1);
+	}
+
+	@Test
+	public void testSubsetCreatedFromStorageReadBeforeEvictAllIsNotKept() {
+		EvictingMetadataStorageSpy evictingStorage = new EvictingMetadataStorageSpy();
+		evictingStorage.metadataElements.addAll(metadataStorage.metadataElements);
+		RecordTypeMetadataCache cache = RecordTypeMetadataCache
+				.usingMetadataStorageAndMaxEstimatedSize(evictingStorage, Long.MAX_VALUE);
+		evictingStorage.cacheToEvict = cache;
+
+		MetadataHolder bookMetadata = cache.getMetadataHolderForMetadataGroup("booksGroup");
+
+		assertTrue(bookMetadata.getMetadataElement("booksGroup") instanceof MetadataGroup);
+		assertFalse(cache.isKept("booksGroup"));
+		assertEquals(cache.getNumberOfKeptSubsets(), 0);
+		assertEquals(cache.getEstimatedSize(), 0);
+
+		evictingStorage.cacheToEvict = null;
+		MetadataHolder recreatedBookMetadata = cache
+				.getMetadataHolderForMetadataGroup("booksGroup");
+
+		assertNotSame(recreatedBookMetadata, bookMetadata);
+		assertTrue(cache.isKept("booksGroup"));
+		assertEquals(evictingStorage.numberOfCallsToGetMetadataElements, 2);
+	}
+
+	private static class EvictingMetadataStorageSpy extends MetadataStorageSpy {
+		private RecordTypeMetadataCache cacheToEvict;
+
+		@Override
+		public Collection<DataGroup> getMetadataElements() {
+			if (cacheToEvict != null) {
+				cacheToEvict.evictAll();
+			}
+			return super.getMetadataElements();
+		}
+	}
+}
@@ -20,11 +20,16 @@
 package se.uu.ub.cora.bookkeeper.metadata;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 public class TextVariableTest {
+	private static final String WELL_FORMED_REGULAR_EXPRESSION = "((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$)|^$){1}";
 	private TextVariable textVar;
 	private String regularExpression;
 
@@ -63,4 +68,60 @@ public class TextVariableTest {
 		textVar.setFinalValue("finalValue");
 		assertEquals(textVar.getFinalValue(), "finalValue");
 	}
+
+	@Test
+	public void testPatternIsCompiledOnceFromRegularExpression() {
+		TextVariable textVariable = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("id", "nameInData",
+						"textId", "defTextId", WELL_FORMED_REGULAR_EXPRESSION);
+
+		Pattern pattern = textVariable.getPattern();
+		assertEquals(pattern.pattern(), WELL_FORMED_REGULAR_EXPRESSION);
+		assertSame(textVariable.getPattern(), pattern);
+	}
+
+	@Test(expectedExceptions = PatternSyntaxException.class)
+	public void testMalformedRegularExpressionFailsWhenPatternIsRequested() {
+		textVar.getPattern();
+	}
+
+	@Test
+	public void testWithPattern() {
+		Pattern pattern = Pattern.compile(WELL_FORMED_REGULAR_EXPRESSION);
+		TextVariable textVariable = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndPattern("id", "nameInData", "textId",
+						"defTextId", pattern);
+		assertSame(textVariable.getPattern(), pattern);
+		assertEquals(textVariable.getRegularExpression(), WELL_FORMED_REGULAR_EXPRESSION);
+	}
+
+	@Test
+	public void testUsingStringPoolSharesPattern() {
+		MetadataStringPool stringPool = new MetadataStringPool();
+		TextVariable first = createTextVariableUsingStringPool(WELL_FORMED_REGULAR_EXPRESSION,
+				stringPool);
+		TextVariable second = createTextVariableUsingStringPool(
+				new String(WELL_FORMED_REGULAR_EXPRESSION), stringPool);
+
+		assertSame(second.getPattern(), first.getPattern());
+		assertSame(second.getRegularExpression(), first.getRegularExpression());
+	}
+
+	private TextVariable createTextVariableUsingStringPool(String regularExpression,
+			MetadataStringPool stringPool) {
+		return TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpressionUsingStringPool("id",
+						"nameInData", "textId", "defTextId", regularExpression, stringPool);
+	}
+
+	@Test
+	public void testUsingStringPoolKeepsMalformedRegularExpression() {
+		MetadataStringPool stringPool = new MetadataStringPool();
+
+		TextVariable textVariable = createTextVariableUsingStringPool(regularExpression,
+				stringPool);
+
+		assertEquals(textVariable.getRegularExpression(), regularExpression);
+		assertEquals(stringPool.getNumberOfPooledPatterns(), 0);
+	}
 }
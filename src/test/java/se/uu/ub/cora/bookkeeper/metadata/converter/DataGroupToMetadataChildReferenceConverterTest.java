@@ -20,12 +20,14 @@
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 import org.testng.annotations.Test;
 
 import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
 import se.uu.ub.cora.bookkeeper.DataGroupSpy;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataGroup;
 
 public class DataGroupToMetadataChildReferenceConverterTest {
@@ -260,6 +262,23 @@ public class DataGroupToMetadataChildReferenceConverterTest {
 				"someAttributeTypeFromSpy");
 	}
 
+	@Test
+	public void testEqualCollectTermsAreShared() {
+		DataGroup dataGroup = createDataGroup();
+		setNumOfChildRefCollectTermsToReturnFromSpy(dataGroup, 2);
+		dataGroup.addChild(createChildRefCollectTermWithLinkedRecordTypeAndIdAndType(
+				"collectIndexTerm", "titleCollectIndexTerm", "index"));
+		MetadataStringPool stringPool = new MetadataStringPool();
+
+		DataGroupToMetadataChildReferenceConverter converter = DataGroupToMetadataChildReferenceConverter
+				.fromDataGroupUsingStringPool(dataGroup, stringPool);
+		MetadataChildReference metadataChildReference = converter.toMetadata();
+
+		assertSame(metadataChildReference.getCollectTerms().get(0),
+				metadataChildReference.getCollectTerms().get(1));
+		assertEquals(stringPool.getNumberOfSharedCollectTerms(), 1);
+	}
+
 	private void setNumOfChildRefCollectTermsToReturnFromSpy(DataGroup dataGroup,
 			int numOfCollectTermsToReturn) {
 		((DataGroupSpy) dataGroup).numOfGetAllGroupsWithNameInDataToReturn
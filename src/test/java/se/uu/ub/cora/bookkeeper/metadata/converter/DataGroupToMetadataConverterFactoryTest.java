@@ -20,11 +20,16 @@
 
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import org.testng.annotations.Test;
 
 import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStorageSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.data.DataGroup;
 
 public class DataGroupToMetadataConverterFactoryTest {
@@ -126,4 +131,36 @@ public class DataGroupToMetadataConverterFactoryTest {
 		assertTrue(converter instanceof DataGroupToResourceLinkConverter);
 	}
 
+
+	@Test
+	public void testConvertersUsingSameStringPoolShareStrings() {
+		MetadataStorageSpy metadataStorage = new MetadataStorageSpy();
+		MetadataStringPool stringPool = new MetadataStringPool();
+
+		MetadataElement first = DataGroupToMetadataConverterFactoryImp
+				.fromDataGroupUsingStringPool(metadataStorage.createTextVariable("textVar"),
+						stringPool)
+				.factor().toMetadata();
+		MetadataElement second = DataGroupToMetadataConverterFactoryImp
+				.fromDataGroupUsingStringPool(metadataStorage.createTextVariable("textVar"),
+						stringPool)
+				.factor().toMetadata();
+
+		assertSame(second.getTextId(), first.getTextId());
+		assertSame(second.getDefTextId(), first.getDefTextId());
+	}
+
+	@Test
+	public void testConvertersNotUsingSameStringPoolDoNotShareStrings() {
+		MetadataStorageSpy metadataStorage = new MetadataStorageSpy();
+
+		MetadataElement first = DataGroupToMetadataConverterFactoryImp
+				.fromDataGroup(metadataStorage.createTextVariable("textVar")).factor()
+				.toMetadata();
+		MetadataElement second = DataGroupToMetadataConverterFactoryImp
+				.fromDataGroup(metadataStorage.createTextVariable("textVar")).factor()
+				.toMetadata();
+
+		assertNotSame(second.getTextId(), first.getTextId());
+	}
 }
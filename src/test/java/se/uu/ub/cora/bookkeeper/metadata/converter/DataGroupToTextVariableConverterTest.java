@@ -20,12 +20,18 @@
 package se.uu.ub.cora.bookkeeper.metadata.converter;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.regex.PatternSyntaxException;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
 import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStringPool;
 import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
 import se.uu.ub.cora.data.DataGroup;
 
@@ -54,10 +60,14 @@ public class DataGroupToTextVariableConverterTest {
 		assertEquals(textVariable.getTextId(), "otherTextId");
 		assertEquals(textVariable.getDefTextId(), "otherDefTextId");
 		assertEquals(textVariable.getRegularExpression(),
-				"((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$|^$){1}");
+				"((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$)|^$){1}");
 	}
 
 	private DataGroup createDataGroup() {
+		return createDataGroupWithWellFormedRegEx();
+	}
+
+	private DataGroup createDataGroupWithRegEx(String regEx) {
 		DataGroup dataGroup = new DataGroupSpy("metadata");
 		dataGroup.addAttributeByIdWithValue("type", "textVar");
 		dataGroup.addChild(new DataAtomicSpy("nameInData", "other"));
@@ -71,8 +81,7 @@ public class DataGroupToTextVariableConverterTest {
 		addTextByNameInDataAndId(dataGroup, "textId", "otherTextId");
 		addTextByNameInDataAndId(dataGroup, "defTextId", "otherDefTextId");
 
-		dataGroup.addChild(
-				new DataAtomicSpy("regEx", "((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$|^$){1}"));
+		dataGroup.addChild(new DataAtomicSpy("regEx", regEx));
 		return dataGroup;
 	}
 
@@ -111,4 +120,39 @@ public class DataGroupToTextVariableConverterTest {
 		assertBasicTextVariableValuesAreCorrect(textVariable);
 		assertEquals(textVariable.getFinalValue(), "finalValue");
 	}
+
+	@Test
+	public void testPatternIsSharedBetweenVariablesConvertedWithSamePool() {
+		MetadataStringPool stringPool = new MetadataStringPool();
+		TextVariable first = DataGroupToTextVariableConverter
+				.fromDataGroupUsingStringPool(createDataGroupWithWellFormedRegEx(), stringPool)
+				.toMetadata();
+		TextVariable second = DataGroupToTextVariableConverter
+				.fromDataGroupUsingStringPool(createDataGroupWithWellFormedRegEx(), stringPool)
+				.toMetadata();
+
+		assertSame(second.getPattern(), first.getPattern());
+		assertSame(second.getRegularExpression(), first.getRegularExpression());
+	}
+
+	private DataGroup createDataGroupWithWellFormedRegEx() {
+		return createDataGroupWithRegEx("((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$)|^$){1}");
+	}
+
+	@Test
+	public void testMalformedRegularExpressionFailsAtConversion() {
+		MetadataStringPool stringPool = new MetadataStringPool();
+		DataGroup dataGroup = createDataGroupWithRegEx(
+				"((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$|^$){1}");
+		try {
+			DataGroupToTextVariableConverter.fromDataGroupUsingStringPool(dataGroup, stringPool)
+					.toMetadata();
+			fail("DataConversionException should have been thrown");
+		} catch (DataConversionException e) {
+			assertEquals(e.getMessage(), "TextVariable with id: otherId has an invalid regular"
+					+ " expression: ((^(([0-1][0-9])|([2][0-3])):[0-5][0-9]$|^$){1}");
+			assertTrue(e.getCause() instanceof PatternSyntaxException);
+		}
+		assertEquals(stringPool.getNumberOfPooledPatterns(), 0);
+	}
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.linkcollector.DataAtomicFactorySpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataGroupFactorySpy;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataUsageIndex;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.DataAtomicProvider;
+import se.uu.ub.cora.data.DataGroupProvider;
+
+public class MappedMetadataHolderTest {
+	private MetadataHolder metadataHolder;
+	private MappedMetadataHolderWriter writer;
+	private MappedMetadataHolder mappedHolder;
+
+	@BeforeMethod
+	public void setUp() {
+		DataGroupProvider.setDataGroupFactory(new DataGroupFactorySpy());
+		DataAtomicProvider.setDataAtomicFactory(new DataAtomicFactorySpy());
+		metadataHolder = SnapshotMetadataCreator.createMetadataHolderWithAllElementTypes();
+		writer = new MappedMetadataHolderWriter();
+		mappedHolder = MappedMetadataHolder
+				.usingBuffer(ByteBuffer.wrap(writer.createMappedMetadata(metadataHolder)));
+	}
+
+	@Test
+	public void testAllElementsCanBeLookedUp() {
+		for (MetadataElement expected : metadataHolder.getAllMetadataElements()) {
+			MetadataElementAssert.assertElementsAreEqual(
+					mappedHolder.getMetadataElement(expected.getId()), expected);
+		}
+	}
+
+	@Test
+	public void testMissingElementsAreNotFound() {
+		assertNull(mappedHolder.getMetadataElement("aaaBeforeAllIds"));
+		assertNull(mappedHolder.getMetadataElement("someMissingId"));
+		assertNull(mappedHolder.getMetadataElement("zzzAfterAllIds"));
+	}
+
+	@Test
+	public void testEmptyHolder() {
+		MappedMetadataHolder emptyHolder = MappedMetadataHolder
+				.usingBuffer(ByteBuffer.wrap(writer.createMappedMetadata(new MetadataHolder())));
+
+		assertNull(emptyHolder.getMetadataElement("someTextVar"));
+		assertEquals(emptyHolder.getAllMetadataElements().size(), 0);
+	}
+
+	@Test
+	public void testGetAllMetadataElementsSortedById() {
+		List<String> ids = new ArrayList<>();
+		for (MetadataElement metadataElement : mappedHolder.getAllMetadataElements()) {
+			ids.add(metadataElement.getId());
+		}
+
+		assertEquals(mappedHolder.getAllMetadataElements().size(), 8);
+		assertEquals(ids,
+				List.of("someCollection", "someCollectionVar", "someGroup", "someItem",
+						"someNumberVar", "someRecordLink", "someResourceLink", "someTextVar"));
+	}
+
+	@Test
+	public void testIndexesArePositionsSortedById() {
+		assertEquals(mappedHolder.getNumberOfIndexes(), 8);
+		assertEquals(mappedHolder.getIndexOfMetadataElement("someCollection"), 0);
+		assertEquals(mappedHolder.getIndexOfMetadataElement("someTextVar"), 7);
+		assertEquals(mappedHolder.getIndexOfMetadataElement("someMissingId"), -1);
+		assertEquals(mappedHolder.getMetadataElementByIndex(2).getId(), "someGroup");
+		assertNull(mappedHolder.getMetadataElementByIndex(-1));
+		assertNull(mappedHolder.getMetadataElementByIndex(8));
+	}
+
+	@Test(expectedExceptions = NoSuchElementException.class)
+	public void testIteratorPastLastElement() {
+		Iterator<MetadataElement> iterator = mappedHolder.getAllMetadataElements().iterator();
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+		assertFalse(iterator.hasNext());
+
+		iterator.next();
+	}
+
+	@Test
+	public void testReferencesAreLookedUpById() {
+		MetadataGroup group = (MetadataGroup) mappedHolder.getMetadataElement("someGroup");
+
+		assertTrue(mappedHolder.getReferencedElement(
+				group.getChildReferences().get(0)) instanceof TextVariable);
+		assertEquals(mappedHolder.getAttributesForElement(group).get(0).getId(),
+				"someCollectionVar");
+		ItemCollection itemCollection = mappedHolder.getRefCollection(
+				(CollectionVariable) mappedHolder.getMetadataElement("someCollectionVar"));
+		assertTrue(mappedHolder.getCollectionItems(itemCollection)
+				.get(0) instanceof CollectionItem);
+	}
+
+	@Test
+	public void testElementsAreDecodedOnce() {
+		MetadataElement textVariable = mappedHolder.getMetadataElement("someTextVar");
+
+		assertSame(mappedHolder.getMetadataElement("someTextVar"), textVariable);
+		assertSame(mappedHolder.getMetadataElementByIndex(7), textVariable);
+		assertSame(mappedHolder.getAllMetadataElements().toArray()[7], textVariable);
+	}
+
+	@Test
+	public void testChildDispatchTableIsKept() {
+		MetadataGroup group = (MetadataGroup) mappedHolder.getMetadataElement("someGroup");
+
+		assertSame(mappedHolder.getChildDispatchTable(group),
+				mappedHolder.getChildDispatchTable(group));
+	}
+
+	@Test
+	public void testUsageIndexIsBuiltFromStoredUsages() {
+		MetadataUsageIndex usageIndex = mappedHolder.getUsageIndex();
+
+		assertSame(mappedHolder.getUsageIndex(), usageIndex);
+		assertEquals(usageIndex.getParentGroups("someTextVar").get(0).getId(), "someGroup");
+		assertEquals(usageIndex.getCollectionVariablesUsingItemCollection("someCollection")
+				.get(0).getId(), "someCollectionVar");
+		assertEquals(getIds(usageIndex.getElementsReferringTo("someCollectionVar")),
+				getIds(metadataHolder.getUsageIndex()
+						.getElementsReferringTo("someCollectionVar")));
+	}
+
+	private List<String> getIds(List<MetadataElement> metadataElements) {
+		List<String> ids = new ArrayList<>();
+		for (MetadataElement metadataElement : metadataElements) {
+			ids.add(metadataElement.getId());
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	@Test
+	public void testWriteToFileAndMapFile() throws IOException {
+		Path directory = Files.createTempDirectory("mappedMetadata");
+		Path file = directory.resolve("metadata.mapped");
+		try {
+			writer.writeToFile(metadataHolder, file);
+
+			MappedMetadataHolder holderFromFile = MappedMetadataHolder.fromFile(file);
+			MetadataElementAssert.assertElementsAreEqual(
+					holderFromFile.getMetadataElement("someGroup"),
+					metadataHolder.getMetadataElement("someGroup"));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Error mapping metadata file: .*missingFile")
+	public void testErrorMappingFile() {
+		MappedMetadataHolder.fromFile(Path.of("missingDirectory", "missingFile"));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Error writing mapped metadata to file: .*missingFile")
+	public void testErrorWritingFile() {
+		writer.writeToFile(metadataHolder, Path.of("missingDirectory", "missingFile"));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Data is not mapped metadata")
+	public void testWrongMagic() {
+		byte[] mappedMetadata = writer.createMappedMetadata(metadataHolder);
+		mappedMetadata[0] = 0;
+
+		MappedMetadataHolder.usingBuffer(ByteBuffer.wrap(mappedMetadata));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Mapped metadata format version 3 is not supported, expected 2")
+	public void testWrongFormatVersion() {
+		byte[] mappedMetadata = writer.createMappedMetadata(metadataHolder);
+		ByteBuffer.wrap(mappedMetadata).putInt(Integer.BYTES, 3);
+
+		MappedMetadataHolder.usingBuffer(ByteBuffer.wrap(mappedMetadata));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Mapped metadata is truncated")
+	public void testTruncatedHeader() {
+		MappedMetadataHolder.usingBuffer(ByteBuffer.wrap(new byte[3]));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Mapped metadata checksum does not match")
+	public void testTruncatedElement() {
+		byte[] mappedMetadata = writer.createMappedMetadata(metadataHolder);
+		ByteBuffer truncated = ByteBuffer.wrap(mappedMetadata, 0, mappedMetadata.length - 4)
+				.slice();
+
+		MappedMetadataHolder.usingBuffer(truncated);
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Mapped metadata checksum does not match")
+	public void testChangedByteIsDetected() {
+		byte[] mappedMetadata = writer.createMappedMetadata(metadataHolder);
+		mappedMetadata[mappedMetadata.length / 2]++;
+
+		MappedMetadataHolder.usingBuffer(ByteBuffer.wrap(mappedMetadata));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.List;
+
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
+import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.DataAtomic;
+import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
+
+public class MetadataElementAssert {
+
+	public static void assertElementsAreEqual(MetadataElement actual, MetadataElement expected) {
+		assertSame(actual.getClass(), expected.getClass());
+		assertEquals(actual.getId(), expected.getId());
+		assertEquals(actual.getNameInData(), expected.getNameInData());
+		assertEquals(actual.getTextId(), expected.getTextId());
+		assertEquals(actual.getDefTextId(), expected.getDefTextId());
+		assertEquals(actual.getAttributeReferences(), expected.getAttributeReferences());
+		if (expected instanceof MetadataGroup) {
+			assertGroupsAreEqual((MetadataGroup) actual, (MetadataGroup) expected);
+		} else if (expected instanceof TextVariable) {
+			assertTextVariablesAreEqual((TextVariable) actual, (TextVariable) expected);
+		} else if (expected instanceof NumberVariable) {
+			assertNumberVariablesAreEqual((NumberVariable) actual, (NumberVariable) expected);
+		} else if (expected instanceof CollectionVariable) {
+			assertCollectionVariablesAreEqual((CollectionVariable) actual,
+					(CollectionVariable) expected);
+		} else if (expected instanceof ItemCollection) {
+			assertEquals(List.copyOf(((ItemCollection) actual).getCollectionItemReferences()),
+					List.copyOf(((ItemCollection) expected).getCollectionItemReferences()));
+		} else if (expected instanceof RecordLink) {
+			assertRecordLinksAreEqual((RecordLink) actual, (RecordLink) expected);
+		}
+	}
+
+	private static void assertGroupsAreEqual(MetadataGroup actual, MetadataGroup expected) {
+		assertEquals(actual.getRefParentId(), expected.getRefParentId());
+		assertEquals(actual.getChildReferences().size(), expected.getChildReferences().size());
+		for (int i = 0; i < expected.getChildReferences().size(); i++) {
+			assertChildReferencesAreEqual(actual.getChildReferences().get(i),
+					expected.getChildReferences().get(i));
+		}
+	}
+
+	private static void assertChildReferencesAreEqual(MetadataChildReference actual,
+			MetadataChildReference expected) {
+		assertEquals(actual.getLinkedRecordType(), expected.getLinkedRecordType());
+		assertEquals(actual.getLinkedRecordId(), expected.getLinkedRecordId());
+		assertEquals(actual.getRepeatMin(), expected.getRepeatMin());
+		assertEquals(actual.getRepeatMax(), expected.getRepeatMax());
+		assertEquals(actual.isSecret(), expected.isSecret());
+		assertEquals(actual.isReadOnly(), expected.isReadOnly());
+		assertEquals(actual.getRepeatMinKey(), expected.getRepeatMinKey());
+		assertEquals(actual.getSecretKey(), expected.getSecretKey());
+		assertEquals(actual.getReadOnlyKey(), expected.getReadOnlyKey());
+		assertEquals(actual.getCollectTerms().size(), expected.getCollectTerms().size());
+		for (int i = 0; i < expected.getCollectTerms().size(); i++) {
+			assertEquals(actual.getCollectTerms().get(i).type,
+					expected.getCollectTerms().get(i).type);
+			assertEquals(actual.getCollectTerms().get(i).id,
+					expected.getCollectTerms().get(i).id);
+		}
+	}
+
+	private static void assertTextVariablesAreEqual(TextVariable actual, TextVariable expected) {
+		assertEquals(actual.getRegularExpression(), expected.getRegularExpression());
+		assertEquals(actual.getRefParentId(), expected.getRefParentId());
+		assertEquals(actual.getFinalValue(), expected.getFinalValue());
+	}
+
+	private static void assertNumberVariablesAreEqual(NumberVariable actual,
+			NumberVariable expected) {
+		assertEquals(actual.getMin(), expected.getMin());
+		assertEquals(actual.getMax(), expected.getMax());
+		assertEquals(actual.getWarningMin(), expected.getWarningMin());
+		assertEquals(actual.getWarningMax(), expected.getWarningMax());
+		assertEquals(actual.getNumOfDecmials(), expected.getNumOfDecmials());
+	}
+
+	private static void assertCollectionVariablesAreEqual(CollectionVariable actual,
+			CollectionVariable expected) {
+		assertEquals(actual.getRefCollectionId(), expected.getRefCollectionId());
+		assertEquals(actual.getRefParentId(), expected.getRefParentId());
+		assertEquals(actual.getFinalValue(), expected.getFinalValue());
+	}
+
+	private static void assertRecordLinksAreEqual(RecordLink actual, RecordLink expected) {
+		assertEquals(actual.getLinkedRecordType(), expected.getLinkedRecordType());
+		assertEquals(actual.getRefParentId(), expected.getRefParentId());
+		assertEquals(actual.getFinalValue(), expected.getFinalValue());
+		if (expected.getLinkedPath() == null) {
+			assertNull(actual.getLinkedPath());
+		} else {
+			assertDataGroupsAreEqual(actual.getLinkedPath(), expected.getLinkedPath());
+		}
+	}
+
+	private static void assertDataGroupsAreEqual(DataGroup actual, DataGroup expected) {
+		assertEquals(actual.getNameInData(), expected.getNameInData());
+		assertEquals(actual.getRepeatId(), expected.getRepeatId());
+		assertEquals(actual.getAttributes(), expected.getAttributes());
+		assertEquals(actual.getChildren().size(), expected.getChildren().size());
+		for (int i = 0; i < expected.getChildren().size(); i++) {
+			assertDataElementsAreEqual(actual.getChildren().get(i),
+					expected.getChildren().get(i));
+		}
+	}
+
+	private static void assertDataElementsAreEqual(DataElement actual, DataElement expected) {
+		if (expected instanceof DataGroup) {
+			assertDataGroupsAreEqual((DataGroup) actual, (DataGroup) expected);
+		} else {
+			assertEquals(actual.getNameInData(), expected.getNameInData());
+			assertEquals(((DataAtomic) actual).getValue(), ((DataAtomic) expected).getValue());
+			assertEquals(actual.getRepeatId(), expected.getRepeatId());
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderFromStoragePopulator;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStorageSpy;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.DataGroup;
+
+public class MetadataHolderSnapshotLoaderTest {
+	private Path directory;
+	private Path snapshotFile;
+	private MetadataStorageSpy metadataStorage;
+	private MetadataHolderSnapshotLoader loader;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("metadataSnapshot");
+		snapshotFile = directory.resolve("metadata.snapshot");
+		metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("someTextVar");
+		metadataStorage.addGroup("someGroup", "someTextVar");
+		loader = MetadataHolderSnapshotLoader.usingSnapshotFileAndMetadataStorage(snapshotFile,
+				metadataStorage);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(snapshotFile);
+		Files.deleteIfExists(directory);
+	}
+
+	@Test
+	public void testDefaultPopulator() {
+		assertTrue(loader.getPopulator() instanceof MetadataHolderFromStoragePopulator);
+	}
+
+	@Test
+	public void testPopulator() {
+		MetadataHolderFromStoragePopulator populator = new MetadataHolderFromStoragePopulator();
+		loader = MetadataHolderSnapshotLoader.usingSnapshotFileMetadataStorageAndPopulator(
+				snapshotFile, metadataStorage, populator);
+
+		assertSame(loader.getPopulator(), populator);
+	}
+
+	@Test
+	public void testNoSnapshotLoadsFromStorageAndWritesSnapshot() {
+		MetadataHolder metadataHolder = loader.loadMetadataHolder("someVersion");
+
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+		assertTrue(metadataHolder.getMetadataElement("someTextVar") instanceof TextVariable);
+		assertTrue(Files.exists(snapshotFile));
+		assertFalse(Files.exists(directory.resolve("metadata.snapshot.tmp")));
+	}
+
+	@Test
+	public void testValidSnapshotIsUsedWithoutStorage() {
+		loader.loadMetadataHolder("someVersion");
+
+		MetadataHolder metadataHolder = loader.loadMetadataHolder("someVersion");
+
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+		assertTrue(metadataHolder.getMetadataElement("someTextVar") instanceof TextVariable);
+	}
+
+	@Test
+	public void testStaleSnapshotLoadsFromStorageAndWritesNewSnapshot() {
+		loader.loadMetadataHolder("someVersion");
+		metadataStorage.addTextVariable("newTextVar");
+
+		MetadataHolder metadataHolder = loader.loadMetadataHolder("newVersion");
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 2);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 3);
+
+		loader.loadMetadataHolder("newVersion");
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 2);
+	}
+
+	@Test
+	public void testCorruptSnapshotLoadsFromStorage() throws IOException {
+		Files.write(snapshotFile, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+
+		MetadataHolder metadataHolder = loader.loadMetadataHolder("someVersion");
+
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+	}
+
+	@Test
+	public void testReasonSnapshotCouldNotBeUsedIsLogged() throws IOException {
+		Files.write(snapshotFile, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+		Logger logger = Logger.getLogger(MetadataHolderSnapshotLoader.class.getName());
+		List<LogRecord> logRecords = new ArrayList<>();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord logRecord) {
+				logRecords.add(logRecord);
+			}
+
+			@Override
+			public void flush() {
+				// nothing to flush
+			}
+
+			@Override
+			public void close() {
+				// nothing to close
+			}
+		};
+		logger.addHandler(handler);
+		try {
+			loader.loadMetadataHolder("someVersion");
+		} finally {
+			logger.removeHandler(handler);
+		}
+
+		assertEquals(logRecords.size(), 1);
+		assertEquals(logRecords.get(0).getLevel(), Level.WARNING);
+		assertTrue(logRecords.get(0).getMessage().contains("could not be used"));
+		assertTrue(logRecords.get(0).getThrown() instanceof MetadataSnapshotException);
+	}
+
+	@Test
+	public void testVersionCalculatedFromContentUsesSnapshotUntilContentChanges() {
+		loader.loadMetadataHolder();
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 1);
+
+		MetadataHolder metadataHolder = loader.loadMetadataHolder();
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 2);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 2);
+
+		metadataStorage.addTextVariable("newTextVar");
+		metadataHolder = loader.loadMetadataHolder();
+		assertEquals(metadataStorage.numberOfCallsToGetMetadataElements, 3);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 3);
+	}
+
+	@Test
+	public void testMetadataVersionDependsOnContentNotOrder() {
+		List<DataGroup> metadataElements = new ArrayList<>(metadataStorage.metadataElements);
+		String metadataVersion = MetadataHolderSnapshotLoader
+				.calculateMetadataVersion(metadataElements);
+
+		Collections.reverse(metadataElements);
+		assertEquals(MetadataHolderSnapshotLoader.calculateMetadataVersion(metadataElements),
+				metadataVersion);
+		assertEquals(metadataVersion.length(), 64);
+
+		metadataStorage.addTextVariable("newTextVar");
+		assertNotEquals(
+				MetadataHolderSnapshotLoader
+						.calculateMetadataVersion(metadataStorage.metadataElements),
+				metadataVersion);
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Error writing metadata snapshot to file: .*missingDirectory.*")
+	public void testErrorWritingSnapshot() {
+		loader = MetadataHolderSnapshotLoader.usingSnapshotFileAndMetadataStorage(
+				directory.resolve("missingDirectory").resolve("metadata.snapshot"),
+				metadataStorage);
+
+		loader.loadMetadataHolder("someVersion");
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Error reading metadata snapshot from file: .*")
+	public void testErrorReadingSnapshot() {
+		MetadataHolderSnapshotReader.usingExpectedMetadataVersion("someVersion")
+				.readSnapshotFromFile(directory);
+	}
+}
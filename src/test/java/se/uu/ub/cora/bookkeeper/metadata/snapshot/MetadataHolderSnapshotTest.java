@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.linkcollector.DataAtomicFactorySpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataGroupFactorySpy;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataElement;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.DataAtomicProvider;
+import se.uu.ub.cora.data.DataGroupProvider;
+
+public class MetadataHolderSnapshotTest {
+	private MetadataHolder metadataHolder;
+	private MetadataHolderSnapshotWriter writer;
+	private MetadataHolderSnapshotReader reader;
+
+	@BeforeMethod
+	public void setUp() {
+		DataGroupProvider.setDataGroupFactory(new DataGroupFactorySpy());
+		DataAtomicProvider.setDataAtomicFactory(new DataAtomicFactorySpy());
+		metadataHolder = SnapshotMetadataCreator.createMetadataHolderWithAllElementTypes();
+		writer = MetadataHolderSnapshotWriter.usingMetadataVersion("someVersion");
+		reader = MetadataHolderSnapshotReader.usingExpectedMetadataVersion("someVersion");
+	}
+
+	@Test
+	public void testAllElementsAreReadBackUnchanged() {
+		byte[] snapshot = writer.createSnapshot(metadataHolder);
+
+		MetadataHolder readHolder = reader.readSnapshot(snapshot);
+
+		assertEquals(readHolder.getAllMetadataElements().size(), 8);
+		for (MetadataElement expected : metadataHolder.getAllMetadataElements()) {
+			MetadataElementAssert.assertElementsAreEqual(
+					readHolder.getMetadataElement(expected.getId()), expected);
+		}
+	}
+
+	@Test
+	public void testReferencesAreResolvedAfterRead() {
+		MetadataHolder readHolder = reader.readSnapshot(writer.createSnapshot(metadataHolder));
+
+		MetadataGroup group = (MetadataGroup) readHolder.getMetadataElement("someGroup");
+		assertTrue(readHolder.getMetadataReferenceResolver().isResolved(group));
+		assertSame(readHolder.getReferencedElement(group.getChildReferences().get(0)),
+				readHolder.getMetadataElement("someTextVar"));
+		CollectionVariable collectionVariable = (CollectionVariable) readHolder
+				.getMetadataElement("someCollectionVar");
+		assertSame(readHolder.getRefCollection(collectionVariable),
+				readHolder.getMetadataElement("someCollection"));
+	}
+
+	@Test
+	public void testTextVariablesWithSameRegularExpressionSharePattern() {
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("otherTextVar",
+						"otherTextVarName", "otherTextVarText", "otherTextVarDefText",
+						"^[åäö]*$"));
+
+		MetadataHolder readHolder = reader.readSnapshot(writer.createSnapshot(metadataHolder));
+
+		TextVariable textVariable = (TextVariable) readHolder.getMetadataElement("someTextVar");
+		TextVariable otherTextVariable = (TextVariable) readHolder
+				.getMetadataElement("otherTextVar");
+		assertSame(otherTextVariable.getPattern(), textVariable.getPattern());
+	}
+
+	@Test
+	public void testSnapshotIsSameForSameMetadata() {
+		MetadataHolder otherHolder = SnapshotMetadataCreator
+				.createMetadataHolderWithAllElementTypes();
+
+		assertEquals(writer.createSnapshot(otherHolder), writer.createSnapshot(metadataHolder));
+	}
+
+	@Test
+	public void testEmptyHolder() {
+		MetadataHolder readHolder = reader.readSnapshot(writer.createSnapshot(new MetadataHolder()));
+
+		assertEquals(readHolder.getAllMetadataElements().size(), 0);
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata snapshot checksum does not match content")
+	public void testChangedContentIsDetected() {
+		byte[] snapshot = writer.createSnapshot(metadataHolder);
+		snapshot[snapshot.length / 2]++;
+
+		reader.readSnapshot(snapshot);
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata snapshot has metadata version someVersion, expected otherVersion")
+	public void testOtherMetadataVersionIsDetected() {
+		byte[] snapshot = writer.createSnapshot(metadataHolder);
+
+		MetadataHolderSnapshotReader.usingExpectedMetadataVersion("otherVersion")
+				.readSnapshot(snapshot);
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Data is not a metadata snapshot")
+	public void testWrongMagicIsDetected() {
+		byte[] snapshot = writer.createSnapshot(metadataHolder);
+		snapshot[0] = 0;
+
+		reader.readSnapshot(withRecalculatedChecksum(snapshot));
+	}
+
+	private byte[] withRecalculatedChecksum(byte[] snapshot) {
+		int contentLength = snapshot.length - MetadataSnapshotFormat.CHECKSUM_LENGTH;
+		ByteBuffer.wrap(snapshot, contentLength, MetadataSnapshotFormat.CHECKSUM_LENGTH)
+				.putInt(MetadataSnapshotFormat.calculateChecksum(snapshot, contentLength));
+		return snapshot;
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata snapshot format version 3 is not supported, expected 2")
+	public void testOtherFormatVersionIsDetected() {
+		byte[] snapshot = writer.createSnapshot(metadataHolder);
+		ByteBuffer.wrap(snapshot).putInt(Integer.BYTES, 3);
+
+		reader.readSnapshot(withRecalculatedChecksum(snapshot));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata snapshot is truncated")
+	public void testTooShortSnapshotIsDetected() {
+		reader.readSnapshot(new byte[3]);
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata snapshot is truncated")
+	public void testTruncatedSnapshotIsDetected() {
+		byte[] snapshot = writer.createSnapshot(metadataHolder);
+		byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 20);
+
+		reader.readSnapshot(withRecalculatedChecksum(truncated));
+	}
+
+	@Test(expectedExceptions = MetadataSnapshotException.class, expectedExceptionsMessageRegExp = ""
+			+ "No snapshot encoding found for element: someOtherElement of type: .*OtherElement")
+	public void testUnknownElementTypeCanNotBeWritten() {
+		metadataHolder.addMetadataElement(new OtherElement("someOtherElement"));
+
+		writer.createSnapshot(metadataHolder);
+	}
+
+	private static class OtherElement extends MetadataElement {
+		OtherElement(String id) {
+			super(id, id, "someText", "someDefText");
+		}
+	}
+}
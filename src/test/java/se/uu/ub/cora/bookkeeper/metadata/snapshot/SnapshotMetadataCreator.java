@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.metadata.snapshot;
+
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.CollectTerm;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
+import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
+import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
+import se.uu.ub.cora.bookkeeper.metadata.LimitsContainer;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.NumberVariable;
+import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
+import se.uu.ub.cora.bookkeeper.metadata.ResourceLink;
+import se.uu.ub.cora.bookkeeper.metadata.StandardMetadataParameters;
+import se.uu.ub.cora.bookkeeper.metadata.TextContainer;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.DataGroup;
+
+public class SnapshotMetadataCreator {
+
+	public static MetadataHolder createMetadataHolderWithAllElementTypes() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		metadataHolder.addMetadataElement(createGroup());
+		metadataHolder.addMetadataElement(createTextVariable());
+		metadataHolder.addMetadataElement(createNumberVariable());
+		metadataHolder.addMetadataElement(createCollectionVariable());
+		metadataHolder.addMetadataElement(createItemCollection());
+		metadataHolder.addMetadataElement(
+				new CollectionItem("someItem", "someItem", "someItemText", "someItemDefText"));
+		metadataHolder.addMetadataElement(createRecordLink());
+		metadataHolder.addMetadataElement(ResourceLink.withIdAndNameInDataAndTextIdAndDefTextId(
+				"someResourceLink", "someResourceLink", "someResourceLinkText",
+				"someResourceLinkDefText"));
+		metadataHolder.resolveReferences();
+		return metadataHolder;
+	}
+
+	private static MetadataGroup createGroup() {
+		MetadataGroup group = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId("someGroup",
+				"someGroupName", "someGroupText", "someGroupDefText");
+		group.setRefParentId("someParentGroup");
+		group.addAttributeReference("someCollectionVar");
+		MetadataChildReference textChild = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax(
+						"metadataTextVariable", "someTextVar", 0, MetadataChildReference.UNLIMITED);
+		textChild.setSecret(true);
+		textChild.setSecretKey("someSecretKey");
+		textChild.setRepeatMinKey("someRepeatMinKey");
+		textChild.addCollectIndexTerm(
+				CollectTerm.createCollectTermWithTypeAndId("index", "someIndexTerm"));
+		textChild.addCollectIndexTerm(
+				CollectTerm.createCollectTermWithTypeAndId("storage", "someStorageTerm"));
+		group.addChildReference(textChild);
+		MetadataChildReference linkChild = MetadataChildReference
+				.withLinkedRecordTypeAndLinkedRecordIdAndRepeatMinAndRepeatMax("metadataRecordLink",
+						"someRecordLink", 1, 3);
+		linkChild.setReadOnly(true);
+		linkChild.setReadOnlyKey("someReadOnlyKey");
+		group.addChildReference(linkChild);
+		return group;
+	}
+
+	private static TextVariable createTextVariable() {
+		TextVariable textVariable = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("someTextVar",
+						"someTextVarName", "someTextVarText", "someTextVarDefText", "^[åäö]*$");
+		textVariable.setRefParentId("someParentTextVar");
+		textVariable.setFinalValue("someFinalValue");
+		return textVariable;
+	}
+
+	private static NumberVariable createNumberVariable() {
+		StandardMetadataParameters standardParams = StandardMetadataParameters
+				.usingIdNameInDataAndTextContainer("someNumberVar", "someNumberVarName",
+						TextContainer.usingTextIdAndDefTextId("someNumberVarText",
+								"someNumberVarDefText"));
+		return NumberVariable.usingStandardParamsLimitsWarnLimitsAndNumOfDecimals(standardParams,
+				LimitsContainer.usingMinAndMax(-1.5, 100), LimitsContainer.usingMinAndMax(2, 90.25),
+				2);
+	}
+
+	private static CollectionVariable createCollectionVariable() {
+		CollectionVariable collectionVariable = new CollectionVariable("someCollectionVar",
+				"type", "someCollectionVarText", "someCollectionVarDefText", "someCollection");
+		collectionVariable.setFinalValue("someItem");
+		return collectionVariable;
+	}
+
+	private static ItemCollection createItemCollection() {
+		ItemCollection itemCollection = new ItemCollection("someCollection", "someCollection",
+				"someCollectionText", "someCollectionDefText");
+		itemCollection.addItemReference("someItem");
+		return itemCollection;
+	}
+
+	private static RecordLink createRecordLink() {
+		RecordLink recordLink = RecordLink
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType("someRecordLink",
+						"someRecordLinkName", "someRecordLinkText", "someRecordLinkDefText",
+						"someLinkedRecordType");
+		recordLink.addAttributeReference("someCollectionVar");
+		recordLink.setRefParentId("someParentLink");
+		recordLink.setLinkedPath(createLinkedPath());
+		return recordLink;
+	}
+
+	private static DataGroup createLinkedPath() {
+		DataGroup linkedPath = new DataGroupSpy("linkedPath");
+		linkedPath.addChild(new DataAtomicSpy("nameInData", "someGroupName"));
+		DataGroup innerPath = new DataGroupSpy("linkedPath");
+		innerPath.addAttributeByIdWithValue("type", "someType");
+		innerPath.addChild(new DataAtomicSpy("nameInData", "someRecordLinkName"));
+		innerPath.addChild(new DataAtomicSpy("repeatId", "1", "0"));
+		linkedPath.addChild(innerPath);
+		return linkedPath;
+	}
+}
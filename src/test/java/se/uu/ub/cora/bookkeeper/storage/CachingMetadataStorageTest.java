@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.data.DataGroup;
+
+public class CachingMetadataStorageTest {
+	private MetadataStorageCallCounterSpy metadataStorage;
+	private CachingMetadataStorage cachingStorage;
+
+	@BeforeMethod
+	public void setUp() {
+		metadataStorage = new MetadataStorageCallCounterSpy();
+		metadataStorage.metadataElements.add(new DataGroupSpy("metadata"));
+		cachingStorage = CachingMetadataStorage.usingMetadataStorage(metadataStorage);
+	}
+
+	@Test
+	public void testGetMetadataStorage() {
+		assertSame(cachingStorage.getMetadataStorage(), metadataStorage);
+	}
+
+	@Test
+	public void testNothingIsReadBeforeRequested() {
+		assertEquals(metadataStorage.numberOfCalls.size(), 0);
+	}
+
+	@Test
+	public void testMetadataElementsAreReadOnce() {
+		Collection<DataGroup> metadataElements = cachingStorage.getMetadataElements();
+
+		assertSame(cachingStorage.getMetadataElements(), metadataElements);
+		assertEquals(metadataElements.size(), 1);
+		assertSame(metadataElements.iterator().next(), metadataStorage.metadataElements.get(0));
+		assertEquals(metadataStorage.getNumberOfCallsTo("getMetadataElements"), 1);
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void testCachedCollectionIsUnmodifiable() {
+		cachingStorage.getMetadataElements().clear();
+	}
+
+	@Test
+	public void testEachKindIsReadOnce() {
+		readAllKindsTwice();
+
+		assertEquals(metadataStorage.getNumberOfCallsTo("getMetadataElements"), 1);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getPresentationElements"), 1);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getTexts"), 1);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getRecordTypes"), 1);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getCollectTerms"), 1);
+	}
+
+	private void readAllKindsTwice() {
+		for (int i = 0; i < 2; i++) {
+			cachingStorage.getMetadataElements();
+			cachingStorage.getPresentationElements();
+			cachingStorage.getTexts();
+			cachingStorage.getRecordTypes();
+			cachingStorage.getCollectTerms();
+		}
+	}
+
+	@Test
+	public void testKindsAreCachedSeparately() {
+		assertEquals(cachingStorage.getTexts().iterator().next().getNameInData(), "text");
+		assertEquals(cachingStorage.getRecordTypes().iterator().next().getNameInData(),
+				"recordType");
+		assertEquals(cachingStorage.getCollectTerms().iterator().next().getNameInData(),
+				"collectTerm");
+		assertEquals(cachingStorage.getPresentationElements().iterator().next().getNameInData(),
+				"presentation");
+	}
+
+	@Test
+	public void testInvalidateReadsFromStorageAgain() {
+		Collection<DataGroup> metadataElements = cachingStorage.getMetadataElements();
+		readAllKindsTwice();
+
+		cachingStorage.invalidate();
+		readAllKindsTwice();
+
+		assertNotSame(cachingStorage.getMetadataElements(), metadataElements);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getMetadataElements"), 2);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getCollectTerms"), 2);
+	}
+
+	@Test
+	public void testReadInProgressWhenInvalidatedIsNotCached() {
+		DataGroup changedElement = new DataGroupSpy("changedMetadata");
+		metadataStorage.whileReadingMetadataElements = () -> {
+			metadataStorage.whileReadingMetadataElements = null;
+			metadataStorage.metadataElements.set(0, changedElement);
+			cachingStorage.invalidate();
+		};
+
+		Collection<DataGroup> readBeforeInvalidate = cachingStorage.getMetadataElements();
+		Collection<DataGroup> readAfterInvalidate = cachingStorage.getMetadataElements();
+
+		assertNotSame(readAfterInvalidate, readBeforeInvalidate);
+		assertSame(readAfterInvalidate.iterator().next(), changedElement);
+		assertSame(cachingStorage.getMetadataElements(), readAfterInvalidate);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getMetadataElements"), 2);
+	}
+
+	@Test
+	public void testInvalidateNotifiesListeners() {
+		AtomicInteger numOfNotifications = new AtomicInteger();
+		MetadataChangeListener listener = numOfNotifications::incrementAndGet;
+		cachingStorage.addMetadataChangeListener(listener);
+
+		cachingStorage.invalidate();
+		assertEquals(numOfNotifications.get(), 1);
+
+		cachingStorage.removeMetadataChangeListener(listener);
+		cachingStorage.invalidate();
+		assertEquals(numOfNotifications.get(), 1);
+	}
+
+	@Test
+	public void testListenerReloadingMetadataHolderProvider() {
+		metadataStorage.metadataElements.clear();
+		MetadataHolderProvider provider = MetadataHolderProvider
+				.usingMetadataStorage(cachingStorage);
+		cachingStorage.addMetadataChangeListener(provider::reload);
+		provider.getCurrent();
+		cachingStorage.getMetadataElements();
+
+		cachingStorage.invalidate();
+
+		assertEquals(provider.getCurrentVersion(), 2);
+		assertEquals(metadataStorage.getNumberOfCallsTo("getMetadataElements"), 2);
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataAtomicFactorySpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataGroupFactorySpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataRecordLinkFactorySpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataRecordLinkSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderFromStoragePopulator;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStorageSpy;
+import se.uu.ub.cora.bookkeeper.metadata.RecordLink;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.Action;
+import se.uu.ub.cora.data.DataAtomic;
+import se.uu.ub.cora.data.DataAtomicProvider;
+import se.uu.ub.cora.data.DataElement;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.data.DataGroupProvider;
+import se.uu.ub.cora.data.DataRecordLink;
+import se.uu.ub.cora.data.DataRecordLinkProvider;
+
+public class FileMetadataStorageTest {
+	private Path directory;
+	private MetadataStorageSpy metadataStorage;
+	private FileMetadataStorage fileStorage;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		DataGroupProvider.setDataGroupFactory(new DataGroupFactorySpy());
+		DataAtomicProvider.setDataAtomicFactory(new DataAtomicFactorySpy());
+		directory = Files.createTempDirectory("fileMetadataStorage");
+		metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("someTextVar");
+		metadataStorage.addRecordLink("someLink", "someRecordType");
+		metadataStorage.addGroup("someGroup", "someTextVar", "someLink");
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+		fileStorage = FileMetadataStorage.usingDirectory(directory);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : sortedDeepestFirst(paths)) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private List<Path> sortedDeepestFirst(Stream<Path> paths) {
+		List<Path> sorted = new ArrayList<>();
+		paths.sorted(Comparator.reverseOrder()).forEach(sorted::add);
+		return sorted;
+	}
+
+	@Test
+	public void testDirectory() {
+		assertSame(fileStorage.getDirectory(), directory);
+		assertSame(FileMetadataStorageWriter.usingDirectory(directory).getDirectory(), directory);
+	}
+
+	@Test
+	public void testOneFilePerKindAndNoTemporaryFiles() {
+		for (MetadataFile metadataFile : MetadataFile.values()) {
+			assertTrue(Files.exists(directory.resolve(metadataFile.fileName)));
+			assertFalse(Files.exists(directory.resolve(metadataFile.fileName + ".tmp")));
+		}
+	}
+
+	@Test
+	public void testMetadataElementIdsAreReadInOrder() {
+		assertEquals(fileStorage.getMetadataElementIds(),
+				List.of("someTextVar", "someLink", "someGroup"));
+	}
+
+	@Test
+	public void testAllMetadataElementsAreReadBackUnchanged() {
+		Collection<DataGroup> readElements = fileStorage.getMetadataElements();
+
+		assertEquals(readElements.size(), 3);
+		int i = 0;
+		for (DataGroup readElement : readElements) {
+			assertDataGroupsAreEqual(readElement, metadataStorage.metadataElements.get(i));
+			i++;
+		}
+	}
+
+	private void assertDataGroupsAreEqual(DataGroup actual, DataGroup expected) {
+		assertEquals(actual.getNameInData(), expected.getNameInData());
+		assertEquals(actual.getRepeatId(), expected.getRepeatId());
+		assertEquals(actual.getAttributes(), expected.getAttributes());
+		assertEquals(actual.getChildren().size(), expected.getChildren().size());
+		for (int i = 0; i < expected.getChildren().size(); i++) {
+			assertDataElementsAreEqual(actual.getChildren().get(i),
+					expected.getChildren().get(i));
+		}
+	}
+
+	private void assertDataElementsAreEqual(DataElement actual, DataElement expected) {
+		if (expected instanceof DataGroup) {
+			assertDataGroupsAreEqual((DataGroup) actual, (DataGroup) expected);
+		} else {
+			assertEquals(actual.getNameInData(), expected.getNameInData());
+			assertEquals(actual.getRepeatId(), expected.getRepeatId());
+			assertEquals(((DataAtomic) actual).getValue(), ((DataAtomic) expected).getValue());
+		}
+	}
+
+	@Test
+	public void testAttributesAndRepeatIdsAreKept() throws IOException {
+		DataGroup dataGroup = new DataGroupSpy("someNameInData");
+		dataGroup.addAttributeByIdWithValue("type", "someType");
+		DataGroup child = new DataGroupSpy("childGroup");
+		child.setRepeatId("1");
+		DataAtomic atomic = new DataAtomicSpy("childAtomic", "someValue");
+		atomic.setRepeatId("2");
+		child.addChild(atomic);
+		dataGroup.addChild(child);
+		metadataStorage.metadataElements.clear();
+		metadataStorage.metadataElements.add(dataGroup);
+
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+		fileStorage = FileMetadataStorage.usingDirectory(directory);
+
+		DataGroup readGroup = fileStorage.getMetadataElements().iterator().next();
+		assertDataGroupsAreEqual(readGroup, dataGroup);
+		assertEquals(readGroup.getAttributes().get("type"), "someType");
+		assertNull(readGroup.getRepeatId());
+		assertEquals(fileStorage.getMetadataElementIds(), List.of(""));
+	}
+
+	@Test
+	public void testRecordLinksAreReadBackAsRecordLinksWithActions() {
+		DataRecordLinkProvider.setDataRecordLinkFactory(new DataRecordLinkFactorySpy());
+		DataGroup dataGroup = new DataGroupSpy("someNameInData");
+		DataRecordLinkSpy recordLink = new DataRecordLinkSpy("someLink");
+		recordLink.setRepeatId("1");
+		recordLink.addAttributeByIdWithValue("type", "someType");
+		recordLink.addChild(new DataAtomicSpy("linkedRecordType", "someRecordType"));
+		recordLink.addAction(Action.READ);
+		dataGroup.addChild(recordLink);
+		metadataStorage.metadataElements.clear();
+		metadataStorage.metadataElements.add(dataGroup);
+
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+
+		DataGroup readGroup = fileStorage.getMetadataElements().iterator().next();
+		assertDataGroupsAreEqual(readGroup, dataGroup);
+		DataRecordLink readLink = (DataRecordLink) readGroup.getChildren().get(0);
+		assertEquals(readLink.getActions(), List.of(Action.READ));
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "DataAtomic with nameInData childAtomic has attributes, "
+			+ "which can not be recreated when it is decoded")
+	public void testDataAtomicWithAttributesIsNotWritten() {
+		DataGroup dataGroup = new DataGroupSpy("someNameInData");
+		dataGroup.addChild(new DataAtomicSpy("childAtomic", "someValue") {
+			@Override
+			public Map<String, String> getAttributes() {
+				return Map.of("type", "someType");
+			}
+		});
+		metadataStorage.metadataElements.clear();
+		metadataStorage.metadataElements.add(dataGroup);
+
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+	}
+
+	@Test
+	public void testRewrittenFileIsReadBySameInstance() {
+		assertEquals(fileStorage.getMetadataElementIds().size(), 3);
+		metadataStorage.metadataElements.remove(0);
+
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+
+		assertEquals(fileStorage.getMetadataElementIds(), List.of("someLink", "someGroup"));
+		DataGroup readElement = fileStorage.getMetadataElement("someGroup");
+		assertDataGroupsAreEqual(readElement, metadataStorage.metadataElements.get(1));
+		assertEquals(fileStorage.getMetadataElements().size(), 2);
+	}
+
+	@Test
+	public void testOpenFileIsReadFromSameVersionWhenFileIsReplaced() {
+		try (FileMetadataStorage.OpenMetadataFile openFile = fileStorage
+				.openMetadataElementsFile()) {
+			metadataStorage.metadataElements.remove(0);
+			FileMetadataStorageWriter.usingDirectory(directory)
+					.writeMetadataStorage(metadataStorage);
+
+			assertEquals(openFile.getIds(), List.of("someTextVar", "someLink", "someGroup"));
+			assertEquals(openFile.getChecksums().size(), 3);
+			assertEquals(openFile.readElementWithId("someTextVar").getNameInData(),
+					"metadata");
+			assertEquals(openFile.readAllElements().size(), 3);
+		}
+		assertEquals(fileStorage.getMetadataElementIds(), List.of("someLink", "someGroup"));
+	}
+
+	@Test
+	public void testSingleMetadataElementIsReadById() {
+		DataGroup readElement = fileStorage.getMetadataElement("someLink");
+
+		assertDataGroupsAreEqual(readElement, metadataStorage.metadataElements.get(1));
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "No metadata element found with id: someMissingId")
+	public void testMissingMetadataElement() {
+		fileStorage.getMetadataElement("someMissingId");
+	}
+
+	@Test
+	public void testOtherKindsAreReadFromTheirFiles() {
+		assertEquals(fileStorage.getPresentationElements().size(), 0);
+		assertEquals(fileStorage.getTexts().size(), 0);
+		assertEquals(fileStorage.getRecordTypes().size(), 0);
+		assertEquals(fileStorage.getCollectTerms().size(), 0);
+	}
+
+	@Test
+	public void testMissingFilesAreReadAsEmpty() throws IOException {
+		Files.delete(directory.resolve(MetadataFile.METADATA_ELEMENTS.fileName));
+		Files.delete(directory.resolve(MetadataFile.COLLECT_TERMS.fileName));
+
+		assertEquals(fileStorage.getMetadataElements().size(), 0);
+		assertEquals(fileStorage.getMetadataElementIds().size(), 0);
+		assertEquals(fileStorage.getCollectTerms().size(), 0);
+	}
+
+	@Test
+	public void testFileMetadataStorageCanBeUsedByPopulator() {
+		metadataStorage.addTextVariable("linkedRecordIdTextVar");
+		metadataStorage.addTextVariable("linkedRepeatIdTextVar");
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+
+		MetadataHolder metadataHolder = new MetadataHolderFromStoragePopulator()
+				.createAndPopulateMetadataHolderFromMetadataStorage(fileStorage);
+
+		assertTrue(metadataHolder.getMetadataElement("someTextVar") instanceof TextVariable);
+		assertTrue(metadataHolder.getMetadataElement("someLink") instanceof RecordLink);
+		MetadataGroup group = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		assertEquals(group.getChildReferences().size(), 2);
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "Checksum does not match for metadata element someGroup in metadata file: .*")
+	public void testCorruptElementIsDetectedWhenReadById() throws IOException {
+		corruptLastByteOfMetadataElementsFile();
+
+		fileStorage.getMetadataElement("someGroup");
+	}
+
+	private void corruptLastByteOfMetadataElementsFile() throws IOException {
+		Path file = directory.resolve(MetadataFile.METADATA_ELEMENTS.fileName);
+		byte[] content = Files.readAllBytes(file);
+		content[content.length - 1]++;
+		Files.write(file, content);
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "Checksum does not match for metadata element someGroup in metadata file: .*")
+	public void testCorruptElementIsDetectedWhenReadingAll() throws IOException {
+		corruptLastByteOfMetadataElementsFile();
+
+		fileStorage.getMetadataElements();
+	}
+
+	@Test
+	public void testOtherElementsCanBeReadWhenOneIsCorrupt() throws IOException {
+		corruptLastByteOfMetadataElementsFile();
+
+		DataGroup readElement = fileStorage.getMetadataElement("someTextVar");
+
+		assertDataGroupsAreEqual(readElement, metadataStorage.metadataElements.get(0));
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "File is not a metadata file: .*metadataElements.cmf")
+	public void testFileWithWrongMagicNumber() throws IOException {
+		Files.write(directory.resolve(MetadataFile.METADATA_ELEMENTS.fileName),
+				new byte[] { 1, 2, 3, 4, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0 });
+
+		fileStorage.getMetadataElementIds();
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata file format version 4 is not supported, expected 3: .*")
+	public void testFileWithWrongFormatVersion() throws IOException {
+		Path file = directory.resolve(MetadataFile.METADATA_ELEMENTS.fileName);
+		byte[] content = Files.readAllBytes(file);
+		content[7] = 4;
+		Files.write(file, content);
+
+		fileStorage.getMetadataElements();
+	}
+
+	@Test(expectedExceptions = MetadataFileException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata file is truncated: .*")
+	public void testTruncatedFile() throws IOException {
+		Path file = directory.resolve(MetadataFile.METADATA_ELEMENTS.fileName);
+		byte[] content = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(content, 20));
+
+		fileStorage.getMetadataElementIds();
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataAtomicFactorySpy;
+import se.uu.ub.cora.bookkeeper.linkcollector.DataGroupFactorySpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataConsistencyException;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStorageSpy;
+import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
+import se.uu.ub.cora.data.DataAtomicProvider;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.data.DataGroupProvider;
+
+public class MetadataDirectoryReloaderTest {
+	private static final long WAIT_FOR_RELOAD_MILLIS = 10000;
+	private Path directory;
+	private MetadataStorageSpy metadataStorage;
+	private MetadataHolderProvider metadataHolderProvider;
+	private MetadataDirectoryReloader reloader;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		DataGroupProvider.setDataGroupFactory(new DataGroupFactorySpy());
+		DataAtomicProvider.setDataAtomicFactory(new DataAtomicFactorySpy());
+		directory = Files.createTempDirectory("metadataDirectoryReloader");
+		metadataStorage = new MetadataStorageSpy();
+		metadataStorage.addTextVariable("someTextVar");
+		metadataStorage.addTextVariable("otherTextVar");
+		metadataStorage.addTextVariable("linkedRecordIdTextVar");
+		metadataStorage.addTextVariable("linkedRepeatIdTextVar");
+		metadataStorage.addRecordLink("someLink", "someRecordType");
+		metadataStorage.addGroup("someGroup", "someTextVar");
+		metadataStorage.addGroup("topGroup", "someGroup", "otherTextVar");
+		writeMetadataStorageToDirectory();
+		metadataHolderProvider = MetadataHolderProvider.usingMetadataHolderSupplier(
+				() -> new MetadataHolder());
+		reloader = MetadataDirectoryReloader.usingDirectoryAndMetadataHolderProvider(directory,
+				metadataHolderProvider);
+	}
+
+	private void writeMetadataStorageToDirectory() {
+		FileMetadataStorageWriter.usingDirectory(directory).writeMetadataStorage(metadataStorage);
+	}
+
+	@AfterMethod
+	public void tearDown() throws IOException {
+		reloader.close();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : sortedDeepestFirst(paths)) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private List<Path> sortedDeepestFirst(Stream<Path> paths) {
+		List<Path> sorted = new ArrayList<>();
+		paths.sorted(Comparator.reverseOrder()).forEach(sorted::add);
+		return sorted;
+	}
+
+	@Test
+	public void testInit() {
+		assertSame(reloader.getDirectory(), directory);
+		assertSame(reloader.getMetadataHolderProvider(), metadataHolderProvider);
+		assertNull(reloader.getLastReloadException());
+	}
+
+	@Test
+	public void testFirstReloadConvertsAllElements() {
+		Set<String> convertedIds = reloader.reloadChangedElements();
+
+		assertEquals(convertedIds, Set.of("someTextVar", "otherTextVar", "linkedRecordIdTextVar",
+				"linkedRepeatIdTextVar", "someLink", "someGroup", "topGroup"));
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 1);
+		MetadataHolder metadataHolder = metadataHolderProvider.getMetadataHolder();
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 7);
+		MetadataGroup topGroup = (MetadataGroup) metadataHolder.getMetadataElement("topGroup");
+		assertSame(metadataHolder.getReferencedElement(topGroup.getChildReferences().get(0)),
+				metadataHolder.getMetadataElement("someGroup"));
+	}
+
+	@Test
+	public void testNothingIsPublishedWhenNothingHasChanged() {
+		reloader.reloadChangedElements();
+
+		Set<String> convertedIds = reloader.reloadChangedElements();
+
+		assertTrue(convertedIds.isEmpty());
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 1);
+	}
+
+	@Test
+	public void testOnlyChangedElementIsConverted() {
+		reloader.reloadChangedElements();
+		MetadataHolder previousHolder = metadataHolderProvider.getMetadataHolder();
+		replaceSomeTextVarWithRegEx("^[0-9]*$");
+
+		Set<String> convertedIds = reloader.reloadChangedElements();
+
+		assertEquals(convertedIds, Set.of("someTextVar"));
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 2);
+		MetadataHolder metadataHolder = metadataHolderProvider.getMetadataHolder();
+		TextVariable someTextVar = (TextVariable) metadataHolder
+				.getMetadataElement("someTextVar");
+		assertEquals(someTextVar.getRegularExpression(), "^[0-9]*$");
+		MetadataGroup someGroup = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		assertSame(metadataHolder.getReferencedElement(someGroup.getChildReferences().get(0)),
+				someTextVar);
+		assertSameInBothHolders(previousHolder, metadataHolder, "someGroup");
+		assertSameInBothHolders(previousHolder, metadataHolder, "topGroup");
+		assertSameInBothHolders(previousHolder, metadataHolder, "otherTextVar");
+		assertSameInBothHolders(previousHolder, metadataHolder, "someLink");
+	}
+
+	@Test
+	public void testConvertedElementsShareValuesWithKeptElements() {
+		reloader.reloadChangedElements();
+		MetadataHolder previousHolder = metadataHolderProvider.getMetadataHolder();
+		DataGroup textVariable = metadataStorage.createTextVariable("someTextVar");
+		textVariable.addChild(new DataAtomicSpy("finalValue", "someFinalValue"));
+		metadataStorage.metadataElements.set(0, textVariable);
+		writeMetadataStorageToDirectory();
+
+		reloader.reloadChangedElements();
+
+		MetadataHolder metadataHolder = metadataHolderProvider.getMetadataHolder();
+		TextVariable someTextVar = (TextVariable) metadataHolder
+				.getMetadataElement("someTextVar");
+		TextVariable otherTextVar = (TextVariable) metadataHolder
+				.getMetadataElement("otherTextVar");
+		assertEquals(someTextVar.getFinalValue(), "someFinalValue");
+		assertSame(someTextVar.getPattern(), otherTextVar.getPattern());
+		assertSame(someTextVar.getTextId(),
+				previousHolder.getMetadataElement("someTextVar").getTextId());
+	}
+
+	@Test
+	public void testUsageIndexIsBuiltForPublishedHolder() {
+		reloader.reloadChangedElements();
+		replaceSomeTextVarWithRegEx("^[0-9]*$");
+
+		reloader.reloadChangedElements();
+
+		MetadataHolder metadataHolder = metadataHolderProvider.getMetadataHolder();
+		assertSame(metadataHolder.getUsageIndex(), metadataHolder.getUsageIndex());
+		assertSame(metadataHolder.getUsageIndex().getElementsReferringTo("someTextVar").get(0),
+				metadataHolder.getMetadataElement("someGroup"));
+	}
+
+	private void replaceSomeTextVarWithRegEx(String regEx) {
+		DataGroup textVariable = metadataStorage
+				.createMetadataDataGroupWithIdAndType("someTextVar", "textVariable");
+		textVariable.addChild(new DataAtomicSpy("regEx", regEx));
+		metadataStorage.metadataElements.set(0, textVariable);
+		writeMetadataStorageToDirectory();
+	}
+
+	private void assertSameInBothHolders(MetadataHolder previousHolder,
+			MetadataHolder metadataHolder, String id) {
+		assertSame(metadataHolder.getMetadataElement(id), previousHolder.getMetadataElement(id));
+	}
+
+	@Test
+	public void testPreviousHolderIsNotChangedByReload() {
+		reloader.reloadChangedElements();
+		MetadataHolder previousHolder = metadataHolderProvider.getMetadataHolder();
+		replaceSomeTextVarWithRegEx("^[0-9]*$");
+
+		reloader.reloadChangedElements();
+
+		MetadataGroup someGroup = (MetadataGroup) previousHolder.getMetadataElement("someGroup");
+		TextVariable referencedTextVar = (TextVariable) previousHolder
+				.getReferencedElement(someGroup.getChildReferences().get(0));
+		assertEquals(referencedTextVar.getRegularExpression(), "^.*$");
+		assertSame(referencedTextVar, previousHolder.getMetadataElement("someTextVar"));
+	}
+
+	@Test
+	public void testAddedElementIsConverted() {
+		reloader.reloadChangedElements();
+		metadataStorage.addTextVariable("addedTextVar");
+		writeMetadataStorageToDirectory();
+
+		Set<String> convertedIds = reloader.reloadChangedElements();
+
+		assertEquals(convertedIds, Set.of("addedTextVar"));
+		MetadataHolder metadataHolder = metadataHolderProvider.getMetadataHolder();
+		assertTrue(metadataHolder.getMetadataElement("addedTextVar") instanceof TextVariable);
+		assertEquals(metadataHolder.getAllMetadataElements().size(), 8);
+	}
+
+	@Test
+	public void testRemovedElementIsRemovedAndChangedElementIsConverted() {
+		reloader.reloadChangedElements();
+		MetadataHolder previousHolder = metadataHolderProvider.getMetadataHolder();
+		metadataStorage.metadataElements.remove(0);
+		replaceSomeGroupWithGroupWithChildren("otherTextVar");
+
+		Set<String> convertedIds = reloader.reloadChangedElements();
+
+		assertEquals(convertedIds, Set.of("someTextVar", "someGroup"));
+		MetadataHolder metadataHolder = metadataHolderProvider.getMetadataHolder();
+		assertSameInBothHolders(previousHolder, metadataHolder, "topGroup");
+		assertNull(metadataHolder.getMetadataElement("someTextVar"));
+		MetadataGroup someGroup = (MetadataGroup) metadataHolder.getMetadataElement("someGroup");
+		assertSame(metadataHolder.getReferencedElement(someGroup.getChildReferences().get(0)),
+				metadataHolder.getMetadataElement("otherTextVar"));
+	}
+
+	private void replaceSomeGroupWithGroupWithChildren(String... childIds) {
+		DataGroup someGroup = metadataStorage.createGroup("someGroup", childIds);
+		int index = findIndexOfElementWithId("someGroup");
+		metadataStorage.metadataElements.set(index, someGroup);
+		writeMetadataStorageToDirectory();
+	}
+
+	private int findIndexOfElementWithId(String id) {
+		for (int i = 0; i < metadataStorage.metadataElements.size(); i++) {
+			DataGroup recordInfo = metadataStorage.metadataElements.get(i)
+					.getFirstGroupWithNameInData("recordInfo");
+			if (id.equals(recordInfo.getFirstAtomicValueWithNameInData("id"))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void testRemovedElementStillReferredToIsNotPublished() {
+		reloader.reloadChangedElements();
+		MetadataHolder previousHolder = metadataHolderProvider.getMetadataHolder();
+		metadataStorage.metadataElements.remove(0);
+		writeMetadataStorageToDirectory();
+
+		try {
+			reloader.reloadChangedElements();
+			fail("Expected MetadataConsistencyException");
+		} catch (MetadataConsistencyException e) {
+			assertEquals(e.getMessage(), "Metadata is inconsistent: Element someGroup has "
+					+ "child reference to missing element someTextVar");
+		}
+
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 1);
+		assertSame(metadataHolderProvider.getMetadataHolder(), previousHolder);
+	}
+
+	@Test
+	public void testFailedReloadKeepsPublishedHolder() throws IOException {
+		reloader.reloadChangedElements();
+		MetadataHolder previousHolder = metadataHolderProvider.getMetadataHolder();
+		metadataStorage.addElementWithUnknownType("brokenElement");
+		writeMetadataStorageToDirectory();
+
+		boolean reloadFailed = false;
+		try {
+			reloader.reloadChangedElements();
+		} catch (RuntimeException e) {
+			reloadFailed = true;
+		}
+
+		assertTrue(reloadFailed);
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 1);
+		assertSame(metadataHolderProvider.getMetadataHolder(), previousHolder);
+		metadataStorage.metadataElements.remove(metadataStorage.metadataElements.size() - 1);
+		writeMetadataStorageToDirectory();
+		assertTrue(reloader.reloadChangedElements().isEmpty());
+	}
+
+	@Test
+	public void testListenersAreNotifiedWhenHolderIsPublished() {
+		AtomicInteger numberOfNotifications = new AtomicInteger();
+		MetadataChangeListener listener = numberOfNotifications::incrementAndGet;
+		reloader.addMetadataChangeListener(listener);
+
+		reloader.reloadChangedElements();
+		reloader.reloadChangedElements();
+		reloader.removeMetadataChangeListener(listener);
+		replaceSomeTextVarWithRegEx("^[0-9]*$");
+		reloader.reloadChangedElements();
+
+		assertEquals(numberOfNotifications.get(), 1);
+	}
+
+	@Test
+	public void testChangedFileIsReloadedWhenWatching() throws Exception {
+		reloader.reloadChangedElements();
+		reloader.startWatching(runnable -> new Thread(runnable).start());
+
+		replaceSomeTextVarWithRegEx("^[0-9]*$");
+
+		waitForVersion(2);
+		TextVariable someTextVar = (TextVariable) metadataHolderProvider.getMetadataHolder()
+				.getMetadataElement("someTextVar");
+		assertEquals(someTextVar.getRegularExpression(), "^[0-9]*$");
+		assertNull(reloader.getLastReloadException());
+	}
+
+	@Test
+	public void testStartWatchingAgainStopsPreviousWatch() throws Exception {
+		reloader.reloadChangedElements();
+		List<Thread> watchThreads = new ArrayList<>();
+		Executor executor = runnable -> {
+			Thread thread = new Thread(runnable);
+			watchThreads.add(thread);
+			thread.start();
+		};
+		reloader.startWatching(executor);
+
+		reloader.startWatching(executor);
+
+		watchThreads.get(0).join(WAIT_FOR_RELOAD_MILLIS);
+		assertFalse(watchThreads.get(0).isAlive());
+		assertTrue(watchThreads.get(1).isAlive());
+		replaceSomeTextVarWithRegEx("^[0-9]*$");
+		waitForVersion(2);
+	}
+
+	private void waitForVersion(long version) throws InterruptedException {
+		long endTime = System.currentTimeMillis() + WAIT_FOR_RELOAD_MILLIS;
+		while (metadataHolderProvider.getCurrentVersion() < version
+				&& System.currentTimeMillis() < endTime) {
+			Thread.sleep(10);
+		}
+		assertEquals(metadataHolderProvider.getCurrentVersion(), version);
+	}
+
+	@Test
+	public void testFailedReloadWhenWatchingIsReported() throws Exception {
+		reloader.reloadChangedElements();
+		reloader.startWatching(runnable -> new Thread(runnable).start());
+
+		metadataStorage.addElementWithUnknownType("brokenElement");
+		writeMetadataStorageToDirectory();
+
+		long endTime = System.currentTimeMillis() + WAIT_FOR_RELOAD_MILLIS;
+		while (reloader.getLastReloadException() == null
+				&& System.currentTimeMillis() < endTime) {
+			Thread.sleep(10);
+		}
+		assertTrue(reloader.getLastReloadException() instanceof RuntimeException);
+		assertEquals(metadataHolderProvider.getCurrentVersion(), 1);
+	}
+
+	@Test
+	public void testFailedReloadWhenWatchingIsLoggedAndRetried() throws Exception {
+		reloader.reloadChangedElements();
+		List<LogRecord> logRecords = new CopyOnWriteArrayList<>();
+		Handler handler = createHandlerAddingTo(logRecords);
+		Logger logger = Logger.getLogger(MetadataDirectoryReloader.class.getName());
+		logger.addHandler(handler);
+		try {
+			reloader.startWatching(runnable -> new Thread(runnable).start());
+			metadataStorage.addElementWithUnknownType("brokenElement");
+			writeMetadataStorageToDirectory();
+			waitForLogRecord(logRecords);
+
+			metadataStorage.metadataElements.remove(metadataStorage.metadataElements.size() - 1);
+			replaceSomeTextVarWithRegEx("^[0-9]*$");
+			waitForVersion(2);
+		} finally {
+			logger.removeHandler(handler);
+		}
+
+		assertEquals(logRecords.get(0).getLevel(), Level.WARNING);
+		assertTrue(logRecords.get(0).getMessage().startsWith("Reloading metadata from "
+				+ directory + " failed, retrying in 100 ms"));
+		assertNull(reloader.getLastReloadException());
+	}
+
+	private Handler createHandlerAddingTo(List<LogRecord> logRecords) {
+		return new Handler() {
+			@Override
+			public void publish(LogRecord logRecord) {
+				if (logRecord.getMessage().contains(directory.toString())) {
+					logRecords.add(logRecord);
+				}
+			}
+
+			@Override
+			public void flush() {
+				// not needed for test
+			}
+
+			@Override
+			public void close() {
+				// not needed for test
+			}
+		};
+	}
+
+	private void waitForLogRecord(List<LogRecord> logRecords) throws InterruptedException {
+		long endTime = System.currentTimeMillis() + WAIT_FOR_RELOAD_MILLIS;
+		while (logRecords.isEmpty() && System.currentTimeMillis() < endTime) {
+			Thread.sleep(10);
+		}
+		assertFalse(logRecords.isEmpty());
+	}
+
+	@Test
+	public void testRetryDelayIsDoubledUpToMax() {
+		assertEquals(MetadataDirectoryReloader.calculateNextRetryDelay(0),
+				MetadataDirectoryReloader.INITIAL_RETRY_DELAY_MILLIS);
+		assertEquals(MetadataDirectoryReloader.calculateNextRetryDelay(100), 200);
+		assertEquals(MetadataDirectoryReloader.calculateNextRetryDelay(40000),
+				MetadataDirectoryReloader.MAX_RETRY_DELAY_MILLIS);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Uppsala University Library
+ *
+ * This file is part of Cora.
+ *
+ *     Cora is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     Cora is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with Cora.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.uu.ub.cora.bookkeeper.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.data.DataGroup;
+import se.uu.ub.cora.storage.MetadataStorage;
+
+public class MetadataStorageCallCounterSpy implements MetadataStorage {
+
+	public Map<String, Integer> numberOfCalls = new HashMap<>();
+	public List<DataGroup> metadataElements = new ArrayList<>();
+	public Runnable whileReadingMetadataElements;
+
+	@Override
+	public Collection<DataGroup> getMetadataElements() {
+		countCall("getMetadataElements");
+		List<DataGroup> readElements = new ArrayList<>(metadataElements);
+		if (whileReadingMetadataElements != null) {
+			whileReadingMetadataElements.run();
+		}
+		return readElements;
+	}
+
+	private void countCall(String methodName) {
+		numberOfCalls.merge(methodName, 1, Integer::sum);
+	}
+
+	@Override
+	public Collection<DataGroup> getPresentationElements() {
+		countCall("getPresentationElements");
+		return createListWithOneDataGroup("presentation");
+	}
+
+	private List<DataGroup> createListWithOneDataGroup(String nameInData) {
+		List<DataGroup> dataGroups = new ArrayList<>();
+		dataGroups.add(new DataGroupSpy(nameInData));
+		return dataGroups;
+	}
+
+	@Override
+	public Collection<DataGroup> getTexts() {
+		countCall("getTexts");
+		return createListWithOneDataGroup("text");
+	}
+
+	@Override
+	public Collection<DataGroup> getRecordTypes() {
+		countCall("getRecordTypes");
+		return createListWithOneDataGroup("recordType");
+	}
+
+	@Override
+	public Collection<DataGroup> getCollectTerms() {
+		countCall("getCollectTerms");
+		return createListWithOneDataGroup("collectTerm");
+	}
+
+	public int getNumberOfCallsTo(String methodName) {
+		return numberOfCalls.getOrDefault(methodName, 0);
+	}
+}
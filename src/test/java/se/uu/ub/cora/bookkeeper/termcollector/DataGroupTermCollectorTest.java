@@ -32,6 +32,8 @@ import se.uu.ub.cora.bookkeeper.DataGroupSpy;
 import se.uu.ub.cora.bookkeeper.linkcollector.DataAtomicFactorySpy;
 import se.uu.ub.cora.bookkeeper.linkcollector.DataGroupFactorySpy;
 import se.uu.ub.cora.bookkeeper.metadata.CollectTermHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataConsistencyException;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataStorageSpy;
 import se.uu.ub.cora.bookkeeper.testdata.DataCreator;
 import se.uu.ub.cora.data.DataAtomicProvider;
 import se.uu.ub.cora.data.DataGroup;
@@ -65,6 +67,17 @@ public class DataGroupTermCollectorTest {
 		assertSame(collector.getMetadataStorage(), metadataStorage);
 	}
 
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "Metadata is inconsistent: Element bookGroup has child reference to missing element "
+			+ "missingTextVar")
+	public void testInconsistentMetadataIsReportedBeforeTermsAreCollected() {
+		MetadataStorageSpy inconsistentStorage = new MetadataStorageSpy();
+		inconsistentStorage.addGroup("bookGroup", "missingTextVar");
+		collector = new DataGroupTermCollectorImp(inconsistentStorage, collectedDataCreator);
+
+		collector.collectTerms("bookGroup", basicDataGroup);
+	}
+
 	@Test
 	public void testCollectedDataCreatorCalledAndDataGroupPassedOn() {
 		collector.collectTerms("bookGroup", basicDataGroup);
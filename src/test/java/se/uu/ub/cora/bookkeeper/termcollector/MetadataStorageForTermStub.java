@@ -55,6 +55,10 @@ public class MetadataStorageForTermStub implements MetadataStorage {
 
 		DataGroup otherBookLink = createOtherBookLink();
 		dataGroups.add(otherBookLink);
+		dataGroups.add(createTextVariableWithIdAndNameInData("linkedRecordIdTextVar",
+				"linkedRecordId"));
+		dataGroups.add(createTextVariableWithIdAndNameInData("linkedRepeatIdTextVar",
+				"linkedRepeatId"));
 
 		return dataGroups;
 	}
@@ -23,7 +23,9 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.testng.annotations.BeforeMethod;
@@ -37,6 +39,7 @@ import se.uu.ub.cora.bookkeeper.metadata.CollectionItem;
 import se.uu.ub.cora.bookkeeper.metadata.CollectionVariable;
 import se.uu.ub.cora.bookkeeper.metadata.ItemCollection;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataChildReference;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataConsistencyException;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
 import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
 import se.uu.ub.cora.bookkeeper.metadata.TextVariable;
@@ -104,7 +107,8 @@ public class DataGroupValidatorTest {
 				"The group should be valid");
 	}
 
-	@Test(expectedExceptions = DataValidationException.class)
+	@Test(expectedExceptions = MetadataConsistencyException.class, expectedExceptionsMessageRegExp = ""
+			+ "IdToChildThatDoesNotExist not found in metadataHolder")
 	public void testMetadataGroupThatRefersToMetadataChildThatDoesNotExist() {
 		MetadataHolder metadataHolder = new MetadataHolder();
 		MetadataGroup group = DataCreator.createMetaDataGroup("test", metadataHolder);
@@ -666,6 +670,32 @@ public class DataGroupValidatorTest {
 				"The group should be validate to false - same repeatId");
 	}
 
+	@Test
+	public void testManyRepeatedChildrenErrorMessagesInChildOrder() {
+		MetadataHolder metadataHolder = createMetadataGroupWithUnlimitedChild();
+		DataValidatorFactory dataValidatorFactory = new DataValidatorFactoryImp(recordTypeHolder,
+				metadataHolder);
+		DataElementValidator dataElementValidator = dataValidatorFactory.factor("testGroupId");
+
+		DataGroup dataGroup = new DataGroupSpy("testGroupNameInData");
+		for (int i = 0; i < 5000; i++) {
+			dataGroup.addChild(new DataAtomicSpy("text1NameInData", "10:10", String.valueOf(i)));
+		}
+		dataGroup.addChild(new DataAtomicSpy("unspecifiedNameInData", "10:10"));
+		dataGroup.addChild(new DataAtomicSpy("text1NameInData", "10:10", "17"));
+		dataGroup.addChild(new DataAtomicSpy("text1NameInData", "10:20", "18"));
+
+		ValidationAnswer validationAnswer = dataElementValidator.validateData(dataGroup);
+		List<String> errorMessages = new ArrayList<>(validationAnswer.getErrorMessages());
+		assertEquals(errorMessages.size(), 3);
+		assertEquals(errorMessages.get(0), "Repeatable child text1NameInData in group "
+				+ "testGroupNameInData must have unique repeatId: 17");
+		assertEquals(errorMessages.get(1), "Repeatable child text1NameInData in group "
+				+ "testGroupNameInData must have unique repeatId: 18");
+		assertEquals(errorMessages.get(2),
+				"Could not find metadata for child with nameInData: unspecifiedNameInData");
+	}
+
 	@Test
 	public void testRepeatIdWhereNotExpected() {
 		MetadataHolder metadataHolder = createMetadataGroupWithOneChild();
@@ -76,6 +76,21 @@ public class DataResourceLinkValidatorTest {
 		assertTrue(validationAnswer.dataIsValid());
 	}
 
+	@Test
+	public void testValidateUsesReplacedTextVariable() {
+		DataGroup dataResourceLink = DataCreator
+				.createResourceLinkGroupWithNameInDataAndStreamIdNameSizeType("master",
+						"imageBinary:123456", "adele.png", "123456", "application/png");
+		assertTrue(dataResourceLinkValidator.validateData(dataResourceLink).dataIsValid());
+
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression("streamIdTextVar",
+						"streamId", "streamIdTextVarText", "streamIdTextVarDefText",
+						"(^[0-9]{2,50}$)"));
+
+		validateAndAssertDataIsInvalid(dataResourceLink);
+	}
+
 	@Test
 	public void testValidateEmptyNameInData() {
 		DataGroup dataResourceLink = DataCreator
@@ -12,6 +12,10 @@ public class DataValidatorFactorySpy implements DataValidatorFactory {
 	public DataElementValidator factor(String elementId) {
 		factorWasCalled = true;
 		metadataIdSentToFactory = elementId;
+		return createValidator();
+	}
+
+	private DataElementValidator createValidator() {
 		if (throwError) {
 			throw DataValidationException.withMessage("Error from validatorFactorySpy");
 		}
@@ -21,4 +25,10 @@ public class DataValidatorFactorySpy implements DataValidatorFactory {
 		return elementValidator;
 	}
 
+	@Override
+	public DataElementValidator factorByIndex(int index) {
+		factorWasCalled = true;
+		return createValidator();
+	}
+
 }
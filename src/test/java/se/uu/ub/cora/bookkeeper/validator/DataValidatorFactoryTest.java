@@ -19,6 +19,7 @@
 
 package se.uu.ub.cora.bookkeeper.validator;
 
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
@@ -136,6 +137,93 @@ public class DataValidatorFactoryTest {
 		assertTrue(dataGroupValidator instanceof DataResourceLinkValidator);
 	}
 
+	@Test
+	public void testFactorReturnsSameValidatorForSameElement() {
+		metadataHolder.addMetadataElement(MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(
+				"metadataGroupId", "nameInData", "textId", "defTextId"));
+		DataElementValidator dataGroupValidator = dataValidatorFactory.factor("metadataGroupId");
+		assertSame(dataValidatorFactory.factor("metadataGroupId"), dataGroupValidator);
+	}
+
+	@Test
+	public void testFactorByIndexReturnsSameValidatorAsFactorById() {
+		metadataHolder.addMetadataElement(MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(
+				"metadataGroupId", "nameInData", "textId", "defTextId"));
+		DataElementValidator dataGroupValidator = dataValidatorFactory.factor("metadataGroupId");
+
+		int index = metadataHolder.getIndexOfMetadataElement("metadataGroupId");
+		assertSame(dataValidatorFactory.factorByIndex(index), dataGroupValidator);
+	}
+
+	@Test(expectedExceptions = DataValidationException.class, expectedExceptionsMessageRegExp = ""
+			+ "No validator created for element with index: 4711")
+	public void testFactorByIndexWithoutElementThrows() {
+		dataValidatorFactory.factorByIndex(4711);
+	}
+
+	@Test
+	public void testFactorCreatesNewValidatorWhenElementIsReplaced() {
+		metadataHolder.addMetadataElement(MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(
+				"metadataGroupId", "nameInData", "textId", "defTextId"));
+		DataElementValidator dataGroupValidator = dataValidatorFactory.factor("metadataGroupId");
+		MetadataGroup replacingGroup = MetadataGroup.withIdAndNameInDataAndTextIdAndDefTextId(
+				"metadataGroupId", "otherNameInData", "textId", "defTextId");
+		metadataHolder.addMetadataElement(replacingGroup);
+
+		DataGroupValidator newValidator = (DataGroupValidator) dataValidatorFactory
+				.factor("metadataGroupId");
+		assertNotSame(newValidator, dataGroupValidator);
+		assertSame(newValidator.getMetadataGroup(), replacingGroup);
+		assertSame(dataValidatorFactory.factor("metadataGroupId"), newValidator);
+	}
+
+	@Test
+	public void testRecordLinkValidatorCreatesTextVariableValidatorsOnce() {
+		TextVariable linkedRecordIdTextVar = TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(
+						"linkedRecordIdTextVar", "linkedRecordId", "textId", "defTextId", ".+");
+		metadataHolder.addMetadataElement(linkedRecordIdTextVar);
+		metadataHolder.addMetadataElement(
+				RecordLink.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType(
+						"recordLinkId", "nameInData", "textId", "defTextId", "someRecordType"));
+
+		DataRecordLinkValidator validator = (DataRecordLinkValidator) dataValidatorFactory
+				.factor("recordLinkId");
+		DataTextVariableValidator linkedRecordIdValidator = (DataTextVariableValidator) validator
+				.getLinkedRecordIdValidator();
+		assertSame(linkedRecordIdValidator.getTextVariable(), linkedRecordIdTextVar);
+
+		DataGroup dataRecordLink = new DataGroupSpy("nameInData");
+		dataRecordLink.addChild(new DataAtomicSpy("linkedRecordType", "someRecordType"));
+		dataRecordLink.addChild(new DataAtomicSpy("linkedRecordId", "someId"));
+		assertTrue(validator.validateData(dataRecordLink).dataIsValid());
+		assertTrue(validator.validateData(dataRecordLink).dataIsValid());
+		assertSame(validator.getLinkedRecordIdValidator(), linkedRecordIdValidator);
+	}
+
+	@Test
+	public void testRecordLinkValidatorUsesReplacedTextVariable() {
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(
+						"linkedRecordIdTextVar", "linkedRecordId", "textId", "defTextId", ".+"));
+		metadataHolder.addMetadataElement(
+				RecordLink.withIdAndNameInDataAndTextIdAndDefTextIdAndLinkedRecordType(
+						"recordLinkId", "nameInData", "textId", "defTextId", "someRecordType"));
+		DataElementValidator validator = dataValidatorFactory.factor("recordLinkId");
+		DataGroup dataRecordLink = new DataGroupSpy("nameInData");
+		dataRecordLink.addChild(new DataAtomicSpy("linkedRecordType", "someRecordType"));
+		dataRecordLink.addChild(new DataAtomicSpy("linkedRecordId", "someId"));
+		assertTrue(validator.validateData(dataRecordLink).dataIsValid());
+
+		metadataHolder.addMetadataElement(TextVariable
+				.withIdAndNameInDataAndTextIdAndDefTextIdAndRegularExpression(
+						"linkedRecordIdTextVar", "linkedRecordId", "textId", "defTextId",
+						"^[0-9]+$"));
+
+		assertSame(dataValidatorFactory.factor("recordLinkId"), validator);
+		assertTrue(validator.validateData(dataRecordLink).dataIsInvalid());
+	}
+
 	@Test(expectedExceptions = DataValidationException.class)
 	public void testNotIdFound() {
 		dataValidatorFactory.factor("elementNotFound");
@@ -21,16 +21,28 @@ package se.uu.ub.cora.bookkeeper.validator;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import se.uu.ub.cora.bookkeeper.DataAtomicSpy;
 import se.uu.ub.cora.bookkeeper.DataGroupSpy;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataGroup;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolder;
+import se.uu.ub.cora.bookkeeper.metadata.MetadataHolderProvider;
+import se.uu.ub.cora.bookkeeper.testdata.DataCreator;
 import se.uu.ub.cora.data.DataGroup;
 import se.uu.ub.cora.storage.MetadataStorage;
 
@@ -128,4 +140,105 @@ public class DataValidatorTest {
 		assertSame(dataValidator.getDataValidatorFactory(), validatorFactory);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testValidatorUsingMetadataHolderProviderUsesCurrentVersion() {
+		MetadataHolderProvider metadataHolderProvider = MetadataHolderProvider
+				.usingMetadataHolderSupplier(this::createMetadataHolderForGroup);
+		DataValidatorImp providerValidator = DataValidatorImp
+				.usingMetadataHolderProviderAndRecordTypeHolder(metadataHolderProvider,
+						new HashMap<>());
+		DataGroup validDataGroup = createDataGroupForTask(0, true);
+
+		assertSame(providerValidator.getMetadataHolderProvider(), metadataHolderProvider);
+		assertTrue(providerValidator.validateData("testGroupId", validDataGroup).dataIsValid());
+		DataValidatorFactory firstFactory = providerValidator.getDataValidatorFactory();
+		assertSame(providerValidator.getDataValidatorFactory(), firstFactory);
+		assertSame(((DataValidatorFactoryImp) firstFactory).getMetadataHolder(),
+				metadataHolderProvider.getMetadataHolder());
+
+		metadataHolderProvider.publish(new MetadataHolder());
+
+		DataValidatorFactory secondFactory = providerValidator.getDataValidatorFactory();
+		assertNotSame(secondFactory, firstFactory);
+		assertSame(((DataValidatorFactoryImp) secondFactory).getMetadataHolder(),
+				metadataHolderProvider.getMetadataHolder());
+		assertFalse(providerValidator.validateData("testGroupId", validDataGroup).dataIsValid());
+	}
+
+	@Test
+	public void testSharedValidatorIsSafeForConcurrentValidation() throws Exception {
+		DataValidatorImp sharedValidator = new DataValidatorImp(metadataStorage,
+				new DataValidatorFactoryImp(new HashMap<>(), createMetadataHolderForGroup()));
+		int numOfTasks = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		CountDownLatch startSignal = new CountDownLatch(1);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int taskNo = 0; taskNo < numOfTasks; taskNo++) {
+				int task = taskNo;
+				results.add(executor.submit(() -> validateRepeatedlyAndGetFirstError(
+						sharedValidator, startSignal, task)));
+			}
+			startSignal.countDown();
+			for (Future<String> result : results) {
+				assertEquals(result.get(60, TimeUnit.SECONDS), "");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private MetadataHolder createMetadataHolderForGroup() {
+		MetadataHolder metadataHolder = new MetadataHolder();
+		MetadataGroup group = DataCreator.createMetaDataGroup("test", metadataHolder);
+		DataCreator.addUnlimitedTextVarChildReferenceToGroup("text1", group, metadataHolder);
+		DataCreator.addOnlyOneTextVarChildReferenceToGroup("text2", group, metadataHolder);
+		MetadataGroup innerGroup = DataCreator.createMetaDataGroup("inner", metadataHolder);
+		DataCreator.addOnlyOneTextVarChildReferenceToGroup("text3", innerGroup, metadataHolder);
+		DataCreator.addDataGroupAsMetadataChildReferenceToParent(innerGroup, group);
+		metadataHolder.resolveReferences();
+		return metadataHolder;
+	}
+
+	private String validateRepeatedlyAndGetFirstError(DataValidator validator,
+			CountDownLatch startSignal, int task) throws InterruptedException {
+		boolean shouldBeValid = task % 2 == 0;
+		DataGroup dataGroup = createDataGroupForTask(task, shouldBeValid);
+		startSignal.await();
+		for (int i = 0; i < 50; i++) {
+			ValidationAnswer validationAnswer = validator.validateData("testGroupId", dataGroup);
+			String error = checkAnswer(validationAnswer, task, shouldBeValid);
+			if (!error.isEmpty()) {
+				return error;
+			}
+		}
+		return "";
+	}
+
+	private DataGroup createDataGroupForTask(int task, boolean shouldBeValid) {
+		DataGroup dataGroup = new DataGroupSpy("testGroupNameInData");
+		for (int repeatId = 0; repeatId < 10; repeatId++) {
+			dataGroup.addChild(
+					new DataAtomicSpy("text1NameInData", "10:10", String.valueOf(repeatId)));
+		}
+		dataGroup.addChild(new DataAtomicSpy("text2NameInData",
+				shouldBeValid ? "12:00" : "invalid" + task));
+		DataGroup innerGroup = new DataGroupSpy("innerGroupNameInData");
+		innerGroup.addChild(new DataAtomicSpy("text3NameInData", "23:59"));
+		dataGroup.addChild(innerGroup);
+		return dataGroup;
+	}
+
+	private String checkAnswer(ValidationAnswer validationAnswer, int task,
+			boolean shouldBeValid) {
+		List<String> errorMessages = getErrorMessagesAsList(validationAnswer);
+		if (shouldBeValid && !errorMessages.isEmpty()) {
+			return "task " + task + " got unexpected errors: " + errorMessages;
+		}
+		if (!shouldBeValid && (errorMessages.size() != 1
+				|| !errorMessages.get(0).endsWith("does not match:invalid" + task))) {
+			return "task " + task + " got wrong errors: " + errorMessages;
+		}
+		return "";
+	}
+}
@@ -31,9 +31,11 @@ import se.uu.ub.cora.storage.MetadataStorage;
 public class MetadataStorageStub implements MetadataStorage {
 
 	private List<DataGroup> dataGroups;
+	public int numberOfCallsToGetMetadataElements = 0;
 
 	@Override
 	public Collection<DataGroup> getMetadataElements() {
+		numberOfCallsToGetMetadataElements++;
 		dataGroups = new ArrayList<>();
 
 		// textVar2
@@ -288,6 +290,22 @@ public class MetadataStorageStub implements MetadataStorage {
 
 		dataGroups.add(linkedRecordIdTextVar);
 
+		// linkedRepeatId (textVar)
+		DataGroup linkedRepeatIdTextVar = new DataGroupSpy("metadata");
+		linkedRepeatIdTextVar.addAttributeByIdWithValue("type", "textVariable");
+
+		DataGroup linkedRepeatIdTextVarRecordInfo = new DataGroupSpy("recordInfo");
+		linkedRepeatIdTextVarRecordInfo
+				.addChild(new DataAtomicSpy("id", "linkedRepeatIdTextVar"));
+		linkedRepeatIdTextVar.addChild(linkedRepeatIdTextVarRecordInfo);
+
+		linkedRepeatIdTextVar.addChild(new DataAtomicSpy("nameInData", "linkedRepeatId"));
+		addTextByNameInDataAndId(linkedRepeatIdTextVar, "textId", "textVarText");
+		addTextByNameInDataAndId(linkedRepeatIdTextVar, "defTextId", "textVarDefText");
+		linkedRepeatIdTextVar.addChild(new DataAtomicSpy("regEx", "((.*)|^$){1}"));
+
+		dataGroups.add(linkedRepeatIdTextVar);
+
 		addDataToDataMetadata();
 		return dataGroups;
 	}